@@ -90,6 +90,10 @@ android {
             useLegacyPackaging = true
         }
     }
+    testOptions {
+        // host tests run code that logs, android.jar's stubs would throw
+        unitTests.isReturnDefaultValues = true
+    }
   ndkVersion = "27.3.13750724"
 }
 
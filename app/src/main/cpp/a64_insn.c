@@ -0,0 +1,112 @@
+#include "a64_insn.h"
+
+uint32_t base_mov_reg(uint8_t sf, uint8_t Rm, uint8_t Rd) {
+    return ((sf & 0x1) << 31) | (0b0101010000 << 21) | ((Rm & 0x1F) << 16) | (0b00000011111 << 5) | (Rd & 0x1F);
+}
+
+uint32_t base_mov_sp(uint8_t sf, uint8_t Rn, uint8_t Rd) {
+    return ((sf & 0x1) << 31) | (0b001000100000000000000 << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+}
+
+uint32_t base_movz(uint8_t sf, uint8_t hw, uint16_t imm16, uint8_t rd) {
+    return ((sf & 0x1) << 31) | (0b10100101 << 23) | ((hw & 0x3) << 21) | ((imm16 & 0xFFFF) << 5) | (rd & 0x1F);
+}
+uint32_t base_movk(uint8_t sf, uint8_t hw, uint16_t imm16, uint8_t rd) {
+    return ((sf & 0x1) << 31) | (0b11100101 << 23) | ((hw & 0x3) << 21) | ((imm16 & 0xFFFF) << 5) | (rd & 0x1F);
+}
+
+uint32_t base_stp_prei(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
+    return ((sf & 0x1) << 31) | (0b010100110 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+uint32_t base_stp(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
+    return ((sf & 0x1) << 31) | (0b010100100 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t base_ldp(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
+    return ((sf & 0x1) << 31) | (0b010100101 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t base_ldp_posti(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
+    return ((sf & 0x1) << 31) | (0b010100011 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t base_adr(int32_t imm21, uint8_t Rd) {
+    return ((imm21 & 0x3) << 29) | (0b10000 << 24) | (((imm21 >> 2) & 0x7FFFF) << 5) | (Rd & 0x1F);
+}
+
+uint32_t base_br(uint8_t Rn) {
+    return (0b1101011000011111000000 << 10) | ((Rn & 0x1F) << 5);
+}
+
+uint32_t base_brk(uint16_t imm16) {
+    return (0b11010100001 << 21) | ((imm16 & 0xFFFF) << 5);
+}
+
+uint32_t base_add_reg(uint8_t sf, uint8_t Rm, uint8_t Rn, uint8_t Rd) {
+    return ((sf & 0x1) << 31) | (0b0001011000 << 21) | ((Rm & 0x1F) << 16) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+}
+
+uint32_t base_sub_reg(uint8_t sf, uint8_t Rm, uint8_t Rn, uint8_t Rd) {
+    return ((sf & 0x1) << 31) | (0b1001011000 << 21) | ((Rm & 0x1F) << 16) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+}
+
+uint32_t base_ldxr(uint8_t sf, uint8_t Rn, uint8_t Rt) {
+    return (0b1 << 31) | ((sf & 0x1) << 30) | (0b00100001011111011111 << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t base_stxr(uint8_t sf, uint8_t Rs, uint8_t Rn, uint8_t Rt) {
+    return (0b1 << 31) | ((sf & 0x1) << 30) | (0b00100000 << 22) | ((Rs & 0x1F) << 16) | (0b011111 << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t base_cbnz(uint8_t sf, int32_t imm19, uint8_t Rt) {
+    return ((sf & 0x1) << 31) | (0b0110101 << 24) | ((imm19 & 0x7FFFF) << 5) | (Rt & 0x1F);
+}
+
+// mrs Rt, cntvct_el0
+uint32_t sys_mrs_cntvct(uint8_t Rt) {
+    return 0xD53BE040 | (Rt & 0x1F);
+}
+
+uint32_t base_blr(uint8_t Rn) {
+    return (0b1101011000111111000000 << 10) | ((Rn & 0x1F) << 5);
+}
+
+uint32_t base_ret(uint8_t Rn) {
+    return (0b1101011001011111000000 << 10 ) | ((Rn & 0x1F) << 5);
+}
+
+uint32_t base_sub_imm(uint8_t sf, uint8_t sh, uint16_t imm12, uint8_t Rn, uint8_t Rd) {
+    return ((sf & 0x1) << 31) | (0b10100010 << 23) | ((sh & 0x1) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+}
+uint32_t base_add_imm(uint8_t sf, uint8_t sh, uint16_t imm12, uint8_t Rn, uint8_t Rd) {
+    return ((sf & 0x1) << 31) | (0b00100010 << 23) | ((sh & 0x1) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+}
+
+uint32_t base_str_imm(uint8_t sf, uint16_t imm12, uint8_t Rn, uint8_t Rt) {
+    return (0b1 << 31) | ((sf & 0x1) << 30) | (0b11100100 << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t base_ldr_imm(uint8_t sf, uint16_t imm12, uint8_t Rn, uint8_t Rd) {
+    uint32_t insn = (0b1 << 31) | ((sf & 0x1) << 30) | (0b11100101 << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+    return  insn;
+}
+
+uint32_t base_strb_imm(uint16_t imm12, uint8_t Rn, uint8_t Rt) {
+    return (0b0011100100 << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t simd_mov_vec(uint8_t Q, uint8_t Rm, uint8_t Rn, uint8_t Rd) {
+    return (0b0 << 31) | ((Q & 0x1) << 30) | (0b001110101 << 21) | ((Rm & 0x1F) << 16) | (0b000111 << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+}
+
+uint32_t simd_str_imm(uint8_t size, uint8_t opc, uint16_t imm12, uint8_t Rn, uint8_t Rt) {
+    return ((size & 0x3) << 30) | (0b111101 << 24) | ((opc & 0b11) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t simd_ldr_imm(uint8_t size, uint8_t opc, uint16_t imm12, uint8_t Rn, uint8_t Rt) {
+    return ((size & 0b11) << 30) | (0b111101 << 24) | ((opc & 0b11) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
+}
+
+uint32_t simd_fcvt(uint8_t ftype, uint8_t opc, uint8_t Rn, uint8_t Rd) {
+    return (0b00011110 << 24) | ((ftype & 0b11) << 22) | (0b10001 << 17) | ((opc & 0b11) << 15) | (0b10000 << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
+}
@@ -0,0 +1,86 @@
+#ifndef ZOMDROID_A64_INSN_H
+#define ZOMDROID_A64_INSN_H
+
+#include <stdint.h>
+
+/*
+ * Encoders of the AArch64 instructions the JNI trampolines are assembled from. Operands are masked
+ * to their field width, so an out-of-range immediate wraps instead of spilling into other fields.
+ */
+
+#define A64_SF_32 0
+#define A64_SF_64 1
+#define A64_REG_0 0
+#define A64_REG_1 1
+#define A64_REG_2 2
+#define A64_REG_9 9
+#define A64_REG_10 10
+#define A64_REG_11 11
+#define A64_REG_12 12
+#define A64_REG_13 13
+#define A64_REG_14 14
+#define A64_REG_16 16
+#define A64_REG_17 17
+#define A64_REG_18 18
+#define A64_REG_29 29
+#define A64_REG_30 30
+#define A64_REG_SP 31
+
+uint32_t base_mov_reg(uint8_t sf, uint8_t Rm, uint8_t Rd);
+
+uint32_t base_mov_sp(uint8_t sf, uint8_t Rn, uint8_t Rd);
+
+uint32_t base_movz(uint8_t sf, uint8_t hw, uint16_t imm16, uint8_t rd);
+
+uint32_t base_movk(uint8_t sf, uint8_t hw, uint16_t imm16, uint8_t rd);
+
+uint32_t base_stp_prei(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt);
+
+uint32_t base_stp(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt);
+
+uint32_t base_ldp(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt);
+
+uint32_t base_ldp_posti(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt);
+
+uint32_t base_adr(int32_t imm21, uint8_t Rd);
+
+uint32_t base_br(uint8_t Rn);
+
+uint32_t base_brk(uint16_t imm16);
+
+uint32_t base_add_reg(uint8_t sf, uint8_t Rm, uint8_t Rn, uint8_t Rd);
+
+uint32_t base_sub_reg(uint8_t sf, uint8_t Rm, uint8_t Rn, uint8_t Rd);
+
+uint32_t base_ldxr(uint8_t sf, uint8_t Rn, uint8_t Rt);
+
+uint32_t base_stxr(uint8_t sf, uint8_t Rs, uint8_t Rn, uint8_t Rt);
+
+uint32_t base_cbnz(uint8_t sf, int32_t imm19, uint8_t Rt);
+
+// mrs Rt, cntvct_el0
+uint32_t sys_mrs_cntvct(uint8_t Rt);
+
+uint32_t base_blr(uint8_t Rn);
+
+uint32_t base_ret(uint8_t Rn);
+
+uint32_t base_sub_imm(uint8_t sf, uint8_t sh, uint16_t imm12, uint8_t Rn, uint8_t Rd);
+
+uint32_t base_add_imm(uint8_t sf, uint8_t sh, uint16_t imm12, uint8_t Rn, uint8_t Rd);
+
+uint32_t base_str_imm(uint8_t sf, uint16_t imm12, uint8_t Rn, uint8_t Rt);
+
+uint32_t base_ldr_imm(uint8_t sf, uint16_t imm12, uint8_t Rn, uint8_t Rd);
+
+uint32_t base_strb_imm(uint16_t imm12, uint8_t Rn, uint8_t Rt);
+
+uint32_t simd_mov_vec(uint8_t Q, uint8_t Rm, uint8_t Rn, uint8_t Rd);
+
+uint32_t simd_str_imm(uint8_t size, uint8_t opc, uint16_t imm12, uint8_t Rn, uint8_t Rt);
+
+uint32_t simd_ldr_imm(uint8_t size, uint8_t opc, uint16_t imm12, uint8_t Rn, uint8_t Rt);
+
+uint32_t simd_fcvt(uint8_t ftype, uint8_t opc, uint8_t Rn, uint8_t Rd);
+
+#endif //ZOMDROID_A64_INSN_H
@@ -1,13 +1,19 @@
 #include <string.h>
 #include <malloc.h>
 #include <dlfcn.h>
-#include <sys/mman.h>
 #include <errno.h>
+#include <pthread.h>
+#include <stddef.h>
 #include <stdlib.h>
+#include <unistd.h>
 
 #include "logger.h"
 #include "wrapped_jni.h"
 #include "emulation.h"
+#include "startup_trace.h"
+#include "trampoline_arena.h"
+#include "jni_profile.h"
+#include "a64_insn.h"
 
 #include "box64/src/include/box64context.h"
 #include "box64/src/include/x64emu.h"
@@ -18,95 +24,30 @@
 
 #define LOG_TAG "zomdroid-emu"
 
-#define A64_SF_32 0
-#define A64_SF_64 1
-#define A64_REG_0 0
-#define A64_REG_1 1
-#define A64_REG_2 2
-#define A64_REG_18 18
-#define A64_REG_29 29
-#define A64_REG_30 30
-#define A64_REG_SP 31
-
-static long page_size;
+/* Reads BOX64_RCFILE in box64's main. Weak because not every build of the box64 fork has rc file
+ * support, without it the per library profiles are just not applied. */
+extern void InitializeEnvFiles(void) __attribute__((weak));
+
 uint64_t g_wrapped_jni_env;
 uint64_t g_wrapped_jvm;
 
-uint32_t base_mov_reg(uint8_t sf, uint8_t Rm, uint8_t Rd) {
-    return ((sf & 0x1) << 31) | (0b0101010000 << 21) | ((Rm & 0x1F) << 16) | (0b00000011111 << 5) | (Rd & 0x1F);
-}
-
-uint32_t base_mov_sp(uint8_t sf, uint8_t Rn, uint8_t Rd) {
-    return ((sf & 0x1) << 31) | (0b001000100000000000000 << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
-}
-
-uint32_t base_movz(uint8_t sf, uint8_t hw, uint16_t imm16, uint8_t rd) {
-    return ((sf & 0x1) << 31) | (0b10100101 << 23) | ((hw & 0x3) << 21) | ((imm16 & 0xFFFF) << 5) | (rd & 0x1F);
-}
-uint32_t base_movk(uint8_t sf, uint8_t hw, uint16_t imm16, uint8_t rd) {
-    return ((sf & 0x1) << 31) | (0b11100101 << 23) | ((hw & 0x3) << 21) | ((imm16 & 0xFFFF) << 5) | (rd & 0x1F);
-}
-
-uint32_t base_stp_prei(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
-    return ((sf & 0x1) << 31) | (0b010100110 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-uint32_t base_stp(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
-    return ((sf & 0x1) << 31) | (0b010100100 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-
-uint32_t base_ldp(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
-    return ((sf & 0x1) << 31) | (0b010100101 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-
-uint32_t base_ldp_posti(uint8_t sf, int8_t imm7, uint8_t Rt2, uint8_t Rn, uint8_t Rt) {
-    return ((sf & 0x1) << 31) | (0b010100011 << 22) | ((imm7 & 0x7F) << 15) | ((Rt2 & 0x1F) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-
-uint32_t base_blr(uint8_t Rn) {
-    return (0b1101011000111111000000 << 10) | ((Rn & 0x1F) << 5);
-}
-
-uint32_t base_ret(uint8_t Rn) {
-    return (0b1101011001011111000000 << 10 ) | ((Rn & 0x1F) << 5);
-}
-
-uint32_t base_sub_imm(uint8_t sf, uint8_t sh, uint16_t imm12, uint8_t Rn, uint8_t Rd) {
-    return ((sf & 0x1) << 31) | (0b10100010 << 23) | ((sh & 0x1) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
-}
-uint32_t base_add_imm(uint8_t sf, uint8_t sh, uint16_t imm12, uint8_t Rn, uint8_t Rd) {
-    return ((sf & 0x1) << 31) | (0b00100010 << 23) | ((sh & 0x1) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
-}
-
-uint32_t base_str_imm(uint8_t sf, uint16_t imm12, uint8_t Rn, uint8_t Rt) {
-    return (0b1 << 31) | ((sf & 0x1) << 30) | (0b11100100 << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-
-uint32_t base_ldr_imm(uint8_t sf, uint16_t imm12, uint8_t Rn, uint8_t Rd) {
-    uint32_t insn = (0b1 << 31) | ((sf & 0x1) << 30) | (0b11100101 << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
-    return  insn;
-}
-
-uint32_t base_strb_imm(uint16_t imm12, uint8_t Rn, uint8_t Rt) {
-    return (0b0011100100 << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-
-uint32_t simd_mov_vec(uint8_t Q, uint8_t Rm, uint8_t Rn, uint8_t Rd) {
-    return (0b0 << 31) | ((Q & 0x1) << 30) | (0b001110101 << 21) | ((Rm & 0x1F) << 16) | (0b000111 << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
-}
-
-uint32_t simd_str_imm(uint8_t size, uint8_t opc, uint16_t imm12, uint8_t Rn, uint8_t Rt) {
-    return ((size & 0x3) << 30) | (0b111101 << 24) | ((opc & 0b11) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-
-uint32_t simd_ldr_imm(uint8_t size, uint8_t opc, uint16_t imm12, uint8_t Rn, uint8_t Rt) {
-    return ((size & 0b11) << 30) | (0b111101 << 24) | ((opc & 0b11) << 22) | ((imm12 & 0xFFF) << 10) | ((Rn & 0x1F) << 5) | (Rt & 0x1F);
-}
-
-uint32_t simd_fcvt(uint8_t ftype, uint8_t opc, uint8_t Rn, uint8_t Rd) {
-    return (0b00011110 << 24) | ((ftype & 0b11) << 22) | (0b10001 << 17) | ((opc & 0b11) << 15) | (0b10000 << 10) | ((Rn & 0x1F) << 5) | (Rd & 0x1F);
-}
-
-static void assemble_box64_jni_trampoline(uint32_t** code, int* code_size, const char* signature, char returnType, uint64_t emulated_fn) {
+/* Data of one bridged symbol. Its entry point is a thunk that loads the address of the slot into x17
+ * and branches to the shared body, x16 and x17 are intra-procedure-call scratch so no caller expects
+ * them preserved. Thunks come a page at a time, made executable once, and their slots are on the
+ * pages after it that stay writable, so bridging a symbol doesn't make a page executable of its own. */
+typedef struct {
+    uint64_t emulated_fn;
+    uint64_t stub;
+    uint64_t profile; // JniProfileEntry*, only read by profiled stubs
+} ThunkSlot;
+
+#define THUNK_SIZE 16
+#define SLOT_OFFSET(field) offsetof(ThunkSlot, field)
+
+/* Shared by all symbols with the same argument types, the emulated function comes from the data slot
+ * of the thunk that branched here, addressed by x17. Profiled stubs also time the call and add it to
+ * the profile entry of the slot. */
+static void assemble_box64_jni_trampoline(uint32_t** code, int* code_size, const char* signature, char returnType, bool profiled) {
     // Rewritten to avoid realloc() per instruction:
     // - Uses a growable buffer (capacity doubles when needed)
     // - Reduces heap fragmentation and makes generation O(N) instead of O(N^2)
@@ -191,8 +132,9 @@ static void assemble_box64_jni_trampoline(uint32_t** code, int* code_size, const
     if (df64_argc > 8 - df64_reserved) fp_offset += (df64_argc + df64_reserved - 8) * 8;
     fp_offset += (i64_argc_stack + df64_argc_stack) * 8;
 
-    // allocate stack
-    int stack_size = fp_offset + 16 + argc + 1;
+    // allocate stack, profiled stubs keep the start time and slot after the signature
+    int profile_offset = (fp_offset + 16 + argc + 1 + 7) & ~7;
+    int stack_size = profiled ? profile_offset + 16 : fp_offset + 16 + argc + 1;
     stack_size = (stack_size + 15) & ~15;
     if (fp_offset > 0) {
         ADD_INSN(base_sub_imm(A64_SF_64, 0, stack_size, A64_REG_SP, A64_REG_SP));
@@ -203,6 +145,12 @@ static void assemble_box64_jni_trampoline(uint32_t** code, int* code_size, const
         ADD_INSN(base_mov_sp(A64_SF_64, A64_REG_SP, A64_REG_29));
     }
 
+    if (profiled) {
+        ADD_INSN(sys_mrs_cntvct(A64_REG_16));
+        ADD_INSN(base_str_imm(A64_SF_64, profile_offset / 8, A64_REG_SP, A64_REG_16));
+        ADD_INSN(base_str_imm(A64_SF_64, profile_offset / 8 + 1, A64_REG_SP, A64_REG_17));
+    }
+
     // overwrite first arg (JNIEnv*) with our wrapper
     ADD_INSN(base_movz(A64_SF_64, 0, g_wrapped_jni_env & 0xFFFF, A64_REG_0));
     ADD_INSN(base_movk(A64_SF_64, 1, (g_wrapped_jni_env >> 16) & 0xFFFF, A64_REG_0));
@@ -317,11 +265,8 @@ static void assemble_box64_jni_trampoline(uint32_t** code, int* code_size, const
         }
     }
 
-    // put first reserved arg - emulated function ptr
-    ADD_INSN(base_movz(A64_SF_64, 0, emulated_fn & 0xFFFF, A64_REG_0));
-    ADD_INSN(base_movk(A64_SF_64, 1, (emulated_fn >> 16) & 0xFFFF, A64_REG_0));
-    ADD_INSN(base_movk(A64_SF_64, 2, (emulated_fn >> 32) & 0xFFFF, A64_REG_0));
-    ADD_INSN(base_movk(A64_SF_64, 3, (emulated_fn >> 48) & 0xFFFF, A64_REG_0));
+    // put first reserved arg - emulated function ptr, x17 is left alone by everything above
+    ADD_INSN(base_ldr_imm(A64_SF_64, 0, A64_REG_17, A64_REG_0));
 
     // put second reserved arg - emulated function signature
     int signature_offset = fp_offset + 16;
@@ -360,6 +305,26 @@ static void assemble_box64_jni_trampoline(uint32_t** code, int* code_size, const
     ADD_INSN(base_movk(A64_SF_64, 3, ((uint64_t) &RunFunctionFmt >> 48) & 0xFFFF, A64_REG_18));
     ADD_INSN(base_blr(A64_REG_18));
 
+    // add to the profile entry, only caller saved registers that don't hold the return value are used
+    if (profiled) {
+        ADD_INSN(sys_mrs_cntvct(A64_REG_9));
+        ADD_INSN(base_ldr_imm(A64_SF_64, profile_offset / 8, A64_REG_SP, A64_REG_10));
+        ADD_INSN(base_ldr_imm(A64_SF_64, profile_offset / 8 + 1, A64_REG_SP, A64_REG_11));
+        ADD_INSN(base_sub_reg(A64_SF_64, A64_REG_10, A64_REG_9, A64_REG_9));
+        ADD_INSN(base_ldr_imm(A64_SF_64, SLOT_OFFSET(profile) / 8, A64_REG_11, A64_REG_12));
+        // calls += 1
+        ADD_INSN(base_ldxr(A64_SF_64, A64_REG_12, A64_REG_13));
+        ADD_INSN(base_add_imm(A64_SF_64, 0, 1, A64_REG_13, A64_REG_13));
+        ADD_INSN(base_stxr(A64_SF_64, A64_REG_14, A64_REG_12, A64_REG_13));
+        ADD_INSN(base_cbnz(A64_SF_32, -3, A64_REG_14));
+        // ticks += elapsed
+        ADD_INSN(base_add_imm(A64_SF_64, 0, offsetof(JniProfileEntry, ticks), A64_REG_12, A64_REG_12));
+        ADD_INSN(base_ldxr(A64_SF_64, A64_REG_12, A64_REG_13));
+        ADD_INSN(base_add_reg(A64_SF_64, A64_REG_9, A64_REG_13, A64_REG_13));
+        ADD_INSN(base_stxr(A64_SF_64, A64_REG_14, A64_REG_12, A64_REG_13));
+        ADD_INSN(base_cbnz(A64_SF_32, -3, A64_REG_14));
+    }
+
     // free stack
     if (fp_offset > 0) {
         ADD_INSN(base_ldp(A64_SF_64, fp_offset / 8, A64_REG_30, A64_REG_SP, A64_REG_29));
@@ -375,64 +340,144 @@ static void assemble_box64_jni_trampoline(uint32_t** code, int* code_size, const
 #undef ENSURE_CAPACITY
 }
 
-void* zomdroid_emulation_bridge_jni_symbol(EmulatedLib *lib, uint64_t fn, const char* arg_types, char ret_type) {
-    uint32_t* code = NULL;
-    int code_size = 0;
-    assemble_box64_jni_trampoline(&code, &code_size, arg_types, ret_type, fn);
+typedef struct {
+    char* arg_types;
+    void* stub;
+} SharedStub;
+
+// open addressing, keyed by argument types, the return type isn't part of the generated code
+static SharedStub* g_stubs;
+static size_t g_stub_capacity;
+static size_t g_stub_count;
+static pthread_mutex_t g_bridge_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+static uint32_t hash_arg_types(const char* s) {
+    uint32_t h = 2166136261u;
+    for (; *s; s++) {
+        h ^= (unsigned char) *s;
+        h *= 16777619u;
+    }
+    return h;
+}
+
+static void* find_shared_stub(const char* arg_types) {
+    if (g_stub_capacity == 0) return NULL;
+    for (size_t i = hash_arg_types(arg_types) & (g_stub_capacity - 1);; i = (i + 1) & (g_stub_capacity - 1)) {
+        if (g_stubs[i].arg_types == NULL) return NULL;
+        if (strcmp(g_stubs[i].arg_types, arg_types) == 0) return g_stubs[i].stub;
+    }
+}
 
-    void* mem = NULL;
+static void insert_shared_stub(SharedStub* stubs, size_t capacity, SharedStub stub) {
+    size_t i = hash_arg_types(stub.arg_types) & (capacity - 1);
+    while (stubs[i].arg_types != NULL) i = (i + 1) & (capacity - 1);
+    stubs[i] = stub;
+}
 
-    // find a page with enough space for the code
-    for (int i = 0; i < lib->page_count; i++) {
-        if (lib->page_code_size[i] + code_size <= page_size) {
-            mem = lib->mapped_pages[i] + lib->page_code_size[i];
-            lib->page_code_size[i] += code_size;
-            break;
+static int add_shared_stub(const char* arg_types, void* stub) {
+    if ((g_stub_count + 1) * 4 > g_stub_capacity * 3) {
+        size_t capacity = g_stub_capacity ? g_stub_capacity * 2 : 64;
+        SharedStub* stubs = calloc(capacity, sizeof(SharedStub));
+        if (stubs == NULL) return -1;
+        for (size_t i = 0; i < g_stub_capacity; i++) {
+            if (g_stubs[i].arg_types != NULL) insert_shared_stub(stubs, capacity, g_stubs[i]);
         }
+        free(g_stubs);
+        g_stubs = stubs;
+        g_stub_capacity = capacity;
     }
+    char* key = strdup(arg_types);
+    if (key == NULL) return -1;
+    insert_shared_stub(g_stubs, g_stub_capacity, (SharedStub) { .arg_types = key, .stub = stub });
+    g_stub_count++;
+    return 0;
+}
 
-    // or allocate a new one
-    if (mem == NULL) {
-        mem = mmap(NULL, page_size, PROT_WRITE | PROT_EXEC, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
-        if (mem == MAP_FAILED) {
-            LOGE("Failed to mmap memory: %s", strerror(errno));
-            free(code);
-            return NULL;
-        }
+static uint8_t* g_thunks_rx;
+static ThunkSlot* g_thunk_slots_rw;
+static size_t g_thunk_count;
+static size_t g_thunks_used;
+
+static int map_thunk_page() {
+    size_t page_size = (size_t) sysconf(_SC_PAGESIZE);
+    size_t count = page_size / THUNK_SIZE;
+    size_t slot_pages = (count * sizeof(ThunkSlot) + page_size - 1) / page_size;
+    void* rx = NULL;
+    uint8_t* rw = trampoline_arena_reserve_pages(1 + slot_pages, &rx);
+    if (rw == NULL) return -1;
+
+    for (size_t i = 0; i < count; i++) {
+        uint32_t* insns = (uint32_t*) (rw + i * THUNK_SIZE);
+        insns[0] = base_adr((int32_t) (page_size + i * sizeof(ThunkSlot) - i * THUNK_SIZE), A64_REG_17);
+        insns[1] = base_ldr_imm(A64_SF_64, SLOT_OFFSET(stub) / 8, A64_REG_17, A64_REG_16);
+        insns[2] = base_br(A64_REG_16);
+        insns[3] = base_brk(0);
+    }
+    // only the code page, the slots are written whenever a symbol is bridged
+    if (trampoline_arena_commit(rw, rx, page_size) != 0) return -1;
 
-        int new_page_count = lib->page_count + 1;
+    g_thunks_rx = rx;
+    g_thunk_slots_rw = (ThunkSlot*) (rw + page_size);
+    g_thunk_count = count;
+    g_thunks_used = 0;
+    return 0;
+}
 
-        void** new_mapped_pages = realloc(lib->mapped_pages, new_page_count * sizeof(*lib->mapped_pages));
-        int* new_page_code_size = realloc(lib->page_code_size, new_page_count * sizeof(*lib->page_code_size));
+/* Fills the next free slot, returns the thunk that uses it. */
+static void* add_symbol_thunk(uint64_t emulated_fn, void* stub, JniProfileEntry* profile) {
+    if (g_thunks_used == g_thunk_count && map_thunk_page() != 0) return NULL;
+    ThunkSlot* slot = &g_thunk_slots_rw[g_thunks_used];
+    slot->emulated_fn = emulated_fn;
+    slot->stub = (uint64_t) stub;
+    slot->profile = (uint64_t) profile;
+    return g_thunks_rx + g_thunks_used++ * THUNK_SIZE;
+}
 
-        if (!new_mapped_pages || !new_page_code_size) {
-            LOGE("Failed to reallocate memory: %s", strerror(errno));
+static void* bridge_jni_symbol_locked(const char* lib_name, const char* sym_name, uint64_t fn,
+                                      const char* arg_types, char ret_type) {
+    bool profiled = jni_profile_is_enabled();
+    void* stub = find_shared_stub(arg_types);
 
-            munmap(mem, page_size);
+    uint32_t* code = NULL;
+    int code_size = 0;
+    if (stub == NULL) {
+        assemble_box64_jni_trampoline(&code, &code_size, arg_types, ret_type, profiled);
+        if (code == NULL) return NULL;
+    }
 
-            if (new_mapped_pages) lib->mapped_pages = new_mapped_pages;
-            if (new_page_code_size) lib->page_code_size = new_page_code_size;
+    JniProfileEntry* profile = profiled ? jni_profile_add(lib_name, sym_name) : NULL;
+    if (profiled && profile == NULL) {
+        // the stub would follow a null pointer
+        free(code);
+        return NULL;
+    }
 
+    if (stub == NULL) {
+        void* rx = NULL;
+        void* rw = trampoline_arena_reserve(code_size, &rx);
+        if (rw == NULL) {
             free(code);
             return NULL;
         }
-
-        lib->mapped_pages = new_mapped_pages;
-        lib->page_code_size = new_page_code_size;
-
-        lib->mapped_pages[lib->page_count] = mem;
-        lib->page_code_size[lib->page_count] = code_size;
-
-        lib->page_count = new_page_count;
+        memcpy(rw, code, code_size);
+        int res = trampoline_arena_commit(rw, rx, code_size);
+        free(code);
+        if (res != 0) return NULL;
+        stub = rx;
+        if (add_shared_stub(arg_types, stub) != 0) {
+            LOGW("Failed to remember stub for %s, it will be generated again", arg_types);
+        }
     }
 
-    memcpy(mem, code, code_size);
-
-    free(code);
-
-    __builtin___clear_cache(mem, mem + code_size);
+    return add_symbol_thunk(fn, stub, profile);
+}
 
-    return mem;
+void* zomdroid_emulation_bridge_jni_symbol(const char* lib_name, const char* sym_name, uint64_t fn,
+                                           const char* arg_types, char ret_type) {
+    pthread_mutex_lock(&g_bridge_mutex);
+    void* thunk = bridge_jni_symbol_locked(lib_name, sym_name, fn, arg_types, ret_type);
+    pthread_mutex_unlock(&g_bridge_mutex);
+    return thunk;
 }
 
 static void box64_load_gnu_libc() {
@@ -466,9 +511,16 @@ static void* get_self_handle() {
 
 void init_box64() {
     LOGI("Initialising box64...");
-    page_size = sysconf(_SC_PAGESIZE);
-
     LoadEnvVariables();
+    // box64's main does this too, it reads BOX64_RCFILE with the per library dynarec profiles. Has to
+    // happen before any library is loaded, the sections are matched when a library gets mapped
+    const char* rc_file = getenv("BOX64_RCFILE");
+    if (InitializeEnvFiles == NULL) {
+        if (rc_file != NULL) LOGW("This box64 build can't read rc files, ignoring %s", rc_file);
+    } else {
+        InitializeEnvFiles();
+        if (rc_file != NULL) LOGI("Using box64 rc file %s", rc_file);
+    }
 
     box64_pagesize = sysconf(_SC_PAGESIZE);
     if(!box64_pagesize)
@@ -494,9 +546,15 @@ void init_box64() {
 }
 
 int zomdroid_emulation_init() {
+    jni_profile_init();
+
+    uint64_t start_ns = startup_trace_now_ns();
     init_box64();
+    startup_trace_complete("init_box64", "emulation", NULL, start_ns, startup_trace_now_ns(), gettid());
 
+    start_ns = startup_trace_now_ns();
     box64_load_gnu_libc();
+    startup_trace_complete("box64_load_gnu_libc", "emulation", NULL, start_ns, startup_trace_now_ns(), gettid());
 
     needed_libs_t *needed_lib = new_neededlib(1);
     needed_lib->names[0] = strdup("libjniwrapper.so");
@@ -7,13 +7,11 @@
 typedef struct  {
     const char* name;
     library_t* handle;
-    void** mapped_pages;
-    int page_count;
-    int* page_code_size;
     bool is_emulated;
 } EmulatedLib;
 
 int zomdroid_emulation_init();
-void* zomdroid_emulation_bridge_jni_symbol(EmulatedLib *lib, uint64_t fn, const char* arg_types, char ret_type);
+void* zomdroid_emulation_bridge_jni_symbol(const char* lib_name, const char* sym_name, uint64_t fn,
+                                           const char* arg_types, char ret_type);
 
 #endif //ZOMDROID_EMULATION_H
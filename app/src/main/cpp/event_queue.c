@@ -0,0 +1,270 @@
+#include "event_queue.h"
+
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdbool.h>
+
+#include "input_latency.h"
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-events"
+
+#define RING_SIZE (EVENT_QUEUE_MAX + 1)
+// one slot stays empty so a full ring doesn't look like an empty one to the consumer
+#define RING_CAPACITY EVENT_QUEUE_MAX
+#define COALESCABLE_HEADROOM 32
+#define BACKLOG_SIZE 256
+
+typedef struct {
+    ZomdroidEvent event;
+    int64_t event_ns;
+    int64_t enqueue_ns;
+} BacklogEntry;
+
+// written before the slot's sequence number, read back by the latency tracking after GLFW took it
+typedef struct {
+    _Atomic int64_t event_ns;
+    _Atomic int64_t enqueue_ns;
+} SlotTimes;
+
+typedef struct {
+    int64_t event_ns;
+    int64_t dequeue_ns;
+} DequeuedEvent;
+
+// ticket t goes to slot (t + 1) & EVENT_QUEUE_MAX, tail is then the number of consumed tickets mod 256
+static _Atomic uint32_t g_claimed;
+// t + 1 once the event of ticket t is written
+static _Atomic uint32_t g_slot_seq[RING_SIZE];
+static SlotTimes g_slot_times[RING_SIZE];
+// only touched by whoever holds g_publishing
+static uint32_t g_published;
+static atomic_bool g_publishing;
+
+static pthread_mutex_t g_backlog_mutex = PTHREAD_MUTEX_INITIALIZER;
+static BacklogEntry g_backlog[BACKLOG_SIZE];
+static int g_backlog_start;
+static int g_backlog_count;
+// lets producers skip the mutex while the backlog is empty
+static atomic_int g_backlog_size;
+
+static _Atomic uint64_t g_enqueued;
+static _Atomic uint64_t g_coalesced;
+static _Atomic uint64_t g_dropped;
+
+// consumer side of the latency tracking, poll and present may come from different game threads
+static pthread_mutex_t g_latency_mutex = PTHREAD_MUTEX_INITIALIZER;
+static uint32_t g_seen_consumed;
+static DequeuedEvent g_dequeued[RING_SIZE];
+static int g_dequeued_count;
+
+static bool is_coalescable(const ZomdroidEvent* e) {
+    return e->type == CURSOR_POS || e->type == MOUSE_SCROLL || e->type == JOYSTICK_AXIS;
+}
+
+static void publish() {
+    for (;;) {
+        // whoever holds it publishes our slot too, unless it already looked at it
+        if (atomic_exchange(&g_publishing, true)) return;
+        uint32_t p = g_published;
+        while (atomic_load_explicit(&g_slot_seq[(p + 1) & EVENT_QUEUE_MAX], memory_order_acquire) == p + 1) {
+            p++;
+            atomic_store_explicit(&g_zomdroid_event_queue.head, (u_char) (p & EVENT_QUEUE_MAX), memory_order_release);
+        }
+        g_published = p;
+        atomic_store(&g_publishing, false);
+        // a slot written while the flag was held may have been missed
+        if (atomic_load(&g_slot_seq[(p + 1) & EVENT_QUEUE_MAX]) != p + 1) return;
+    }
+}
+
+static bool ring_push(const ZomdroidEvent* e, int64_t event_ns, int64_t enqueue_ns, uint32_t capacity) {
+    uint32_t t = atomic_load_explicit(&g_claimed, memory_order_relaxed);
+    do {
+        u_char tail = atomic_load_explicit(&g_zomdroid_event_queue.tail, memory_order_acquire);
+        if (((t - tail) & EVENT_QUEUE_MAX) >= capacity) return false;
+    } while (!atomic_compare_exchange_weak_explicit(&g_claimed, &t, t + 1, memory_order_relaxed,
+                                                    memory_order_relaxed));
+    uint32_t slot = (t + 1) & EVENT_QUEUE_MAX;
+    g_zomdroid_event_queue.buffer[slot] = *e;
+    atomic_store_explicit(&g_slot_times[slot].event_ns, event_ns, memory_order_relaxed);
+    atomic_store_explicit(&g_slot_times[slot].enqueue_ns, enqueue_ns, memory_order_relaxed);
+    atomic_store(&g_slot_seq[slot], t + 1);
+    publish();
+    atomic_fetch_add_explicit(&g_enqueued, 1, memory_order_relaxed);
+    return true;
+}
+
+static BacklogEntry* backlog_at(int i) {
+    return &g_backlog[(g_backlog_start + i) % BACKLOG_SIZE];
+}
+
+static void backlog_remove_locked(int i) {
+    for (; i < g_backlog_count - 1; i++) *backlog_at(i) = *backlog_at(i + 1);
+    g_backlog_count--;
+}
+
+static bool coalesce_locked(const ZomdroidEvent* e, int64_t event_ns, int64_t enqueue_ns) {
+    // the trailing run of cursor, scroll and axis events are independent state updates, the new one can
+    // go into any of them of its kind without moving past a key or button
+    for (int i = g_backlog_count - 1; i >= 0; i--) {
+        BacklogEntry* entry = backlog_at(i);
+        ZomdroidEvent* prev = &entry->event;
+        if (!is_coalescable(prev)) return false;
+        if (prev->type != e->type) continue;
+        switch (e->type) {
+            case CURSOR_POS:
+                prev->cursorPos = e->cursorPos;
+                break;
+            case MOUSE_SCROLL:
+                prev->mouseScroll.xoffset += e->mouseScroll.xoffset;
+                prev->mouseScroll.yoffset += e->mouseScroll.yoffset;
+                break;
+            case JOYSTICK_AXIS:
+                if (prev->joystickAxis.axis != e->joystickAxis.axis) continue;
+                prev->joystickAxis.state = e->joystickAxis.state;
+                break;
+            default:
+                return false;
+        }
+        // what the game gets now is the newer event
+        entry->event_ns = event_ns;
+        entry->enqueue_ns = enqueue_ns;
+        return true;
+    }
+    return false;
+}
+
+static bool supersedes(const ZomdroidEvent* later, const ZomdroidEvent* e) {
+    if (later->type != e->type) return false;
+    return e->type != JOYSTICK_AXIS || later->joystickAxis.axis == e->joystickAxis.axis;
+}
+
+/*
+ * Frees one backlog entry by giving up motion, never a key, button or char event. Preferably an entry
+ * that a later one of its kind in the same run replaces anyway, scroll offsets move over to that one.
+ * Otherwise the oldest motion entry. Returns false if nothing but keys, buttons and chars is left.
+ */
+static bool make_room_locked() {
+    int oldest = -1;
+    for (int i = 0; i < g_backlog_count; i++) {
+        ZomdroidEvent* e = &backlog_at(i)->event;
+        if (!is_coalescable(e)) continue;
+        if (oldest < 0) oldest = i;
+        for (int j = i + 1; j < g_backlog_count; j++) {
+            ZomdroidEvent* later = &backlog_at(j)->event;
+            if (!is_coalescable(later)) break;
+            if (!supersedes(later, e)) continue;
+            if (e->type == MOUSE_SCROLL) {
+                later->mouseScroll.xoffset += e->mouseScroll.xoffset;
+                later->mouseScroll.yoffset += e->mouseScroll.yoffset;
+            }
+            backlog_remove_locked(i);
+            atomic_fetch_add_explicit(&g_coalesced, 1, memory_order_relaxed);
+            return true;
+        }
+    }
+    if (oldest < 0) return false;
+    backlog_remove_locked(oldest);
+    atomic_fetch_add_explicit(&g_dropped, 1, memory_order_relaxed);
+    return true;
+}
+
+static void drain_backlog_locked() {
+    while (g_backlog_count > 0) {
+        BacklogEntry* entry = &g_backlog[g_backlog_start];
+        if (!ring_push(&entry->event, entry->event_ns, entry->enqueue_ns, RING_CAPACITY)) break;
+        g_backlog_start = (g_backlog_start + 1) % BACKLOG_SIZE;
+        g_backlog_count--;
+    }
+    atomic_store_explicit(&g_backlog_size, g_backlog_count, memory_order_release);
+}
+
+void event_queue_push(const ZomdroidEvent* e, int64_t event_ns) {
+    int64_t enqueue_ns = 0;
+    if (input_latency_is_enabled()) {
+        enqueue_ns = input_latency_now_ns();
+        if (event_ns != 0) input_latency_record(INPUT_STAGE_DISPATCH, enqueue_ns - event_ns);
+    }
+
+    uint32_t capacity = is_coalescable(e) ? RING_CAPACITY - COALESCABLE_HEADROOM : RING_CAPACITY;
+    if (atomic_load_explicit(&g_backlog_size, memory_order_acquire) == 0 &&
+            ring_push(e, event_ns, enqueue_ns, capacity)) {
+        return;
+    }
+
+    pthread_mutex_lock(&g_backlog_mutex);
+    drain_backlog_locked();
+    if (g_backlog_count == 0 && ring_push(e, event_ns, enqueue_ns, capacity)) {
+        pthread_mutex_unlock(&g_backlog_mutex);
+        return;
+    }
+    if (is_coalescable(e) && coalesce_locked(e, event_ns, enqueue_ns)) {
+        atomic_fetch_add_explicit(&g_coalesced, 1, memory_order_relaxed);
+    } else if (g_backlog_count == BACKLOG_SIZE && !make_room_locked()) {
+        // the game hasn't read input for a long while, and the ring and backlog hold only keys and buttons
+        if (atomic_fetch_add_explicit(&g_dropped, 1, memory_order_relaxed) == 0)
+            LOGW("Input event backlog is full of key and button events, dropping events");
+    } else {
+        BacklogEntry* entry = backlog_at(g_backlog_count);
+        entry->event = *e;
+        entry->event_ns = event_ns;
+        entry->enqueue_ns = enqueue_ns;
+        g_backlog_count++;
+        atomic_store_explicit(&g_backlog_size, g_backlog_count, memory_order_release);
+    }
+    pthread_mutex_unlock(&g_backlog_mutex);
+}
+
+void event_queue_flush() {
+    if (atomic_load_explicit(&g_backlog_size, memory_order_acquire) == 0) return;
+    pthread_mutex_lock(&g_backlog_mutex);
+    drain_backlog_locked();
+    pthread_mutex_unlock(&g_backlog_mutex);
+}
+
+void event_queue_get_stats(EventQueueStats* stats) {
+    stats->enqueued = atomic_load_explicit(&g_enqueued, memory_order_relaxed);
+    stats->coalesced = atomic_load_explicit(&g_coalesced, memory_order_relaxed);
+    stats->dropped = atomic_load_explicit(&g_dropped, memory_order_relaxed);
+}
+
+void event_queue_note_polled() {
+    if (!input_latency_is_enabled()) return;
+    int64_t now = input_latency_now_ns();
+    pthread_mutex_lock(&g_latency_mutex);
+    u_char tail = atomic_load_explicit(&g_zomdroid_event_queue.tail, memory_order_acquire);
+    uint32_t consumed = (tail - g_seen_consumed) & EVENT_QUEUE_MAX;
+    for (uint32_t i = 0; i < consumed; i++) {
+        uint32_t t = g_seen_consumed + i;
+        uint32_t slot = (t + 1) & EVENT_QUEUE_MAX;
+        SlotTimes* times = &g_slot_times[slot];
+        int64_t event_ns = atomic_load_explicit(&times->event_ns, memory_order_relaxed);
+        int64_t enqueue_ns = atomic_load_explicit(&times->enqueue_ns, memory_order_relaxed);
+        // a producer may have reused the slot since, then its times belong to a later event
+        atomic_thread_fence(memory_order_acquire);
+        if (atomic_load_explicit(&g_slot_seq[slot], memory_order_relaxed) != t + 1) continue;
+        if (enqueue_ns != 0) input_latency_record(INPUT_STAGE_QUEUE, now - enqueue_ns);
+        if (event_ns != 0 && g_dequeued_count < RING_SIZE) {
+            g_dequeued[g_dequeued_count].event_ns = event_ns;
+            g_dequeued[g_dequeued_count].dequeue_ns = now;
+            g_dequeued_count++;
+        }
+    }
+    g_seen_consumed += consumed;
+    pthread_mutex_unlock(&g_latency_mutex);
+}
+
+void event_queue_note_presented() {
+    if (!input_latency_is_enabled()) return;
+    // without a poll hook events show up here first, their queue stage then ends at the present
+    event_queue_note_polled();
+    int64_t now = input_latency_now_ns();
+    pthread_mutex_lock(&g_latency_mutex);
+    for (int i = 0; i < g_dequeued_count; i++) {
+        input_latency_record(INPUT_STAGE_PRESENT, now - g_dequeued[i].dequeue_ns);
+        input_latency_record(INPUT_STAGE_TOTAL, now - g_dequeued[i].event_ns);
+    }
+    g_dequeued_count = 0;
+    pthread_mutex_unlock(&g_latency_mutex);
+}
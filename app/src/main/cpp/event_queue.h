@@ -0,0 +1,41 @@
+#ifndef ZOMDROID_EVENT_QUEUE_H
+#define ZOMDROID_EVENT_QUEUE_H
+
+#include <stdint.h>
+
+#include "zomdroid_globals.h"
+
+/*
+ * Producer side of g_zomdroid_event_queue, the GLFW backend consumes it as before: it reads the slots
+ * after tail up to head and moves tail. Producers claim slots with a ticket counter and mark them with
+ * a per-slot sequence number once written, head only moves over consecutive written slots so the
+ * consumer never sees one half filled.
+ *
+ * Cursor, scroll and joystick axis events leave headroom in the ring for the rest. When an event
+ * doesn't fit it goes to a backlog instead. There cursor and axis events replace the pending one of
+ * their kind and scroll offsets add up, as long as no key, button or char event is in between.
+ * Everything after it goes there too to keep the order, until the backlog is drained into the ring by
+ * a later event or by the game thread before glfwPollEvents and after eglSwapBuffers. A full backlog
+ * gives up motion to make room, key, button and char events are only dropped once it holds nothing else.
+ */
+
+typedef struct {
+    uint64_t enqueued;
+    uint64_t coalesced;
+    uint64_t dropped;
+} EventQueueStats;
+
+/* event_ns is the CLOCK_MONOTONIC time of the Android input event, 0 if unknown. */
+void event_queue_push(const ZomdroidEvent* e, int64_t event_ns);
+
+/* Moves what the backlog holds into the ring, as far as it fits. Called from the consumer side. */
+void event_queue_flush();
+
+void event_queue_get_stats(EventQueueStats* stats);
+
+/* For input_latency.h, called after glfwPollEvents and after eglSwapBuffers return. */
+void event_queue_note_polled();
+
+void event_queue_note_presented();
+
+#endif //ZOMDROID_EVENT_QUEUE_H
@@ -0,0 +1,239 @@
+#include "file_prefetch.h"
+
+#include <dirent.h>
+#include <fcntl.h>
+#include <inttypes.h>
+#include <limits.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-prefetch"
+
+#define RECORD_INTERVAL_S 2
+// startup is over long before that, later reads are left to the kernel's own readahead
+#define RECORD_DURATION_S 90
+// files that are only open, not mapped, give no hint which part was read, take their head
+#define OPEN_FILE_PREFETCH_BYTES (4 * 1024 * 1024)
+
+// files of the OS are shared with every other app and usually cached already
+static const char* const SKIPPED_PREFIXES[] = {
+        "/dev/", "/proc/", "/sys/", "/system/", "/apex/", "/vendor/", "/product/", "/data/dalvik-cache/",
+};
+
+typedef struct {
+    int64_t offset;
+    int64_t length;
+} FileRange;
+
+typedef struct {
+    char* path;
+    // sorted by offset, never overlapping or touching
+    FileRange* ranges;
+    int range_count;
+    int range_capacity;
+} RecordedFile;
+
+static char g_list_path[PATH_MAX];
+// only touched by the recorder thread
+static RecordedFile g_files[FILE_PREFETCH_MAX_FILES];
+static int g_file_count;
+
+static _Atomic int64_t g_last_bytes;
+
+static bool is_recordable(const char* path) {
+    if (path[0] != '/') return false;
+    for (size_t i = 0; i < sizeof(SKIPPED_PREFIXES) / sizeof(SKIPPED_PREFIXES[0]); i++) {
+        if (strncmp(path, SKIPPED_PREFIXES[i], strlen(SKIPPED_PREFIXES[i])) == 0) return false;
+    }
+    if (strstr(path, " (deleted)") != NULL) return false;
+    struct stat st;
+    return stat(path, &st) == 0 && S_ISREG(st.st_mode) && st.st_size > 0;
+}
+
+/* Merges [offset, offset + length) into the ranges of the file. Returns false if nothing new was covered. */
+static bool add_range(RecordedFile* file, int64_t offset, int64_t length) {
+    int64_t end = offset + length;
+    int first = 0;
+    while (first < file->range_count && file->ranges[first].offset + file->ranges[first].length < offset) first++;
+    int last = first;
+    while (last < file->range_count && file->ranges[last].offset <= end) last++;
+
+    if (first < last) {
+        // overlaps or touches ranges first..last-1, fold them into one
+        FileRange* merged = &file->ranges[first];
+        int64_t merged_end = file->ranges[last - 1].offset + file->ranges[last - 1].length;
+        if (offset >= merged->offset && end <= merged_end && last - first == 1) return false;
+        if (end < merged_end) end = merged_end;
+        if (offset > merged->offset) offset = merged->offset;
+        merged->offset = offset;
+        merged->length = end - offset;
+        memmove(&file->ranges[first + 1], &file->ranges[last], (file->range_count - last) * sizeof(FileRange));
+        file->range_count -= last - first - 1;
+        return true;
+    }
+
+    if (file->range_count == file->range_capacity) {
+        int capacity = file->range_capacity == 0 ? 4 : file->range_capacity * 2;
+        FileRange* ranges = realloc(file->ranges, capacity * sizeof(FileRange));
+        if (ranges == NULL) return false;
+        file->ranges = ranges;
+        file->range_capacity = capacity;
+    }
+    memmove(&file->ranges[first + 1], &file->ranges[first], (file->range_count - first) * sizeof(FileRange));
+    file->ranges[first] = (FileRange) {.offset = offset, .length = length};
+    file->range_count++;
+    return true;
+}
+
+static RecordedFile* find_or_add_file(const char* path) {
+    for (int i = g_file_count - 1; i >= 0; i--) {
+        if (strcmp(g_files[i].path, path) == 0) return &g_files[i];
+    }
+    if (g_file_count >= FILE_PREFETCH_MAX_FILES) return NULL;
+    if (!is_recordable(path)) return NULL;
+    char* copy = strdup(path);
+    if (copy == NULL) return NULL;
+    RecordedFile* file = &g_files[g_file_count++];
+    *file = (RecordedFile) {.path = copy};
+    return file;
+}
+
+static bool snapshot_maps() {
+    FILE* f = fopen("/proc/self/maps", "r");
+    if (f == NULL) return false;
+    bool added = false;
+    char line[PATH_MAX + 128];
+    while (fgets(line, sizeof(line), f) != NULL) {
+        char* path = strchr(line, '/');
+        if (path == NULL) continue;
+        path[strcspn(path, "\n")] = '\0';
+        uint64_t start, end, offset;
+        if (sscanf(line, "%" SCNx64 "-%" SCNx64 " %*s %" SCNx64, &start, &end, &offset) != 3 || end <= start) continue;
+        RecordedFile* file = find_or_add_file(path);
+        if (file == NULL) continue;
+        added |= add_range(file, (int64_t) offset, (int64_t) (end - start));
+    }
+    fclose(f);
+    return added;
+}
+
+static bool snapshot_fds() {
+    DIR* dir = opendir("/proc/self/fd");
+    if (dir == NULL) return false;
+    bool added = false;
+    struct dirent* entry;
+    char link_path[64];
+    char path[PATH_MAX];
+    while ((entry = readdir(dir)) != NULL) {
+        if (entry->d_name[0] == '.') continue;
+        snprintf(link_path, sizeof(link_path), "/proc/self/fd/%s", entry->d_name);
+        ssize_t len = readlink(link_path, path, sizeof(path) - 1);
+        if (len <= 0) continue;
+        path[len] = '\0';
+        RecordedFile* file = find_or_add_file(path);
+        if (file == NULL) continue;
+        added |= add_range(file, 0, OPEN_FILE_PREFETCH_BYTES);
+    }
+    closedir(dir);
+    return added;
+}
+
+static void write_list() {
+    char tmp_path[PATH_MAX];
+    snprintf(tmp_path, sizeof(tmp_path), "%s.tmp", g_list_path);
+    FILE* f = fopen(tmp_path, "w");
+    if (f == NULL) {
+        LOGW("Failed to open %s", tmp_path);
+        return;
+    }
+    for (int i = 0; i < g_file_count; i++) {
+        const RecordedFile* file = &g_files[i];
+        for (int j = 0; j < file->range_count; j++) {
+            fprintf(f, "%" PRId64 " %" PRId64 " %s\n", file->ranges[j].offset, file->ranges[j].length, file->path);
+        }
+    }
+    if (fclose(f) != 0 || rename(tmp_path, g_list_path) != 0) {
+        LOGW("Failed to write %s", g_list_path);
+    }
+}
+
+static void* record_loop(void* arg) {
+    (void) arg;
+    for (int elapsed = 0; elapsed <= RECORD_DURATION_S; elapsed += RECORD_INTERVAL_S) {
+        bool added = snapshot_maps();
+        added |= snapshot_fds();
+        if (added) write_list();
+        sleep(RECORD_INTERVAL_S);
+    }
+    LOGI("Recorded %d files for prefetch", g_file_count);
+    return NULL;
+}
+
+int file_prefetch_recorder_start(const char* list_path) {
+    if (list_path == NULL || list_path[0] == '\0') return 0;
+    snprintf(g_list_path, sizeof(g_list_path), "%s", list_path);
+
+    pthread_t thread;
+    if (pthread_create(&thread, NULL, record_loop, NULL) != 0) {
+        LOGW("Failed to create prefetch recorder thread");
+        return -1;
+    }
+    pthread_setname_np(thread, "zomdroid-prefetch");
+    pthread_detach(thread);
+    return 0;
+}
+
+int64_t file_prefetch_run(const char* list_path, int64_t budget_bytes) {
+    FILE* f = fopen(list_path, "r");
+    if (f == NULL) return 0;
+
+    int64_t advised = 0;
+    int ranges = 0;
+    int fd = -1;
+    int64_t file_size = 0;
+    char open_path[PATH_MAX] = "";
+    char line[PATH_MAX + 64];
+    while (fgets(line, sizeof(line), f) != NULL) {
+        line[strcspn(line, "\n")] = '\0';
+        int64_t offset, length;
+        int path_start = 0;
+        if (sscanf(line, "%" SCNd64 " %" SCNd64 " %n", &offset, &length, &path_start) != 2 || path_start == 0) continue;
+        const char* path = line + path_start;
+
+        // ranges of a file are written next to each other
+        if (strcmp(path, open_path) != 0) {
+            if (fd >= 0) close(fd);
+            snprintf(open_path, sizeof(open_path), "%s", path);
+            fd = open(path, O_RDONLY | O_CLOEXEC);
+            struct stat st;
+            file_size = fd >= 0 && fstat(fd, &st) == 0 && S_ISREG(st.st_mode) ? st.st_size : 0;
+        }
+        if (fd < 0 || offset < 0 || offset >= file_size) continue;
+        // a mapping may reach past the end of the file
+        if (length > file_size - offset) length = file_size - offset;
+        // ranges too big for what's left are skipped, smaller ones further down may still fit
+        if (advised + length > budget_bytes) continue;
+        if (posix_fadvise(fd, offset, length, POSIX_FADV_WILLNEED) == 0) {
+            advised += length;
+            ranges++;
+        }
+    }
+    if (fd >= 0) close(fd);
+    fclose(f);
+
+    atomic_store(&g_last_bytes, advised);
+    LOGI("Prefetching %d ranges, %lld MB", ranges, (long long) (advised / (1024 * 1024)));
+    return advised;
+}
+
+int64_t file_prefetch_last_bytes() {
+    return atomic_load(&g_last_bytes);
+}
@@ -0,0 +1,29 @@
+#ifndef ZOMDROID_FILE_PREFETCH_H
+#define ZOMDROID_FILE_PREFETCH_H
+
+#include <stdint.h>
+
+/*
+ * Page cache warm up for the files a launch reads. While the game starts, a recorder thread
+ * snapshots the files the process has mapped or open and writes them to a per-instance list, in the
+ * order they were first seen. Mapped files are recorded by the offset ranges of their mappings, files
+ * that are only open by their first OPEN_FILE_PREFETCH_BYTES, so a big jar or asset pack doesn't get
+ * read whole. The list has one "<offset> <length> <path>" line per range. The next time the launcher
+ * shows that instance it asks the kernel to read the ranges ahead (POSIX_FADV_WILLNEED), which is
+ * asynchronous and only costs page cache.
+ *
+ * The recorder is configured through an env var set by the launcher:
+ *   ZOMDROID_PREFETCH_LIST   path of the list to write, recording is off if unset
+ */
+
+#define FILE_PREFETCH_MAX_FILES 1024
+
+int file_prefetch_recorder_start(const char* list_path);
+
+/* Advises the ranges of the list until budget_bytes is used up. Returns the advised size. */
+int64_t file_prefetch_run(const char* list_path, int64_t budget_bytes);
+
+/* Size advised by the last file_prefetch_run() in this process, 0 if none. */
+int64_t file_prefetch_last_bytes();
+
+#endif //ZOMDROID_FILE_PREFETCH_H
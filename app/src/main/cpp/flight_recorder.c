@@ -0,0 +1,254 @@
+#include "flight_recorder.h"
+
+#include <fcntl.h>
+#include <limits.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "zomdroid_globals.h"
+
+#define TEXT_MASK (FLIGHT_RECORDER_TEXT_SIZE - 1)
+#define EVENT_MASK (FLIGHT_RECORDER_EVENT_COUNT - 1)
+
+typedef struct {
+    _Atomic uint64_t seq; // index + 1 once the record is complete, 0 while being written
+    uint64_t time_ns;
+    int32_t kind;
+    int32_t sub;
+    int64_t i0;
+    double d0;
+    double d1;
+} FlightRecord;
+
+static char g_text[FLIGHT_RECORDER_TEXT_SIZE];
+static _Atomic uint64_t g_text_pos;
+static FlightRecord g_events[FLIGHT_RECORDER_EVENT_COUNT];
+static _Atomic uint64_t g_event_pos;
+
+static char g_dump_path[PATH_MAX];
+static char g_dump_tmp_path[PATH_MAX];
+static atomic_flag g_dumping = ATOMIC_FLAG_INIT;
+
+static const char* const INPUT_EVENT_NAMES[] = {
+        [KEYBOARD] = "KEYBOARD",
+        [CURSOR_POS] = "CURSOR_POS",
+        [MOUSE_BUTTON] = "MOUSE_BUTTON",
+        [MOUSE_SCROLL] = "MOUSE_SCROLL",
+        [JOYSTICK_CONNECTED] = "JOYSTICK_CONNECTED",
+        [JOYSTICK_DISCONNECTED] = "JOYSTICK_DISCONNECTED",
+        [JOYSTICK_AXIS] = "JOYSTICK_AXIS",
+        [JOYSTICK_DPAD] = "JOYSTICK_DPAD",
+        [JOYSTICK_BUTTON] = "JOYSTICK_BUTTON",
+        [CHAR_INPUT] = "CHAR_INPUT",
+};
+
+static uint64_t now_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ull + (uint64_t) ts.tv_nsec;
+}
+
+void flight_recorder_init(const char* dir_path) {
+    if (dir_path == NULL) return;
+    snprintf(g_dump_path, sizeof(g_dump_path), "%s/%s", dir_path, FLIGHT_RECORDER_FILE_NAME);
+    snprintf(g_dump_tmp_path, sizeof(g_dump_tmp_path), "%s/%s.tmp", dir_path, FLIGHT_RECORDER_FILE_NAME);
+}
+
+void flight_recorder_text(const char* text, size_t len) {
+    if (len >= FLIGHT_RECORDER_TEXT_SIZE) {
+        text += len - (FLIGHT_RECORDER_TEXT_SIZE - 1);
+        len = FLIGHT_RECORDER_TEXT_SIZE - 1;
+    }
+    uint64_t pos = atomic_fetch_add_explicit(&g_text_pos, len + 1, memory_order_relaxed);
+    size_t off = pos & TEXT_MASK;
+    size_t first = FLIGHT_RECORDER_TEXT_SIZE - off;
+    if (first >= len) {
+        memcpy(g_text + off, text, len);
+    } else {
+        memcpy(g_text + off, text, first);
+        memcpy(g_text, text + first, len - first);
+    }
+    g_text[(pos + len) & TEXT_MASK] = '\n';
+}
+
+void flight_recorder_event(FlightRecorderEventKind kind, int sub, int64_t i0, double d0, double d1) {
+    uint64_t index = atomic_fetch_add_explicit(&g_event_pos, 1, memory_order_relaxed);
+    FlightRecord* r = &g_events[index & EVENT_MASK];
+    atomic_store_explicit(&r->seq, 0, memory_order_relaxed);
+    r->time_ns = now_ns();
+    r->kind = kind;
+    r->sub = sub;
+    r->i0 = i0;
+    r->d0 = d0;
+    r->d1 = d1;
+    atomic_store_explicit(&r->seq, index + 1, memory_order_release);
+}
+
+/* Minimal formatting helpers, snprintf is not async-signal-safe. */
+
+typedef struct {
+    char data[256];
+    size_t len;
+} LineBuf;
+
+static void put_str(LineBuf* b, const char* s) {
+    while (*s && b->len < sizeof(b->data) - 1)
+        b->data[b->len++] = *s++;
+}
+
+static void put_u64(LineBuf* b, uint64_t v) {
+    char tmp[20];
+    int n = 0;
+    do {
+        tmp[n++] = (char) ('0' + v % 10);
+        v /= 10;
+    } while (v != 0);
+    while (n > 0 && b->len < sizeof(b->data) - 1)
+        b->data[b->len++] = tmp[--n];
+}
+
+static void put_i64(LineBuf* b, int64_t v) {
+    if (v < 0) {
+        put_str(b, "-");
+        put_u64(b, (uint64_t) -(v + 1) + 1);
+    } else {
+        put_u64(b, (uint64_t) v);
+    }
+}
+
+static void put_double(LineBuf* b, double v) {
+    if (v != v) {
+        put_str(b, "nan");
+        return;
+    }
+    if (v < 0) {
+        put_str(b, "-");
+        v = -v;
+    }
+    if (v > 1e15) {
+        put_str(b, "inf");
+        return;
+    }
+    uint64_t scaled = (uint64_t) (v * 100.0 + 0.5);
+    put_u64(b, scaled / 100);
+    put_str(b, ".");
+    if (scaled % 100 < 10) put_str(b, "0");
+    put_u64(b, scaled % 100);
+}
+
+static void put_time_ms(LineBuf* b, uint64_t ns) {
+    put_u64(b, ns / 1000000);
+    put_str(b, ".");
+    uint64_t frac = (ns / 1000) % 1000;
+    if (frac < 100) put_str(b, "0");
+    if (frac < 10) put_str(b, "0");
+    put_u64(b, frac);
+}
+
+static int write_all(int fd, const char* data, size_t len) {
+    while (len > 0) {
+        ssize_t n = write(fd, data, len);
+        if (n < 0) return -1;
+        data += n;
+        len -= (size_t) n;
+    }
+    return 0;
+}
+
+static void format_event(LineBuf* b, const FlightRecord* r) {
+    put_time_ms(b, r->time_ns);
+    put_str(b, " ms ");
+    switch (r->kind) {
+        case FR_EVENT_INPUT:
+            put_str(b, "INPUT ");
+            if (r->sub >= 0 && r->sub < (int) (sizeof(INPUT_EVENT_NAMES) / sizeof(INPUT_EVENT_NAMES[0])))
+                put_str(b, INPUT_EVENT_NAMES[r->sub]);
+            else
+                put_i64(b, r->sub);
+            put_str(b, " code=");
+            put_i64(b, r->i0);
+            put_str(b, " x=");
+            put_double(b, r->d0);
+            put_str(b, " y=");
+            put_double(b, r->d1);
+            break;
+        case FR_EVENT_SURFACE_INIT:
+            put_str(b, "SURFACE_INIT window=");
+            put_u64(b, (uint64_t) r->i0);
+            put_str(b, " size=");
+            put_i64(b, (int64_t) r->d0);
+            put_str(b, "x");
+            put_i64(b, (int64_t) r->d1);
+            break;
+        case FR_EVENT_SURFACE_DEINIT:
+            put_str(b, "SURFACE_DEINIT");
+            break;
+        case FR_EVENT_MEMORY:
+            put_str(b, "MEMORY available_mb=");
+            put_i64(b, r->i0);
+            put_str(b, " rss_mb=");
+            put_double(b, r->d0);
+            put_str(b, " pss_mb=");
+            put_double(b, r->d1);
+            break;
+        default:
+            put_str(b, "UNKNOWN ");
+            put_i64(b, r->kind);
+            break;
+    }
+    put_str(b, "\n");
+}
+
+int flight_recorder_dump(const char* reason) {
+    if (g_dump_path[0] == '\0') return -1;
+    // only one dump at a time, a second crash while dumping just returns
+    if (atomic_flag_test_and_set(&g_dumping)) return -1;
+
+    int fd = open(g_dump_tmp_path, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644);
+    if (fd < 0) {
+        atomic_flag_clear(&g_dumping);
+        return -1;
+    }
+
+    LineBuf b = {.len = 0};
+    put_str(&b, "zomdroid flight recorder\nreason: ");
+    put_str(&b, reason != NULL ? reason : "unknown");
+    put_str(&b, "\ndump time: ");
+    put_time_ms(&b, now_ns());
+    put_str(&b, " ms (monotonic)\n\n=== events ===\n");
+    write_all(fd, b.data, b.len);
+
+    uint64_t end = atomic_load_explicit(&g_event_pos, memory_order_acquire);
+    uint64_t start = end > FLIGHT_RECORDER_EVENT_COUNT ? end - FLIGHT_RECORDER_EVENT_COUNT : 0;
+    for (uint64_t i = start; i < end; i++) {
+        const FlightRecord* r = &g_events[i & EVENT_MASK];
+        // skip records that are being written or were already overwritten by a newer one
+        if (atomic_load_explicit(&r->seq, memory_order_acquire) != i + 1) continue;
+        b.len = 0;
+        format_event(&b, r);
+        write_all(fd, b.data, b.len);
+    }
+
+    const char* text_header = "\n=== stdout/stderr tail ===\n";
+    write_all(fd, text_header, strlen(text_header));
+    end = atomic_load_explicit(&g_text_pos, memory_order_acquire);
+    start = end > FLIGHT_RECORDER_TEXT_SIZE ? end - FLIGHT_RECORDER_TEXT_SIZE : 0;
+    size_t off = start & TEXT_MASK;
+    size_t len = end - start;
+    if (off + len <= FLIGHT_RECORDER_TEXT_SIZE) {
+        write_all(fd, g_text + off, len);
+    } else {
+        write_all(fd, g_text + off, FLIGHT_RECORDER_TEXT_SIZE - off);
+        write_all(fd, g_text, len - (FLIGHT_RECORDER_TEXT_SIZE - off));
+    }
+
+    fsync(fd);
+    close(fd);
+    int result = rename(g_dump_tmp_path, g_dump_path);
+    atomic_flag_clear(&g_dumping);
+    return result;
+}
@@ -0,0 +1,34 @@
+#ifndef ZOMDROID_FLIGHT_RECORDER_H
+#define ZOMDROID_FLIGHT_RECORDER_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+/*
+ * Fixed-size in-memory record of what happened right before a crash: the tail of game stdout/stderr
+ * and recent input, surface and memory events. Recording is lock-free and never allocates, dumping
+ * only uses async-signal-safe calls so it can run from a signal handler.
+ */
+
+#define FLIGHT_RECORDER_TEXT_SIZE (64 * 1024) // must be a power of two
+#define FLIGHT_RECORDER_EVENT_COUNT 1024 // must be a power of two
+#define FLIGHT_RECORDER_FILE_NAME "flightrecorder.txt"
+
+typedef enum {
+    FR_EVENT_INPUT,
+    FR_EVENT_SURFACE_INIT,
+    FR_EVENT_SURFACE_DEINIT,
+    FR_EVENT_MEMORY,
+} FlightRecorderEventKind;
+
+void flight_recorder_init(const char* dir_path);
+
+void flight_recorder_text(const char* text, size_t len);
+
+/* Meaning of the values depends on kind, see flight_recorder.c dump code. */
+void flight_recorder_event(FlightRecorderEventKind kind, int sub, int64_t i0, double d0, double d1);
+
+/* Writes the recorder contents to the crash file. Async-signal-safe. Returns 0 on success. */
+int flight_recorder_dump(const char* reason);
+
+#endif //ZOMDROID_FLIGHT_RECORDER_H
@@ -0,0 +1,134 @@
+#include "input_latency.h"
+
+#include <limits.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-latency"
+
+#define BUCKET_US 100
+// 200 ms, the last bucket also takes everything slower
+#define BUCKET_COUNT 2000
+
+static const char* const STAGE_NAMES[INPUT_STAGE_COUNT] = {
+        [INPUT_STAGE_DISPATCH] = "dispatch",
+        [INPUT_STAGE_QUEUE] = "queue",
+        [INPUT_STAGE_PRESENT] = "present",
+        [INPUT_STAGE_TOTAL] = "total",
+};
+
+static bool g_enabled;
+static _Atomic uint32_t g_buckets[INPUT_STAGE_COUNT][BUCKET_COUNT];
+// the UI thread and atexit can dump at the same time, both use the same tmp file
+static pthread_mutex_t g_dump_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+void input_latency_init() {
+    const char* value = getenv("ZOMDROID_INPUT_LATENCY");
+    g_enabled = value != NULL && strcmp(value, "1") == 0;
+    if (!g_enabled) return;
+    atexit(input_latency_dump);
+    LOGI("Input latency tracking enabled");
+}
+
+bool input_latency_is_enabled() {
+    return g_enabled;
+}
+
+int64_t input_latency_now_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t) ts.tv_sec * 1000000000ll + ts.tv_nsec;
+}
+
+void input_latency_record(InputLatencyStage stage, int64_t latency_ns) {
+    // event timestamps before API 34 only have millisecond precision
+    int64_t bucket = latency_ns > 0 ? latency_ns / (BUCKET_US * 1000) : 0;
+    if (bucket >= BUCKET_COUNT) bucket = BUCKET_COUNT - 1;
+    atomic_fetch_add_explicit(&g_buckets[stage][bucket], 1, memory_order_relaxed);
+}
+
+static void snapshot(InputLatencyStage stage, uint32_t counts[BUCKET_COUNT], uint64_t* total) {
+    *total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] = atomic_load_explicit(&g_buckets[stage][i], memory_order_relaxed);
+        *total += counts[i];
+    }
+}
+
+static int64_t percentile_us(const uint32_t counts[BUCKET_COUNT], uint64_t total, int percent) {
+    if (total == 0) return 0;
+    uint64_t rank = (total * percent + 99) / 100;
+    uint64_t seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+        seen += counts[i];
+        if (seen >= rank) return (int64_t) (i + 1) * BUCKET_US;
+    }
+    return (int64_t) BUCKET_COUNT * BUCKET_US;
+}
+
+void input_latency_get_summary(InputLatencySummary summaries[INPUT_STAGE_COUNT]) {
+    uint32_t counts[BUCKET_COUNT];
+    for (int stage = 0; stage < INPUT_STAGE_COUNT; stage++) {
+        InputLatencySummary* s = &summaries[stage];
+        snapshot(stage, counts, &s->count);
+        s->p50_us = percentile_us(counts, s->count, 50);
+        s->p95_us = percentile_us(counts, s->count, 95);
+        s->p99_us = percentile_us(counts, s->count, 99);
+    }
+}
+
+static void write_report(FILE* f) {
+    uint32_t counts[BUCKET_COUNT];
+    fprintf(f, "%-10s %10s %10s %10s %10s\n", "stage", "count", "p50_ms", "p95_ms", "p99_ms");
+    for (int stage = 0; stage < INPUT_STAGE_COUNT; stage++) {
+        uint64_t total;
+        snapshot(stage, counts, &total);
+        fprintf(f, "%-10s %10llu %10.1f %10.1f %10.1f\n", STAGE_NAMES[stage], (unsigned long long) total,
+                percentile_us(counts, total, 50) / 1000.0, percentile_us(counts, total, 95) / 1000.0,
+                percentile_us(counts, total, 99) / 1000.0);
+    }
+    // the raw histograms, to compare runs with other tools
+    fprintf(f, "\n%-10s %10s %10s\n", "stage", "upto_ms", "count");
+    for (int stage = 0; stage < INPUT_STAGE_COUNT; stage++) {
+        uint64_t total;
+        snapshot(stage, counts, &total);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] == 0) continue;
+            if (i == BUCKET_COUNT - 1) {
+                fprintf(f, "%-10s %10s %10u\n", STAGE_NAMES[stage], "inf", counts[i]);
+            } else {
+                fprintf(f, "%-10s %10.1f %10u\n", STAGE_NAMES[stage], (i + 1) * BUCKET_US / 1000.0, counts[i]);
+            }
+        }
+    }
+}
+
+void input_latency_dump() {
+    if (!g_enabled) return;
+    const char* dir_path = getenv("ZOMDROID_HOME_DIR");
+    if (dir_path == NULL) return;
+
+    char path[PATH_MAX];
+    char tmp_path[PATH_MAX];
+    snprintf(path, sizeof(path), "%s/%s", dir_path, INPUT_LATENCY_FILE_NAME);
+    snprintf(tmp_path, sizeof(tmp_path), "%s/%s.tmp", dir_path, INPUT_LATENCY_FILE_NAME);
+    pthread_mutex_lock(&g_dump_mutex);
+    FILE* f = fopen(tmp_path, "w");
+    if (f == NULL) {
+        LOGW("Failed to open %s", tmp_path);
+    } else {
+        write_report(f);
+        if (fclose(f) != 0 || rename(tmp_path, path) != 0) {
+            LOGW("Failed to write %s", path);
+        } else {
+            LOGI("Input latency report written");
+        }
+    }
+    pthread_mutex_unlock(&g_dump_mutex);
+}
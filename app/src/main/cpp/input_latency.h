@@ -0,0 +1,48 @@
+#ifndef ZOMDROID_INPUT_LATENCY_H
+#define ZOMDROID_INPUT_LATENCY_H
+
+#include <stdbool.h>
+#include <stdint.h>
+
+/*
+ * Latency histograms of input events, from the Android event timestamp to the frame that shows them.
+ * Off unless ZOMDROID_INPUT_LATENCY=1. The stages are measured at the points event_queue.c can see:
+ *   dispatch - event timestamp to the event entering the queue (Android delivery, views, InputChannel)
+ *   queue    - entering the queue to the GLFW backend taking it, seen once glfwPollEvents returns
+ *   present  - taken by GLFW to the next eglSwapBuffers returning
+ *   total    - event timestamp to that eglSwapBuffers
+ * Times are CLOCK_MONOTONIC, the clock of MotionEvent and KeyEvent timestamps. The report is written
+ * to ZOMDROID_HOME_DIR at exit and whenever the game goes to background.
+ */
+
+#define INPUT_LATENCY_FILE_NAME "input_latency.txt"
+
+typedef enum {
+    INPUT_STAGE_DISPATCH,
+    INPUT_STAGE_QUEUE,
+    INPUT_STAGE_PRESENT,
+    INPUT_STAGE_TOTAL,
+    INPUT_STAGE_COUNT,
+} InputLatencyStage;
+
+typedef struct {
+    uint64_t count;
+    int64_t p50_us;
+    int64_t p95_us;
+    int64_t p99_us;
+} InputLatencySummary;
+
+void input_latency_init();
+
+bool input_latency_is_enabled();
+
+int64_t input_latency_now_ns();
+
+void input_latency_record(InputLatencyStage stage, int64_t latency_ns);
+
+/* Fills one summary per stage, percentiles are upper bounds of the histogram buckets. */
+void input_latency_get_summary(InputLatencySummary summaries[INPUT_STAGE_COUNT]);
+
+void input_latency_dump();
+
+#endif //ZOMDROID_INPUT_LATENCY_H
@@ -0,0 +1,163 @@
+#include "jni_profile.h"
+
+#include <limits.h>
+#include <pthread.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-jniprof"
+
+#define MAX_LIBRARIES 16
+
+typedef struct {
+    JniProfileEntry* entry;
+    uint64_t calls;
+    uint64_t ticks;
+} EntrySnapshot;
+
+typedef struct {
+    const char* name;
+    uint64_t calls;
+    uint64_t ticks;
+} LibraryTotal;
+
+static bool g_enabled;
+static JniProfileEntry** g_entries;
+static int g_entry_count;
+static int g_entry_capacity;
+static pthread_mutex_t g_entries_mutex = PTHREAD_MUTEX_INITIALIZER;
+// the UI thread and atexit can dump at the same time, both use the same tmp file
+static pthread_mutex_t g_dump_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+static uint64_t read_counter_frequency() {
+    uint64_t freq;
+    __asm__ volatile("mrs %0, cntfrq_el0" : "=r"(freq));
+    return freq;
+}
+
+void jni_profile_init() {
+    const char* value = getenv("ZOMDROID_JNI_PROFILE");
+    g_enabled = value != NULL && strcmp(value, "1") == 0;
+    if (!g_enabled) return;
+    atexit(zomdroid_jni_profile_dump);
+    LOGI("JNI call profiling enabled");
+}
+
+bool jni_profile_is_enabled() {
+    return g_enabled;
+}
+
+JniProfileEntry* jni_profile_add(const char* lib_name, const char* sym_name) {
+    if (!g_enabled) return NULL;
+    JniProfileEntry* entry = calloc(1, sizeof(JniProfileEntry));
+    if (entry == NULL) return NULL;
+    snprintf(entry->lib_name, sizeof(entry->lib_name), "%s", lib_name);
+    snprintf(entry->sym_name, sizeof(entry->sym_name), "%s", sym_name);
+
+    pthread_mutex_lock(&g_entries_mutex);
+    if (g_entry_count == g_entry_capacity) {
+        int capacity = g_entry_capacity ? g_entry_capacity * 2 : 256;
+        JniProfileEntry** entries = realloc(g_entries, capacity * sizeof(JniProfileEntry*));
+        if (entries == NULL) {
+            pthread_mutex_unlock(&g_entries_mutex);
+            free(entry);
+            return NULL;
+        }
+        g_entries = entries;
+        g_entry_capacity = capacity;
+    }
+    g_entries[g_entry_count++] = entry;
+    pthread_mutex_unlock(&g_entries_mutex);
+    return entry;
+}
+
+static int compare_by_ticks(const void* a, const void* b) {
+    uint64_t ta = ((const EntrySnapshot*) a)->ticks;
+    uint64_t tb = ((const EntrySnapshot*) b)->ticks;
+    return ta < tb ? 1 : ta > tb ? -1 : 0;
+}
+
+static int compare_totals_by_ticks(const void* a, const void* b) {
+    uint64_t ta = ((const LibraryTotal*) a)->ticks;
+    uint64_t tb = ((const LibraryTotal*) b)->ticks;
+    return ta < tb ? 1 : ta > tb ? -1 : 0;
+}
+
+static void write_report(FILE* f, EntrySnapshot* snapshots, int count) {
+    double ms_per_tick = 1000.0 / (double) read_counter_frequency();
+    LibraryTotal totals[MAX_LIBRARIES] = { 0 };
+    int total_count = 0;
+    uint64_t all_ticks = 0;
+    for (int i = 0; i < count; i++) {
+        all_ticks += snapshots[i].ticks;
+        int t = 0;
+        while (t < total_count && strcmp(totals[t].name, snapshots[i].entry->lib_name) != 0) t++;
+        if (t == total_count) {
+            if (total_count == MAX_LIBRARIES) continue;
+            totals[total_count++].name = snapshots[i].entry->lib_name;
+        }
+        totals[t].calls += snapshots[i].calls;
+        totals[t].ticks += snapshots[i].ticks;
+    }
+    qsort(totals, total_count, sizeof(LibraryTotal), compare_totals_by_ticks);
+    double all_ms = (double) all_ticks * ms_per_tick;
+
+    // wall time, includes whatever the native side calls back into Java
+    fprintf(f, "# libraries\n# total_ms calls share library\n");
+    for (int t = 0; t < total_count; t++) {
+        double ms = (double) totals[t].ticks * ms_per_tick;
+        fprintf(f, "%.1f %llu %.1f%% %s\n", ms, (unsigned long long) totals[t].calls,
+                all_ms > 0 ? ms * 100.0 / all_ms : 0.0, totals[t].name);
+    }
+    fprintf(f, "\n# symbols\n# total_ms calls avg_us share library symbol\n");
+    for (int i = 0; i < count; i++) {
+        if (snapshots[i].calls == 0) continue;
+        double ms = (double) snapshots[i].ticks * ms_per_tick;
+        fprintf(f, "%.1f %llu %.2f %.1f%% %s %s\n", ms, (unsigned long long) snapshots[i].calls,
+                ms * 1000.0 / (double) snapshots[i].calls, all_ms > 0 ? ms * 100.0 / all_ms : 0.0,
+                snapshots[i].entry->lib_name, snapshots[i].entry->sym_name);
+    }
+}
+
+void zomdroid_jni_profile_dump() {
+    if (!g_enabled) return;
+    const char* dir_path = getenv("ZOMDROID_HOME_DIR");
+    if (dir_path == NULL) return;
+
+    pthread_mutex_lock(&g_entries_mutex);
+    int count = g_entry_count;
+    EntrySnapshot* snapshots = malloc((count > 0 ? count : 1) * sizeof(EntrySnapshot));
+    if (snapshots == NULL) {
+        pthread_mutex_unlock(&g_entries_mutex);
+        return;
+    }
+    for (int i = 0; i < count; i++) {
+        snapshots[i].entry = g_entries[i];
+        snapshots[i].calls = __atomic_load_n(&g_entries[i]->calls, __ATOMIC_RELAXED);
+        snapshots[i].ticks = __atomic_load_n(&g_entries[i]->ticks, __ATOMIC_RELAXED);
+    }
+    pthread_mutex_unlock(&g_entries_mutex);
+    qsort(snapshots, count, sizeof(EntrySnapshot), compare_by_ticks);
+
+    char path[PATH_MAX];
+    char tmp_path[PATH_MAX];
+    snprintf(path, sizeof(path), "%s/%s", dir_path, JNI_PROFILE_FILE_NAME);
+    snprintf(tmp_path, sizeof(tmp_path), "%s/%s.tmp", dir_path, JNI_PROFILE_FILE_NAME);
+    pthread_mutex_lock(&g_dump_mutex);
+    FILE* f = fopen(tmp_path, "w");
+    if (f == NULL) {
+        LOGW("Failed to open %s", tmp_path);
+    } else {
+        write_report(f, snapshots, count);
+        if (fclose(f) != 0 || rename(tmp_path, path) != 0) {
+            LOGW("Failed to write %s", path);
+        } else {
+            LOGI("JNI profile of %d symbols written", count);
+        }
+    }
+    pthread_mutex_unlock(&g_dump_mutex);
+    free(snapshots);
+}
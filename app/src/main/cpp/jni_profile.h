@@ -0,0 +1,35 @@
+#ifndef ZOMDROID_JNI_PROFILE_H
+#define ZOMDROID_JNI_PROFILE_H
+
+#include <stdbool.h>
+#include <stdint.h>
+
+/*
+ * Call counts and wall time of every JNI symbol bridged into emulated code, to find the libraries
+ * worth a native arm64 build. Off unless ZOMDROID_JNI_PROFILE=1, then the bridge generates
+ * trampolines that read the virtual counter around the emulated call and add to the entry of their
+ * symbol. Without it the trampolines stay as they were. The report, sorted by time, is written to
+ * ZOMDROID_HOME_DIR at exit and whenever the game goes to background.
+ */
+
+#define JNI_PROFILE_FILE_NAME "jni_profile.txt"
+
+typedef struct {
+    // updated by the trampolines with ldxr/stxr, layout is relied on by the generated code
+    uint64_t calls;
+    uint64_t ticks;
+    char lib_name[32];
+    char sym_name[224];
+} JniProfileEntry;
+
+void jni_profile_init();
+
+bool jni_profile_is_enabled();
+
+/* Returns the entry the trampoline of the symbol adds to, NULL if profiling is off or out of memory. */
+JniProfileEntry* jni_profile_add(const char* lib_name, const char* sym_name);
+
+__attribute__((visibility("default")))
+void zomdroid_jni_profile_dump();
+
+#endif //ZOMDROID_JNI_PROFILE_H
@@ -0,0 +1,126 @@
+#include "jni_sym_name.h"
+
+#include <stdint.h>
+#include <string.h>
+
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-linker"
+
+static int hex_digit_value(char c) {
+    if (c >= '0' && c <= '9') return c - '0';
+    if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+    if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+    return -1;
+}
+
+/* Writes c as modified UTF-8, which is what JVMTI returns names in. Returns the new length. */
+static int append_modified_utf8(char* buf, int len, uint32_t c) {
+    if (c != 0 && c < 0x80) {
+        buf[len++] = (char) c;
+    } else if (c < 0x800) {
+        buf[len++] = (char) (0xC0 | (c >> 6));
+        buf[len++] = (char) (0x80 | (c & 0x3F));
+    } else {
+        buf[len++] = (char) (0xE0 | (c >> 12));
+        buf[len++] = (char) (0x80 | ((c >> 6) & 0x3F));
+        buf[len++] = (char) (0x80 | (c & 0x3F));
+    }
+    return len;
+}
+
+/* "Lpkg/Class/method" -> "Lpkg/Class;.method", the last separator is the one before the method. */
+static bool finish_jni_sym_key(JniSymName* name, int len, int last_separator) {
+    if (last_separator < 0 || last_separator == len - 1) {
+        LOGE("JNI name doesn't contain method name");
+        return false;
+    }
+    memmove(&name->key[last_separator + 2], &name->key[last_separator + 1], len - last_separator - 1);
+    name->key[last_separator] = ';';
+    name->key[last_separator + 1] = '.';
+    name->key[len + 1] = '\0';
+    name->class_sig_len = last_separator + 1;
+    name->method_name = &name->key[last_separator + 2];
+    return true;
+}
+
+bool decode_jni_sym_name(const char* sym_name, JniSymName* name) {
+    if (strncmp(sym_name, "Java_", 5) != 0) {
+        LOGE("Name doesn't start with Java_");
+        return false;
+    }
+    const char* p = sym_name + 5;
+    char* buf = name->key;
+    int len = 0;
+    int last_separator = -1;
+    bool is_sig = false;
+
+    buf[len++] = 'L';
+    name->arg_sig[0] = '\0';
+
+    while (*p != '\0') {
+        // room for the longest escape, the ";." or ")" added at the end and the terminator
+        if (len + 5 >= JNI_SYM_NAME_BUF_SIZE) {
+            LOGE("JNI name is more than %d characters long", JNI_SYM_NAME_BUF_SIZE);
+            return false;
+        }
+        char c = *p++;
+        if (c != '_') {
+            buf[len++] = c;
+            continue;
+        }
+        switch (*p) {
+            case '0': {
+                uint32_t code = 0;
+                for (int d = 1; d <= 4; d++) {
+                    int value = hex_digit_value(p[d]);
+                    if (value < 0) {
+                        LOGE("Malformed _0 escape");
+                        return false;
+                    }
+                    code = (code << 4) | value;
+                }
+                len = append_modified_utf8(buf, len, code);
+                p += 5;
+                break;
+            }
+            case '1':
+                buf[len++] = '_';
+                p++;
+                break;
+            case '2':
+            case '3':
+                if (!is_sig) {
+                    LOGE("Unexpected _%c not in signature", *p);
+                    return false;
+                }
+                buf[len++] = *p == '2' ? ';' : '[';
+                p++;
+                break;
+            case '_':
+                // "__1" and "__0xxxx" are a separator followed by an escape, argument types never start
+                // with an underscore or a non-ASCII character
+                if (!is_sig && p[1] != '1' && p[1] != '0') {
+                    if (!finish_jni_sym_key(name, len, last_separator)) return false;
+                    is_sig = true;
+                    buf = name->arg_sig;
+                    len = 0;
+                    buf[len++] = '(';
+                    p++;
+                    break;
+                }
+                // fall through
+            default:
+                if (!is_sig) last_separator = len;
+                buf[len++] = '/';
+                break;
+        }
+    }
+
+    if (is_sig) {
+        buf[len++] = ')';
+        buf[len] = '\0';
+        return true;
+    }
+    return finish_jni_sym_key(name, len, last_separator);
+}
@@ -0,0 +1,18 @@
+#ifndef ZOMDROID_JNI_SYM_NAME_H
+#define ZOMDROID_JNI_SYM_NAME_H
+
+#include <stdbool.h>
+
+#define JNI_SYM_NAME_BUF_SIZE 1024
+
+typedef struct {
+    char key[JNI_SYM_NAME_BUF_SIZE]; // "Lpkg/Class;.method", same form as the keys of g_method_map
+    int class_sig_len;  // the class signature is the start of key
+    const char* method_name; // points into key
+    char arg_sig[JNI_SYM_NAME_BUF_SIZE]; // "(args)" of an overload suffix, empty without one
+} JniSymName;
+
+/* Decodes Java_<class>_<method>[__<args>] in a single pass, without allocating. */
+bool decode_jni_sym_name(const char* sym_name, JniSymName* name);
+
+#endif //ZOMDROID_JNI_SYM_NAME_H
@@ -5,8 +5,16 @@
 #include <malloc.h>
 #include <unistd.h>
 #include <pthread.h>
+#include <fcntl.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <EGL/egl.h>
 #include "logger.h"
 #include "emulation.h"
+#include "startup_trace.h"
+#include "event_queue.h"
+#include "jni_sym_name.h"
 #include "zomdroid_globals.h"
 
 #include "liblinkernsbypass/android_linker_ns.h"
@@ -21,61 +29,274 @@
 
 #define BUF_SIZE 1024
 
-#define JNI_SIG_CACHE_SIZE 32 //64
+/*
+ * JNI symbol -> method signature resolution for emulated libraries. Resolved signatures are kept in
+ * a hash map and appended to a per-instance database that is preloaded on the next launch, so
+ * binding a symbol seen before never touches JVMTI. Misses go through an index of the main class
+ * loader's classes and their methods, built once and extended when a class isn't found in it.
+ * Classes that still weren't there are remembered until the loader has more classes, so a library
+ * binding many methods of a class the game never loaded doesn't walk the loader for each of them.
+ */
 
 typedef struct {
-    char* sym;  // key
-    char* sig;  // value (full method signature)
-} JniSigCacheEntry;
-
-static JniSigCacheEntry g_jni_sig_cache[JNI_SIG_CACHE_SIZE];
-static int g_jni_sig_cache_next = 0;
-static pthread_mutex_t g_jni_sig_cache_mutex = PTHREAD_MUTEX_INITIALIZER;
-
-static const char* jni_sig_cache_get(const char* sym) {
-    const char* result = NULL;
-    pthread_mutex_lock(&g_jni_sig_cache_mutex);
-    for (int i = 0; i < JNI_SIG_CACHE_SIZE; i++) {
-        if (g_jni_sig_cache[i].sym && strcmp(g_jni_sig_cache[i].sym, sym) == 0) {
-            result = g_jni_sig_cache[i].sig;
-            break;
+    char* key;
+    void* value;
+    uint32_t hash;
+} StrMapEntry;
+
+// open addressing, linear probing, duplicate keys allowed (method overloads)
+typedef struct {
+    StrMapEntry* entries;
+    uint32_t capacity; // power of two
+    uint32_t count;
+} StrMap;
+
+typedef struct {
+    jclass clazz; // global ref
+    bool methods_indexed;
+} ClassInfo;
+
+#define JNI_SIG_DB_HEADER "zomdroid-jni-sig-db 1"
+
+static StrMap g_sig_map;    // JNI symbol name -> method signature
+static StrMap g_class_map;  // class signature -> ClassInfo
+static StrMap g_method_map; // "Lclass;.method" -> method signature, one entry per overload
+static StrMap g_missing_class_map; // class signature -> copy of it, not found by the last walk
+static jobject g_indexed_class_loader;
+static jint g_walked_class_count;
+static int g_sig_db_fd = -1;
+static pthread_mutex_t g_jni_sig_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+static uint32_t str_hash(const char* s) {
+    uint32_t hash = 2166136261u; // FNV-1a
+    for (; *s; s++) {
+        hash ^= (unsigned char) *s;
+        hash *= 16777619u;
+    }
+    return hash;
+}
+
+static bool str_map_grow(StrMap* map) {
+    uint32_t capacity = map->capacity ? map->capacity * 2 : 256;
+    StrMapEntry* entries = calloc(capacity, sizeof(StrMapEntry));
+    if (entries == NULL) return false;
+    for (uint32_t i = 0; i < map->capacity; i++) {
+        StrMapEntry* e = &map->entries[i];
+        if (e->key == NULL) continue;
+        uint32_t pos = e->hash & (capacity - 1);
+        while (entries[pos].key != NULL) pos = (pos + 1) & (capacity - 1);
+        entries[pos] = *e;
+    }
+    free(map->entries);
+    map->entries = entries;
+    map->capacity = capacity;
+    return true;
+}
+
+/* Copies the key, takes ownership of the value. */
+static bool str_map_add(StrMap* map, const char* key, void* value) {
+    if ((map->count + 1) * 4 > map->capacity * 3 && !str_map_grow(map)) return false;
+    char* key_copy = strdup(key);
+    if (key_copy == NULL) return false;
+    uint32_t hash = str_hash(key);
+    uint32_t pos = hash & (map->capacity - 1);
+    while (map->entries[pos].key != NULL) pos = (pos + 1) & (map->capacity - 1);
+    map->entries[pos] = (StrMapEntry) {.key = key_copy, .value = value, .hash = hash};
+    map->count++;
+    return true;
+}
+
+/* Returns the next entry with the given key after *pos, start with *pos = UINT32_MAX. */
+static StrMapEntry* str_map_next(StrMap* map, const char* key, uint32_t hash, uint32_t* pos) {
+    if (map->capacity == 0) return NULL;
+    uint32_t mask = map->capacity - 1;
+    uint32_t i = *pos == UINT32_MAX ? hash & mask : (*pos + 1) & mask;
+    for (; map->entries[i].key != NULL; i = (i + 1) & mask) {
+        StrMapEntry* e = &map->entries[i];
+        if (e->hash == hash && strcmp(e->key, key) == 0) {
+            *pos = i;
+            return e;
         }
     }
-    pthread_mutex_unlock(&g_jni_sig_cache_mutex);
-    return result;
+    return NULL;
 }
 
-static jobjectArray JNICALL stub_getAudioDevices(JNIEnv* env, jclass clazz, jint deviceType) {
-    LOGD("[stub] getAudioDevices(%d) -> NULL", deviceType);
-    (void)env;
-    (void)clazz;
-    (void)deviceType;
-    return NULL;  // пусть FMOD использует дефолтное устройство
+static void* str_map_get(StrMap* map, const char* key) {
+    uint32_t pos = UINT32_MAX;
+    StrMapEntry* e = str_map_next(map, key, str_hash(key), &pos);
+    return e != NULL ? e->value : NULL;
 }
 
-static void jni_sig_cache_put(const char* sym, const char* sig) {
-    if (!sym || !sig) return;
-    // store our own copies, because caller frees its return value
-    char* sym_copy = strdup(sym);
-    char* sig_copy = strdup(sig);
-    if (!sym_copy || !sig_copy) {
-        free(sym_copy);
-        free(sig_copy);
-        return;
+static void str_map_clear(StrMap* map, void (*free_value)(void*)) {
+    for (uint32_t i = 0; i < map->capacity; i++) {
+        if (map->entries[i].key == NULL) continue;
+        free(map->entries[i].key);
+        free_value(map->entries[i].value);
+    }
+    free(map->entries);
+    *map = (StrMap) {0};
+}
+
+static void jni_sig_db_load() {
+    const char* path = getenv("ZOMDROID_JNI_SIG_DB");
+    const char* key = getenv("ZOMDROID_JNI_SIG_DB_KEY");
+    if (path == NULL || key == NULL) return;
+
+    char header[BUF_SIZE];
+    snprintf(header, sizeof(header), "%s %s\n", JNI_SIG_DB_HEADER, key);
+
+    bool is_valid = false;
+    int loaded = 0;
+    FILE* f = fopen(path, "r");
+    if (f != NULL) {
+        char line[BUF_SIZE * 2];
+        is_valid = fgets(line, sizeof(line), f) != NULL && strcmp(line, header) == 0;
+        while (is_valid && fgets(line, sizeof(line), f) != NULL) {
+            // "<symbol> <signature>", both without spaces
+            line[strcspn(line, "\n")] = '\0';
+            char* sig = strchr(line, ' ');
+            if (sig == NULL) continue;
+            *sig++ = '\0';
+            if (str_map_get(&g_sig_map, line) != NULL) continue;
+            char* sig_copy = strdup(sig);
+            if (sig_copy == NULL || !str_map_add(&g_sig_map, line, sig_copy)) {
+                free(sig_copy);
+                break;
+            }
+            loaded++;
+        }
+        fclose(f);
     }
 
-    pthread_mutex_lock(&g_jni_sig_cache_mutex);
+    if (is_valid) {
+        g_sig_db_fd = open(path, O_WRONLY | O_APPEND | O_CLOEXEC);
+        LOGI("Preloaded %d JNI signatures", loaded);
+    } else {
+        // game files changed or first launch, signatures may not hold anymore
+        g_sig_db_fd = open(path, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644);
+        if (g_sig_db_fd >= 0 && write(g_sig_db_fd, header, strlen(header)) < 0) {
+            close(g_sig_db_fd);
+            g_sig_db_fd = -1;
+        }
+    }
+    if (g_sig_db_fd < 0) LOGW("Failed to open JNI signature database %s", path);
+}
 
-    int idx = g_jni_sig_cache_next;
-    g_jni_sig_cache_next = (g_jni_sig_cache_next + 1) % JNI_SIG_CACHE_SIZE;
+static void jni_sig_db_append(const char* sym, const char* sig) {
+    if (g_sig_db_fd < 0) return;
+    char line[BUF_SIZE * 2];
+    int len = snprintf(line, sizeof(line), "%s %s\n", sym, sig);
+    if (len <= 0 || len >= (int) sizeof(line)) return;
+    // single write with O_APPEND, a crash can't leave half a line behind another one
+    if (write(g_sig_db_fd, line, len) != len) LOGW("Failed to write JNI signature of %s", sym);
+}
 
-    free(g_jni_sig_cache[idx].sym);
-    free(g_jni_sig_cache[idx].sig);
+static void free_class_info(void* value) {
+    ClassInfo* info = value;
+    JNIEnv* env = NULL;
+    (*g_zomdroid_jvm)->GetEnv(g_zomdroid_jvm, (void**) &env, JNI_VERSION_1_6);
+    if (env != NULL) (*env)->DeleteGlobalRef(env, info->clazz);
+    free(info);
+}
 
-    g_jni_sig_cache[idx].sym = sym_copy;
-    g_jni_sig_cache[idx].sig = sig_copy;
+/*
+ * Adds the classes of the main class loader that aren't indexed yet. With only_if_grown the walk is
+ * skipped unless the loader has more classes than at the last one.
+ */
+static int index_loader_classes(JNIEnv* env, bool only_if_grown) {
+    if (g_indexed_class_loader != g_zomdroid_main_class_loader) {
+        str_map_clear(&g_class_map, free_class_info);
+        str_map_clear(&g_method_map, free);
+        str_map_clear(&g_missing_class_map, free);
+        g_walked_class_count = 0;
+        g_indexed_class_loader = g_zomdroid_main_class_loader;
+    }
 
-    pthread_mutex_unlock(&g_jni_sig_cache_mutex);
+    jint class_count = 0;
+    jclass* classes = NULL;
+    jvmtiError jvmti_err = (*g_zomdroid_jvmti_env)->GetClassLoaderClasses(g_zomdroid_jvmti_env,
+            g_zomdroid_main_class_loader, &class_count, &classes);
+    if (jvmti_err != JVMTI_ERROR_NONE) {
+        LOGE("Failed to get class loader classes, error code: %d", jvmti_err);
+        return -1;
+    }
+    bool grown = class_count > g_walked_class_count;
+    if (grown) {
+        // whatever was missing may be among the new classes
+        str_map_clear(&g_missing_class_map, free);
+    }
+    int added = 0;
+    for (int a = 0; a < class_count; a++) {
+        if (only_if_grown && !grown) {
+            (*env)->DeleteLocalRef(env, classes[a]);
+            continue;
+        }
+        char* signature = NULL;
+        jvmti_err = (*g_zomdroid_jvmti_env)->GetClassSignature(g_zomdroid_jvmti_env, classes[a], &signature, NULL);
+        if (jvmti_err != JVMTI_ERROR_NONE) {
+            LOGW("Failed to get class signature, error code %d", jvmti_err);
+            continue;
+        }
+        if (str_map_get(&g_class_map, signature) == NULL) {
+            ClassInfo* info = calloc(1, sizeof(ClassInfo));
+            if (info != NULL) info->clazz = (*env)->NewGlobalRef(env, classes[a]);
+            if (info != NULL && info->clazz != NULL && str_map_add(&g_class_map, signature, info)) {
+                added++;
+            } else if (info != NULL) {
+                if (info->clazz != NULL) (*env)->DeleteGlobalRef(env, info->clazz);
+                free(info);
+            }
+        }
+        (*env)->DeleteLocalRef(env, classes[a]);
+        jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)signature);
+        if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
+    }
+    jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)classes);
+    if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
+    if (only_if_grown && !grown) return 0;
+    g_walked_class_count = class_count;
+    LOGD("Indexed %d new classes, %u total", added, g_class_map.count);
+    return 0;
+}
+
+static int index_class_methods(ClassInfo* info, const char* class_sig) {
+    jint method_count = 0;
+    jmethodID* methods = NULL;
+    jvmtiError jvmti_err = (*g_zomdroid_jvmti_env)->GetClassMethods(g_zomdroid_jvmti_env, info->clazz,
+                                                                    &method_count, &methods);
+    if (jvmti_err != JVMTI_ERROR_NONE) {
+        LOGE("Failed to get methods for class %s", class_sig);
+        return -1;
+    }
+    char key[BUF_SIZE];
+    for (int a = 0; a < method_count; a++) {
+        char* mName = NULL;
+        char* mSig = NULL;
+        jvmti_err = (*g_zomdroid_jvmti_env)->GetMethodName(g_zomdroid_jvmti_env, methods[a], &mName, &mSig, NULL);
+        if (jvmti_err != JVMTI_ERROR_NONE) {
+            LOGW("Failed to get method name, error code %d", jvmti_err);
+            continue;
+        }
+        snprintf(key, sizeof(key), "%s.%s", class_sig, mName);
+        char* sig_copy = strdup(mSig);
+        if (sig_copy == NULL || !str_map_add(&g_method_map, key, sig_copy)) free(sig_copy);
+        jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)mName);
+        if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
+        jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)mSig);
+        if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
+    }
+    jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)methods);
+    if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
+    info->methods_indexed = true;
+    return 0;
+}
+
+static jobjectArray JNICALL stub_getAudioDevices(JNIEnv* env, jclass clazz, jint deviceType) {
+    LOGD("[stub] getAudioDevices(%d) -> NULL", deviceType);
+    (void)env;
+    (void)clazz;
+    (void)deviceType;
+    return NULL;  // пусть FMOD использует дефолтное устройство
 }
 
 static void* (*loader_dlopen)(const char* filename, int flags, const void* caller);
@@ -96,9 +317,6 @@ static void init_jni_libs() {
 
     for (int i = 0; i < jni_lib_count; i++) {
         jni_libs[i].handle = NULL;
-        jni_libs[i].mapped_pages = NULL;
-        jni_libs[i].page_count = 0;
-        jni_libs[i].page_code_size = NULL;
         jni_libs[i].is_emulated = false;
     }
 
@@ -128,6 +346,7 @@ void zomdroid_linker_set_proc_addrs(void* _loader_dlopen_fn, void* _loader_dlsym
 __attribute__((visibility("default"), used))
 int zomdroid_linker_init() {
     init_jni_libs();
+    jni_sig_db_load();
     if (zomdroid_emulation_init() != 0) {
         LOGE("Failed to initialize emulation");
         return -1;
@@ -203,131 +422,6 @@ int zomdroid_linker_init() {
     return type;
 }*/
 
-static void parse_jni_sym_name(const char* sym_name, char** class_name, char** method_name, char** method_sig_short) {
-    // Always initialize outputs, so caller can safely free() them even on failure.
-    *class_name = NULL;
-    *method_name = NULL;
-    *method_sig_short = NULL;
-
-    LOGV("Parsing %s", sym_name);
-
-    char buf[BUF_SIZE];
-
-    if (strncmp(sym_name, "Java_", 5) != 0) {
-        LOGE("Name doesn't start with Java_");
-        return;
-    }
-
-    sym_name += 5;
-
-    int i = 0;
-    int sig = 0;
-    int method = 0;
-
-    while (*sym_name != '\0') {
-        if (i + 1 >= BUF_SIZE) {
-            LOGE("Class + method name string is more than %d characters long", BUF_SIZE);
-            return;
-        }
-
-        switch (*sym_name) {
-            case '_':
-                sym_name++;
-                switch (*sym_name) {
-                    case '0':
-                    LOGE("Unexpected _0");
-                        return;
-                    case '1':
-                        buf[i++] = '_';
-                        sym_name++;
-                        break;
-                    case '2':
-                        if (!sig) {
-                            LOGE("Unexpected _2 not in signature");
-                            return;
-                        }
-                        buf[i++] = ';';
-                        sym_name++;
-                        break;
-                    case '3':
-                        if (!sig) {
-                            LOGE("Unexpected _3 not in signature");
-                            return;
-                        }
-                        buf[i++] = '[';
-                        sym_name++;
-                        break;
-                    case '_':
-                        sig = i + 1;
-                        buf[i++] = '\0';
-                        sym_name++;
-                        break;
-                    default:
-                        if (sig) {
-                            buf[i] = '/';
-                        } else  {
-                            if (method) buf[method - 1] = '/';
-                            buf[i] = '\0';
-                            method = i + 1;
-                        }
-                        i++;
-                        break;
-                }
-                break;
-
-            default:
-                buf[i++] = *sym_name;
-                sym_name++;
-                break;
-        }
-    }
-
-    buf[i++] = '\0';
-
-    if (!method) {
-        LOGE("JNI name doesn't contain method name");
-        return;
-    }
-
-    // class_name is everything before "method" index
-    *class_name = (char*)malloc((size_t)method);
-    if (!*class_name) {
-        LOGE("malloc failed for class_name");
-        return;
-    }
-    strcpy(*class_name, buf);
-
-    // method_name starts at buf[method], ends at (sig-1) if signature exists, otherwise end of buf
-    int method_name_len = sig ? (sig - method) : (i - method);
-    *method_name = (char*)malloc((size_t)method_name_len);
-    if (!*method_name) {
-        LOGE("malloc failed for method_name");
-        free(*class_name);
-        *class_name = NULL;
-        return;
-    }
-    strcpy(*method_name, &buf[method]);
-
-    // signature short is optional
-    if (sig) {
-        size_t short_len = (size_t)(i - sig + 2); // + "(" + ")" + '\0' already accounted in original logic
-        *method_sig_short = (char*)calloc(short_len, sizeof(char));
-        if (!*method_sig_short) {
-            LOGE("calloc failed for method_sig_short");
-            // class_name and method_name remain valid; caller may still use them.
-            return;
-        }
-        strcat(*method_sig_short, "(");
-        strcat(*method_sig_short, &buf[sig]);
-        strcat(*method_sig_short, ")");
-    }
-
-    LOGV("className=%s methodName=%s methodSignatureShort=%s",
-         *class_name,
-         *method_name,
-         (*method_sig_short == NULL) ? "<null>" : *method_sig_short);
-}
-
 static int method_signature_to_types(char* sig, char** arg_types, char* return_type) {
     char buf[BUF_SIZE];
     int i = 0;
@@ -444,9 +538,13 @@ static int method_signature_to_types(char* sig, char** arg_types, char* return_t
         sig++;
     }
     switch (*sig) {
-        case '\0':
-        LOGE("Encountered end of string before return type");
-            return -1;
+        case '\0': // argument types decoded from an overload suffix, the bridge doesn't need the return type
+            if (array) {
+                LOGE("Encountered end of string before return type");
+                return -1;
+            }
+            *return_type = 0;
+            break;
         case 'B': // jbyte
             if (array) {
                 *return_type = 'p';
@@ -537,118 +635,215 @@ static int method_signature_to_types(char* sig, char** arg_types, char* return_t
     return 0;
 }
 
-// if we don't need return types there is a better and faster way to do this without JVMTI by just parsing JNI long name
-// LIAMELUI this function is unoptimized and experimental, should roll back to long name parsing asap or at least cache classes and methods
-static char* method_signature_from_symbol_name(const char* sym) {
-    char* class_name = NULL;
-    char* class_sig = NULL;
-    char* method_name = NULL;
-    char* method_sig = NULL; // argument types + return type
-    char* method_sig_short = NULL; // only argument types
-    const char* cached = jni_sig_cache_get(sym);
-    if (cached) {
-        // return a fresh copy because caller will free() it
-        return strdup(cached);
+/* Looks the method up in the index of the main class loader, for names without an overload suffix. */
+static char* method_signature_from_index(const char* sym, const JniSymName* name) {
+    JNIEnv* env = NULL;
+    (*g_zomdroid_jvm)->GetEnv(g_zomdroid_jvm, (void**) &env, JNI_VERSION_1_6);
+    if (env == NULL) {
+        LOGE("Failed to get JNI env for signature lookup of %s", sym);
+        return NULL;
     }
 
-    jvmtiError jvmti_err = 0;
-    jint class_count = 0;
-    jclass* classes = NULL;
-    jclass target_class = NULL;
-    jint method_count = 0;
-    jmethodID *methods = NULL;
-    jmethodID target_method = NULL;
+    char class_sig[BUF_SIZE];
+    memcpy(class_sig, name->key, name->class_sig_len);
+    class_sig[name->class_sig_len] = '\0';
+
+    ClassInfo* info = str_map_get(&g_class_map, class_sig);
+    bool known_missing = str_map_get(&g_missing_class_map, class_sig) != NULL;
+    if (info == NULL || g_indexed_class_loader != g_zomdroid_main_class_loader) {
+        // loaded after the index was last updated, for a class missing at the last walk only if
+        // the loader has new classes since
+        if (index_loader_classes(env, known_missing) != 0) return NULL;
+        info = str_map_get(&g_class_map, class_sig);
+        known_missing = str_map_get(&g_missing_class_map, class_sig) != NULL;
+    }
+    if (info == NULL) {
+        if (known_missing) return NULL;
+        LOGE("Failed to find class by it's signature %s", class_sig);
+        char* sig_copy = strdup(class_sig);
+        if (sig_copy == NULL || !str_map_add(&g_missing_class_map, class_sig, sig_copy)) free(sig_copy);
+        return NULL;
+    }
+    if (!info->methods_indexed && index_class_methods(info, class_sig) != 0) return NULL;
 
-    parse_jni_sym_name(sym, &class_name, &method_name, &method_sig_short);
+    uint32_t pos = UINT32_MAX;
+    StrMapEntry* e = str_map_next(&g_method_map, name->key, str_hash(name->key), &pos);
+    if (e == NULL) {
+        LOGE("Failed to find method %s in class %s", name->method_name, class_sig);
+        return NULL;
+    }
+    return strdup(e->value);
+}
 
-    if (class_name == NULL || method_name == NULL) {
+/* Returns the method signature, or only "(args)" when the symbol name has them. */
+static char* method_signature_from_symbol_name(const char* sym) {
+    JniSymName name;
+    if (!decode_jni_sym_name(sym, &name)) {
         LOGE("Failed to parse JNI symbol name: %s", sym);
-        goto FAIL;
+        return NULL;
+    }
+    LOGV("key=%s argSignature=%s", name.key, name.arg_sig);
+    // overloaded methods have their argument types in the name, that's all the bridge needs
+    if (name.arg_sig[0] != '\0') return strdup(name.arg_sig);
+
+    char* method_sig = NULL;
+    pthread_mutex_lock(&g_jni_sig_mutex);
+    const char* known_sig = str_map_get(&g_sig_map, sym);
+    if (known_sig != NULL) {
+        // return a fresh copy because caller will free() it
+        method_sig = strdup(known_sig);
+    } else {
+        method_sig = method_signature_from_index(sym, &name);
+        char* sig_copy = method_sig != NULL ? strdup(method_sig) : NULL;
+        if (sig_copy != NULL && str_map_add(&g_sig_map, sym, sig_copy)) {
+            jni_sig_db_append(sym, method_sig);
+        } else {
+            free(sig_copy);
+        }
     }
+    pthread_mutex_unlock(&g_jni_sig_mutex);
+    return method_sig;
+}
 
-    class_sig = calloc(strlen(class_name) + 3, sizeof(char));
-    strcat(class_sig, "L");
-    strcat(class_sig, class_name);
-    strcat(class_sig, ";");
 
+/*
+ * Hooked functions are handed out instead of the real ones by dlsym. Each implementation that is
+ * looked up, libEGL's or a renderer's wrapper around it, gets its own slot so every caller still
+ * reaches the one it asked for. When a wrapper calls the implementation it wraps through a hooked
+ * pointer too, only the outermost call runs the hook.
+ */
+#define HOOK_SLOTS 4
 
-    jvmti_err = (*g_zomdroid_jvmti_env)->GetClassLoaderClasses(g_zomdroid_jvmti_env, g_zomdroid_main_class_loader, &class_count, &classes);
-    if (jvmti_err != JVMTI_ERROR_NONE) {
-        LOGE("Failed to get class loader classes, error code: %d", jvmti_err);
-        goto FAIL;
-    }
-    for (int a = 0; a < class_count; a++) {
-        char* signature = NULL;
-        char match = false;
-        jvmti_err = (*g_zomdroid_jvmti_env)->GetClassSignature(g_zomdroid_jvmti_env, classes[a], &signature, NULL);
-        if (jvmti_err != JVMTI_ERROR_NONE) {
-            LOGW("Failed to get class methodSignatureShort, error code %d", jvmti_err);
-            continue;
-        }
-        if (strcmp(signature, class_sig) == 0) {
-            target_class = classes[a];
-            match = true;
+typedef struct {
+    const char* name;
+    void* real[HOOK_SLOTS];
+    void* const traced[HOOK_SLOTS];
+} SymbolHook;
+
+static pthread_mutex_t g_hook_mutex = PTHREAD_MUTEX_INITIALIZER;
+static __thread int g_hook_depth;
+
+static EGLBoolean traced_egl_swap_buffers(int slot, EGLDisplay display, EGLSurface surface);
+static void traced_glfw_poll_events(int slot);
+
+#define SWAP_BUFFERS_SLOT(n) \
+    static EGLBoolean traced_egl_swap_buffers_##n(EGLDisplay d, EGLSurface s) { return traced_egl_swap_buffers(n, d, s); }
+#define POLL_EVENTS_SLOT(n) \
+    static void traced_glfw_poll_events_##n() { traced_glfw_poll_events(n); }
+SWAP_BUFFERS_SLOT(0) SWAP_BUFFERS_SLOT(1) SWAP_BUFFERS_SLOT(2) SWAP_BUFFERS_SLOT(3)
+POLL_EVENTS_SLOT(0) POLL_EVENTS_SLOT(1) POLL_EVENTS_SLOT(2) POLL_EVENTS_SLOT(3)
+
+static SymbolHook g_swap_buffers_hook = {
+        .name = "eglSwapBuffers",
+        .traced = { &traced_egl_swap_buffers_0, &traced_egl_swap_buffers_1, &traced_egl_swap_buffers_2,
+                    &traced_egl_swap_buffers_3 },
+};
+static SymbolHook g_poll_events_hook = {
+        .name = "glfwPollEvents",
+        .traced = { &traced_glfw_poll_events_0, &traced_glfw_poll_events_1, &traced_glfw_poll_events_2,
+                    &traced_glfw_poll_events_3 },
+};
+
+/* Returns the hooked function standing in for real, or real itself once all slots are taken. */
+static void* hook_symbol(SymbolHook* hook, void* real) {
+    void* res = real;
+    pthread_mutex_lock(&g_hook_mutex);
+    for (int i = 0; i < HOOK_SLOTS; i++) {
+        if (hook->real[i] == NULL) hook->real[i] = real;
+        if (hook->real[i] == real) {
+            res = hook->traced[i];
+            break;
         }
-        jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)signature);
-        if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
-        if (match) break;
     }
+    pthread_mutex_unlock(&g_hook_mutex);
+    if (res == real) LOGW("No hook slot left for %s at %p, leaving it unhooked", hook->name, real);
+    return res;
+}
 
-    jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)classes);
-    if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
+// times the first frames for the startup trace, marks frames for the input queue
+static EGLBoolean traced_egl_swap_buffers(int slot, EGLDisplay display, EGLSurface surface) {
+    EGLBoolean (*real)(EGLDisplay, EGLSurface) = g_swap_buffers_hook.real[slot];
+    if (g_hook_depth > 0) return real(display, surface);
+    g_hook_depth++;
+    EGLBoolean res = real(display, surface);
+    g_hook_depth--;
+    startup_trace_frame_presented();
+    // input that didn't fit the queue while the game was busy
+    event_queue_flush();
+    event_queue_note_presented();
+    return res;
+}
 
-    if (target_class == NULL) {
-        LOGE("Failed to find class %s by it's signature %s", class_name, class_sig);
-        goto FAIL;
+// the GLFW backend takes the queued input in there, so whatever waits in the backlog goes in first
+static void traced_glfw_poll_events(int slot) {
+    void (*real)() = g_poll_events_hook.real[slot];
+    if (g_hook_depth > 0) {
+        real();
+        return;
     }
+    event_queue_flush();
+    g_hook_depth++;
+    real();
+    g_hook_depth--;
+    event_queue_note_polled();
+}
 
-    jvmti_err = (*g_zomdroid_jvmti_env)->GetClassMethods(g_zomdroid_jvmti_env, target_class, &method_count, &methods);
-    if (jvmti_err != JVMTI_ERROR_NONE) {
-        LOGE("Failed to get methods for class %s", class_name);
-        goto FAIL;
-    }
-    for (int a = 0; a < method_count; a++) {
-        char* mName = NULL;
-        char* mSig = NULL;
-        char match = false;
-        jvmti_err = (*g_zomdroid_jvmti_env)->GetMethodName(g_zomdroid_jvmti_env, methods[a], &mName, &mSig, NULL);
-        if (jvmti_err != JVMTI_ERROR_NONE) {
-            LOGW("Failed to get method name, error code %d", jvmti_err);
-            continue;
+static void* load_jni_lib(EmulatedLib* lib, const char* filename, int flags, const void* caller) {
+    //trying to load native library
+    if (strcmp(lib->name, "fmodintegration64") != 0) { //later I should fix that. Java for some reason didn't see classes inside
+        const char* base = strrchr(filename, '/');
+        if (base)
+            base++;
+        else
+            base = filename;
+
+        char android_filename[BUF_SIZE] = {0};
+        snprintf(android_filename, BUF_SIZE, "android/arm64-v8a/%s", base);
+
+        if (access(android_filename, F_OK) == 0) {
+            //LOGD("[linker] Native Android version of %s is found", android_filename);
+            lib->handle = loader_dlopen(android_filename, flags, caller);
+            lib->is_emulated = false;
+            return lib->handle;
         }
-        if (strcmp(method_name, mName) == 0 && (method_sig_short == NULL || strstr(mSig, method_sig_short) != NULL)) {
-            target_method = methods[a];
-            method_sig = strdup(mSig);
-            match = true;
-        }
-        jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)mName);
-        if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
-        jvmti_err = (*g_zomdroid_jvmti_env)->Deallocate(g_zomdroid_jvmti_env, (unsigned char*)mSig);
-        if (jvmti_err != JVMTI_ERROR_NONE) LOGW("Failed to deallocate JVM TI memory, error code: %d", jvmti_err);
-        if (match) break;
+        LOGW("[linker] Native Android version of %s not found, loading through box64...", android_filename);
     }
 
-    if (target_method == NULL) {
-        LOGE("Failed to find method %s with signature %s in class %s", method_name, (method_sig_short == NULL) ? "<null>" : method_sig_short, class_name);
-        goto FAIL;
+    //elsewise loading in box64
+    LOGE("[linker] Loading %s in box64...", filename);
+    needed_libs_t* needed_lib = new_neededlib(1);
+    needed_lib->names[0] = strdup(filename);
+    int bindnow = (flags & 0x2) ? 1 : 0;
+    int islocal = (flags & 0x100) ? 0 : 1;
+    // int deepbind = (flags & 0x8) ? 1 : 0;
+    if (AddNeededLib(NULL, islocal, bindnow, 1, needed_lib, NULL, my_context, thread_get_emu()) != 0) {
+        LOGE("[linker] Failed to load %s in box64", lib->name);
+        RemoveNeededLib(NULL, islocal, needed_lib, my_context, thread_get_emu());
+        free_neededlib(needed_lib);
+        return NULL;
+    } else {
+        //LOGE("[linker] box64 AddNeededLib: trying to load %s", filename);
     }
-
-    free(class_name);
-    free(class_sig);
-    free(method_name);
-    free(method_sig_short);
-    jni_sig_cache_put(sym, method_sig);
-    return method_sig;
-    FAIL:
-    free(class_name);
-    free(class_sig);
-    free(method_name);
-    free(method_sig);
-    free(method_sig_short);
-    return NULL;
+    lib->handle = needed_lib->libs[0];
+    lib->is_emulated = true;
+
+    free_neededlib(needed_lib);
+
+    int old_deferredInit = my_context->deferredInit;
+    my_context->deferredInit = 1;
+    elfheader_t** old_deferredInitList = my_context->deferredInitList;
+    my_context->deferredInitList = NULL;
+    int old_deferredInitSz = my_context->deferredInitSz;
+    int old_deferredInitCap = my_context->deferredInitCap;
+    my_context->deferredInitSz = my_context->deferredInitCap = 0;
+    RunDeferredElfInit(thread_get_emu());
+    my_context->deferredInit = old_deferredInit;
+    my_context->deferredInitList = old_deferredInitList;
+    my_context->deferredInitSz = old_deferredInitSz;
+    my_context->deferredInitCap = old_deferredInitCap;
+    return lib->handle;
 }
 
-
 __attribute__((visibility("default"), used))
 void *dlopen(const char* filename, int flags) {
     //LOGE("[linker] dlopen called with filename=%s flags=%d", filename, flags);
@@ -664,59 +859,12 @@ void *dlopen(const char* filename, int flags) {
             return jni_libs[i].handle;
         }
 
-        //trying to load native library
-        if (strcmp(jni_libs[i].name, "fmodintegration64") != 0) { //later I should fix that. Java for some reason didn't see classes inside
-            const char* base = strrchr(filename, '/');
-            if (base)
-                base++;
-            else
-                base = filename;
-
-            char android_filename[BUF_SIZE] = {0};
-            snprintf(android_filename, BUF_SIZE, "android/arm64-v8a/%s", base);
-
-            if (access(android_filename, F_OK) == 0) {
-                //LOGD("[linker] Native Android version of %s is found", android_filename);
-                jni_libs[i].handle = loader_dlopen(android_filename, flags, __builtin_return_address(0));
-                jni_libs[i].is_emulated = false;
-                return jni_libs[i].handle;
-            }
-            LOGW("[linker] Native Android version of %s not found, loading through box64...", android_filename);
-        }
-
-        //elsewise loading in box64
-        LOGE("[linker] Loading %s in box64...", filename);
-        needed_libs_t* needed_lib = new_neededlib(1);
-        needed_lib->names[0] = strdup(filename);
-        int bindnow = (flags & 0x2) ? 1 : 0;
-        int islocal = (flags & 0x100) ? 0 : 1;
-        // int deepbind = (flags & 0x8) ? 1 : 0;
-        if (AddNeededLib(NULL, islocal, bindnow, 1, needed_lib, NULL, my_context, thread_get_emu()) != 0) {
-            LOGE("[linker] Failed to load %s in box64", jni_libs[i].name);
-            RemoveNeededLib(NULL, islocal, needed_lib, my_context, thread_get_emu());
-            free_neededlib(needed_lib);
-            return NULL;
-        } else {
-            //LOGE("[linker] box64 AddNeededLib: trying to load %s", filename);
-        }
-        jni_libs[i].handle = needed_lib->libs[0];
-        jni_libs[i].is_emulated = true;
-
-        free_neededlib(needed_lib);
-
-        int old_deferredInit = my_context->deferredInit;
-        my_context->deferredInit = 1;
-        elfheader_t** old_deferredInitList = my_context->deferredInitList;
-        my_context->deferredInitList = NULL;
-        int old_deferredInitSz = my_context->deferredInitSz;
-        int old_deferredInitCap = my_context->deferredInitCap;
-        my_context->deferredInitSz = my_context->deferredInitCap = 0;
-        RunDeferredElfInit(thread_get_emu());
-        my_context->deferredInit = old_deferredInit;
-        my_context->deferredInitList = old_deferredInitList;
-        my_context->deferredInitSz = old_deferredInitSz;
-        my_context->deferredInitCap = old_deferredInitCap;
-        return jni_libs[i].handle;
+        uint64_t start_ns = startup_trace_now_ns();
+        void* handle = load_jni_lib(&jni_libs[i], filename, flags, __builtin_return_address(0));
+        startup_trace_complete("dlopen", jni_libs[i].is_emulated ? "emulation" : "native", filename,
+                               start_ns, startup_trace_now_ns(), gettid());
+        // written out with the rest at the first present
+        return handle;
     }
 
     if (strcmp(filename, "libvulkan.so") == 0 && vulkan_loader_handle) {
@@ -740,7 +888,7 @@ void *dlsym(void *handle, const char *sym_name) {
                 strstr(sym_name, "getAudioDevices")) {
 
                 void* sym = zomdroid_emulation_bridge_jni_symbol(
-                        &jni_libs[i],
+                        jni_libs[i].name, sym_name,
                         (uintptr_t)stub_getAudioDevices,
                         "ppi",  // JNIEnv*, jclass, jint
                         'p'     // возвращаем jobjectArray
@@ -784,7 +932,7 @@ void *dlsym(void *handle, const char *sym_name) {
             }
             free(method_sig);
 
-            void* sym = zomdroid_emulation_bridge_jni_symbol(&jni_libs[i], box64_sym,
+            void* sym = zomdroid_emulation_bridge_jni_symbol(jni_libs[i].name, sym_name, box64_sym,
                                                              arg_types, ret_type);
             if (sym == NULL) {
                 LOGE("Failed to create emulation bridge for jni symbol %s", sym_name);
@@ -799,7 +947,14 @@ void *dlsym(void *handle, const char *sym_name) {
         }
     }
 
-    return loader_dlsym(handle, sym_name, __builtin_return_address(0));
+    void* sym = loader_dlsym(handle, sym_name, __builtin_return_address(0));
+    if (sym != NULL && sym_name != NULL && strcmp(sym_name, "eglSwapBuffers") == 0) {
+        return hook_symbol(&g_swap_buffers_hook, sym);
+    }
+    if (sym != NULL && sym_name != NULL && strcmp(sym_name, "glfwPollEvents") == 0) {
+        return hook_symbol(&g_poll_events_hook, sym);
+    }
+    return sym;
 }
 
 __attribute__((visibility("default"), used))
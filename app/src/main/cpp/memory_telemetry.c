@@ -0,0 +1,410 @@
+#include "memory_telemetry.h"
+
+#include <errno.h>
+#include <fcntl.h>
+#include <limits.h>
+#include <malloc.h>
+#include <pthread.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "zomdroid_globals.h"
+#include "flight_recorder.h"
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-memory"
+
+#define RING_MASK (MEMORY_TELEMETRY_RING_SIZE - 1)
+#define MAX_FILE_BYTES (8 * 1024 * 1024)
+#define ACTION_COOLDOWN_MS 30000
+
+enum {
+    ACTION_GC = 1 << 0,
+    ACTION_TRIM = 1 << 1,
+    ACTION_WARN = 1 << 2,
+};
+
+// only touched by the sampler thread
+static MemorySample g_ring[MEMORY_TELEMETRY_RING_SIZE];
+static uint64_t g_ring_pos;
+
+static int g_interval_ms = 1000;
+static int64_t g_low_kb = 300 * 1024;
+static int g_heap_percent = 90;
+static int g_actions = 0;
+
+static char g_file_path[PATH_MAX];
+static int g_file_fd = -1;
+static size_t g_file_bytes;
+
+// procfs files are kept open and re-read with pread at offset 0, which regenerates the contents
+static int g_status_fd = -1;
+static int g_rollup_fd = -1;
+static int g_meminfo_fd = -1;
+
+static jclass g_launcher_class;
+static jmethodID g_launcher_on_low_memory;
+
+static jobject g_runtime;
+static jmethodID g_runtime_total_memory;
+static jmethodID g_runtime_free_memory;
+static jmethodID g_runtime_max_memory;
+static jclass g_system_class;
+static jmethodID g_system_gc;
+
+static uint64_t now_ms() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000ull + (uint64_t) ts.tv_nsec / 1000000ull;
+}
+
+static int env_int(const char* name, int def) {
+    const char* value = getenv(name);
+    if (value == NULL || value[0] == '\0') return def;
+    return (int) strtol(value, NULL, 10);
+}
+
+static int parse_actions(const char* value) {
+    if (value == NULL) return 0;
+    char copy[64];
+    snprintf(copy, sizeof(copy), "%s", value);
+    int actions = 0;
+    char* save = NULL;
+    for (char* token = strtok_r(copy, ",", &save); token != NULL; token = strtok_r(NULL, ",", &save)) {
+        if (strcmp(token, "gc") == 0) actions |= ACTION_GC;
+        else if (strcmp(token, "trim") == 0) actions |= ACTION_TRIM;
+        else if (strcmp(token, "warn") == 0) actions |= ACTION_WARN;
+        else LOGW("Unknown memory action %s", token);
+    }
+    return actions;
+}
+
+static int read_proc(int fd, char* buf, size_t size) {
+    if (fd < 0) return -1;
+    ssize_t n = pread(fd, buf, size - 1, 0);
+    if (n < 0) return -1;
+    buf[n] = '\0';
+    return 0;
+}
+
+/* Finds "key" at the start of a line and parses the number after it. */
+static int64_t find_kb(const char* buf, const char* key) {
+    size_t key_len = strlen(key);
+    const char* p = buf;
+    while (p != NULL && *p != '\0') {
+        if (strncmp(p, key, key_len) == 0)
+            return strtoll(p + key_len, NULL, 10);
+        p = strchr(p, '\n');
+        if (p != NULL) p++;
+    }
+    return -1;
+}
+
+static void sample_proc(MemorySample* s) {
+    char buf[4096];
+    if (read_proc(g_status_fd, buf, sizeof(buf)) == 0) {
+        s->rss_kb = find_kb(buf, "VmRSS:");
+        s->rss_anon_kb = find_kb(buf, "RssAnon:");
+        s->swap_kb = find_kb(buf, "VmSwap:");
+        s->vm_size_kb = find_kb(buf, "VmSize:");
+    }
+    if (read_proc(g_rollup_fd, buf, sizeof(buf)) == 0) {
+        s->pss_kb = find_kb(buf, "Pss:");
+    }
+    if (read_proc(g_meminfo_fd, buf, sizeof(buf)) == 0) {
+        s->mem_available_kb = find_kb(buf, "MemAvailable:");
+        s->swap_total_kb = find_kb(buf, "SwapTotal:");
+        s->swap_free_kb = find_kb(buf, "SwapFree:");
+    }
+}
+
+static bool check_jni_exception(JNIEnv* env) {
+    if (!(*env)->ExceptionCheck(env)) return false;
+    (*env)->ExceptionDescribe(env);
+    (*env)->ExceptionClear(env);
+    return true;
+}
+
+#define ATTACH_FAILURE_LOG_EVERY 60
+static uint32_t g_attach_failures = 0;
+
+/* Attaches the sampler to the game JVM once it exists. Returns NULL until then. */
+static JNIEnv* attach_game_jvm() {
+    JavaVM* jvm = g_zomdroid_jvm;
+    if (jvm == NULL) return NULL;
+
+    JNIEnv* env = NULL;
+    JavaVMAttachArgs args = {.version = JNI_VERSION_1_6, .name = "zomdroid-memory", .group = NULL};
+    if ((*jvm)->AttachCurrentThreadAsDaemon(jvm, (void**) &env, &args) != JNI_OK) {
+        // retried every sample, only log the first failure and then every ATTACH_FAILURE_LOG_EVERY
+        if (g_attach_failures++ % ATTACH_FAILURE_LOG_EVERY == 0)
+            LOGE("Failed to attach memory sampler to game JVM (%u attempts)", g_attach_failures);
+        return NULL;
+    }
+
+    jclass runtime_class = (*env)->FindClass(env, "java/lang/Runtime");
+    jmethodID get_runtime = runtime_class == NULL ? NULL :
+            (*env)->GetStaticMethodID(env, runtime_class, "getRuntime", "()Ljava/lang/Runtime;");
+    if (get_runtime != NULL) {
+        g_runtime_total_memory = (*env)->GetMethodID(env, runtime_class, "totalMemory", "()J");
+        g_runtime_free_memory = (*env)->GetMethodID(env, runtime_class, "freeMemory", "()J");
+        g_runtime_max_memory = (*env)->GetMethodID(env, runtime_class, "maxMemory", "()J");
+        jobject runtime = (*env)->CallStaticObjectMethod(env, runtime_class, get_runtime);
+        if (runtime != NULL) g_runtime = (*env)->NewGlobalRef(env, runtime);
+    }
+    jclass system_class = (*env)->FindClass(env, "java/lang/System");
+    if (system_class != NULL) {
+        g_system_class = (*env)->NewGlobalRef(env, system_class);
+        g_system_gc = (*env)->GetStaticMethodID(env, system_class, "gc", "()V");
+    }
+    check_jni_exception(env);
+    return env;
+}
+
+static void sample_heap(JNIEnv* env, MemorySample* s) {
+    if (env == NULL || g_runtime == NULL) return;
+    jlong total = (*env)->CallLongMethod(env, g_runtime, g_runtime_total_memory);
+    jlong free = (*env)->CallLongMethod(env, g_runtime, g_runtime_free_memory);
+    jlong max = (*env)->CallLongMethod(env, g_runtime, g_runtime_max_memory);
+    if (check_jni_exception(env)) return;
+    s->heap_used_kb = (total - free) / 1024;
+    s->heap_committed_kb = total / 1024;
+    s->heap_max_kb = max / 1024;
+}
+
+typedef struct {
+    jlong available_mb;
+    jlong pss_mb;
+} WarnArgs;
+
+/* Runs on its own short-lived thread so the sampler never has to attach to both VMs. */
+static void* warn_launcher(void* arg) {
+    WarnArgs* args = arg;
+    JNIEnv* env = NULL;
+    if ((*g_zomdroid_art_vm)->AttachCurrentThread(g_zomdroid_art_vm, (void**) &env, NULL) == JNI_OK) {
+        (*env)->CallStaticVoidMethod(env, g_launcher_class, g_launcher_on_low_memory,
+                                     args->available_mb, args->pss_mb);
+        check_jni_exception(env);
+        (*g_zomdroid_art_vm)->DetachCurrentThread(g_zomdroid_art_vm);
+    }
+    free(args);
+    return NULL;
+}
+
+static void format_actions(int actions, char* out, size_t size) {
+    size_t len = 0;
+    out[0] = '\0';
+    if (actions & ACTION_GC) len += snprintf(out + len, size - len, "gc ");
+    if (actions & ACTION_TRIM) len += snprintf(out + len, size - len, "trim ");
+    if (actions & ACTION_WARN) len += snprintf(out + len, size - len, "warn ");
+    if (len > 0) out[len - 1] = '\0';
+}
+
+static int run_actions(JNIEnv* env, const MemorySample* s, const char* reason) {
+    int done = 0;
+    if ((g_actions & ACTION_GC) && env != NULL && g_system_gc != NULL) {
+        (*env)->CallStaticVoidMethod(env, g_system_class, g_system_gc);
+        check_jni_exception(env);
+        done |= ACTION_GC;
+    }
+    if (g_actions & ACTION_TRIM) {
+#ifdef M_PURGE
+        // return freed native heap pages to the kernel
+        mallopt(M_PURGE, 0);
+        done |= ACTION_TRIM;
+#endif
+    }
+    if ((g_actions & ACTION_WARN) && g_launcher_class != NULL && g_zomdroid_art_vm != NULL) {
+        WarnArgs* args = malloc(sizeof(WarnArgs));
+        args->available_mb = s->mem_available_kb / 1024;
+        args->pss_mb = s->pss_kb / 1024;
+        pthread_t thread;
+        if (pthread_create(&thread, NULL, warn_launcher, args) == 0) {
+            pthread_detach(thread);
+            done |= ACTION_WARN;
+        } else {
+            free(args);
+        }
+    }
+    char names[32];
+    format_actions(done, names, sizeof(names));
+    LOGW("Memory threshold crossed (%s): available %lld MB, pss %lld MB, heap %lld/%lld MB, actions: %s",
+         reason, (long long) s->mem_available_kb / 1024, (long long) s->pss_kb / 1024,
+         (long long) s->heap_used_kb / 1024, (long long) s->heap_max_kb / 1024, done != 0 ? names : "none");
+    return done;
+}
+
+/*
+ * Edge triggered with hysteresis: a condition fires once when crossed and re-arms only after memory
+ * recovers past a margin, and never more often than the cooldown.
+ */
+static int check_thresholds(JNIEnv* env, const MemorySample* s) {
+    static bool low_armed = true, heap_armed = true;
+    static uint64_t last_action_ms = 0;
+
+    const char* reason = NULL;
+
+    if (s->mem_available_kb >= 0) {
+        if (s->mem_available_kb < g_low_kb) {
+            if (low_armed) reason = "low system memory";
+            low_armed = false;
+        } else if (s->mem_available_kb > g_low_kb + g_low_kb / 5) {
+            low_armed = true;
+        }
+    }
+    if (g_heap_percent > 0 && s->heap_max_kb > 0) {
+        int64_t percent = s->heap_used_kb * 100 / s->heap_max_kb;
+        if (percent >= g_heap_percent) {
+            if (heap_armed && reason == NULL) reason = "JVM heap nearly full";
+            heap_armed = false;
+        } else if (percent < g_heap_percent - 5) {
+            heap_armed = true;
+        }
+    }
+
+    if (reason == NULL) return 0;
+    if (last_action_ms != 0 && s->time_ms - last_action_ms < ACTION_COOLDOWN_MS) return 0;
+    last_action_ms = s->time_ms;
+    return run_actions(env, s, reason);
+}
+
+static const char CSV_HEADER[] = "time_ms,pss_kb,rss_kb,rss_anon_kb,swap_kb,vm_size_kb,mem_available_kb,"
+                                 "swap_total_kb,swap_free_kb,heap_used_kb,heap_committed_kb,heap_max_kb,actions\n";
+
+static int format_sample(const MemorySample* s, char* line, size_t size) {
+    char actions[32];
+    format_actions(s->actions, actions, sizeof(actions));
+    return snprintf(line, size, "%llu,%lld,%lld,%lld,%lld,%lld,%lld,%lld,%lld,%lld,%lld,%lld,%s\n",
+                       (unsigned long long) s->time_ms, (long long) s->pss_kb, (long long) s->rss_kb,
+                       (long long) s->rss_anon_kb, (long long) s->swap_kb, (long long) s->vm_size_kb,
+                       (long long) s->mem_available_kb, (long long) s->swap_total_kb,
+                       (long long) s->swap_free_kb, (long long) s->heap_used_kb,
+                       (long long) s->heap_committed_kb, (long long) s->heap_max_kb, actions);
+}
+
+static void write_all(const char* data, size_t len) {
+    if (write(g_file_fd, data, len) == (ssize_t) len)
+        g_file_bytes += len;
+}
+
+/* Starts the file over with just the samples still in the ring. */
+static void rewrite_file_from_ring() {
+    if (ftruncate(g_file_fd, 0) != 0 || lseek(g_file_fd, 0, SEEK_SET) != 0) {
+        LOGW("Failed to truncate %s, no longer recording: %s", g_file_path, strerror(errno));
+        close(g_file_fd);
+        g_file_fd = -1;
+        return;
+    }
+    g_file_bytes = 0;
+    write_all(CSV_HEADER, sizeof(CSV_HEADER) - 1);
+
+    uint64_t end = g_ring_pos;
+    uint64_t count = end < MEMORY_TELEMETRY_RING_SIZE ? end : MEMORY_TELEMETRY_RING_SIZE;
+    char buf[16 * 1024];
+    size_t buf_len = 0;
+    for (uint64_t i = end - count; i < end; i++) {
+        if (buf_len + 256 > sizeof(buf)) {
+            write_all(buf, buf_len);
+            buf_len = 0;
+        }
+        int len = format_sample(&g_ring[i & RING_MASK], buf + buf_len, sizeof(buf) - buf_len);
+        if (len > 0) buf_len += (size_t) len;
+    }
+    write_all(buf, buf_len);
+}
+
+static void write_sample(const MemorySample* s) {
+    if (g_file_fd < 0) return;
+    char line[256];
+    int len = format_sample(s, line, sizeof(line));
+    if (len <= 0) return;
+    if (g_file_bytes + (size_t) len > MAX_FILE_BYTES) {
+        // the sample is already in the ring, so it is written as part of the rewrite
+        rewrite_file_from_ring();
+        return;
+    }
+    write_all(line, (size_t) len);
+}
+
+static void* sampler_main(void* arg) {
+    (void) arg;
+    pthread_setname_np(pthread_self(), "zomdroid-memory");
+
+    JNIEnv* env = NULL;
+    uint64_t start_ms = now_ms();
+    struct timespec interval = {.tv_sec = g_interval_ms / 1000, .tv_nsec = (long) (g_interval_ms % 1000) * 1000000L};
+
+    for (;;) {
+        if (env == NULL) env = attach_game_jvm();
+
+        MemorySample s;
+        memset(&s, 0xff, sizeof(s)); // every field -1
+        s.time_ms = now_ms() - start_ms;
+        sample_proc(&s);
+        sample_heap(env, &s);
+
+        s.actions = check_thresholds(env, &s);
+
+        flight_recorder_event(FR_EVENT_MEMORY, 0, s.mem_available_kb / 1024,
+                              (double) s.rss_kb / 1024.0, (double) s.pss_kb / 1024.0);
+
+        g_ring[g_ring_pos & RING_MASK] = s;
+        g_ring_pos++;
+        write_sample(&s);
+
+        nanosleep(&interval, NULL);
+    }
+    return NULL;
+}
+
+void memory_telemetry_bind_launcher(JNIEnv* art_env) {
+    jclass clazz = (*art_env)->FindClass(art_env, "com/zomdroid/MemoryTelemetry");
+    if (clazz == NULL) {
+        (*art_env)->ExceptionClear(art_env);
+        LOGE("Failed to find MemoryTelemetry class");
+        return;
+    }
+    g_launcher_on_low_memory = (*art_env)->GetStaticMethodID(art_env, clazz, "onLowMemory", "(JJ)V");
+    if (g_launcher_on_low_memory == NULL) {
+        (*art_env)->ExceptionClear(art_env);
+        LOGE("Failed to find MemoryTelemetry.onLowMemory");
+        return;
+    }
+    g_launcher_class = (*art_env)->NewGlobalRef(art_env, clazz);
+}
+
+int memory_telemetry_start(const char* dir_path) {
+    g_interval_ms = env_int("ZOMDROID_MEMORY_SAMPLE_MS", 1000);
+    if (g_interval_ms < 100) g_interval_ms = 100;
+    g_low_kb = (int64_t) env_int("ZOMDROID_MEMORY_LOW_MB", 300) * 1024;
+    g_heap_percent = env_int("ZOMDROID_MEMORY_HEAP_PERCENT", 90);
+    g_actions = parse_actions(getenv("ZOMDROID_MEMORY_ACTIONS"));
+
+    g_status_fd = open("/proc/self/status", O_RDONLY | O_CLOEXEC);
+    g_rollup_fd = open("/proc/self/smaps_rollup", O_RDONLY | O_CLOEXEC); // kernel 4.14+
+    g_meminfo_fd = open("/proc/meminfo", O_RDONLY | O_CLOEXEC);
+
+    if (dir_path != NULL) {
+        snprintf(g_file_path, sizeof(g_file_path), "%s/%s", dir_path, MEMORY_TELEMETRY_FILE_NAME);
+        g_file_fd = open(g_file_path, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644);
+        if (g_file_fd < 0) {
+            LOGW("Failed to open %s: %s", g_file_path, strerror(errno));
+        } else {
+            write_all(CSV_HEADER, sizeof(CSV_HEADER) - 1);
+        }
+    }
+
+    pthread_t thread;
+    if (pthread_create(&thread, NULL, sampler_main, NULL) != 0) {
+        LOGE("Failed to create memory sampler thread");
+        return -1;
+    }
+    pthread_detach(thread);
+    LOGI("Memory telemetry every %d ms, low threshold %lld MB, heap threshold %d%%, actions 0x%x",
+         g_interval_ms, (long long) g_low_kb / 1024, g_heap_percent, g_actions);
+    return 0;
+}
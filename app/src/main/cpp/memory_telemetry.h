@@ -0,0 +1,46 @@
+#ifndef ZOMDROID_MEMORY_TELEMETRY_H
+#define ZOMDROID_MEMORY_TELEMETRY_H
+
+#include <jni.h>
+#include <stddef.h>
+#include <stdint.h>
+
+/*
+ * Periodic process and system memory sampler. Samples go into an in-memory ring and are appended to
+ * a CSV file in the home dir, so the history survives a crash and can be graphed by the launcher.
+ * Once the file reaches its size cap it is rewritten from the ring, keeping only recent history.
+ * When a threshold is crossed the configured actions run on the sampler thread.
+ *
+ * Configured through env vars set by the launcher:
+ *   ZOMDROID_MEMORY_SAMPLE_MS      sampling interval, default 1000
+ *   ZOMDROID_MEMORY_LOW_MB         MemAvailable threshold, default 300
+ *   ZOMDROID_MEMORY_HEAP_PERCENT   JVM heap used/max threshold, default 90, 0 disables
+ *   ZOMDROID_MEMORY_ACTIONS        comma separated list of gc, trim, warn
+ */
+
+#define MEMORY_TELEMETRY_RING_SIZE 4096 // must be a power of two
+#define MEMORY_TELEMETRY_FILE_NAME "memory.csv"
+
+/* All sizes in kB, -1 if not available. */
+typedef struct {
+    uint64_t time_ms; // since sampler start
+    int64_t pss_kb;
+    int64_t rss_kb;
+    int64_t rss_anon_kb;
+    int64_t swap_kb;
+    int64_t vm_size_kb;
+    int64_t mem_available_kb;
+    int64_t swap_total_kb;
+    int64_t swap_free_kb;
+    int64_t heap_used_kb;
+    int64_t heap_committed_kb;
+    int64_t heap_max_kb;
+    int32_t actions; // actions taken after this sample, bit mask
+} MemorySample;
+
+/* Caches the launcher callback class, must be called from a thread with the app class loader. */
+void memory_telemetry_bind_launcher(JNIEnv* art_env);
+
+int memory_telemetry_start(const char* dir_path);
+
+#endif //ZOMDROID_MEMORY_TELEMETRY_H
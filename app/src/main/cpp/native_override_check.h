@@ -0,0 +1,50 @@
+#ifndef ZOMDROID_NATIVE_OVERRIDE_CHECK_H
+#define ZOMDROID_NATIVE_OVERRIDE_CHECK_H
+
+#include <float.h>
+#include <limits.h>
+#include <math.h>
+#include <stdbool.h>
+#include <string.h>
+
+#include "openjdk/jni.h"
+
+/*
+ * For the <symbol>__zomdroid_check functions of override libraries (see native_overrides.h). Every
+ * check runs the emulated and the native implementation over the same inputs, so the edge cases
+ * where arm64 and x86_64 code tend to differ get covered by all of them: signed zeros, subnormals,
+ * infinities, NaN, values at the precision limit and integer extremes. A check combines these for
+ * every argument and may add inputs of its own.
+ *
+ * Checks run on the thread that binds the method, in the middle of class initialization, so they
+ * should stay small: no JNI calls that could load classes, no locks the game might hold.
+ */
+
+static const jfloat NATIVE_OVERRIDE_FLOAT_INPUTS[] = {
+        0.0f, -0.0f, 1.0f, -1.0f, 0.5f, -0.5f, 0.1f, 3.14159265f, 16777216.0f, 16777217.0f,
+        FLT_MIN, FLT_MIN / 4, -FLT_MIN / 4, FLT_MAX, -FLT_MAX, FLT_EPSILON, INFINITY, -INFINITY, NAN,
+};
+
+static const jdouble NATIVE_OVERRIDE_DOUBLE_INPUTS[] = {
+        0.0, -0.0, 1.0, -1.0, 0.5, -0.5, 0.1, 3.141592653589793, 9007199254740992.0, 9007199254740993.0,
+        DBL_MIN, DBL_MIN / 4, -DBL_MIN / 4, DBL_MAX, -DBL_MAX, DBL_EPSILON, INFINITY, -INFINITY, NAN,
+};
+
+static const jint NATIVE_OVERRIDE_INT_INPUTS[] = {
+        0, 1, -1, 2, -2, 255, 256, 65535, 65536, INT_MAX, INT_MIN, INT_MAX - 1, INT_MIN + 1,
+};
+
+#define NATIVE_OVERRIDE_INPUT_COUNT(inputs) ((int) (sizeof(inputs) / sizeof((inputs)[0])))
+
+/* Same bits, except that any NaN matches any other NaN, Java doesn't tell NaN payloads apart. */
+static inline bool native_override_same_float(jfloat a, jfloat b) {
+    if (isnan(a) || isnan(b)) return isnan(a) && isnan(b);
+    return memcmp(&a, &b, sizeof(a)) == 0;
+}
+
+static inline bool native_override_same_double(jdouble a, jdouble b) {
+    if (isnan(a) || isnan(b)) return isnan(a) && isnan(b);
+    return memcmp(&a, &b, sizeof(a)) == 0;
+}
+
+#endif //ZOMDROID_NATIVE_OVERRIDE_CHECK_H
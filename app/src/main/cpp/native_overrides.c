@@ -0,0 +1,257 @@
+#include "native_overrides.h"
+
+#include <dlfcn.h>
+#include <pthread.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "android_linker_ns.h"
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-overrides"
+
+#define MAX_OVERRIDES 64
+#define MAX_LIBRARIES 8
+#define SYMBOL_SIZE 512
+#define CHECK_SUFFIX "__zomdroid_check"
+
+typedef enum {
+    OVERRIDE_ON,
+    OVERRIDE_CHECK,
+} OverrideMode;
+
+typedef struct {
+    char symbol[SYMBOL_SIZE];
+    char library[64];
+    OverrideMode mode;
+} NativeOverride;
+
+typedef struct {
+    char name[64];
+    void* handle;
+} OverrideLibrary;
+
+typedef int (*ConformanceCheck)(JNIEnv* env, void* emulated, void* native);
+
+// written once by init, before the event is enabled
+static NativeOverride g_overrides[MAX_OVERRIDES];
+static int g_override_count;
+static struct android_namespace_t* g_ns;
+static bool g_event_wanted;
+
+static OverrideLibrary g_libraries[MAX_LIBRARIES];
+static int g_library_count;
+static pthread_mutex_t g_bind_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+static int parse_manifest(const char* path) {
+    FILE* f = fopen(path, "r");
+    if (f == NULL) return 0; // nothing overridden
+    char line[SYMBOL_SIZE + 128];
+    int line_no = 0;
+    while (fgets(line, sizeof(line), f) != NULL) {
+        line_no++;
+        char* p = line + strspn(line, " \t");
+        if (*p == '#' || *p == '\n' || *p == '\0') continue;
+
+        char symbol[SYMBOL_SIZE];
+        char library[64];
+        char mode[16];
+        if (sscanf(p, "%511s %63s %15s", symbol, library, mode) != 3 || strncmp(symbol, "Java_", 5) != 0) {
+            LOGW("Malformed line %d in %s", line_no, path);
+            continue;
+        }
+        if (strcmp(mode, "off") == 0) {
+            LOGI("Override of %s is disabled", symbol);
+            continue;
+        }
+        if (strcmp(mode, "on") != 0 && strcmp(mode, "check") != 0) {
+            LOGW("Unknown mode %s of %s, leaving it emulated", mode, symbol);
+            continue;
+        }
+        if (g_override_count == MAX_OVERRIDES) {
+            LOGW("Too many overrides, ignoring %s and the rest", symbol);
+            break;
+        }
+        NativeOverride* o = &g_overrides[g_override_count++];
+        strcpy(o->symbol, symbol);
+        strcpy(o->library, library);
+        o->mode = strcmp(mode, "check") == 0 ? OVERRIDE_CHECK : OVERRIDE_ON;
+    }
+    fclose(f);
+    return g_override_count;
+}
+
+/* Appends src up to the end char mangled as in JNI symbol names, returns the new length or -1. */
+static int append_mangled(char* dst, int len, const char* src, char end) {
+    const unsigned char* s = (const unsigned char*) src;
+    while (*s != '\0' && *s != end) {
+        if (len >= SYMBOL_SIZE - 7) return -1;
+        unsigned char c = *s;
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+            dst[len++] = (char) c;
+            s++;
+        } else if (c == '/') {
+            dst[len++] = '_';
+            s++;
+        } else if (c == '_' || c == ';' || c == '[') {
+            dst[len++] = '_';
+            dst[len++] = c == '_' ? '1' : c == ';' ? '2' : '3';
+            s++;
+        } else {
+            // modified UTF-8, every sequence is one UTF-16 unit
+            unsigned int unit;
+            if (c < 0x80) {
+                unit = c;
+                s += 1;
+            } else if ((c & 0xE0) == 0xC0 && s[1] != '\0') {
+                unit = ((c & 0x1F) << 6) | (s[1] & 0x3F);
+                s += 2;
+            } else if ((c & 0xF0) == 0xE0 && s[1] != '\0' && s[2] != '\0') {
+                unit = ((c & 0x0F) << 12) | ((s[1] & 0x3F) << 6) | (s[2] & 0x3F);
+                s += 3;
+            } else {
+                return -1;
+            }
+            len += sprintf(dst + len, "_0%04x", unit);
+        }
+    }
+    dst[len] = '\0';
+    return len;
+}
+
+static NativeOverride* find_override(const char* class_sig, const char* method_name, const char* method_sig) {
+    char symbol[SYMBOL_SIZE] = "Java_";
+    int len = append_mangled(symbol, 5, class_sig + 1, ';'); // "Lpkg/Class;"
+    if (len < 0) return NULL;
+    symbol[len++] = '_';
+    len = append_mangled(symbol, len, method_name, '\0');
+    if (len < 0) return NULL;
+
+    for (int i = 0; i < g_override_count; i++) {
+        const char* candidate = g_overrides[i].symbol;
+        if (strncmp(candidate, symbol, len) != 0) continue;
+        if (candidate[len] == '\0') return &g_overrides[i];
+        if (candidate[len] != '_' || candidate[len + 1] != '_') continue;
+        // overloaded form, the arguments are mangled the same way
+        char args[SYMBOL_SIZE];
+        if (append_mangled(args, 0, method_sig + 1, ')') >= 0 && strcmp(candidate + len + 2, args) == 0)
+            return &g_overrides[i];
+    }
+    return NULL;
+}
+
+static void* open_library(const char* name) {
+    for (int i = 0; i < g_library_count; i++) {
+        if (strcmp(g_libraries[i].name, name) == 0) return g_libraries[i].handle;
+    }
+    void* handle = linkernsbypass_namespace_dlopen(name, RTLD_LOCAL, g_ns);
+    if (handle == NULL) LOGE("Failed to load override library %s: %s", name, dlerror());
+    // failures are remembered too so the next symbol doesn't retry
+    if (g_library_count < MAX_LIBRARIES) {
+        OverrideLibrary* lib = &g_libraries[g_library_count++];
+        snprintf(lib->name, sizeof(lib->name), "%s", name);
+        lib->handle = handle;
+    }
+    return handle;
+}
+
+/* The lock only covers the library table, checks of different methods can run at the same time. */
+static void* resolve_override(JNIEnv* env, const NativeOverride* o, void* emulated) {
+    pthread_mutex_lock(&g_bind_mutex);
+    void* handle = open_library(o->library);
+    pthread_mutex_unlock(&g_bind_mutex);
+    if (handle == NULL) return NULL;
+    void* native = dlsym(handle, o->symbol);
+    if (native == NULL) {
+        LOGE("%s doesn't export %s", o->library, o->symbol);
+        return NULL;
+    }
+    if (o->mode == OVERRIDE_CHECK) {
+        char check_name[SYMBOL_SIZE + sizeof(CHECK_SUFFIX)];
+        snprintf(check_name, sizeof(check_name), "%s%s", o->symbol, CHECK_SUFFIX);
+        ConformanceCheck check = dlsym(handle, check_name);
+        if (check == NULL) {
+            LOGE("%s doesn't export %s", o->library, check_name);
+            return NULL;
+        }
+        int res = check(env, emulated, native);
+        if (res != 0) {
+            LOGE("Override of %s doesn't match the emulated one (%d), keeping it emulated", o->symbol, res);
+            return NULL;
+        }
+        LOGI("Override of %s passed conformance check", o->symbol);
+    }
+    return native;
+}
+
+static void JNICALL on_native_method_bind(jvmtiEnv* jvmti, JNIEnv* env, jthread thread, jmethodID method,
+                                          void* address, void** new_address_ptr) {
+    (void) thread;
+    char* name = NULL;
+    char* sig = NULL;
+    char* class_sig = NULL;
+    jclass clazz = NULL;
+    if ((*jvmti)->GetMethodName(jvmti, method, &name, &sig, NULL) != JVMTI_ERROR_NONE) return;
+    if ((*jvmti)->GetMethodDeclaringClass(jvmti, method, &clazz) != JVMTI_ERROR_NONE ||
+            (*jvmti)->GetClassSignature(jvmti, clazz, &class_sig, NULL) != JVMTI_ERROR_NONE) {
+        goto FINISH;
+    }
+
+    NativeOverride* o = find_override(class_sig, name, sig);
+    if (o == NULL) goto FINISH;
+
+    void* native = resolve_override(env, o, address);
+    if (native != NULL) {
+        LOGI("Binding %s to %s instead of the emulated one", o->symbol, o->library);
+        *new_address_ptr = native;
+    }
+
+FINISH:
+    if (clazz != NULL) (*env)->DeleteLocalRef(env, clazz);
+    (*jvmti)->Deallocate(jvmti, (unsigned char*) class_sig);
+    (*jvmti)->Deallocate(jvmti, (unsigned char*) sig);
+    (*jvmti)->Deallocate(jvmti, (unsigned char*) name);
+}
+
+int native_overrides_init(jvmtiEnv* jvmti, struct android_namespace_t* ns, const char* manifest_path,
+                          jvmtiEventCallbacks* callbacks) {
+    if (manifest_path == NULL || parse_manifest(manifest_path) == 0) return 0;
+    g_ns = ns;
+
+    jvmtiError err;
+    jvmtiCapabilities potential_caps;
+    err = (*jvmti)->GetPotentialCapabilities(jvmti, &potential_caps);
+    if (err != JVMTI_ERROR_NONE) {
+        LOGE("Failed to get potential capabilities for JVM TI env, error code: %d", err);
+        return -1;
+    }
+    if (!potential_caps.can_generate_native_method_bind_events) {
+        LOGE("JVM TI env doesn't have a required potential capability: can_generate_native_method_bind_events");
+        return -1;
+    }
+
+    jvmtiCapabilities caps = { 0 };
+    caps.can_generate_native_method_bind_events = 1;
+    err = (*jvmti)->AddCapabilities(jvmti, &caps);
+    if (err != JVMTI_ERROR_NONE) {
+        LOGE("Failed to add necessary capabilities to JVM TI env, error code: %d", err);
+        return -1;
+    }
+
+    callbacks->NativeMethodBind = &on_native_method_bind;
+    g_event_wanted = true;
+    return 0;
+}
+
+int native_overrides_enable(jvmtiEnv* jvmti) {
+    if (!g_event_wanted) return 0;
+    jvmtiError err = (*jvmti)->SetEventNotificationMode(jvmti, JVMTI_ENABLE, JVMTI_EVENT_NATIVE_METHOD_BIND, NULL);
+    if (err != JVMTI_ERROR_NONE) {
+        LOGE("Failed to enable NATIVE_METHOD_BIND event for JVM TI env, error code: %d", err);
+        return -1;
+    }
+    LOGI("%d native overrides enabled", g_override_count);
+    return 0;
+}
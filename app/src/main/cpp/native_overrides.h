@@ -0,0 +1,36 @@
+#ifndef ZOMDROID_NATIVE_OVERRIDES_H
+#define ZOMDROID_NATIVE_OVERRIDES_H
+
+#include "openjdk/jvmti.h"
+
+struct android_namespace_t;
+
+/*
+ * Native methods of the game moved off box64 one at a time. The manifest lists the JNI symbols that
+ * have an arm64 implementation in a library shipped with the launcher, the NativeMethodBind event
+ * then binds those to it and everything else keeps the address the emulation bridge returned. One
+ * entry per line:
+ *
+ *   <JNI symbol> <library> <on|off|check>
+ *
+ * The symbol is the short or the overloaded (__args) form, the library exports the same symbol.
+ * "check" first runs <symbol>__zomdroid_check from the library, an int(JNIEnv*, void* emulated,
+ * void* native) that calls both with its own inputs and returns 0 if they agree, and binds the
+ * native one only then. native_override_check.h has the inputs every check should cover, and
+ * tests/native_override_sample.c is an override library with a check. Without enabled entries the
+ * event isn't turned on at all.
+ */
+
+#define NATIVE_OVERRIDES_FILE_NAME "native_overrides.txt"
+
+/* Reads the manifest and, if needed, adds the capability and fills in the NativeMethodBind callback.
+ * The caller sets the callbacks and then calls native_overrides_enable(). Must run before the game
+ * classes are loaded. */
+int native_overrides_init(jvmtiEnv* jvmti, struct android_namespace_t* ns, const char* manifest_path,
+                          jvmtiEventCallbacks* callbacks);
+
+/* Enables the NativeMethodBind event if init found overrides. Only once the callbacks are set, a bind
+ * on another thread before that would go by unseen. */
+int native_overrides_enable(jvmtiEnv* jvmti);
+
+#endif //ZOMDROID_NATIVE_OVERRIDES_H
@@ -0,0 +1,272 @@
+#include "startup_trace.h"
+
+#include <fcntl.h>
+#include <limits.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "file_prefetch.h"
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-trace"
+
+typedef struct {
+    atomic_bool ready;
+    uint64_t start_ns;
+    uint64_t end_ns;
+    pid_t tid;
+    const char* category;
+    char name[48];
+    char detail[128];
+} TraceEvent;
+
+static TraceEvent g_events[STARTUP_TRACE_MAX_EVENTS];
+static _Atomic uint32_t g_event_count;
+static atomic_bool g_finished;
+static atomic_bool g_summary_written;
+static uint64_t g_first_present_ns;
+// only touched by the thread presenting frames
+static uint64_t g_last_frame_ns;
+static int g_fast_frame_count;
+static char g_dir_path[PATH_MAX];
+static pthread_mutex_t g_write_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+// columns of the summary, durations of events with the same name are added up
+static const char* const SUMMARY_PHASES[] = {
+        "GameActivity.onCreate",
+        "System.loadLibrary",
+        "FMOD.init",
+        "surface_created",
+        "GameLauncher.launch",
+        "init_zomdroid_namespace",
+        "load_linker_hook",
+        "init_box64",
+        "box64_load_gnu_libc",
+        "JNI_CreateJavaVM",
+        "main_class_lookup",
+        "dlopen",
+};
+#define SUMMARY_PHASE_COUNT (sizeof(SUMMARY_PHASES) / sizeof(SUMMARY_PHASES[0]))
+
+// startup counts as over once this many frames in a row came in under the limit, a cold dynarec
+// cache shows up as translation stalls breaking the streak
+#define STEADY_FRAME_COUNT 120
+#define STEADY_FRAME_MAX_NS (50 * 1000000ull)
+// the summary is written without a steady state after that
+#define STEADY_STATE_TIMEOUT_NS (180 * 1000000000ull)
+
+uint64_t startup_trace_now_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_BOOTTIME, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ull + (uint64_t) ts.tv_nsec;
+}
+
+void startup_trace_init(const char* dir_path) {
+    if (dir_path == NULL) return;
+    pthread_mutex_lock(&g_write_mutex);
+    snprintf(g_dir_path, sizeof(g_dir_path), "%s", dir_path);
+    pthread_mutex_unlock(&g_write_mutex);
+}
+
+static void record_event(const char* name, const char* category, const char* detail,
+                         uint64_t start_ns, uint64_t end_ns, pid_t tid) {
+    uint32_t index = atomic_fetch_add_explicit(&g_event_count, 1, memory_order_relaxed);
+    if (index >= STARTUP_TRACE_MAX_EVENTS) return;
+    TraceEvent* e = &g_events[index];
+    e->start_ns = start_ns;
+    e->end_ns = end_ns;
+    e->tid = tid;
+    e->category = category;
+    snprintf(e->name, sizeof(e->name), "%s", name);
+    snprintf(e->detail, sizeof(e->detail), "%s", detail != NULL ? detail : "");
+    atomic_store_explicit(&e->ready, true, memory_order_release);
+}
+
+void startup_trace_complete(const char* name, const char* category, const char* detail,
+                            uint64_t start_ns, uint64_t end_ns, pid_t tid) {
+    if (atomic_load_explicit(&g_finished, memory_order_relaxed)) return;
+    record_event(name, category, detail, start_ns, end_ns, tid);
+}
+
+static uint32_t ready_event_count() {
+    uint32_t count = atomic_load_explicit(&g_event_count, memory_order_acquire);
+    return count < STARTUP_TRACE_MAX_EVENTS ? count : STARTUP_TRACE_MAX_EVENTS;
+}
+
+static uint64_t first_event_ns(uint32_t count) {
+    uint64_t t0 = UINT64_MAX;
+    for (uint32_t i = 0; i < count; i++) {
+        if (!atomic_load_explicit(&g_events[i].ready, memory_order_acquire)) continue;
+        if (g_events[i].start_ns < t0) t0 = g_events[i].start_ns;
+    }
+    return t0;
+}
+
+static void write_json_string(FILE* f, const char* s) {
+    fputc('"', f);
+    for (; *s; s++) {
+        unsigned char c = (unsigned char) *s;
+        if (c == '"' || c == '\\') fprintf(f, "\\%c", c);
+        else if (c < 0x20) fprintf(f, "\\u%04x", c);
+        else fputc(c, f);
+    }
+    fputc('"', f);
+}
+
+static void write_trace_locked() {
+    char path[PATH_MAX];
+    char tmp_path[PATH_MAX];
+    snprintf(path, sizeof(path), "%s/%s", g_dir_path, STARTUP_TRACE_FILE_NAME);
+    snprintf(tmp_path, sizeof(tmp_path), "%s/%s.tmp", g_dir_path, STARTUP_TRACE_FILE_NAME);
+
+    FILE* f = fopen(tmp_path, "w");
+    if (f == NULL) {
+        LOGW("Failed to open %s", tmp_path);
+        return;
+    }
+    uint32_t count = ready_event_count();
+    uint64_t t0 = first_event_ns(count);
+    pid_t pid = getpid();
+
+    fprintf(f, "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+    fprintf(f, "{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":%d,\"args\":{\"name\":\"zomdroid\"}}", pid);
+    for (uint32_t i = 0; i < count; i++) {
+        TraceEvent* e = &g_events[i];
+        if (!atomic_load_explicit(&e->ready, memory_order_acquire)) continue;
+        fprintf(f, ",\n{\"name\":");
+        write_json_string(f, e->name);
+        fprintf(f, ",\"cat\":\"%s\",\"pid\":%d,\"tid\":%d,\"ts\":%.3f", e->category, pid, e->tid,
+                (double) (e->start_ns - t0) / 1000.0);
+        if (e->end_ns > e->start_ns) {
+            fprintf(f, ",\"ph\":\"X\",\"dur\":%.3f", (double) (e->end_ns - e->start_ns) / 1000.0);
+        } else {
+            fprintf(f, ",\"ph\":\"i\",\"s\":\"p\"");
+        }
+        if (e->detail[0] != '\0') {
+            fprintf(f, ",\"args\":{\"detail\":");
+            write_json_string(f, e->detail);
+            fputc('}', f);
+        }
+        fputc('}', f);
+    }
+    fprintf(f, "\n]}\n");
+
+    if (fclose(f) != 0 || rename(tmp_path, path) != 0) {
+        LOGW("Failed to write %s", path);
+    }
+}
+
+void startup_trace_flush() {
+    pthread_mutex_lock(&g_write_mutex);
+    if (g_dir_path[0] != '\0') write_trace_locked();
+    pthread_mutex_unlock(&g_write_mutex);
+}
+
+static void build_summary_header(char* buf, size_t size) {
+    size_t len = snprintf(buf, size, "time,total_ms");
+    for (size_t p = 0; p < SUMMARY_PHASE_COUNT && len < size; p++) {
+        len += snprintf(buf + len, size - len, ",%s_ms", SUMMARY_PHASES[p]);
+    }
+    if (len < size) snprintf(buf + len, size - len, ",dlopen_count,prefetched_mb,steady_state_ms,dynarec_cache,class_repack\n");
+}
+
+static const char* dynarec_cache_state() {
+    const char* enabled = getenv("BOX64_DYNACACHE");
+    const char* state = getenv("ZOMDROID_DYNAREC_CACHE");
+    if (enabled == NULL || strcmp(enabled, "0") == 0 || state == NULL) return "off";
+    return state;
+}
+
+// whether the game classes load from the repacked jar or as loose files from the game directory, rows
+// of both kinds compare the two layouts on the same device
+static const char* class_repack_state() {
+    const char* state = getenv("ZOMDROID_CLASS_REPACK");
+    return state != NULL ? state : "off";
+}
+
+static void append_summary_locked(uint64_t present_ns, uint64_t steady_ns) {
+    char path[PATH_MAX];
+    snprintf(path, sizeof(path), "%s/%s", g_dir_path, STARTUP_SUMMARY_FILE_NAME);
+    char header[1024];
+    build_summary_header(header, sizeof(header));
+
+    // rows written with other columns can't be compared anymore, start over
+    char line[1024];
+    FILE* existing = fopen(path, "r");
+    bool has_header = existing != NULL && fgets(line, sizeof(line), existing) != NULL && strcmp(line, header) == 0;
+    if (existing != NULL) fclose(existing);
+
+    FILE* f = fopen(path, has_header ? "a" : "w");
+    if (f == NULL) {
+        LOGW("Failed to open %s", path);
+        return;
+    }
+    if (!has_header) fputs(header, f);
+
+    uint32_t count = ready_event_count();
+    uint64_t t0 = first_event_ns(count);
+    uint64_t phase_ns[SUMMARY_PHASE_COUNT] = { 0 };
+    int dlopen_count = 0;
+    for (uint32_t i = 0; i < count; i++) {
+        TraceEvent* e = &g_events[i];
+        if (!atomic_load_explicit(&e->ready, memory_order_acquire)) continue;
+        for (size_t p = 0; p < SUMMARY_PHASE_COUNT; p++) {
+            if (strcmp(e->name, SUMMARY_PHASES[p]) != 0) continue;
+            phase_ns[p] += e->end_ns - e->start_ns;
+            if (strcmp(e->name, "dlopen") == 0) dlopen_count++;
+            break;
+        }
+    }
+
+    fprintf(f, "%ld,%.1f", (long) time(NULL), t0 <= present_ns ? (double) (present_ns - t0) / 1e6 : -1.0);
+    for (size_t p = 0; p < SUMMARY_PHASE_COUNT; p++) fprintf(f, ",%.1f", (double) phase_ns[p] / 1e6);
+    fprintf(f, ",%d,%lld", dlopen_count, (long long) (file_prefetch_last_bytes() / (1024 * 1024)));
+    fprintf(f, ",%.1f,%s,%s\n", steady_ns != 0 && t0 <= steady_ns ? (double) (steady_ns - t0) / 1e6 : -1.0,
+            dynarec_cache_state(), class_repack_state());
+    fclose(f);
+}
+
+void zomdroid_trace_mark_first_present() {
+    if (atomic_load_explicit(&g_finished, memory_order_relaxed)) return;
+    if (atomic_exchange(&g_finished, true)) return;
+    uint64_t now = startup_trace_now_ns();
+    g_first_present_ns = now;
+    record_event("first_present", "render", NULL, now, now, gettid());
+
+    pthread_mutex_lock(&g_write_mutex);
+    if (g_dir_path[0] != '\0') {
+        write_trace_locked();
+        LOGI("First frame presented, startup trace written");
+    }
+    pthread_mutex_unlock(&g_write_mutex);
+}
+
+void startup_trace_frame_presented() {
+    if (atomic_load_explicit(&g_summary_written, memory_order_relaxed)) return;
+    zomdroid_trace_mark_first_present();
+
+    uint64_t now = startup_trace_now_ns();
+    if (g_last_frame_ns != 0 && now - g_last_frame_ns <= STEADY_FRAME_MAX_NS) {
+        g_fast_frame_count++;
+    } else {
+        g_fast_frame_count = 0;
+    }
+    g_last_frame_ns = now;
+
+    bool is_steady = g_fast_frame_count >= STEADY_FRAME_COUNT;
+    if (!is_steady && now - g_first_present_ns < STEADY_STATE_TIMEOUT_NS) return;
+    if (atomic_exchange(&g_summary_written, true)) return;
+
+    pthread_mutex_lock(&g_write_mutex);
+    if (g_dir_path[0] != '\0') {
+        append_summary_locked(g_first_present_ns, is_steady ? now : 0);
+        LOGI("Startup summary written, %s", is_steady ? "frame times settled" : "frame times never settled");
+    }
+    pthread_mutex_unlock(&g_write_mutex);
+}
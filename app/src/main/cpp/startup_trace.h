@@ -0,0 +1,39 @@
+#ifndef ZOMDROID_STARTUP_TRACE_H
+#define ZOMDROID_STARTUP_TRACE_H
+
+#include <stdint.h>
+#include <sys/types.h>
+
+/*
+ * Timestamps of the startup phases between tapping Play and the first presented frame. Times are
+ * CLOCK_BOOTTIME, same as SystemClock.elapsedRealtimeNanos(), so launcher side phases recorded in
+ * Java line up with native ones. The trace is written in Chrome trace event format (opens in
+ * Perfetto and chrome://tracing), a one line summary per launch is appended to a CSV once frame
+ * times have settled.
+ */
+
+#define STARTUP_TRACE_FILE_NAME "startup_trace.json"
+#define STARTUP_SUMMARY_FILE_NAME "startup_summary.csv"
+#define STARTUP_TRACE_MAX_EVENTS 512
+
+uint64_t startup_trace_now_ns();
+
+void startup_trace_init(const char* dir_path);
+
+/* name and detail are copied, category must be a string literal. detail may be NULL. */
+void startup_trace_complete(const char* name, const char* category, const char* detail,
+                            uint64_t start_ns, uint64_t end_ns, pid_t tid);
+
+/* Rewrites the trace file with everything recorded so far. */
+void startup_trace_flush();
+
+/* Called by the renderer after its first buffer swap. Ends tracing and writes the trace. Only the
+ * first call does anything. */
+__attribute__((visibility("default")))
+void zomdroid_trace_mark_first_present();
+
+/* Called after every buffer swap. Marks the first present, then watches frame times until they
+ * settle and appends the summary line with the time to steady state. */
+void startup_trace_frame_presented();
+
+#endif //ZOMDROID_STARTUP_TRACE_H
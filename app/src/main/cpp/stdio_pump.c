@@ -0,0 +1,178 @@
+#include "stdio_pump.h"
+
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <string.h>
+#include <sys/uio.h>
+#include <time.h>
+#include <unistd.h>
+
+#define RING_MASK (STDIO_PUMP_RING_SIZE - 1)
+#define MAX_READS_PER_POLL 64 // don't let a flood keep us from returning to the caller
+
+static uint64_t now_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ull + (uint64_t) ts.tv_nsec;
+}
+
+void stdio_pump_init(StdioPump* pump, int fd, stdio_pump_line_fn on_line, void* user) {
+    memset(pump, 0, sizeof(*pump));
+    pump->fd = fd;
+    pump->sink_fd = -1;
+    pump->on_line = on_line;
+    pump->user = user;
+    stdio_pump_set_rate_limit(pump, STDIO_PUMP_DEFAULT_RATE, STDIO_PUMP_DEFAULT_BURST);
+
+    int flags = fcntl(fd, F_GETFL);
+    if (flags != -1)
+        fcntl(fd, F_SETFL, flags | O_NONBLOCK);
+}
+
+int stdio_pump_set_file_sink(StdioPump* pump, const char* path) {
+    if (pump->sink_fd >= 0) {
+        close(pump->sink_fd);
+        pump->sink_fd = -1;
+    }
+    if (path == NULL) return 0;
+    pump->sink_fd = open(path, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644);
+    return pump->sink_fd >= 0 ? 0 : -1;
+}
+
+void stdio_pump_set_rate_limit(StdioPump* pump, uint32_t lines_per_sec, uint32_t burst) {
+    pump->rate = lines_per_sec;
+    pump->burst = burst < lines_per_sec ? lines_per_sec : burst;
+    pump->tokens = pump->burst;
+    pump->last_refill_ns = now_ns();
+}
+
+static void deliver(StdioPump* pump, const char* line, size_t len) {
+    if (pump->sink_fd >= 0) {
+        struct iovec iov[2] = {
+                {.iov_base = (void*) line, .iov_len = len},
+                {.iov_base = "\n", .iov_len = 1},
+        };
+        while (writev(pump->sink_fd, iov, 2) < 0 && errno == EINTR);
+    }
+    if (pump->on_line != NULL)
+        pump->on_line(pump->user, line, len);
+}
+
+static bool take_token(StdioPump* pump) {
+    if (pump->rate == 0) return true;
+
+    uint64_t now = now_ns();
+    pump->tokens += (double) (now - pump->last_refill_ns) * pump->rate / 1e9;
+    pump->last_refill_ns = now;
+    if (pump->tokens > pump->burst)
+        pump->tokens = pump->burst;
+    if (pump->tokens < 1.0)
+        return false;
+    pump->tokens -= 1.0;
+    return true;
+}
+
+static void emit(StdioPump* pump, uint64_t start, uint64_t end) {
+    size_t len = end - start;
+    size_t off = start & RING_MASK;
+    const char* line;
+    if (off + len <= STDIO_PUMP_RING_SIZE) {
+        line = pump->ring + off;
+    } else {
+        // line wraps around the end of the ring, reassemble it
+        size_t first = STDIO_PUMP_RING_SIZE - off;
+        memcpy(pump->line, pump->ring + off, first);
+        memcpy(pump->line + first, pump->ring, len - first);
+        line = pump->line;
+    }
+    if (len > 0 && line[len - 1] == '\r')
+        len--;
+
+    pump->total_lines++;
+    if (!take_token(pump)) {
+        pump->suppressed++;
+        pump->total_suppressed++;
+        return;
+    }
+    if (pump->suppressed > 0) {
+        char notice[96];
+        int n = snprintf(notice, sizeof(notice), "[zomdroid] output rate limited, suppressed %llu lines",
+                         (unsigned long long) pump->suppressed);
+        pump->suppressed = 0;
+        deliver(pump, notice, (size_t) n);
+    }
+    deliver(pump, line, len);
+}
+
+static void process(StdioPump* pump) {
+    while (pump->scan_pos < pump->write_pos) {
+        size_t off = pump->scan_pos & RING_MASK;
+        size_t avail = pump->write_pos - pump->scan_pos;
+        if (off + avail > STDIO_PUMP_RING_SIZE)
+            avail = STDIO_PUMP_RING_SIZE - off;
+
+        // don't scan past the point where the current line has to be cut
+        size_t line_room = STDIO_PUMP_MAX_LINE - (pump->scan_pos - pump->read_pos);
+        if (avail > line_room)
+            avail = line_room;
+
+        const char* nl = memchr(pump->ring + off, '\n', avail);
+        if (nl != NULL) {
+            uint64_t end = pump->scan_pos + (uint64_t) (nl - (pump->ring + off));
+            emit(pump, pump->read_pos, end);
+            pump->scan_pos = end + 1;
+            pump->read_pos = pump->scan_pos;
+        } else {
+            pump->scan_pos += avail;
+            if (pump->scan_pos - pump->read_pos >= STDIO_PUMP_MAX_LINE) {
+                emit(pump, pump->read_pos, pump->scan_pos);
+                pump->read_pos = pump->scan_pos;
+            }
+        }
+    }
+}
+
+void stdio_pump_flush(StdioPump* pump) {
+    if (pump->write_pos > pump->read_pos) {
+        emit(pump, pump->read_pos, pump->write_pos);
+        pump->read_pos = pump->scan_pos = pump->write_pos;
+    }
+}
+
+int stdio_pump_poll(StdioPump* pump, int timeout_ms) {
+    struct pollfd pfd = {.fd = pump->fd, .events = POLLIN};
+    int r = poll(&pfd, 1, timeout_ms);
+    if (r < 0)
+        return errno == EINTR ? 0 : -1;
+    if (r == 0) {
+        // idle, don't hold on to a partial line (e.g. a prompt without newline) forever
+        stdio_pump_flush(pump);
+        return 0;
+    }
+
+    bool got_data = false;
+    for (int i = 0; i < MAX_READS_PER_POLL; i++) {
+        // unprocessed bytes never exceed STDIO_PUMP_MAX_LINE, so there is always free space
+        size_t off = pump->write_pos & RING_MASK;
+        size_t space = STDIO_PUMP_RING_SIZE - (pump->write_pos - pump->read_pos);
+        if (off + space > STDIO_PUMP_RING_SIZE)
+            space = STDIO_PUMP_RING_SIZE - off;
+
+        ssize_t n = read(pump->fd, pump->ring + off, space);
+        if (n > 0) {
+            got_data = true;
+            pump->write_pos += (uint64_t) n;
+            process(pump);
+            continue;
+        }
+        if (n < 0 && errno == EINTR) continue;
+        if (n < 0 && (errno == EAGAIN || errno == EWOULDBLOCK)) break;
+        // EOF or error
+        stdio_pump_flush(pump);
+        return -1;
+    }
+    return got_data ? 1 : 0;
+}
@@ -0,0 +1,58 @@
+#ifndef ZOMDROID_STDIO_PUMP_H
+#define ZOMDROID_STDIO_PUMP_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+/*
+ * Reads a pipe (redirected stdout/stderr of the game) and splits the byte stream into lines.
+ * Plain POSIX, no Android dependencies, so it can be built and exercised on a Linux host.
+ */
+
+#define STDIO_PUMP_RING_SIZE (64 * 1024) // must be a power of two
+#define STDIO_PUMP_MAX_LINE 4000 // longer lines are emitted in chunks, logcat truncates at ~4 KiB anyway
+
+#define STDIO_PUMP_DEFAULT_RATE 2000 // lines per second
+#define STDIO_PUMP_DEFAULT_BURST 8000
+
+typedef void (*stdio_pump_line_fn)(void* user, const char* line, size_t len);
+
+typedef struct {
+    int fd;
+    int sink_fd;
+    stdio_pump_line_fn on_line;
+    void* user;
+
+    uint32_t rate;
+    uint32_t burst;
+    double tokens;
+    uint64_t last_refill_ns;
+    uint64_t suppressed;
+    uint64_t total_suppressed;
+    uint64_t total_lines;
+
+    uint64_t read_pos; // start of the current incomplete line
+    uint64_t scan_pos; // bytes before this are known to contain no newline
+    uint64_t write_pos;
+    char ring[STDIO_PUMP_RING_SIZE];
+    char line[STDIO_PUMP_MAX_LINE + 1];
+} StdioPump;
+
+void stdio_pump_init(StdioPump* pump, int fd, stdio_pump_line_fn on_line, void* user);
+
+/* Write lines directly to a file. Pass NULL to close the sink. */
+int stdio_pump_set_file_sink(StdioPump* pump, const char* path);
+
+/* 0 disables rate limiting. */
+void stdio_pump_set_rate_limit(StdioPump* pump, uint32_t lines_per_sec, uint32_t burst);
+
+/*
+ * Waits up to timeout_ms for input and processes everything available.
+ * Returns 1 if data was processed, 0 on timeout, -1 on EOF or error.
+ */
+int stdio_pump_poll(StdioPump* pump, int timeout_ms);
+
+/* Emits the pending incomplete line, if any. */
+void stdio_pump_flush(StdioPump* pump);
+
+#endif //ZOMDROID_STDIO_PUMP_H
@@ -0,0 +1,51 @@
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+#include "a64_insn.h"
+
+/*
+ * Encodings the trampolines depend on, expected words assembled by hand from the instruction formats
+ * in the Arm Architecture Reference Manual. Any disassembler shows the listed assembly for them.
+ */
+
+typedef struct {
+    const char* asm_text;
+    uint32_t expected;
+    uint32_t actual;
+} Golden;
+
+int main() {
+    const Golden golden[] = {
+            {"adr x17, .+16", 0x10000091, base_adr(16, A64_REG_17)},
+            {"adr x1, .+5", 0x30000021, base_adr(5, A64_REG_1)},
+            {"adr x0, .-4", 0x10FFFFE0, base_adr(-4, A64_REG_0)},
+            {"adr x17, .+4088", 0x10007FD1, base_adr(4088, A64_REG_17)},
+            {"ldr x16, [x17, #8]", 0xF9400630, base_ldr_imm(A64_SF_64, 1, A64_REG_17, A64_REG_16)},
+            {"ldr x0, [x17]", 0xF9400220, base_ldr_imm(A64_SF_64, 0, A64_REG_17, A64_REG_0)},
+            {"ldr w18, [sp, #12]", 0xB9400FF2, base_ldr_imm(A64_SF_32, 3, A64_REG_SP, A64_REG_18)},
+            {"ldr x18, [sp, #32760]", 0xF97FFFF2, base_ldr_imm(A64_SF_64, 4095, A64_REG_SP, A64_REG_18)},
+            {"br x16", 0xD61F0200, base_br(A64_REG_16)},
+            {"br x0", 0xD61F0000, base_br(A64_REG_0)},
+            {"brk #0", 0xD4200000, base_brk(0)},
+            {"brk #0xffff", 0xD43FFFE0, base_brk(0xFFFF)},
+            {"ldxr x13, [x12]", 0xC85F7D8D, base_ldxr(A64_SF_64, A64_REG_12, A64_REG_13)},
+            {"ldxr w13, [x12]", 0x885F7D8D, base_ldxr(A64_SF_32, A64_REG_12, A64_REG_13)},
+            {"stxr w14, x13, [x12]", 0xC80E7D8D, base_stxr(A64_SF_64, A64_REG_14, A64_REG_12, A64_REG_13)},
+            {"stxr w14, w13, [x12]", 0x880E7D8D, base_stxr(A64_SF_32, A64_REG_14, A64_REG_12, A64_REG_13)},
+            {"cbnz w14, .-12", 0x35FFFFAE, base_cbnz(A64_SF_32, -3, A64_REG_14)},
+            {"cbnz x1, .+8", 0xB5000041, base_cbnz(A64_SF_64, 2, A64_REG_1)},
+            {"mrs x16, cntvct_el0", 0xD53BE050, sys_mrs_cntvct(A64_REG_16)},
+            {"mrs x9, cntvct_el0", 0xD53BE049, sys_mrs_cntvct(A64_REG_9)},
+    };
+
+    int failed = 0;
+    for (size_t i = 0; i < sizeof(golden) / sizeof(golden[0]); i++) {
+        if (golden[i].actual == golden[i].expected) continue;
+        fprintf(stderr, "FAILED: %-24s expected %08X got %08X\n", golden[i].asm_text, golden[i].expected,
+                golden[i].actual);
+        failed++;
+    }
+    printf("%zu encodings, %d wrong\n", sizeof(golden) / sizeof(golden[0]), failed);
+    return failed == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+}
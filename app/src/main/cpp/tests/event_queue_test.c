@@ -0,0 +1,167 @@
+#include <pthread.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <unistd.h>
+
+#include "event_queue.h"
+#include "input_latency.h"
+
+/*
+ * Producers push key presses with bursts of cursor and axis events in between, the consumer plays the
+ * GLFW backend with stalls like loading hitches. Every key has to arrive, in order per producer, and
+ * no event may be read half written.
+ */
+
+ZomdroidEventQueue g_zomdroid_event_queue;
+
+#define PRODUCERS 4
+#define KEYS_PER_PRODUCER 200
+#define KEY_ID(producer, i) ((producer) * 100000000 + (i))
+
+static atomic_bool g_done;
+static int g_next_key[PRODUCERS];
+static long g_keys_seen;
+static long g_torn;
+static long g_inversions;
+
+static void consume_all() {
+    u_char tail = atomic_load_explicit(&g_zomdroid_event_queue.tail, memory_order_relaxed);
+    u_char head = atomic_load_explicit(&g_zomdroid_event_queue.head, memory_order_acquire);
+    while (tail != head) {
+        tail = (tail + 1) & EVENT_QUEUE_MAX;
+        ZomdroidEvent* e = &g_zomdroid_event_queue.buffer[tail];
+        if (e->type == KEYBOARD) {
+            int producer = e->keyboard.key / 100000000;
+            int i = e->keyboard.key % 100000000;
+            if (i < g_next_key[producer]) g_inversions++;
+            g_next_key[producer] = i + 1;
+            g_keys_seen++;
+        } else if (e->type == CURSOR_POS) {
+            if (e->cursorPos.x != -e->cursorPos.y) g_torn++;
+        } else if (e->type == JOYSTICK_AXIS) {
+            if ((float) e->joystickAxis.axis != e->joystickAxis.state) g_torn++;
+        } else {
+            g_torn++;
+        }
+        atomic_store_explicit(&g_zomdroid_event_queue.tail, tail, memory_order_release);
+    }
+}
+
+/* What the glfwPollEvents hook and the backend do, the backlog goes in before the ring is read. */
+static void poll_events() {
+    event_queue_flush();
+    consume_all();
+    event_queue_note_polled();
+}
+
+static void push_motion(int i, int j) {
+    ZomdroidEvent cursor = {0};
+    cursor.type = CURSOR_POS;
+    cursor.cursorPos.x = i + j;
+    cursor.cursorPos.y = -(i + j);
+    event_queue_push(&cursor, input_latency_now_ns());
+    ZomdroidEvent axis = {0};
+    axis.type = JOYSTICK_AXIS;
+    axis.joystickAxis.axis = j % 4;
+    axis.joystickAxis.state = (float) (j % 4);
+    event_queue_push(&axis, input_latency_now_ns());
+}
+
+static void push_key(int producer, int i) {
+    ZomdroidEvent key = {0};
+    key.type = KEYBOARD;
+    key.keyboard.key = KEY_ID(producer, i);
+    event_queue_push(&key, input_latency_now_ns());
+}
+
+static void* producer(void* arg) {
+    int id = (int) (intptr_t) arg;
+    for (int i = 0; i < KEYS_PER_PRODUCER; i++) {
+        push_key(id, i);
+        for (int burst = 0; burst < 20; burst++) {
+            for (int j = 0; j < 60; j++) push_motion(i, j);
+            usleep(1000);
+        }
+    }
+    return NULL;
+}
+
+static void* consumer(void* arg) {
+    (void) arg;
+    int frame = 0;
+    while (!atomic_load(&g_done)) {
+        poll_events();
+        usleep(100);
+        event_queue_flush();
+        event_queue_note_presented();
+        if (++frame % 500 == 0) usleep(100000);
+        else usleep(200);
+    }
+    // nothing pushes anymore, the last keys have to come out of the backlog by polling alone
+    poll_events();
+    return NULL;
+}
+
+static int expect(bool ok, const char* what) {
+    if (!ok) fprintf(stderr, "FAILED: %s\n", what);
+    return ok ? 0 : 1;
+}
+
+static int test_stalled_consumer_keeps_keys() {
+    // far more motion than ring and backlog hold while the game doesn't poll, the keys still fit if the
+    // motion makes room for them
+    const int keys = 200;
+    for (int i = 0; i < keys; i++) {
+        push_key(0, i);
+        for (int j = 0; j < 40; j++) push_motion(i, j);
+    }
+    EventQueueStats stats;
+    event_queue_get_stats(&stats);
+    poll_events();
+    poll_events();
+    poll_events();
+
+    int failed = 0;
+    failed += expect(stats.dropped > 0 || stats.coalesced > 0, "stall: motion was neither coalesced nor dropped");
+    failed += expect(g_keys_seen == keys, "stall: keys lost");
+    failed += expect(g_inversions == 0, "stall: keys reordered");
+    failed += expect(g_torn == 0, "stall: torn events");
+    printf("stall: keys %ld/%d dropped %llu coalesced %llu\n", g_keys_seen, keys,
+           (unsigned long long) stats.dropped, (unsigned long long) stats.coalesced);
+    return failed;
+}
+
+static int test_concurrent_producers() {
+    g_keys_seen = 0;
+    for (int i = 0; i < PRODUCERS; i++) g_next_key[i] = 0;
+    pthread_t producers[PRODUCERS];
+    pthread_t consumer_thread;
+    pthread_create(&consumer_thread, NULL, consumer, NULL);
+    for (int i = 0; i < PRODUCERS; i++) pthread_create(&producers[i], NULL, producer, (void*) (intptr_t) i);
+    for (int i = 0; i < PRODUCERS; i++) pthread_join(producers[i], NULL);
+    atomic_store(&g_done, true);
+    pthread_join(consumer_thread, NULL);
+
+    EventQueueStats stats;
+    event_queue_get_stats(&stats);
+    int failed = 0;
+    failed += expect(g_keys_seen == PRODUCERS * KEYS_PER_PRODUCER, "concurrent: keys lost");
+    failed += expect(g_inversions == 0, "concurrent: keys reordered");
+    failed += expect(g_torn == 0, "concurrent: torn events");
+    printf("concurrent: keys %ld/%d enqueued %llu coalesced %llu dropped %llu\n", g_keys_seen,
+           PRODUCERS * KEYS_PER_PRODUCER, (unsigned long long) stats.enqueued,
+           (unsigned long long) stats.coalesced, (unsigned long long) stats.dropped);
+    return failed;
+}
+
+int main() {
+    // exercises the latency bookkeeping as well, the report itself isn't written
+    setenv("ZOMDROID_INPUT_LATENCY", "1", 1);
+    unsetenv("ZOMDROID_HOME_DIR");
+    input_latency_init();
+
+    int failed = test_stalled_consumer_keeps_keys();
+    failed += test_concurrent_producers();
+    return failed == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+}
@@ -0,0 +1,66 @@
+#include <stdint.h>
+#include <string.h>
+
+#include "openjdk/jni.h"
+
+/*
+ * Native side of InputChannelBench. The per event methods and the flushed records, decoded like
+ * zomdroid_jni.c does, end up in the same sink. It stands in for zomdroid_event_*, which need the rest
+ * of libzomdroid.
+ */
+
+#define INPUT_RECORD_SIZE 32
+// EventType in zomdroid_globals.h
+#define CURSOR_POS 1
+#define JOYSTICK_AXIS 6
+
+static volatile double g_sink;
+static long g_delivered;
+
+__attribute__((noinline)) static void deliver(int type, int arg, double a, double b) {
+    g_sink += type + arg + a + b;
+    g_delivered++;
+}
+
+JNIEXPORT void JNICALL
+Java_com_zomdroid_input_InputChannelBench_sendCursorPos(JNIEnv* env, jclass clazz, jdouble x, jdouble y) {
+    (void) env;
+    (void) clazz;
+    deliver(CURSOR_POS, 0, x, y);
+}
+
+JNIEXPORT void JNICALL
+Java_com_zomdroid_input_InputChannelBench_sendJoystickAxis(JNIEnv* env, jclass clazz, jint axis, jfloat state) {
+    (void) env;
+    (void) clazz;
+    deliver(JOYSTICK_AXIS, axis, state, 0);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_zomdroid_input_InputChannelBench_getDeliveredCount(JNIEnv* env, jclass clazz) {
+    (void) env;
+    (void) clazz;
+    return g_delivered;
+}
+
+JNIEXPORT void JNICALL
+Java_com_zomdroid_input_InputNativeInterface_flushEvents(JNIEnv* env, jclass clazz, jobject buffer, jint count) {
+    (void) clazz;
+    const uint8_t* records = (*env)->GetDirectBufferAddress(env, buffer);
+    if (records == NULL) return;
+    for (jint i = 0; i < count; i++) {
+        const uint8_t* r = records + i * INPUT_RECORD_SIZE;
+        int32_t type, arg;
+        memcpy(&type, r, sizeof(type));
+        memcpy(&arg, r + 4, sizeof(arg));
+        if (type == CURSOR_POS) {
+            double xy[2];
+            memcpy(xy, r + 8, sizeof(xy));
+            deliver(type, 0, xy[0], xy[1]);
+        } else {
+            float state;
+            memcpy(&state, r + 8, sizeof(state));
+            deliver(type, arg, state, 0);
+        }
+    }
+}
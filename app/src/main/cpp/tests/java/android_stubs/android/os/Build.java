@@ -0,0 +1,12 @@
+package android.os;
+
+/** Stand-in for host runs, the minimum SDK of the app. */
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = 30;
+    }
+
+    public static class VERSION_CODES {
+        public static final int UPSIDE_DOWN_CAKE = 34;
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+/** Stand-in for host runs, which only use the main thread. */
+public class Handler {
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable r) {
+        throw new UnsupportedOperationException("only the main thread is simulated");
+    }
+}
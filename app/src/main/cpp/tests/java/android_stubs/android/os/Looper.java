@@ -0,0 +1,20 @@
+package android.os;
+
+/** Stand-in for host runs, the thread that first uses it is the main thread. */
+public final class Looper {
+    private static final Looper MAIN = new Looper(Thread.currentThread());
+
+    private final Thread thread;
+
+    private Looper(Thread thread) {
+        this.thread = thread;
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+}
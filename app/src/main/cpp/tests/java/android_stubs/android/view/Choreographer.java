@@ -0,0 +1,29 @@
+package android.view;
+
+import java.util.ArrayList;
+
+/** Stand-in for host runs, callbacks wait until {@link #runFrame} plays a display frame. */
+public final class Choreographer {
+    private static final Choreographer INSTANCE = new Choreographer();
+
+    private final ArrayList<FrameCallback> callbacks = new ArrayList<>();
+
+    public interface FrameCallback {
+        void doFrame(long frameTimeNanos);
+    }
+
+    public static Choreographer getInstance() {
+        return INSTANCE;
+    }
+
+    public void postFrameCallback(FrameCallback callback) {
+        callbacks.add(callback);
+    }
+
+    /** Host runs only, calls the callbacks posted before this frame. */
+    public static void runFrame(long frameTimeNanos) {
+        ArrayList<FrameCallback> due = new ArrayList<>(INSTANCE.callbacks);
+        INSTANCE.callbacks.clear();
+        for (FrameCallback callback : due) callback.doFrame(frameTimeNanos);
+    }
+}
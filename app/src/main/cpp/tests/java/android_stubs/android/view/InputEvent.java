@@ -0,0 +1,10 @@
+package android.view;
+
+/** Stand-in for host runs, the event happened when it was created. */
+public abstract class InputEvent {
+    private final long eventTime = System.nanoTime() / 1_000_000;
+
+    public long getEventTime() {
+        return eventTime;
+    }
+}
@@ -0,0 +1,8 @@
+package android.view;
+
+/** Stand-in for host runs. */
+public class MotionEvent extends InputEvent {
+    public long getEventTimeNanos() {
+        return 0;
+    }
+}
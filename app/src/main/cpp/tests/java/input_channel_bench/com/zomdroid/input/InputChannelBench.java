@@ -0,0 +1,67 @@
+package com.zomdroid.input;
+
+import android.view.MotionEvent;
+
+/**
+ * Cost of handing one Android input event to native code: a JNI call per event, as InputNativeInterface
+ * did before {@link InputChannel}, against the records of one dispatch flushed in a single call. A
+ * dispatch is a two finger move over the on-screen controls, the cursor, four stick axes and the cursor
+ * again. Both go to the same native sink in input_channel_bench_jni.c, so the difference is the JNI
+ * crossings and the record writes. Prints ns per dispatch, the best of a few rounds.
+ *   java -Djava.library.path=<dir of libinput_channel_bench_jni.so> -jar input_channel_bench.jar [dispatches per round]
+ */
+public final class InputChannelBench {
+    private static final int ROUNDS = 5;
+    private static final int EVENTS_PER_DISPATCH = 6;
+
+    // the per event interface
+    private static native void sendCursorPos(double x, double y);
+
+    private static native void sendJoystickAxis(int axis, float state);
+
+    // events that reached the sink, to check that both paths deliver the same
+    private static native long getDeliveredCount();
+
+    private InputChannelBench() {}
+
+    private static void dispatchPerEvent(int i) {
+        sendCursorPos(i, i);
+        for (int axis = 0; axis < 4; axis++) sendJoystickAxis(axis, i);
+        sendCursorPos(i, i);
+    }
+
+    private static void dispatchBatched(MotionEvent event, int i) {
+        InputChannel.beginBatch(event);
+        InputChannel.putDoubles(InputChannel.TYPE_CURSOR_POS, i, i);
+        for (int axis = 0; axis < 4; axis++) InputChannel.putFloat(InputChannel.TYPE_JOYSTICK_AXIS, axis, i);
+        InputChannel.putDoubles(InputChannel.TYPE_CURSOR_POS, i, i);
+        InputChannel.endBatch();
+    }
+
+    public static void main(String[] args) {
+        int dispatches = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        System.loadLibrary("input_channel_bench_jni");
+        MotionEvent event = new MotionEvent();
+
+        double perEvent = Double.MAX_VALUE;
+        double batched = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < dispatches; i++) dispatchPerEvent(i);
+            long middle = System.nanoTime();
+            for (int i = 0; i < dispatches; i++) dispatchBatched(event, i);
+            long end = System.nanoTime();
+            perEvent = Math.min(perEvent, (middle - start) / (double) dispatches);
+            batched = Math.min(batched, (end - middle) / (double) dispatches);
+        }
+
+        long expected = 2L * ROUNDS * dispatches * EVENTS_PER_DISPATCH;
+        if (getDeliveredCount() != expected) {
+            System.err.println("delivered " + getDeliveredCount() + " events, expected " + expected);
+            System.exit(1);
+        }
+        System.out.printf("%d events per dispatch, best of %d rounds of %d%n", EVENTS_PER_DISPATCH, ROUNDS, dispatches);
+        System.out.printf("  JNI call per event:     %6.1f ns/dispatch%n", perEvent);
+        System.out.printf("  InputChannel, one flush: %6.1f ns/dispatch%n", batched);
+    }
+}
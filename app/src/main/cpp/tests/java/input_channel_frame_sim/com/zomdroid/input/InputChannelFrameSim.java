@@ -0,0 +1,224 @@
+package com.zomdroid.input;
+
+import android.view.Choreographer;
+import android.view.MotionEvent;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Plays the same input through {@link InputChannel} twice. The first run sends cursor and stick updates
+ * as events right away. The second sends them as state, the way the controls do, which keeps only the
+ * latest values until the end of the dispatch or the next frame. The input is:
+ * <ul>
+ *   <li>240 Hz touch, which Android hands out as one move per display frame in the input phase. The
+ *   on-screen controls send the cursor twice and two stick axes for it.</li>
+ *   <li>A 250 Hz gamepad, whose axes are sent right away in both runs.</li>
+ *   <li>A button press every 50-80 ms.</li>
+ * </ul>
+ * The game reads its queue once per 60 Hz display frame, at a random point of the frame. Latency is
+ * the time from a sample to the first read that sees it or a newer one. The simulation fails if the
+ * second run delivers as many records as the first, if any p50 or p99 latency goes up, or if a button
+ * press is delayed at all. Times are in microseconds.
+ *   java -jar input_channel_frame_sim.jar [frames] [seed]
+ */
+public final class InputChannelFrameSim {
+    private static final long VSYNC = 16667;
+    private static final long INPUT_PHASE = 500;
+    // the animation phase runs right after input in the same frame
+    private static final long ANIMATION_PHASE = 550;
+    // a touch sample reaches the app this long after it was taken
+    private static final long TOUCH_PIPELINE = 4000;
+    private static final long TOUCH_INTERVAL = 4167;
+    private static final long PAD_INTERVAL = 4000;
+
+    private static final int PAD = 0;
+    private static final int BUTTON = 1;
+    private static final int TOUCH_DISPATCH = 2;
+    private static final int FRAME = 3;
+
+    // simulation clock and what reached "native code", filled in by onFlush
+    private static long now;
+    private static long records;
+    private static final ArrayList<long[]> touchDelivered = new ArrayList<>(); // {time, sample}
+    private static final ArrayList<long[]> padDelivered = new ArrayList<>();
+    private static final ArrayList<Long> buttonDelivered = new ArrayList<>();
+
+    private InputChannelFrameSim() {}
+
+    static void onFlush(ByteBuffer buffer, int count) {
+        records += count;
+        for (int i = 0; i < count; i++) {
+            int offset = i * InputChannel.RECORD_SIZE;
+            int type = buffer.getInt(offset);
+            int arg = buffer.getInt(offset + 4);
+            if (type == InputChannel.TYPE_CURSOR_POS) {
+                note(touchDelivered, (long) buffer.getDouble(offset + 8));
+            } else if (type == InputChannel.TYPE_JOYSTICK_AXIS && arg == 0) {
+                note(padDelivered, (long) buffer.getFloat(offset + 8));
+            } else if (type == InputChannel.TYPE_JOYSTICK_BUTTON) {
+                buttonDelivered.add(now);
+            }
+        }
+    }
+
+    private static void note(ArrayList<long[]> delivered, long sample) {
+        if (delivered.isEmpty() || delivered.get(delivered.size() - 1)[1] < sample)
+            delivered.add(new long[]{now, sample});
+    }
+
+    private static final class Result {
+        long sent;
+        long records;
+        long[] touch;
+        long[] pad;
+        long maxButtonDelay;
+    }
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 3600;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        // {time, kind}, in the order the UI thread sees them
+        ArrayList<long[]> events = new ArrayList<>();
+        ArrayList<Long> touchSamples = new ArrayList<>();
+        ArrayList<Long> padSamples = new ArrayList<>();
+        ArrayList<Long> buttonPresses = new ArrayList<>();
+        long[] reads = new long[frames + 1];
+        Random random = new Random(seed);
+        long end = frames * VSYNC;
+        for (int f = 0; f <= frames; f++) {
+            long vsync = f * VSYNC;
+            reads[f] = vsync + random.nextInt((int) VSYNC);
+            if (f == frames) break;
+            events.add(new long[]{vsync + INPUT_PHASE, TOUCH_DISPATCH});
+            events.add(new long[]{vsync + ANIMATION_PHASE, FRAME});
+        }
+        for (long t = 0; t < end; t += TOUCH_INTERVAL) touchSamples.add(t);
+        for (long t = 1234; t < end; t += PAD_INTERVAL + random.nextInt(200)) {
+            events.add(new long[]{t, PAD});
+            padSamples.add(t);
+        }
+        for (long t = 100000; t < end; t += 50000 + random.nextInt(30000)) {
+            events.add(new long[]{t, BUTTON});
+            buttonPresses.add(t);
+        }
+        events.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        Result before = run(events, touchSamples, padSamples, buttonPresses, reads, false);
+        Result after = run(events, touchSamples, padSamples, buttonPresses, reads, true);
+
+        System.out.printf("%d frames, game reads at a random point of each frame%n", frames);
+        print("sent right away", before);
+        print("sent as state  ", after);
+        boolean ok = after.records < before.records
+                && percentile(after.touch, 50) <= percentile(before.touch, 50)
+                && percentile(after.touch, 99) <= percentile(before.touch, 99)
+                && percentile(after.pad, 50) <= percentile(before.pad, 50)
+                && percentile(after.pad, 99) <= percentile(before.pad, 99)
+                && before.maxButtonDelay == 0 && after.maxButtonDelay == 0;
+        if (!ok) {
+            System.err.println("sending state didn't reduce the records, or it added latency");
+            System.exit(1);
+        }
+    }
+
+    private static Result run(ArrayList<long[]> events, ArrayList<Long> touchSamples, ArrayList<Long> padSamples,
+                              ArrayList<Long> buttonPresses, long[] reads, boolean asState) {
+        records = 0;
+        touchDelivered.clear();
+        padDelivered.clear();
+        buttonDelivered.clear();
+        Result result = new Result();
+        int nextTouch = 0;
+        int nextPad = 0;
+        for (long[] event : events) {
+            now = event[0];
+            switch ((int) event[1]) {
+                case PAD:
+                    InputChannel.beginBatch(new MotionEvent());
+                    InputChannel.putFloat(InputChannel.TYPE_JOYSTICK_AXIS, 0, nextPad);
+                    InputChannel.putFloat(InputChannel.TYPE_JOYSTICK_AXIS, 1, nextPad);
+                    InputChannel.endBatch();
+                    nextPad++;
+                    result.sent += 2;
+                    break;
+                case BUTTON:
+                    InputChannel.putInt(InputChannel.TYPE_JOYSTICK_BUTTON, 0, 1);
+                    result.sent++;
+                    break;
+                case TOUCH_DISPATCH:
+                    // one move with every sample that reached the app since the last frame, the latest counts
+                    int latest = -1;
+                    while (nextTouch < touchSamples.size() && touchSamples.get(nextTouch) <= now - TOUCH_PIPELINE)
+                        latest = nextTouch++;
+                    if (latest < 0) break;
+                    InputChannel.beginBatch(new MotionEvent());
+                    if (asState) {
+                        InputChannel.setCursorPos(latest, 0);
+                        InputChannel.setCursorPos(latest, 0);
+                        InputChannel.setAxis(2, latest);
+                        InputChannel.setAxis(3, latest);
+                    } else {
+                        InputChannel.putDoubles(InputChannel.TYPE_CURSOR_POS, latest, 0);
+                        InputChannel.putDoubles(InputChannel.TYPE_CURSOR_POS, latest, 0);
+                        InputChannel.putFloat(InputChannel.TYPE_JOYSTICK_AXIS, 2, latest);
+                        InputChannel.putFloat(InputChannel.TYPE_JOYSTICK_AXIS, 3, latest);
+                    }
+                    InputChannel.endBatch();
+                    result.sent += 4;
+                    break;
+                case FRAME:
+                    Choreographer.runFrame(now * 1000);
+                    break;
+            }
+        }
+        result.records = records;
+        result.touch = latencies(touchSamples, touchDelivered, reads);
+        result.pad = latencies(padSamples, padDelivered, reads);
+        for (int i = 0; i < buttonPresses.size(); i++)
+            result.maxButtonDelay = Math.max(result.maxButtonDelay, buttonDelivered.get(i) - buttonPresses.get(i));
+        return result;
+    }
+
+    /** Per sample, from its time to the first game read that sees it or a newer one, sorted. */
+    private static long[] latencies(ArrayList<Long> samples, ArrayList<long[]> delivered, long[] reads) {
+        long[] latencies = new long[samples.size()];
+        int count = 0;
+        int d = 0;
+        int r = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            while (d < delivered.size() && delivered.get(d)[1] < i) d++;
+            if (d == delivered.size()) break;
+            long deliveredAt = delivered.get(d)[0];
+            while (r < reads.length && reads[r] < deliveredAt) r++;
+            if (r == reads.length) break;
+            latencies[count++] = reads[r] - samples.get(i);
+        }
+        latencies = Arrays.copyOf(latencies, count);
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        return sorted[(int) ((sorted.length - 1) * (long) p / 100)] / 1000.0;
+    }
+
+    private static double mean(long[] values) {
+        double sum = 0;
+        for (long v : values) sum += v;
+        return sum / values.length / 1000.0;
+    }
+
+    private static void print(String name, Result r) {
+        System.out.printf("  %s: %d updates sent, %d records reached native code (%.0f%%)%n", name, r.sent, r.records,
+                100.0 * r.records / r.sent);
+        System.out.printf("    touch to game read p50 %5.2f ms, p99 %5.2f ms, mean %5.2f ms%n",
+                percentile(r.touch, 50), percentile(r.touch, 99), mean(r.touch));
+        System.out.printf("    pad to game read   p50 %5.2f ms, p99 %5.2f ms, mean %5.2f ms%n",
+                percentile(r.pad, 50), percentile(r.pad, 99), mean(r.pad));
+        System.out.printf("    button presses delayed by at most %d us%n", r.maxButtonDelay);
+    }
+}
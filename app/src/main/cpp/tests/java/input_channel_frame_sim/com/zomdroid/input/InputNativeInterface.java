@@ -0,0 +1,10 @@
+package com.zomdroid.input;
+
+import java.nio.ByteBuffer;
+
+/** Stand-in for the simulation, flushed records go to it instead of native code. */
+public class InputNativeInterface {
+    static void flushEvents(ByteBuffer buffer, int count) {
+        InputChannelFrameSim.onFlush(buffer, count);
+    }
+}
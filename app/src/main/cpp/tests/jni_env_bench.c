@@ -0,0 +1,54 @@
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
+#include "jni_env_bench.h"
+
+/*
+ * Cost of a wrapped JNI call from emulated code, GetFloatField shaped: ensure_env() as it was before
+ * the env got primed at thread start, as it is now, and reading the env into a local once. The thread
+ * local and the wrappers are in separate shared libraries, so the env is read through a TLS descriptor
+ * the way libzomdroidlinker reads libzomdroid's. Prints ns per call, the best of a few rounds.
+ *   jni_env_bench [calls per round]
+ */
+
+#define ROUNDS 5
+
+typedef float (*Wrapper)(BenchEnv* unused, void* obj, void* field);
+
+static uint64_t now_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ull + (uint64_t) ts.tv_nsec;
+}
+
+static double run(Wrapper volatile wrapper, long calls) {
+    char obj[16];
+    double best = 0;
+    volatile float sink = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+        // the first call looks the env up, like on a thread that wasn't primed
+        g_bench_env = NULL;
+        uint64_t start = now_ns();
+        float sum = 0;
+        for (long i = 0; i < calls; i++) sum += wrapper(NULL, obj, obj + (i & 7));
+        double ns = (double) (now_ns() - start) / (double) calls;
+        sink = sum;
+        if (round == 0 || ns < best) best = ns;
+    }
+    (void) sink;
+    return best;
+}
+
+int main(int argc, char** argv) {
+    long calls = argc > 1 ? atol(argv[1]) : 200000000L;
+    if (calls <= 0) {
+        fprintf(stderr, "usage: %s [calls per round]\n", argv[0]);
+        return EXIT_FAILURE;
+    }
+    printf("before (inline lookup): %.2f ns/call\n", run(bench_GetFloatField_before, calls));
+    printf("after (cold lookup):    %.2f ns/call\n", run(bench_GetFloatField_after, calls));
+    printf("env read into a local:  %.2f ns/call\n", run(bench_GetFloatField_local, calls));
+    return EXIT_SUCCESS;
+}
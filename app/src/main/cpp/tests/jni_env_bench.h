@@ -0,0 +1,28 @@
+#ifndef ZOMDROID_TEST_JNI_ENV_BENCH_H
+#define ZOMDROID_TEST_JNI_ENV_BENCH_H
+
+/*
+ * Just enough of the JNIEnv/JavaVM layout for the call shape of wrapped_jni.c: the env is a pointer to
+ * a function table and the first argument of every call.
+ */
+
+typedef const struct BenchEnvFunctions* BenchEnv;
+typedef const struct BenchVmFunctions* BenchVm;
+
+struct BenchEnvFunctions {
+    float (*GetFloatField)(BenchEnv* env, void* obj, void* field);
+};
+
+struct BenchVmFunctions {
+    int (*GetEnv)(BenchVm* vm, void** env, int version);
+};
+
+/* In a library of their own, like g_zomdroid_jni_env in libzomdroid and the wrappers in libzomdroidlinker. */
+extern __thread BenchEnv* g_bench_env;
+extern BenchVm* g_bench_vm;
+
+float bench_GetFloatField_before(BenchEnv* unused, void* obj, void* field);
+float bench_GetFloatField_after(BenchEnv* unused, void* obj, void* field);
+float bench_GetFloatField_local(BenchEnv* unused, void* obj, void* field);
+
+#endif //ZOMDROID_TEST_JNI_ENV_BENCH_H
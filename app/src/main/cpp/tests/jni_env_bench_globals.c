@@ -0,0 +1,24 @@
+#include <stddef.h>
+
+#include "jni_env_bench.h"
+
+static float get_float_field(BenchEnv* env, void* obj, void* field) {
+    (void) env;
+    return (float) ((char*) field - (char*) obj);
+}
+
+static const struct BenchEnvFunctions g_env_functions = {.GetFloatField = get_float_field};
+static BenchEnv g_env = &g_env_functions;
+
+static int get_env(BenchVm* vm, void** env, int version) {
+    (void) vm;
+    (void) version;
+    *env = &g_env;
+    return 0;
+}
+
+static const struct BenchVmFunctions g_vm_functions = {.GetEnv = get_env};
+static BenchVm g_vm = &g_vm_functions;
+
+__thread BenchEnv* g_bench_env;
+BenchVm* g_bench_vm = &g_vm;
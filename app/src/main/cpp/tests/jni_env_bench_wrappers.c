@@ -0,0 +1,52 @@
+#include <stdio.h>
+#include <stdlib.h>
+
+#include "jni_env_bench.h"
+
+/* ensure_env() of wrapped_jni.c before the env was primed at thread start, lookup inline. */
+static void ensure_env_before() {
+    if (g_bench_env == NULL) {
+        int res = (*g_bench_vm)->GetEnv(g_bench_vm, (void**) &g_bench_env, 0);
+        if (g_bench_env == NULL) {
+            fprintf(stderr, "Failed to get env, error code: %d\n", res);
+            abort();
+        }
+    }
+}
+
+float bench_GetFloatField_before(BenchEnv* unused, void* obj, void* field) {
+    (void) unused;
+    ensure_env_before();
+    return (*g_bench_env)->GetFloatField(g_bench_env, obj, field);
+}
+
+/* ensure_env() as it is now, the lookup moved out of line. */
+__attribute__((noinline, cold))
+static void resolve_env() {
+    int res = (*g_bench_vm)->GetEnv(g_bench_vm, (void**) &g_bench_env, 0);
+    if (g_bench_env == NULL) {
+        fprintf(stderr, "Failed to get env, error code: %d\n", res);
+        abort();
+    }
+}
+
+static inline void ensure_env() {
+    if (__builtin_expect(g_bench_env == NULL, 0)) resolve_env();
+}
+
+float bench_GetFloatField_after(BenchEnv* unused, void* obj, void* field) {
+    (void) unused;
+    ensure_env();
+    return (*g_bench_env)->GetFloatField(g_bench_env, obj, field);
+}
+
+/* The alternative that was considered: read the thread local once into a local. */
+float bench_GetFloatField_local(BenchEnv* unused, void* obj, void* field) {
+    (void) unused;
+    BenchEnv* env = g_bench_env;
+    if (__builtin_expect(env == NULL, 0)) {
+        resolve_env();
+        env = g_bench_env;
+    }
+    return (*env)->GetFloatField(env, obj, field);
+}
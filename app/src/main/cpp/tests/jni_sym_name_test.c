@@ -0,0 +1,124 @@
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "jni_sym_name.h"
+
+/*
+ * Decodes every name of the corpus file given as argument and compares the result, then times
+ * decoding the whole corpus. The timing is only printed, it doesn't fail the test.
+ */
+
+#define MAX_NAMES 256
+#define BENCH_ROUNDS 20000
+
+typedef struct {
+    char sym[JNI_SYM_NAME_BUF_SIZE];
+    char key[JNI_SYM_NAME_BUF_SIZE];
+    char args[JNI_SYM_NAME_BUF_SIZE];
+    bool must_fail;
+} CorpusEntry;
+
+static CorpusEntry g_corpus[MAX_NAMES];
+static int g_corpus_size;
+
+/* Copies src to dst, turning \xHH into the byte so the file can hold non-ASCII names as plain text. */
+static void unescape(char* dst, const char* src) {
+    while (*src != '\0') {
+        if (src[0] == '\\' && src[1] == 'x') {
+            char hex[3] = {src[2], src[3], '\0'};
+            *dst++ = (char) strtol(hex, NULL, 16);
+            src += 4;
+        } else {
+            *dst++ = *src++;
+        }
+    }
+    *dst = '\0';
+}
+
+static int load_corpus(const char* path) {
+    FILE* f = fopen(path, "r");
+    if (f == NULL) {
+        perror(path);
+        return -1;
+    }
+    char line[JNI_SYM_NAME_BUF_SIZE * 3];
+    while (fgets(line, sizeof(line), f) != NULL && g_corpus_size < MAX_NAMES) {
+        line[strcspn(line, "\n")] = '\0';
+        if (line[0] == '#' || line[0] == '\0') continue;
+        char* key = strchr(line, '\t');
+        char* args = key != NULL ? strchr(key + 1, '\t') : NULL;
+        if (args == NULL) {
+            fprintf(stderr, "Malformed corpus line: %s\n", line);
+            fclose(f);
+            return -1;
+        }
+        *key++ = '\0';
+        *args++ = '\0';
+        CorpusEntry* e = &g_corpus[g_corpus_size++];
+        strcpy(e->sym, line);
+        e->must_fail = strcmp(key, "-") == 0;
+        unescape(e->key, key);
+        unescape(e->args, args);
+    }
+    fclose(f);
+    return 0;
+}
+
+static int check(const CorpusEntry* e) {
+    JniSymName name;
+    bool ok = decode_jni_sym_name(e->sym, &name);
+    if (e->must_fail) {
+        if (!ok) return 0;
+        fprintf(stderr, "FAILED: %s decoded to %s, expected an error\n", e->sym, name.key);
+        return 1;
+    }
+    if (!ok) {
+        fprintf(stderr, "FAILED: %s didn't decode\n", e->sym);
+        return 1;
+    }
+    int failed = 0;
+    if (strcmp(name.key, e->key) != 0 || strcmp(name.arg_sig, e->args) != 0) {
+        fprintf(stderr, "FAILED: %s decoded to %s %s, expected %s %s\n", e->sym, name.key, name.arg_sig, e->key,
+                e->args);
+        failed = 1;
+    }
+    // the class signature is the key up to ";", the method name follows ";."
+    const char* dot = strstr(name.key, ";.");
+    if (dot == NULL || name.class_sig_len != dot - name.key + 1 || name.method_name != dot + 2) {
+        fprintf(stderr, "FAILED: %s has wrong class signature length or method name\n", e->sym);
+        failed = 1;
+    }
+    return failed;
+}
+
+static void bench() {
+    JniSymName name;
+    struct timespec start, end;
+    int decoded = 0;
+    clock_gettime(CLOCK_MONOTONIC, &start);
+    for (int round = 0; round < BENCH_ROUNDS; round++) {
+        for (int i = 0; i < g_corpus_size; i++) {
+            if (g_corpus[i].must_fail) continue;
+            decoded += decode_jni_sym_name(g_corpus[i].sym, &name);
+        }
+    }
+    clock_gettime(CLOCK_MONOTONIC, &end);
+    double ns = (double) (end.tv_sec - start.tv_sec) * 1e9 + (double) (end.tv_nsec - start.tv_nsec);
+    printf("decoded %d names, %.1f ns per name\n", decoded, ns / decoded);
+}
+
+int main(int argc, char** argv) {
+    if (argc != 2) {
+        fprintf(stderr, "usage: %s <corpus file>\n", argv[0]);
+        return EXIT_FAILURE;
+    }
+    if (load_corpus(argv[1]) != 0) return EXIT_FAILURE;
+
+    int failed = 0;
+    for (int i = 0; i < g_corpus_size; i++) failed += check(&g_corpus[i]);
+    printf("%d names, %d wrong\n", g_corpus_size, failed);
+    if (failed == 0) bench();
+    return failed == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+}
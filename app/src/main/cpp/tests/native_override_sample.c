@@ -0,0 +1,49 @@
+#include "native_override_check.h"
+
+/*
+ * An override library the way one is shipped with the launcher: the arm64 implementation of a game
+ * native under its JNI name, and the check that "check" mode in native_overrides.txt runs before
+ * binding it. PZMath.clamp(FFF)F stands in for a real one, native_overrides_test drives it.
+ */
+
+typedef jfloat (JNICALL *ClampFn)(JNIEnv* env, jclass clazz, jfloat value, jfloat min, jfloat max);
+
+JNIEXPORT jfloat JNICALL
+Java_zombie_core_math_PZMath_clamp__FFF(JNIEnv* env, jclass clazz, jfloat value, jfloat min, jfloat max) {
+    (void) env;
+    (void) clazz;
+    // the comparisons fail for NaN, which then comes back unchanged like in the x86 build
+    if (value < min) return min;
+    if (value > max) return max;
+    return value;
+}
+
+JNIEXPORT int
+Java_zombie_core_math_PZMath_clamp__FFF__zomdroid_check(JNIEnv* env, void* emulated, void* native) {
+    ClampFn emulated_fn = (ClampFn) emulated;
+    ClampFn native_fn = (ClampFn) native;
+    const int n = NATIVE_OVERRIDE_INPUT_COUNT(NATIVE_OVERRIDE_FLOAT_INPUTS);
+    int mismatches = 0;
+    for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+            for (int k = 0; k < n; k++) {
+                jfloat value = NATIVE_OVERRIDE_FLOAT_INPUTS[i];
+                jfloat min = NATIVE_OVERRIDE_FLOAT_INPUTS[j];
+                jfloat max = NATIVE_OVERRIDE_FLOAT_INPUTS[k];
+                if (!native_override_same_float(emulated_fn(env, NULL, value, min, max),
+                                                native_fn(env, NULL, value, min, max)))
+                    mismatches++;
+            }
+        }
+    }
+    return mismatches;
+}
+
+/* Exported without a check, binds in "on" mode but must stay emulated in "check" mode. */
+JNIEXPORT jint JNICALL
+Java_zombie_core_math_PZMath_fastfloor__F(JNIEnv* env, jclass clazz, jfloat value) {
+    (void) env;
+    (void) clazz;
+    jint i = (jint) value;
+    return value < (jfloat) i ? i - 1 : i;
+}
@@ -0,0 +1,234 @@
+#include <dlfcn.h>
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+#include "native_overrides.h"
+
+/*
+ * Drives native_overrides.c the way the JVM does: init with a manifest, then NativeMethodBind events
+ * through the callback it filled in, with a JVM TI env that only knows the methods below. The
+ * override library is tests/native_override_sample.c, the emulated implementations are plain
+ * functions here, one of them with x86 results that differ from the override. Each manifest runs in
+ * a child process since the module keeps its state for the life of the process.
+ *   native_overrides_test <directory of libnative_override_sample.so>
+ */
+
+#define SAMPLE_LIBRARY "libnative_override_sample.so"
+
+static const char* g_library_dir;
+static int g_failed;
+static int g_event_enables;
+
+#define CHECK(cond, ...) do { \
+    if (!(cond)) { \
+        fprintf(stderr, "FAILED %s:%d: ", __func__, __LINE__); \
+        fprintf(stderr, __VA_ARGS__); \
+        fputc('\n', stderr); \
+        g_failed++; \
+    } \
+} while (0)
+
+/* Loads from the build directory instead of the app's linker namespace. */
+void* linkernsbypass_namespace_dlopen(const char* filename, int flags, struct android_namespace_t* ns) {
+    (void) ns;
+    char path[4096];
+    snprintf(path, sizeof(path), "%s/%s", g_library_dir, filename);
+    return dlopen(path, flags | RTLD_NOW);
+}
+
+typedef struct {
+    const char* class_sig;
+    const char* name;
+    const char* sig;
+} FakeMethod;
+
+static const FakeMethod CLAMP = {"Lzombie/core/math/PZMath;", "clamp", "(FFF)F"};
+static const FakeMethod FASTFLOOR = {"Lzombie/core/math/PZMath;", "fastfloor", "(F)I"};
+static const FakeMethod SIGN = {"Lzombie/core/math/PZMath;", "sign", "(F)F"};
+static const FakeMethod UNLISTED = {"Lzombie/core/Core;", "getGLMajorVersion", "()I"};
+
+static jvmtiError JNICALL get_potential_capabilities(jvmtiEnv* env, jvmtiCapabilities* caps) {
+    (void) env;
+    memset(caps, 0, sizeof(*caps));
+    caps->can_generate_native_method_bind_events = 1;
+    return JVMTI_ERROR_NONE;
+}
+
+static jvmtiError JNICALL add_capabilities(jvmtiEnv* env, const jvmtiCapabilities* caps) {
+    (void) env;
+    (void) caps;
+    return JVMTI_ERROR_NONE;
+}
+
+static jvmtiError JNICALL set_event_notification_mode(jvmtiEnv* env, jvmtiEventMode mode, jvmtiEvent event,
+                                                      jthread thread, ...) {
+    (void) env;
+    (void) thread;
+    if (mode == JVMTI_ENABLE && event == JVMTI_EVENT_NATIVE_METHOD_BIND) g_event_enables++;
+    return JVMTI_ERROR_NONE;
+}
+
+static jvmtiError JNICALL get_method_name(jvmtiEnv* env, jmethodID method, char** name, char** sig, char** generic) {
+    (void) env;
+    const FakeMethod* m = (const FakeMethod*) method;
+    if (name != NULL) *name = strdup(m->name);
+    if (sig != NULL) *sig = strdup(m->sig);
+    if (generic != NULL) *generic = NULL;
+    return JVMTI_ERROR_NONE;
+}
+
+static jvmtiError JNICALL get_method_declaring_class(jvmtiEnv* env, jmethodID method, jclass* clazz) {
+    (void) env;
+    *clazz = (jclass) method;
+    return JVMTI_ERROR_NONE;
+}
+
+static jvmtiError JNICALL get_class_signature(jvmtiEnv* env, jclass clazz, char** sig, char** generic) {
+    (void) env;
+    if (sig != NULL) *sig = strdup(((const FakeMethod*) clazz)->class_sig);
+    if (generic != NULL) *generic = NULL;
+    return JVMTI_ERROR_NONE;
+}
+
+static jvmtiError JNICALL deallocate(jvmtiEnv* env, unsigned char* mem) {
+    (void) env;
+    free(mem);
+    return JVMTI_ERROR_NONE;
+}
+
+static void JNICALL delete_local_ref(JNIEnv* env, jobject obj) {
+    (void) env;
+    (void) obj;
+}
+
+static struct jvmtiInterface_1_ g_jvmti_functions;
+static jvmtiEnv g_jvmti = &g_jvmti_functions;
+static struct JNINativeInterface_ g_jni_functions;
+static JNIEnv g_jni = &g_jni_functions;
+
+/* What box64 runs for the game's own library. */
+static jfloat JNICALL emulated_clamp(JNIEnv* env, jclass clazz, jfloat value, jfloat min, jfloat max) {
+    (void) env;
+    (void) clazz;
+    return value < min ? min : value > max ? max : value;
+}
+
+/* Same for ordinary numbers, but NaN is clamped instead of passed through. */
+static jfloat JNICALL emulated_clamp_minmax(JNIEnv* env, jclass clazz, jfloat value, jfloat min, jfloat max) {
+    (void) env;
+    (void) clazz;
+    return fminf(fmaxf(value, min), max);
+}
+
+static jint JNICALL emulated_fastfloor(JNIEnv* env, jclass clazz, jfloat value) {
+    (void) env;
+    (void) clazz;
+    return (jint) floorf(value);
+}
+
+static jfloat JNICALL emulated_sign(JNIEnv* env, jclass clazz, jfloat value) {
+    (void) env;
+    (void) clazz;
+    return value > 0 ? 1.0f : value < 0 ? -1.0f : 0.0f;
+}
+
+static void* bind(jvmtiEventCallbacks* callbacks, const FakeMethod* method, void* emulated) {
+    void* address = emulated;
+    callbacks->NativeMethodBind(&g_jvmti, &g_jni, NULL, (jmethodID) method, emulated, &address);
+    return address;
+}
+
+static void* sample_symbol(const char* symbol) {
+    void* handle = linkernsbypass_namespace_dlopen(SAMPLE_LIBRARY, RTLD_LOCAL, NULL);
+    return handle == NULL ? NULL : dlsym(handle, symbol);
+}
+
+static char* write_manifest(const char* content) {
+    static char path[] = "/tmp/native_overrides_test_XXXXXX";
+    strcpy(path, "/tmp/native_overrides_test_XXXXXX");
+    int fd = mkstemp(path);
+    if (fd < 0 || write(fd, content, strlen(content)) != (ssize_t) strlen(content)) {
+        perror("manifest");
+        exit(EXIT_FAILURE);
+    }
+    close(fd);
+    return path;
+}
+
+static void test_check_mode(jvmtiEventCallbacks* callbacks) {
+    void* native_clamp = sample_symbol("Java_zombie_core_math_PZMath_clamp__FFF");
+    CHECK(native_clamp != NULL, "sample library not found in %s", g_library_dir);
+
+    CHECK(bind(callbacks, &CLAMP, emulated_clamp) == native_clamp, "matching override not bound");
+    CHECK(bind(callbacks, &CLAMP, emulated_clamp_minmax) == emulated_clamp_minmax,
+          "override bound although NaN results differ");
+    CHECK(bind(callbacks, &FASTFLOOR, emulated_fastfloor) == emulated_fastfloor,
+          "override without a check bound in check mode");
+    CHECK(bind(callbacks, &SIGN, emulated_sign) == emulated_sign, "override that is off bound");
+    CHECK(bind(callbacks, &UNLISTED, emulated_sign) == emulated_sign, "unlisted method rebound");
+}
+
+static void test_on_mode(jvmtiEventCallbacks* callbacks) {
+    void* native_fastfloor = sample_symbol("Java_zombie_core_math_PZMath_fastfloor__F");
+    CHECK(bind(callbacks, &FASTFLOOR, emulated_fastfloor) == native_fastfloor, "override in on mode not bound");
+    CHECK(bind(callbacks, &CLAMP, emulated_clamp) == emulated_clamp, "bound to a library that doesn't exist");
+}
+
+static int run(const char* manifest, void (*test)(jvmtiEventCallbacks*), int expected_enables) {
+    pid_t pid = fork();
+    if (pid < 0) {
+        perror("fork");
+        return 1;
+    }
+    if (pid == 0) {
+        jvmtiEventCallbacks callbacks = {0};
+        char* path = manifest != NULL ? write_manifest(manifest) : "/nonexistent/native_overrides.txt";
+        CHECK(native_overrides_init(&g_jvmti, NULL, path, &callbacks) == 0, "init failed");
+        if (manifest != NULL) unlink(path);
+        // the event may only come on once the caller has set the callbacks
+        CHECK(g_event_enables == 0, "event enabled by init");
+        CHECK(native_overrides_enable(&g_jvmti) == 0, "enable failed");
+        CHECK(g_event_enables == expected_enables, "event enabled %d times, expected %d", g_event_enables,
+              expected_enables);
+        CHECK((callbacks.NativeMethodBind != NULL) == (expected_enables > 0), "callback not filled in as expected");
+        if (test != NULL && callbacks.NativeMethodBind != NULL) test(&callbacks);
+        _exit(g_failed == 0 ? 0 : 1);
+    }
+    int status;
+    waitpid(pid, &status, 0);
+    return WIFEXITED(status) && WEXITSTATUS(status) == 0 ? 0 : 1;
+}
+
+int main(int argc, char** argv) {
+    if (argc != 2) {
+        fprintf(stderr, "usage: %s <directory of %s>\n", argv[0], SAMPLE_LIBRARY);
+        return EXIT_FAILURE;
+    }
+    g_library_dir = argv[1];
+    g_jvmti_functions.GetPotentialCapabilities = get_potential_capabilities;
+    g_jvmti_functions.AddCapabilities = add_capabilities;
+    g_jvmti_functions.SetEventNotificationMode = set_event_notification_mode;
+    g_jvmti_functions.GetMethodName = get_method_name;
+    g_jvmti_functions.GetMethodDeclaringClass = get_method_declaring_class;
+    g_jvmti_functions.GetClassSignature = get_class_signature;
+    g_jvmti_functions.Deallocate = deallocate;
+    g_jni_functions.DeleteLocalRef = delete_local_ref;
+
+    int failed = 0;
+    failed += run("# sample overrides\n"
+                  "Java_zombie_core_math_PZMath_clamp__FFF " SAMPLE_LIBRARY " check\n"
+                  "Java_zombie_core_math_PZMath_fastfloor__F " SAMPLE_LIBRARY " check\n"
+                  "Java_zombie_core_math_PZMath_sign " SAMPLE_LIBRARY " off\n",
+                  test_check_mode, 1);
+    failed += run("Java_zombie_core_math_PZMath_fastfloor__F " SAMPLE_LIBRARY " on\n"
+                  "Java_zombie_core_math_PZMath_clamp libmissing.so on\n",
+                  test_on_mode, 1);
+    failed += run("Java_zombie_core_math_PZMath_sign " SAMPLE_LIBRARY " off\n", NULL, 0);
+    failed += run(NULL, NULL, 0);
+    printf("native_overrides_test: %d of 4 scenarios failed\n", failed);
+    return failed == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+}
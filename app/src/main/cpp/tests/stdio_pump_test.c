@@ -0,0 +1,273 @@
+#include <fcntl.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "stdio_pump.h"
+
+/*
+ * Feeds the pump through a real pipe the way the game's redirected stdout does, in pieces that don't
+ * line up with line ends, and checks the lines it hands out.
+ */
+
+#define MAX_LINES 256
+
+typedef struct {
+    char* lines[MAX_LINES];
+    size_t lens[MAX_LINES];
+    int count;
+} Collected;
+
+static int g_failed;
+
+#define CHECK(cond, ...) do { \
+    if (!(cond)) { \
+        fprintf(stderr, "FAILED %s:%d: ", __func__, __LINE__); \
+        fprintf(stderr, __VA_ARGS__); \
+        fputc('\n', stderr); \
+        g_failed++; \
+    } \
+} while (0)
+
+static void collect(void* user, const char* line, size_t len) {
+    Collected* c = user;
+    if (c->count >= MAX_LINES) return;
+    c->lines[c->count] = malloc(len + 1);
+    memcpy(c->lines[c->count], line, len);
+    c->lines[c->count][len] = '\0';
+    c->lens[c->count] = len;
+    c->count++;
+}
+
+static void collected_free(Collected* c) {
+    for (int i = 0; i < c->count; i++) free(c->lines[i]);
+    c->count = 0;
+}
+
+typedef struct {
+    int fds[2];
+    StdioPump pump;
+    Collected out;
+} Fixture;
+
+static Fixture* fixture_new() {
+    Fixture* f = calloc(1, sizeof(Fixture));
+    if (pipe(f->fds) != 0) {
+        perror("pipe");
+        exit(EXIT_FAILURE);
+    }
+    stdio_pump_init(&f->pump, f->fds[0], collect, &f->out);
+    stdio_pump_set_rate_limit(&f->pump, 0, 0);
+    return f;
+}
+
+static void fixture_free(Fixture* f) {
+    stdio_pump_set_file_sink(&f->pump, NULL);
+    close(f->fds[0]);
+    if (f->fds[1] >= 0) close(f->fds[1]);
+    collected_free(&f->out);
+    free(f);
+}
+
+/* Writes the bytes and lets the pump read them, nothing is read before the write is complete. */
+static void feed(Fixture* f, const char* data, size_t len) {
+    while (len > 0) {
+        ssize_t n = write(f->fds[1], data, len);
+        if (n <= 0) {
+            perror("write");
+            exit(EXIT_FAILURE);
+        }
+        data += n;
+        len -= (size_t) n;
+        stdio_pump_poll(&f->pump, 0);
+    }
+}
+
+static void feed_str(Fixture* f, const char* s) {
+    feed(f, s, strlen(s));
+}
+
+static void sleep_ms(long ms) {
+    struct timespec ts = {.tv_sec = ms / 1000, .tv_nsec = (ms % 1000) * 1000000L};
+    nanosleep(&ts, NULL);
+}
+
+static void test_reassembly() {
+    Fixture* f = fixture_new();
+    feed_str(f, "hel");
+    CHECK(f->out.count == 0, "partial line emitted early");
+    feed_str(f, "lo\nwor");
+    feed_str(f, "ld\n\nlast\n");
+    CHECK(f->out.count == 4, "got %d lines", f->out.count);
+    if (f->out.count == 4) {
+        CHECK(strcmp(f->out.lines[0], "hello") == 0, "line 0 is '%s'", f->out.lines[0]);
+        CHECK(strcmp(f->out.lines[1], "world") == 0, "line 1 is '%s'", f->out.lines[1]);
+        CHECK(f->out.lens[2] == 0, "empty line has %zu bytes", f->out.lens[2]);
+        CHECK(strcmp(f->out.lines[3], "last") == 0, "line 3 is '%s'", f->out.lines[3]);
+    }
+    fixture_free(f);
+}
+
+/* Position dependent content, so chunks that were put together wrong don't compare equal. */
+static char* make_long_line(size_t len) {
+    char* line = malloc(len + 2);
+    for (size_t i = 0; i < len; i++) line[i] = (char) ('a' + (i * 7 + i / 26) % 26);
+    line[len] = '\n';
+    line[len + 1] = '\0';
+    return line;
+}
+
+static void check_chunks(Fixture* f, const char* line, size_t len) {
+    int expected = (int) ((len + STDIO_PUMP_MAX_LINE - 1) / STDIO_PUMP_MAX_LINE);
+    CHECK(f->out.count == expected, "%zu byte line gave %d chunks, expected %d", len, f->out.count, expected);
+    size_t pos = 0;
+    for (int i = 0; i < f->out.count && pos < len; i++) {
+        size_t chunk = len - pos < STDIO_PUMP_MAX_LINE ? len - pos : STDIO_PUMP_MAX_LINE;
+        CHECK(f->out.lens[i] == chunk, "chunk %d has %zu bytes, expected %zu", i, f->out.lens[i], chunk);
+        CHECK(memcmp(f->out.lines[i], line + pos, chunk) == 0, "chunk %d differs", i);
+        pos += chunk;
+    }
+}
+
+static void test_long_line() {
+    Fixture* f = fixture_new();
+    size_t len = 2 * STDIO_PUMP_MAX_LINE + 1000;
+    char* line = make_long_line(len);
+    // in odd sized pieces, so chunk ends and read ends don't line up
+    for (size_t pos = 0; pos < len + 1; pos += 777) {
+        feed(f, line + pos, len + 1 - pos < 777 ? len + 1 - pos : 777);
+    }
+    check_chunks(f, line, len);
+    free(line);
+    fixture_free(f);
+}
+
+static void test_long_line_at_ring_wrap() {
+    Fixture* f = fixture_new();
+    // fill lines until the next line starts 1500 bytes before the end of the ring
+    char filler[1000];
+    memset(filler, 'x', sizeof(filler) - 1);
+    filler[sizeof(filler) - 1] = '\n';
+    size_t target = STDIO_PUMP_RING_SIZE - 1500;
+    size_t written = 0;
+    while (written + sizeof(filler) <= target) {
+        feed(f, filler, sizeof(filler));
+        written += sizeof(filler);
+    }
+    feed(f, filler + sizeof(filler) - (target - written), target - written);
+    CHECK((f->pump.write_pos & (STDIO_PUMP_RING_SIZE - 1)) == target, "ring at %llu, expected %zu",
+          (unsigned long long) (f->pump.write_pos & (STDIO_PUMP_RING_SIZE - 1)), target);
+    collected_free(&f->out);
+
+    size_t len = 2 * STDIO_PUMP_MAX_LINE + 321;
+    char* line = make_long_line(len);
+    feed(f, line, len + 1);
+    check_chunks(f, line, len);
+    free(line);
+    fixture_free(f);
+}
+
+static void test_cr_stripping() {
+    Fixture* f = fixture_new();
+    feed_str(f, "dos\r\nunix\nmid\rdle\r\n\r\n");
+    CHECK(f->out.count == 4, "got %d lines", f->out.count);
+    if (f->out.count == 4) {
+        CHECK(strcmp(f->out.lines[0], "dos") == 0, "line 0 is '%s'", f->out.lines[0]);
+        CHECK(strcmp(f->out.lines[1], "unix") == 0, "line 1 is '%s'", f->out.lines[1]);
+        CHECK(strcmp(f->out.lines[2], "mid\rdle") == 0, "only a trailing CR is dropped");
+        CHECK(f->out.lens[3] == 0, "CR only line has %zu bytes", f->out.lens[3]);
+    }
+    fixture_free(f);
+}
+
+static void test_flush_on_idle() {
+    Fixture* f = fixture_new();
+    feed_str(f, "Password: ");
+    CHECK(f->out.count == 0, "partial line emitted before idle");
+    CHECK(stdio_pump_poll(&f->pump, 10) == 0, "poll without input didn't time out");
+    CHECK(f->out.count == 1 && strcmp(f->out.lines[0], "Password: ") == 0, "prompt not flushed on idle");
+    // the rest of the line after the flush is a line of its own
+    feed_str(f, "secret\n");
+    CHECK(f->out.count == 2 && strcmp(f->out.lines[1], "secret") == 0, "line after flush wrong");
+    fixture_free(f);
+}
+
+static void test_flush_on_eof() {
+    Fixture* f = fixture_new();
+    CHECK(write(f->fds[1], "one\ntail", 8) == 8, "write failed");
+    close(f->fds[1]);
+    f->fds[1] = -1;
+    int r = 0;
+    for (int i = 0; i < 4 && r >= 0; i++) r = stdio_pump_poll(&f->pump, 10);
+    CHECK(r == -1, "EOF not reported");
+    CHECK(f->out.count == 2, "got %d lines", f->out.count);
+    if (f->out.count == 2) CHECK(strcmp(f->out.lines[1], "tail") == 0, "tail is '%s'", f->out.lines[1]);
+    fixture_free(f);
+}
+
+static void test_rate_limit() {
+    Fixture* f = fixture_new();
+    stdio_pump_set_rate_limit(&f->pump, 10, 10);
+    for (int i = 0; i < 30; i++) {
+        char line[16];
+        int n = snprintf(line, sizeof(line), "line %d\n", i);
+        feed(f, line, (size_t) n);
+    }
+    CHECK(f->out.count == 10, "burst let %d lines through, expected 10", f->out.count);
+    CHECK(f->pump.suppressed == 20, "%llu lines suppressed, expected 20", (unsigned long long) f->pump.suppressed);
+
+    // 10 per second refills at least one token
+    sleep_ms(250);
+    feed_str(f, "after\n");
+    CHECK(f->out.count == 12, "got %d lines after refill", f->out.count);
+    if (f->out.count == 12) {
+        CHECK(strcmp(f->out.lines[10], "[zomdroid] output rate limited, suppressed 20 lines") == 0,
+              "notice is '%s'", f->out.lines[10]);
+        CHECK(strcmp(f->out.lines[11], "after") == 0, "line after notice is '%s'", f->out.lines[11]);
+    }
+    CHECK(f->pump.suppressed == 0 && f->pump.total_suppressed == 20, "suppressed counters wrong");
+    CHECK(f->pump.total_lines == 31, "%llu lines counted", (unsigned long long) f->pump.total_lines);
+    fixture_free(f);
+}
+
+static void test_file_sink() {
+    Fixture* f = fixture_new();
+    char path[] = "/tmp/stdio_pump_test_XXXXXX";
+    int fd = mkstemp(path);
+    CHECK(fd >= 0, "mkstemp failed");
+    if (fd < 0) {
+        fixture_free(f);
+        return;
+    }
+    close(fd);
+
+    CHECK(stdio_pump_set_file_sink(&f->pump, path) == 0, "failed to open sink");
+    feed_str(f, "first\r\nsec");
+    feed_str(f, "ond\nthird");
+    stdio_pump_flush(&f->pump);
+    stdio_pump_set_file_sink(&f->pump, NULL);
+    CHECK(f->out.count == 3, "callback got %d lines next to the sink", f->out.count);
+
+    char content[64] = {0};
+    fd = open(path, O_RDONLY);
+    ssize_t n = fd >= 0 ? read(fd, content, sizeof(content) - 1) : -1;
+    if (fd >= 0) close(fd);
+    CHECK(n >= 0 && strcmp(content, "first\nsecond\nthird\n") == 0, "sink holds '%s'", content);
+    unlink(path);
+    fixture_free(f);
+}
+
+int main() {
+    test_reassembly();
+    test_long_line();
+    test_long_line_at_ring_wrap();
+    test_cr_stripping();
+    test_flush_on_idle();
+    test_flush_on_eof();
+    test_rate_limit();
+    test_file_sink();
+    printf("stdio_pump_test: %d failed checks\n", g_failed);
+    return g_failed == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+}
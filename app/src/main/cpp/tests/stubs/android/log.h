@@ -0,0 +1,17 @@
+#ifndef ZOMDROID_TEST_ANDROID_LOG_H
+#define ZOMDROID_TEST_ANDROID_LOG_H
+
+/* Host stand-in for the NDK header, the tests print log messages to stderr. */
+
+enum {
+    ANDROID_LOG_VERBOSE = 2,
+    ANDROID_LOG_DEBUG,
+    ANDROID_LOG_INFO,
+    ANDROID_LOG_WARN,
+    ANDROID_LOG_ERROR,
+    ANDROID_LOG_FATAL,
+};
+
+int __android_log_print(int prio, const char* tag, const char* fmt, ...) __attribute__((format(printf, 3, 4)));
+
+#endif //ZOMDROID_TEST_ANDROID_LOG_H
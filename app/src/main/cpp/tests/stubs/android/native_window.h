@@ -0,0 +1,11 @@
+#ifndef ZOMDROID_TEST_ANDROID_NATIVE_WINDOW_H
+#define ZOMDROID_TEST_ANDROID_NATIVE_WINDOW_H
+
+/* Host stand-in for the NDK header, also brings in what bionic headers include implicitly. */
+
+#include <stdbool.h>
+#include <sys/types.h>
+
+typedef struct ANativeWindow ANativeWindow;
+
+#endif //ZOMDROID_TEST_ANDROID_NATIVE_WINDOW_H
@@ -0,0 +1,15 @@
+#include <stdarg.h>
+#include <stdio.h>
+
+#include "android/log.h"
+
+int __android_log_print(int prio, const char* tag, const char* fmt, ...) {
+    (void) prio;
+    va_list args;
+    va_start(args, fmt);
+    fprintf(stderr, "%s: ", tag);
+    int res = vfprintf(stderr, fmt, args);
+    fputc('\n', stderr);
+    va_end(args);
+    return res;
+}
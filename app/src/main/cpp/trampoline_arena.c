@@ -0,0 +1,118 @@
+#include "trampoline_arena.h"
+
+#include <errno.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <unistd.h>
+
+#include "logger.h"
+
+#define LOG_TAG "zomdroid-arena"
+
+#define CHUNK_SIZE (64 * 1024)
+#define ALIGNMENT 16
+
+typedef struct {
+    uint8_t* rw;
+    uint8_t* rx; // same as rw for single mapped chunks
+    size_t size;
+    size_t used;
+} ArenaChunk;
+
+// chunks that are full are left mapped, the code in them stays in use
+static ArenaChunk g_chunk;
+static bool g_dual_mapping_failed;
+static size_t g_page_size;
+
+static size_t round_up(size_t value, size_t to) {
+    return (value + to - 1) & ~(to - 1);
+}
+
+static bool map_dual_chunk(size_t size) {
+    int fd = memfd_create("zomdroid-trampolines", MFD_CLOEXEC);
+    if (fd < 0) {
+        LOGW("memfd_create failed: %s", strerror(errno));
+        return false;
+    }
+    void* rw = MAP_FAILED;
+    void* rx = MAP_FAILED;
+    if (ftruncate(fd, (off_t) size) == 0) {
+        rw = mmap(NULL, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+        rx = mmap(NULL, size, PROT_READ | PROT_EXEC, MAP_SHARED, fd, 0);
+    }
+    int err = errno;
+    close(fd);
+    if (rw == MAP_FAILED || rx == MAP_FAILED) {
+        LOGW("Failed to map trampoline chunk: %s", strerror(err));
+        if (rw != MAP_FAILED) munmap(rw, size);
+        if (rx != MAP_FAILED) munmap(rx, size);
+        return false;
+    }
+    g_chunk = (ArenaChunk) { .rw = rw, .rx = rx, .size = size, .used = 0 };
+    return true;
+}
+
+static bool map_single_chunk(size_t size) {
+    void* mem = mmap(NULL, size, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+    if (mem == MAP_FAILED) {
+        LOGE("Failed to mmap trampoline chunk: %s", strerror(errno));
+        return false;
+    }
+    g_chunk = (ArenaChunk) { .rw = mem, .rx = mem, .size = size, .used = 0 };
+    return true;
+}
+
+static void* reserve(size_t size, size_t alignment, void** rx_out) {
+    if (g_chunk.rw == NULL || round_up(g_chunk.used, alignment) + size > g_chunk.size) {
+        size_t chunk_size = round_up(size > CHUNK_SIZE ? size : CHUNK_SIZE, g_page_size);
+        bool mapped = false;
+        if (!g_dual_mapping_failed) {
+            mapped = map_dual_chunk(chunk_size);
+            if (!mapped) {
+                LOGW("Falling back to sealing trampoline pages on commit");
+                g_dual_mapping_failed = true;
+            }
+        }
+        if (!mapped && !map_single_chunk(chunk_size)) return NULL;
+    }
+
+    g_chunk.used = round_up(g_chunk.used, alignment);
+    void* rw = g_chunk.rw + g_chunk.used;
+    *rx_out = g_chunk.rx + g_chunk.used;
+    g_chunk.used += size;
+    return rw;
+}
+
+void* trampoline_arena_reserve(size_t size, void** rx_out) {
+    if (g_page_size == 0) g_page_size = (size_t) sysconf(_SC_PAGESIZE);
+    return reserve(round_up(size, ALIGNMENT), ALIGNMENT, rx_out);
+}
+
+void* trampoline_arena_reserve_pages(size_t count, void** rx_out) {
+    if (g_page_size == 0) g_page_size = (size_t) sysconf(_SC_PAGESIZE);
+    return reserve(count * g_page_size, g_page_size, rx_out);
+}
+
+int trampoline_arena_commit(void* rw, void* rx, size_t size) {
+    if (rw != rx) {
+        // both views share the physical pages, clean where it was written and invalidate where it runs
+        __builtin___clear_cache(rw, (char*) rw + size);
+        __builtin___clear_cache(rx, (char*) rx + size);
+        return 0;
+    }
+
+    uintptr_t start = (uintptr_t) rx & ~(g_page_size - 1);
+    uintptr_t end = round_up((uintptr_t) rx + size, g_page_size);
+    if (mprotect((void*) start, end - start, PROT_READ | PROT_EXEC) != 0) {
+        LOGE("Failed to make trampoline pages executable: %s", strerror(errno));
+        return -1;
+    }
+    __builtin___clear_cache(rx, (char*) rx + size);
+
+    // sealed pages are never written again, the next reservation starts on a fresh one
+    size_t sealed = end - (uintptr_t) g_chunk.rx;
+    if (sealed > g_chunk.used) g_chunk.used = sealed;
+    return 0;
+}
@@ -0,0 +1,27 @@
+#ifndef ZOMDROID_TRAMPOLINE_ARENA_H
+#define ZOMDROID_TRAMPOLINE_ARENA_H
+
+#include <stddef.h>
+
+/*
+ * Executable memory for generated code, never writable and executable at the same time. Chunks are
+ * backed by a memfd mapped twice, code is written through the RW view and run from the RX one, so
+ * code already handed out keeps running while more is added. Where that mapping is refused, chunks
+ * are anonymous RW pages that are flipped to RX on commit and never written again.
+ *
+ * Not thread safe, callers serialize reserve/commit.
+ */
+
+/* Reserves size bytes, aligned to 16. Returns the address to write to, *rx_out is the one to run. */
+void* trampoline_arena_reserve(size_t size, void** rx_out);
+
+/*
+ * Reserves count whole pages, the first one starting a page. Only what gets committed becomes
+ * executable, the pages after it stay writable for data the committed code reads.
+ */
+void* trampoline_arena_reserve_pages(size_t count, void** rx_out);
+
+/* Makes the code written to the last reservation executable. */
+int trampoline_arena_commit(void* rw, void* rx, size_t size);
+
+#endif //ZOMDROID_TRAMPOLINE_ARENA_H
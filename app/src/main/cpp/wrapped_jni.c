@@ -9,16 +9,22 @@
 
 #define LOG_TAG "zomdroid-wrapped-jni"
 
-static void ensure_env() {
+/* Java threads get the env at start from the ThreadStart hook in zomdroid.c and native ones from the
+ * wrapped AttachCurrentThread/GetEnv below, the lookup is left for threads the JVM started before the
+ * hook was installed. */
+__attribute__((noinline, cold))
+static void resolve_env() {
+    jint res = (*g_zomdroid_jvm)->GetEnv(g_zomdroid_jvm, (void**)&g_zomdroid_jni_env, JNI_VERSION_1_6);
     if (g_zomdroid_jni_env == NULL) {
-        jint res = (*g_zomdroid_jvm)->GetEnv(g_zomdroid_jvm, (void**)&g_zomdroid_jni_env, JNI_VERSION_1_6);
-        if (g_zomdroid_jni_env == NULL) {
-            LOGE("Failed to get JNIEnv*, error code: %d", res);
-            abort();
-        }
+        LOGE("Failed to get JNIEnv*, error code: %d", res);
+        abort();
     }
 }
 
+static inline void ensure_env() {
+    if (__builtin_expect(g_zomdroid_jni_env == NULL, 0)) resolve_env();
+}
+
 __attribute__((visibility("default"), used))
 jint zomdroid_jni_GetVersion(__attribute__((unused)) JNIEnv *env) {
     ensure_env();
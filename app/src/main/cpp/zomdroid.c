@@ -1,4 +1,5 @@
 #include <dlfcn.h>
+#include <limits.h>
 #include <android/dlext.h>
 #include <pthread.h>
 #include <string.h>
@@ -15,6 +16,14 @@
 #include <sys/sysinfo.h>
 #include <asm-generic/fcntl.h>
 #include "logger.h"
+#include "stdio_pump.h"
+#include "flight_recorder.h"
+#include "memory_telemetry.h"
+#include "startup_trace.h"
+#include "file_prefetch.h"
+#include "native_overrides.h"
+#include "event_queue.h"
+#include "input_latency.h"
 
 #define LOG_TAG "zomdroid-main"
 
@@ -34,27 +43,15 @@ Renderer g_zomdroid_renderer;
 
 ZomdroidEventQueue g_zomdroid_event_queue;
 
-static long get_mem_available_mb() {
-    FILE* f = fopen("/proc/meminfo", "r");
-    if (!f) return -1;
-
-    char line[256];
-    long memAvailableKb = -1;
-
-    while (fgets(line, sizeof(line), f)) {
-        if (sscanf(line, "MemAvailable: %ld kB", &memAvailableKb) == 1) {
-            break;
-        }
-    }
-    fclose(f);
-
-    return (memAvailableKb > 0) ? (memAvailableKb / 1024) : -1;
+static void log_stdio_line(void* user, const char* line, size_t len) {
+    StdioPump* pump = user;
+    flight_recorder_text(line, len);
+    if (pump->sink_fd < 0)
+        LOGI("%.*s", (int) len, line);
 }
 
-__attribute__((noreturn))
-static void monitor_stdio_and_memory() {
+static void monitor_stdio() {
     int pipefd[2];
-    char buffer[8192];
 
     if (pipe(pipefd) == -1) {
         LOGE("Failed to create pipe for monitoring stdio");
@@ -68,37 +65,27 @@ static void monitor_stdio_and_memory() {
     dup2(pipefd[1], STDERR_FILENO);
     close(pipefd[1]);
 
-    fcntl(pipefd[0], F_SETFL, O_NONBLOCK);
-
-    time_t last_mem_check = 0;
-    time_t last_mem_log = 0;
-
-    while (1) {
-        ssize_t i = read(pipefd[0], buffer, sizeof(buffer) - 1);
-        if (i > 0) {
-            buffer[i] = '\0';
-            // splitting output into individual lines makes it easier for logcat to process and avoids truncation
-            char* saveptr;
-            char* line = strtok_r(buffer, "\n", &saveptr);
-            while (line) {
-                LOGI("%s", line);
-                line = strtok_r(NULL, "\n", &saveptr);
-            }
-        }
+    static StdioPump pump;
+    stdio_pump_init(&pump, pipefd[0], log_stdio_line, &pump);
 
-        time_t now = time(NULL);
-        if ((now - last_mem_check >= 1) && (now - last_mem_log >= 30)) {
-            last_mem_check = now;
+    const char* rate = getenv("ZOMDROID_STDIO_RATE_LIMIT");
+    if (rate != NULL) {
+        uint32_t lines_per_sec = (uint32_t) strtoul(rate, NULL, 10);
+        stdio_pump_set_rate_limit(&pump, lines_per_sec, lines_per_sec * 4);
+    }
 
-            long free_mb = get_mem_available_mb();
-            if (free_mb != -1 && free_mb < 300) {
-                last_mem_log = now;
-                LOGW("Low memory: only %ld MB available", free_mb);
-            }
+    // writing straight to a file skips logcat, which is much cheaper for very chatty output
+    const char* sink_path = getenv("ZOMDROID_STDIO_FILE");
+    if (sink_path != NULL && sink_path[0] != '\0') {
+        if (stdio_pump_set_file_sink(&pump, sink_path) == 0) {
+            LOGI("Redirecting game stdout/stderr to %s", sink_path);
+        } else {
+            LOGW("Failed to open stdio file sink %s: %s", sink_path, strerror(errno));
         }
-
-        usleep(10000);
     }
+
+    while (stdio_pump_poll(&pump, 1000) >= 0);
+    LOGE("stdio pipe closed");
 }
 
 void zomdroid_set_art_vm(void* vm) {
@@ -108,6 +95,8 @@ void zomdroid_set_art_vm(void* vm) {
 _Noreturn void handle_abort() {
     signal(SIGABRT, SIG_DFL);
 
+    flight_recorder_dump("SIGABRT");
+
     JNIEnv* jni_env = NULL;
     (*g_zomdroid_art_vm)->AttachCurrentThread(g_zomdroid_art_vm, (void**)&jni_env, NULL);
     if (jni_env == NULL) _exit(1);
@@ -124,17 +113,60 @@ _Noreturn void handle_abort() {
     _exit(1);
 }
 
-static void create_jvm_and_launch_main(int jvm_argc, const char** jvm_argv, const char* main_class_name, int argc, const char** argv) {
+/*
+ * Crashes before the JVM runs. Once it does, it handles these itself and aborts after writing its
+ * report, which handle_abort() catches, so they are cleared before it is created. Left installed the
+ * JVM would chain to them before writing hs_err.
+ */
+static const int FATAL_SIGNALS[] = { SIGSEGV, SIGBUS, SIGILL, SIGFPE };
+#define FATAL_SIGNAL_COUNT (sizeof(FATAL_SIGNALS) / sizeof(FATAL_SIGNALS[0]))
+static struct sigaction g_prev_fatal_actions[FATAL_SIGNAL_COUNT];
+
+static void handle_fatal_signal(int sig, siginfo_t* info, void* ucontext) {
+    (void) ucontext;
+    const char* reason = "fatal signal";
+    for (size_t i = 0; i < FATAL_SIGNAL_COUNT; i++) {
+        if (FATAL_SIGNALS[i] != sig) continue;
+        // back to what handled it before, debuggerd usually, also if the dump itself faults
+        sigaction(sig, &g_prev_fatal_actions[i], NULL);
+        break;
+    }
+    switch (sig) {
+        case SIGSEGV: reason = "SIGSEGV"; break;
+        case SIGBUS: reason = "SIGBUS"; break;
+        case SIGILL: reason = "SIGILL"; break;
+        case SIGFPE: reason = "SIGFPE"; break;
+    }
+    flight_recorder_dump(reason);
+    // a fault is raised again by retrying the instruction, with its address intact, a signal that
+    // was sent has to be sent again
+    if (info->si_code <= 0) raise(sig);
+}
+
+static void install_fatal_signal_handlers() {
+    struct sigaction sa = { 0 };
+    sa.sa_sigaction = handle_fatal_signal;
+    sa.sa_flags = SA_SIGINFO | SA_ONSTACK;
+    sigemptyset(&sa.sa_mask);
+    for (size_t i = 0; i < FATAL_SIGNAL_COUNT; i++) {
+        if (sigaction(FATAL_SIGNALS[i], &sa, &g_prev_fatal_actions[i]) != 0)
+            LOGW("Failed to install handler for signal %d", FATAL_SIGNALS[i]);
+    }
+}
+
+static void JNICALL on_thread_start(jvmtiEnv* jvmti, JNIEnv* env, jthread thread) {
+    g_zomdroid_jni_env = env;
+}
+
+static jint create_jvm(int jvm_argc, const char** jvm_argv, JavaVM** jvm, JNIEnv** env) {
     void* libjvm = linkernsbypass_namespace_dlopen("libjvm.so", RTLD_GLOBAL, zomdroid_ns);
     if (libjvm == NULL) {
         LOGE("%s", dlerror());
-        return;
+        return JNI_ERR;
     }
 
     jint(*JNI_CreateJavaVM)(JavaVM**, void**, void*) = dlsym(libjvm, "JNI_CreateJavaVM");
 
-    JavaVM* jvm;
-    JNIEnv* env;
     JavaVMInitArgs vm_args;
     JavaVMOption options[jvm_argc];
     if (jvm_argv != NULL) {
@@ -147,7 +179,16 @@ static void create_jvm_and_launch_main(int jvm_argc, const char** jvm_argv, cons
     vm_args.nOptions = jvm_argc;
     vm_args.ignoreUnrecognized = JNI_FALSE;
 
-    jint res = JNI_CreateJavaVM(&jvm, (void**)&env, &vm_args);
+    return JNI_CreateJavaVM(jvm, (void**)env, &vm_args);
+}
+
+static void create_jvm_and_launch_main(int jvm_argc, const char** jvm_argv, const char* main_class_name, int argc, const char** argv) {
+    JavaVM* jvm;
+    JNIEnv* env;
+    uint64_t start_ns = startup_trace_now_ns();
+    jint res = create_jvm(jvm_argc, jvm_argv, &jvm, &env);
+    startup_trace_complete("JNI_CreateJavaVM", "jvm", NULL, start_ns, startup_trace_now_ns(), gettid());
+    startup_trace_flush();
     if (res != JNI_OK) {
         LOGE("Failed to create JVM, error code: %d", res);
         return;
@@ -162,43 +203,38 @@ static void create_jvm_and_launch_main(int jvm_argc, const char** jvm_argv, cons
     g_zomdroid_jvmti_env = jvmtiEnv;
 
     jvmtiError err;
-//    jvmtiCapabilities potentialCaps;
-//    err = (*jvmtiEnv)->GetPotentialCapabilities(jvmtiEnv, &potentialCaps);
-//    if (err != JVMTI_ERROR_NONE) {
-//        LOGE("Failed to get potential capabilities for JVM TI env, error code: %d", err);
-//        return;
-//    }
-//    if (!potentialCaps.can_generate_native_method_bind_events) {
-//        LOGE("JVM TI env doesn't have a required potential capability: can_generate_native_method_bind_events");
-//        return;
-//    }
-//
-//    jvmtiCapabilities caps = { 0 };
-//    caps.can_generate_native_method_bind_events = 1;
-//    err = (*jvmtiEnv)->AddCapabilities(jvmtiEnv, &caps);
-//    if (err != JVMTI_ERROR_NONE) {
-//        LOGE("Failed to add necessary capabilities to JVM TI env, error code: %d", err);
-//        return;
-//    }
-//
-//
-//    jvmtiEventCallbacks callbacks;
-//    callbacks.NativeMethodBind = &onNativeMethodBind;
-//    err = (*jvmtiEnv)->SetEventCallbacks(jvmtiEnv, &callbacks, sizeof(callbacks));
-//    if (err != JVMTI_ERROR_NONE) {
-//        LOGE("Failed to set event callbacks for JVM TI env, error code: %d", err);
-//        return;
-//    }
-//
-//    err = (*jvmtiEnv)->SetEventNotificationMode(jvmtiEnv, JVMTI_ENABLE, JVMTI_EVENT_NATIVE_METHOD_BIND, NULL);
-//    if (err != JVMTI_ERROR_NONE) {
-//        LOGE("Failed to enable NATIVE_METHOD_BIND event for JVM TI env, error code: %d", err);
-//        return;
-//    }
+    g_zomdroid_jni_env = env;
+    jvmtiEventCallbacks callbacks = { 0 };
+    callbacks.ThreadStart = &on_thread_start;
+    const char* home_dir_path = getenv("ZOMDROID_HOME_DIR");
+    if (home_dir_path != NULL) {
+        char manifest_path[PATH_MAX];
+        snprintf(manifest_path, sizeof(manifest_path), "%s/%s", home_dir_path, NATIVE_OVERRIDES_FILE_NAME);
+        if (native_overrides_init(jvmtiEnv, zomdroid_ns, manifest_path, &callbacks) != 0) {
+            // the game still runs, on the emulated natives
+            LOGE("Failed to set up native overrides");
+        }
+    }
+    if ((err = (*jvmtiEnv)->SetEventCallbacks(jvmtiEnv, &callbacks, sizeof(callbacks))) != JVMTI_ERROR_NONE) {
+        // the game runs without them, wrapped JNI functions look the env up on a thread's first call
+        LOGE("Failed to set event callbacks for JVM TI env, error code: %d", err);
+    } else {
+        // wrapped JNI functions then find the env already set, threads from before this still look it up
+        err = (*jvmtiEnv)->SetEventNotificationMode(jvmtiEnv, JVMTI_ENABLE, JVMTI_EVENT_THREAD_START, NULL);
+        if (err != JVMTI_ERROR_NONE) {
+            LOGW("Failed to enable THREAD_START event for JVM TI env, error code: %d", err);
+        }
+        if (native_overrides_enable(jvmtiEnv) != 0) {
+            LOGE("Failed to set up native overrides");
+        }
+    }
 
     g_zomdroid_jvm = jvm;
 
+    start_ns = startup_trace_now_ns();
     jclass main_class = (*env)->FindClass(env, main_class_name);
+    startup_trace_complete("main_class_lookup", "jvm", main_class_name, start_ns, startup_trace_now_ns(), gettid());
+    startup_trace_flush();
     if (main_class == NULL) {
         if ((*env)->ExceptionCheck(env)) {
             (*env)->ExceptionDescribe(env); // покажет UnsupportedClassVersionError или ClassNotFoundException
@@ -255,6 +291,9 @@ static int init_zomdroid_namespace(const char* ld_library_path) {
     return 0;
 }
 
+// optional, only present when the linker was built with JNI profiling
+static void (*g_jni_profile_dump)() = NULL;
+
 static int load_linker_hook() {
     void* zomdroid_linker = linkernsbypass_namespace_dlopen("libzomdroidlinker.so", RTLD_LOCAL, zomdroid_ns);
     if (!zomdroid_linker) {
@@ -275,6 +314,7 @@ static int load_linker_hook() {
         LOGE("Failed to locate symbols for libzomdroidlinker.so");
         return -1;
     }
+    g_jni_profile_dump = dlsym(zomdroid_linker, "zomdroid_jni_profile_dump");
 
     void* libdl = dlopen("libdl.so", RTLD_LAZY);
     if (!libdl) {
@@ -316,26 +356,83 @@ static int load_linker_hook() {
     return 0;
 }
 
-void zomdroid_start_game(const char* game_dir_path, const char* library_dir_path, int jvm_argc,
-                         const char** jvm_argv, const char* main_class_name, int argc, const char** argv) {
+static pthread_t g_prewarm_thread;
+static bool g_prewarm_started = false;
+static int g_prewarm_result = -1;
+
+static void* prewarm(void* arg) {
+    char* library_dir_path = arg;
+
+    uint64_t start_ns = startup_trace_now_ns();
+    int res = init_zomdroid_namespace(library_dir_path);
+    startup_trace_complete("init_zomdroid_namespace", "native", NULL, start_ns, startup_trace_now_ns(), gettid());
+    free(library_dir_path);
+    if (res != 0) {
+        LOGE("Failed to initialize zomdroid namespace");
+        return NULL;
+    }
+
+    start_ns = startup_trace_now_ns();
+    res = load_linker_hook();
+    startup_trace_complete("load_linker_hook", "native", NULL, start_ns, startup_trace_now_ns(), gettid());
+    startup_trace_flush();
+    if (res != 0) {
+        LOGE("Failed to load linker hook");
+        return NULL;
+    }
+
+    g_prewarm_result = 0;
+    return NULL;
+}
+
+void zomdroid_dump_jni_profile() {
+    if (g_jni_profile_dump != NULL) g_jni_profile_dump();
+}
 
+int zomdroid_prewarm(const char* library_dir_path) {
+    if (g_prewarm_started) return 0;
+
+    flight_recorder_init(getenv("ZOMDROID_HOME_DIR"));
     signal(SIGABRT, handle_abort);
+    install_fatal_signal_handlers();
 
     pthread_t logging_thread;
-    if (pthread_create(&logging_thread, NULL, (void *(*)(void *)) &monitor_stdio_and_memory, NULL) != 0) {
+    if (pthread_create(&logging_thread, NULL, (void *(*)(void *)) &monitor_stdio, NULL) != 0) {
         LOGW("Failed to create stdout logging thread");
     } else {
         pthread_detach(logging_thread);
     }
 
-    if (init_zomdroid_namespace(library_dir_path) != 0) {
-        LOGE("Failed to initialize zomdroid namespace");
-        return;
+    startup_trace_init(getenv("ZOMDROID_HOME_DIR"));
+
+    char* path = strdup(library_dir_path);
+    if (path == NULL || pthread_create(&g_prewarm_thread, NULL, &prewarm, path) != 0) {
+        LOGE("Failed to create native init thread");
+        free(path);
+        return -1;
     }
+    pthread_setname_np(g_prewarm_thread, "zomdroid-prewarm");
+    g_prewarm_started = true;
+    return 0;
+}
 
-    if (load_linker_hook() != 0) {
-        LOGE("Failed to load linker hook");
-        return;
+void zomdroid_start_game(const char* game_dir_path, const char* library_dir_path, int jvm_argc,
+                         const char** jvm_argv, const char* main_class_name, int argc, const char** argv) {
+    // no-op if the launcher already started it
+    if (zomdroid_prewarm(library_dir_path) != 0) {
+        abort();
+    }
+
+    memory_telemetry_start(getenv("ZOMDROID_HOME_DIR"));
+    input_latency_init();
+    file_prefetch_recorder_start(getenv("ZOMDROID_PREFETCH_LIST"));
+
+    uint64_t start_ns = startup_trace_now_ns();
+    pthread_join(g_prewarm_thread, NULL);
+    startup_trace_complete("prewarm_wait", "native", NULL, start_ns, startup_trace_now_ns(), gettid());
+    if (g_prewarm_result != 0) {
+        LOGE("Native runtime initialization failed");
+        abort();
     }
 
     if (chdir(game_dir_path) != 0) {
@@ -343,7 +440,8 @@ void zomdroid_start_game(const char* game_dir_path, const char* library_dir_path
         return;
     }
 
-    // we handle abort, jvm handles segfault, clear other handlers possibly set by box64
+    // we handle abort, jvm handles segfault, clear other handlers possibly set by box64 and our fatal
+    // signal handlers
     struct sigaction sa = { 0 };
     for(int sig = SIGHUP; sig < NSIG; sig++) {
         if(sig == SIGSEGV) sa.sa_handler = SIG_IGN;
@@ -356,6 +454,32 @@ void zomdroid_start_game(const char* game_dir_path, const char* library_dir_path
 }
 
 
+int zomdroid_create_aot_cache(const char* game_dir_path, const char* library_dir_path, int jvm_argc,
+                              const char** jvm_argv) {
+    if (init_zomdroid_namespace(library_dir_path) != 0) {
+        LOGE("Failed to initialize zomdroid namespace");
+        return -1;
+    }
+
+    // class path entries are relative to the game directory, same as for the training run
+    if (chdir(game_dir_path) != 0) {
+        LOGE("Failed to change cwd with error: %s", strerror(errno));
+        return -1;
+    }
+
+    // with -XX:AOTMode=create the JVM exits the process once the cache is written, nothing of the
+    // game is run so the linker hook isn't needed
+    JavaVM* jvm;
+    JNIEnv* env;
+    jint res = create_jvm(jvm_argc, jvm_argv, &jvm, &env);
+    if (res != JNI_OK) {
+        LOGE("Failed to create JVM for AOT cache assembly, error code: %d", res);
+        return -1;
+    }
+    LOGE("JVM started instead of assembling the AOT cache");
+    return -1;
+}
+
 void zomdroid_deinit() {
 
 }
@@ -413,6 +537,7 @@ void jvm_resume_all_threads() {
 }*/
 
 void zomdroid_surface_deinit() {
+    flight_recorder_event(FR_EVENT_SURFACE_DEINIT, 0, 0, 0, 0);
     pthread_mutex_lock(&g_zomdroid_surface.mutex);
     g_zomdroid_surface.native_window = NULL;
     g_zomdroid_surface.width = 0;
@@ -427,6 +552,7 @@ void zomdroid_surface_deinit() {
 }
 
 void zomdroid_surface_init(ANativeWindow* wnd, int width, int height) {
+    flight_recorder_event(FR_EVENT_SURFACE_INIT, 0, (int64_t) (uintptr_t) wnd, width, height);
     pthread_mutex_lock(&g_zomdroid_surface.mutex);
 
     if (g_zomdroid_surface.native_window != NULL && g_zomdroid_surface.native_window != wnd) {
@@ -442,27 +568,53 @@ void zomdroid_surface_init(ANativeWindow* wnd, int width, int height) {
     pthread_mutex_unlock(&g_zomdroid_surface.mutex);
 }
 
-// Thread-safe lock-free enqueue using compare-exchange to prevent two threads
-// from simultaneously claiming the same slot in the ring buffer.
+static void record_input_event(const ZomdroidEvent* e) {
+    switch (e->type) {
+        case KEYBOARD:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, e->keyboard.key, e->keyboard.is_pressed, 0);
+            break;
+        case CURSOR_POS:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, 0, e->cursorPos.x, e->cursorPos.y);
+            break;
+        case MOUSE_BUTTON:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, e->mouseButton.button, e->mouseButton.is_pressed, 0);
+            break;
+        case MOUSE_SCROLL:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, 0, e->mouseScroll.xoffset, e->mouseScroll.yoffset);
+            break;
+        case JOYSTICK_AXIS:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, e->joystickAxis.axis, e->joystickAxis.state, 0);
+            break;
+        case JOYSTICK_DPAD:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, e->joystickDpad.dpad, e->joystickDpad.state, 0);
+            break;
+        case JOYSTICK_BUTTON:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, e->joystickButton.button, e->joystickButton.is_pressed, 0);
+            break;
+        case CHAR_INPUT:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, e->charInput.codepoint, 0, 0);
+            break;
+        default:
+            flight_recorder_event(FR_EVENT_INPUT, e->type, 0, 0, 0);
+            break;
+    }
+}
+
+static _Thread_local int64_t g_event_time_ns;
+
+void zomdroid_event_set_time(int64_t event_ns) {
+    g_event_time_ns = event_ns;
+}
+
+// the event is built on the stack and copied into the queue, see event_queue.h
 #define ENQUEUE_EVENT(setup_code)                                                           \
     do {                                                                                    \
-        u_char head, next;                                                                  \
-        do {                                                                                \
-            head = atomic_load_explicit(&g_zomdroid_event_queue.head,                      \
-                                        memory_order_relaxed);                              \
-            u_char tail = atomic_load_explicit(&g_zomdroid_event_queue.tail,               \
-                                               memory_order_acquire);                       \
-            next = (head + 1) & EVENT_QUEUE_MAX;                                           \
-            if (next == tail) goto enqueue_full;                                            \
-        } while (!atomic_compare_exchange_weak_explicit(                                    \
-                    &g_zomdroid_event_queue.head,                                           \
-                    &head, next,                                                            \
-                    memory_order_acquire,                                                   \
-                    memory_order_relaxed));                                                 \
-        ZomdroidEvent* e = &g_zomdroid_event_queue.buffer[next];                           \
+        ZomdroidEvent event = { 0 };                                                        \
+        ZomdroidEvent* e = &event;                                                          \
         setup_code                                                                          \
-        atomic_thread_fence(memory_order_release);                                         \
-        enqueue_full:;                                                                      \
+        record_input_event(e);                                                              \
+        event_queue_push(e, g_event_time_ns);                                               \
+        g_event_time_ns = 0;                                                                \
     } while (0)
 
 
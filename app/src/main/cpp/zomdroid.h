@@ -5,9 +5,19 @@
 
 void zomdroid_set_art_vm(void* vm);
 
+/* Starts the surface independent part of native init on a background thread, zomdroid_start_game
+ * joins it. Safe to skip, zomdroid_start_game then starts it itself. */
+int zomdroid_prewarm(const char* library_dir_path);
+
 void zomdroid_start_game(const char* game_dir_path, const char* library_dir_path, int jvm_argc,
                          const char** jvm_argv, const char* main_class_name, int argc, const char** argv);
 
+int zomdroid_create_aot_cache(const char* game_dir_path, const char* library_dir_path, int jvm_argc,
+                              const char** jvm_argv);
+
+/* Writes the JNI call profile of the emulated libraries, if enabled and the linker is loaded. */
+void zomdroid_dump_jni_profile();
+
 void zomdroid_deinit();
 int zomdroid_init();
 
@@ -23,5 +33,7 @@ void zomdroid_event_joystick_dpad(int dpad, char state);
 void zomdroid_event_joystick_button(int button, bool is_pressed);
 void zomdroid_event_joystick_connected();
 void zomdroid_event_char(unsigned int codepoint);
+/* CLOCK_MONOTONIC time of the Android input event behind the next zomdroid_event_* call on this thread. */
+void zomdroid_event_set_time(int64_t event_ns);
 
 #endif //ZOMDROID_ZOMDROID_H
@@ -101,6 +101,7 @@ typedef union {
 } ZomdroidEvent;
 
 #define EVENT_QUEUE_MAX 255
+/** Filled by event_queue.c, the GLFW backend reads the slots after tail up to head and moves tail */
 typedef struct {
     ZomdroidEvent buffer[EVENT_QUEUE_MAX + 1];
     atomic_uchar head;
@@ -6,6 +6,11 @@
 #include <android/native_window_jni.h>
 #include <unistd.h>
 #include "logger.h"
+#include "memory_telemetry.h"
+#include "startup_trace.h"
+#include "file_prefetch.h"
+#include "event_queue.h"
+#include "input_latency.h"
 #define LOG_TAG "zomdroid-jni"
 
 
@@ -14,6 +19,7 @@ Java_com_zomdroid_GameLauncher_startGame(JNIEnv *env, jobject clazz, jstring j_g
      JavaVM* jvm = NULL;
      (*env)->GetJavaVM(env, &jvm);
      zomdroid_set_art_vm(jvm);
+     memory_telemetry_bind_launcher(env);
 
     const char* game_dir_path = (*env)->GetStringUTFChars(env, j_game_dir_path, NULL);
     const char* library_dir_path = (*env)->GetStringUTFChars(env, j_library_dir_path, NULL);
@@ -66,6 +72,24 @@ Java_com_zomdroid_GameLauncher_startGame(JNIEnv *env, jobject clazz, jstring j_g
     }
 }
 
+JNIEXPORT jint JNICALL
+Java_com_zomdroid_GameLauncher_prewarm(JNIEnv *env, jclass clazz, jstring j_library_dir_path) {
+    // the abort handler needs the VM, and init may abort
+    JavaVM* jvm = NULL;
+    (*env)->GetJavaVM(env, &jvm);
+    zomdroid_set_art_vm(jvm);
+
+    const char* library_dir_path = (*env)->GetStringUTFChars(env, j_library_dir_path, NULL);
+    int res = zomdroid_prewarm(library_dir_path);
+    (*env)->ReleaseStringUTFChars(env, j_library_dir_path, library_dir_path);
+    return res;
+}
+
+JNIEXPORT void JNICALL
+Java_com_zomdroid_GameLauncher_dumpJniProfile(JNIEnv *env, jclass clazz) {
+    zomdroid_dump_jni_profile();
+}
+
 JNIEXPORT void JNICALL
 Java_com_zomdroid_GameLauncher_destroyZomdroidWindow(JNIEnv *env, jobject clazz) {
     zomdroid_deinit();
@@ -88,51 +112,135 @@ Java_com_zomdroid_GameLauncher_setSurface(JNIEnv *env, jobject clazz, jobject su
     return 1;
 }
 
-JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendKeyboard(JNIEnv *env, jclass clazz, jint key,
-                                                          jboolean is_pressed) {
-    zomdroid_event_keyboard(key, is_pressed);
-}
+// record layout is described in InputChannel.java
+#define INPUT_RECORD_SIZE 32
 
 JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendCursorPos(JNIEnv *env, jobject clazz, jdouble x, jdouble y) {
-    zomdroid_event_cursor_pos(x, y);
+Java_com_zomdroid_input_InputNativeInterface_flushEvents(JNIEnv *env, jclass clazz, jobject buffer, jint count) {
+    const uint8_t* records = (*env)->GetDirectBufferAddress(env, buffer);
+    if (records == NULL) return;
+    for (jint i = 0; i < count; i++) {
+        const uint8_t* r = records + i * INPUT_RECORD_SIZE;
+        int32_t type, arg;
+        memcpy(&type, r, sizeof(type));
+        memcpy(&arg, r + 4, sizeof(arg));
+        int64_t event_ns;
+        memcpy(&event_ns, r + 24, sizeof(event_ns));
+        zomdroid_event_set_time(event_ns);
+        int32_t value;
+        float state;
+        double xy[2];
+        switch (type) {
+            case KEYBOARD:
+                memcpy(&value, r + 8, sizeof(value));
+                zomdroid_event_keyboard(arg, value != 0);
+                break;
+            case CURSOR_POS:
+                memcpy(xy, r + 8, sizeof(xy));
+                zomdroid_event_cursor_pos(xy[0], xy[1]);
+                break;
+            case MOUSE_BUTTON:
+                memcpy(&value, r + 8, sizeof(value));
+                zomdroid_event_mouse_button(arg, value != 0);
+                break;
+            case MOUSE_SCROLL:
+                memcpy(xy, r + 8, sizeof(xy));
+                zomdroid_event_mouse_scroll(xy[0], xy[1]);
+                break;
+            case JOYSTICK_CONNECTED:
+                zomdroid_event_joystick_connected();
+                break;
+            case JOYSTICK_AXIS:
+                memcpy(&state, r + 8, sizeof(state));
+                zomdroid_event_joystick_axis(arg, state);
+                break;
+            case JOYSTICK_DPAD:
+                memcpy(&value, r + 8, sizeof(value));
+                zomdroid_event_joystick_dpad(arg, (char) value);
+                break;
+            case JOYSTICK_BUTTON:
+                memcpy(&value, r + 8, sizeof(value));
+                zomdroid_event_joystick_button(arg, value != 0);
+                break;
+            case CHAR_INPUT:
+                zomdroid_event_char((unsigned int) arg);
+                break;
+            default:
+                LOGW("Unknown input record type %d", type);
+                break;
+        }
+    }
 }
 
-JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendMouseButton(JNIEnv *env, jobject clazz, jint button, jboolean isPressed) {
-    zomdroid_event_mouse_button(button, isPressed);
+JNIEXPORT jlongArray JNICALL
+Java_com_zomdroid_input_InputNativeInterface_getEventQueueStats(JNIEnv *env, jclass clazz) {
+    EventQueueStats stats;
+    event_queue_get_stats(&stats);
+    jlong values[] = { (jlong) stats.enqueued, (jlong) stats.coalesced, (jlong) stats.dropped };
+    jlongArray res = (*env)->NewLongArray(env, 3);
+    if (res != NULL) (*env)->SetLongArrayRegion(env, res, 0, 3, values);
+    return res;
 }
 
-JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendMouseScroll(JNIEnv *env, jclass clazz,
-                                                             jdouble xoffset, jdouble yoffset) {
-    zomdroid_event_mouse_scroll(xoffset, yoffset);
+JNIEXPORT jlongArray JNICALL
+Java_com_zomdroid_input_InputNativeInterface_getInputLatency(JNIEnv *env, jclass clazz) {
+    if (!input_latency_is_enabled()) return NULL;
+    InputLatencySummary summaries[INPUT_STAGE_COUNT];
+    input_latency_get_summary(summaries);
+    jlong values[INPUT_STAGE_COUNT * 4];
+    for (int i = 0; i < INPUT_STAGE_COUNT; i++) {
+        values[i * 4] = (jlong) summaries[i].count;
+        values[i * 4 + 1] = summaries[i].p50_us;
+        values[i * 4 + 2] = summaries[i].p95_us;
+        values[i * 4 + 3] = summaries[i].p99_us;
+    }
+    jlongArray res = (*env)->NewLongArray(env, INPUT_STAGE_COUNT * 4);
+    if (res != NULL) (*env)->SetLongArrayRegion(env, res, 0, INPUT_STAGE_COUNT * 4, values);
+    return res;
 }
 
 JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendJoystickAxis(JNIEnv *env, jclass clazz, jint axis, jfloat state) {
-    zomdroid_event_joystick_axis(axis, state);
+Java_com_zomdroid_input_InputNativeInterface_dumpInputLatency(JNIEnv *env, jclass clazz) {
+    input_latency_dump();
 }
 
-JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendJoystickDpad(JNIEnv *env, jclass clazz, jint dpad,
-                                               jchar state) {
-    zomdroid_event_joystick_dpad(dpad, state);
-}
+JNIEXPORT jint JNICALL
+Java_com_zomdroid_AotCacheService_createAotCache(JNIEnv *env, jclass clazz, jstring j_game_dir_path, jstring j_library_dir_path, jobjectArray j_jvm_args) {
+    const char* game_dir_path = (*env)->GetStringUTFChars(env, j_game_dir_path, NULL);
+    const char* library_dir_path = (*env)->GetStringUTFChars(env, j_library_dir_path, NULL);
 
-JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendJoystickButton(JNIEnv *env, jclass clazz, jint button,
-                                                 jboolean pressed) {
-    zomdroid_event_joystick_button(button, pressed);
+    int jvm_argc = (*env)->GetArrayLength(env, j_jvm_args);
+    char** jvm_argv = malloc(jvm_argc * sizeof(char*));
+    for (int i = 0; i < jvm_argc; i++) {
+        jstring arg_string = (*env)->GetObjectArrayElement(env, j_jvm_args, i);
+        const char* arg = (*env)->GetStringUTFChars(env, arg_string, NULL);
+        jvm_argv[i] = strdup(arg);
+        (*env)->ReleaseStringUTFChars(env, arg_string, arg);
+    }
+
+    // only returns on failure
+    int res = zomdroid_create_aot_cache(game_dir_path, library_dir_path, jvm_argc, (const char **) jvm_argv);
+
+    (*env)->ReleaseStringUTFChars(env, j_game_dir_path, game_dir_path);
+    (*env)->ReleaseStringUTFChars(env, j_library_dir_path, library_dir_path);
+    for (int i = 0; i < jvm_argc; i++) {
+        free(jvm_argv[i]);
+    }
+    free(jvm_argv);
+    return res;
 }
 
 JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendJoystickConnected(JNIEnv *env, jclass clazz) {
-    zomdroid_event_joystick_connected();
+Java_com_zomdroid_StartupTrace_nativeComplete(JNIEnv *env, jclass clazz, jstring j_name, jlong start_ns, jlong end_ns, jint tid) {
+    const char* name = (*env)->GetStringUTFChars(env, j_name, NULL);
+    startup_trace_complete(name, "java", NULL, (uint64_t) start_ns, (uint64_t) end_ns, tid);
+    (*env)->ReleaseStringUTFChars(env, j_name, name);
 }
 
-JNIEXPORT void JNICALL
-Java_com_zomdroid_input_InputNativeInterface_sendChar(JNIEnv *env, jclass clazz, jint codepoint) {
-    zomdroid_event_char((unsigned int)codepoint);
+JNIEXPORT jlong JNICALL
+Java_com_zomdroid_FilePrefetcher_nativePrefetch(JNIEnv *env, jclass clazz, jstring j_list_path, jlong budget_bytes) {
+    const char* list_path = (*env)->GetStringUTFChars(env, j_list_path, NULL);
+    int64_t res = file_prefetch_run(list_path, budget_bytes);
+    (*env)->ReleaseStringUTFChars(env, j_list_path, list_path);
+    return res;
 }
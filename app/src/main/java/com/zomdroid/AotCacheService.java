@@ -0,0 +1,93 @@
+package com.zomdroid;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.zomdroid.game.ClassDataCache;
+import com.zomdroid.game.GameInstance;
+import com.zomdroid.game.GameInstanceManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembles the JRE 25 AOT cache recorded by a training run (see {@link ClassDataCache}). Runs in
+ * its own process because the JVM exits the process as soon as the cache is written.
+ */
+public class AotCacheService extends Service {
+    private static final String LOG_TAG = AotCacheService.class.getName();
+    public static final String EXTRA_CACHE_DIR = "com.zomdroid.AotCacheService.EXTRA_CACHE_DIR";
+
+    /**
+     * Starts assembly for the first instance that has a finished training run. One at a time, the
+     * next one is picked up on the next launcher start.
+     */
+    public static void startPending(Context context) {
+        GameInstanceManager gameInstanceManager = GameInstanceManager.getSingleton();
+        if (gameInstanceManager == null) return;
+        for (GameInstance gameInstance : gameInstanceManager.getInstances()) {
+            File dir = ClassDataCache.findPendingAssembly(gameInstance);
+            if (dir == null) continue;
+            Log.i(LOG_TAG, "Starting AOT cache assembly for instance " + gameInstance.getName());
+            Intent intent = new Intent(context, AotCacheService.class);
+            intent.putExtra(EXTRA_CACHE_DIR, dir.getAbsolutePath());
+            context.startService(intent);
+            return;
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String dirPath = intent != null ? intent.getStringExtra(EXTRA_CACHE_DIR) : null;
+        if (dirPath == null) {
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        new Thread(() -> {
+            assemble(new File(dirPath));
+            stopSelf(startId);
+        }, "zomdroid-aot").start();
+        return START_NOT_STICKY;
+    }
+
+    private void assemble(File dir) {
+        // game dir, library path, then one JVM arg per line
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dir, ClassDataCache.AOT_CREATE_FILE_NAME)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read AOT cache assembly args from " + dir, e);
+            return;
+        }
+        if (lines.size() < 3) {
+            Log.e(LOG_TAG, "Incomplete AOT cache assembly args in " + dir);
+            return;
+        }
+
+        ClassDataCache.markAssemblyAttempt(dir);
+        Log.i(LOG_TAG, "Assembling AOT cache in " + dir);
+        System.loadLibrary("zomdroid");
+        int res = createAotCache(lines.get(0), lines.get(1), lines.subList(2, lines.size()).toArray(new String[0]));
+        Log.e(LOG_TAG, "AOT cache assembly failed, error code: " + res);
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private static native int createAotCache(String gameDirPath, String libraryDirPath, String[] jvmArgs);
+}
@@ -0,0 +1,230 @@
+package com.zomdroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zomdroid.game.GameInstance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dynarec settings per emulated library, written to a box64 rc file (BOX64_RCFILE) with a section for
+ * each library. Every library has a built-in profile picked for what it does, the instance can
+ * override it. A profile that doesn't validate falls back to {@link Profile#SAFE}, a generated file
+ * that doesn't validate is replaced by one with safe profiles only. init_box64 loads the file.
+ */
+public class Box64Profiles {
+    private static final String LOG_TAG = Box64Profiles.class.getName();
+    public static final String RC_FILE_NAME = "box64rc";
+    private static final String SETTING_PREFIX = "BOX64_DYNAREC_";
+
+    public enum Profile {
+        DEFAULT(R.string.box64_profile_default),
+        SAFE(R.string.box64_profile_safe,
+                "BIGBLOCK=0", "STRONGMEM=1", "SAFEFLAGS=2", "CALLRET=0", "FASTROUND=0", "FASTNAN=0"),
+        // box64 defaults, except float rounding and NaNs done exactly like x86
+        PRECISE(R.string.box64_profile_precise, "FASTROUND=0", "FASTNAN=0"),
+        BALANCED(R.string.box64_profile_balanced,
+                "BIGBLOCK=1", "STRONGMEM=0", "SAFEFLAGS=1", "CALLRET=0", "FASTROUND=1", "FASTNAN=1"),
+        FAST(R.string.box64_profile_fast,
+                "BIGBLOCK=2", "STRONGMEM=0", "SAFEFLAGS=0", "CALLRET=1", "FASTROUND=1", "FASTNAN=1");
+
+        public final int nameResId;
+        private final String[] settings; // without SETTING_PREFIX
+
+        Profile(int nameResId, String... settings) {
+            this.nameResId = nameResId;
+            this.settings = settings;
+        }
+    }
+
+    // JNI libraries of the game, same names as the emulated ones in linker.c
+    public static final String[] LIBRARIES = {
+            "PZPathFind64", "PZPopMan64", "Lighting64", "PZClipper64", "PZBullet64", "PZBulletNoOpenGL64",
+            "fmodintegration64", "RakNet64", "ZNetNoSteam",
+    };
+
+    // highest accepted value of each setting, lowest is always 0
+    private static final Map<String, Integer> SETTING_MAX_VALUES = new HashMap<>();
+
+    static {
+        SETTING_MAX_VALUES.put("BIGBLOCK", 3);
+        SETTING_MAX_VALUES.put("STRONGMEM", 3);
+        SETTING_MAX_VALUES.put("SAFEFLAGS", 2);
+        SETTING_MAX_VALUES.put("CALLRET", 1);
+        SETTING_MAX_VALUES.put("FASTROUND", 2);
+        SETTING_MAX_VALUES.put("FASTNAN", 1);
+    }
+
+    /**
+     * Only settings that make emulation more exact than box64's defaults are built in, faster ones
+     * stay opt-in until they have been tested on devices.
+     */
+    @NonNull
+    public static Profile getBuiltInProfile(@NonNull String libName) {
+        switch (libName) {
+            case "PZPathFind64":
+            case "PZPopMan64":
+                return Profile.DEFAULT;
+            // float results feed back into the game, rounding and NaNs have to match x86
+            case "Lighting64":
+            case "PZClipper64":
+            case "PZBullet64":
+            case "PZBulletNoOpenGL64":
+                return Profile.PRECISE;
+            // own threads sharing memory with lock-free queues
+            case "fmodintegration64":
+            case "RakNet64":
+            case "ZNetNoSteam":
+            default:
+                return Profile.SAFE;
+        }
+    }
+
+    @NonNull
+    public static Profile getProfile(@NonNull GameInstance gameInstance, @NonNull String libName) {
+        String name = gameInstance.getBox64Profile(libName);
+        if (name == null) return getBuiltInProfile(libName);
+        try {
+            return Profile.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Unknown box64 profile " + name + " for " + libName + ", using safe one");
+            return Profile.SAFE;
+        }
+    }
+
+    /**
+     * Checks one setting, name without {@link #SETTING_PREFIX}. Returns why it is invalid, or null.
+     */
+    @Nullable
+    private static String validateSetting(@NonNull String name, @NonNull String value) {
+        Integer max = SETTING_MAX_VALUES.get(name);
+        if (max == null) return "unknown setting " + name;
+        try {
+            int v = Integer.parseInt(value.trim());
+            if (v < 0 || v > max) return name + " out of range: " + v;
+        } catch (NumberFormatException e) {
+            return name + " is not a number: " + value;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String validate(@NonNull Profile profile) {
+        for (String setting : profile.settings) {
+            String[] parts = setting.split("=", 2);
+            String error = validateSetting(parts[0], parts[1]);
+            if (error != null) return error;
+        }
+        return null;
+    }
+
+    /**
+     * Checks generated rc file content the way box64 will read it: a section per known library at
+     * most once, and only known dynarec settings inside sections. Returns why it is invalid, or null.
+     */
+    @Nullable
+    private static String validateRcFile(@NonNull String content) {
+        Set<String> sections = new HashSet<>();
+        String section = null;
+        String[] lines = content.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String where = "line " + (i + 1) + ": ";
+            if (line.startsWith("[")) {
+                if (!line.startsWith("[lib") || !line.endsWith(".so]")) return where + "bad section " + line;
+                section = line.substring(4, line.length() - 4);
+                if (!Arrays.asList(LIBRARIES).contains(section)) return where + "unknown library " + section;
+                if (!sections.add(section)) return where + "duplicate section " + section;
+                continue;
+            }
+            if (section == null) return where + "setting outside of a section";
+            String[] parts = line.split("=", 2);
+            if (parts.length != 2 || !parts[0].startsWith(SETTING_PREFIX)) return where + "not a dynarec setting: " + line;
+            String error = validateSetting(parts[0].substring(SETTING_PREFIX.length()), parts[1]);
+            if (error != null) return where + error;
+        }
+        return null;
+    }
+
+    @NonNull
+    public static String buildRcFile(@NonNull GameInstance gameInstance) {
+        return buildRcFile(gameInstance, false);
+    }
+
+    @NonNull
+    private static String buildRcFile(@NonNull GameInstance gameInstance, boolean safeOnly) {
+        StringBuilder sb = new StringBuilder("# generated by zomdroid on every launch, edit profiles in instance settings\n");
+        for (String libName : LIBRARIES) {
+            Profile profile = safeOnly ? Profile.SAFE : getProfile(gameInstance, libName);
+            String error = validate(profile);
+            if (error != null) {
+                Log.w(LOG_TAG, "Box64 profile " + profile + " of " + libName + " is invalid (" + error + "), using safe one");
+                profile = Profile.SAFE;
+            }
+            if (profile.settings.length == 0) continue;
+            sb.append("\n[lib").append(libName).append(".so]\n");
+            for (String setting : profile.settings) sb.append(SETTING_PREFIX).append(setting).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the rc file of the instance. Returns it, or null if it couldn't be written.
+     */
+    @Nullable
+    public static File writeRcFile(@NonNull GameInstance gameInstance) {
+        warnAboutGlobalOverrides();
+        String content = buildRcFile(gameInstance);
+        String error = validateRcFile(content);
+        if (error != null) {
+            Log.w(LOG_TAG, "Generated box64 rc file is invalid (" + error + "), using safe profiles only");
+            content = buildRcFile(gameInstance, true);
+        }
+        File rcFile = new File(gameInstance.getHomePath(), RC_FILE_NAME);
+        try (OutputStream out = new FileOutputStream(rcFile)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write " + rcFile.getAbsolutePath(), e);
+            return null;
+        }
+        return rcFile;
+    }
+
+    private static void warnAboutGlobalOverrides() {
+        String rawEnvVars = LauncherPreferences.requireSingleton().getEnvVars();
+        if (rawEnvVars == null) return;
+        for (String token : rawEnvVars.trim().split("\\s+")) {
+            String name = token.split("=", 2)[0];
+            if (name.startsWith(SETTING_PREFIX) && SETTING_MAX_VALUES.containsKey(name.substring(SETTING_PREFIX.length()))) {
+                Log.w(LOG_TAG, name + " is set in env vars, it may override the per library profiles");
+            }
+        }
+    }
+
+    /**
+     * Whether an env var from user settings may be set. Dynarec settings the profiles also use must
+     * have a value box64 accepts, anything else passes.
+     */
+    public static boolean isValidEnvOverride(@NonNull String name, @NonNull String value) {
+        if (!name.startsWith(SETTING_PREFIX)) return true;
+        String setting = name.substring(SETTING_PREFIX.length());
+        if (!SETTING_MAX_VALUES.containsKey(setting)) return true;
+        String error = validateSetting(setting, value);
+        if (error == null) return true;
+        Log.w(LOG_TAG, "Ignoring " + name + " from env vars, " + error);
+        return false;
+    }
+}
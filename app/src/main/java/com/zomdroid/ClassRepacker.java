@@ -0,0 +1,174 @@
+package com.zomdroid;
+
+import android.util.Log;
+
+import com.zomdroid.game.GameInstance;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Moves the loose .class files of the game directory into a single uncompressed jar that goes on
+ * the class path right after ".". A class load then is a failed stat in the game directory and a
+ * lookup in the already mapped central directory of the jar, instead of a stat/open/read/close on
+ * app storage for every class. Loose classes the game or a mod writes later still win over the jar.
+ * <p>
+ * Can be run again, loose classes found next to an existing jar replace their entries in it, same
+ * as they shadow them on the class path.
+ */
+public class ClassRepacker {
+    private static final String LOG_TAG = ClassRepacker.class.getName();
+    // no classes in there, and they are by far the biggest trees to walk
+    private static final String[] SKIPPED_DIRS = {"media", "android", "META-INF"};
+
+    private final File gameDir;
+    private final TaskProgressListener listener;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    public ClassRepacker(GameInstance gameInstance, TaskProgressListener listener) {
+        this(new File(gameInstance.getGamePath()), listener);
+    }
+
+    ClassRepacker(File gameDir, TaskProgressListener listener) {
+        this.gameDir = gameDir;
+        this.listener = listener;
+    }
+
+    /**
+     * Writes the jar and returns the loose class files now contained in it. The caller deletes them
+     * once the instance has been switched over to the jar.
+     */
+    public List<File> repack() throws IOException {
+        File jar = new File(gameDir, GameInstance.REPACKED_CLASSES_JAR_NAME);
+        File tmpJar = new File(gameDir, GameInstance.REPACKED_CLASSES_JAR_NAME + ".tmp");
+
+        listener.onProgressUpdate("Scanning game classes", -1, 0);
+        List<File> classFiles = new ArrayList<>();
+        collectClassFiles(gameDir, gameDir, classFiles);
+        Log.i(LOG_TAG, "Found " + classFiles.size() + " loose classes in " + gameDir);
+
+        Set<String> written = new HashSet<>();
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmpJar), 1024 * 1024))) {
+            // nothing to inflate on load, entries can be read straight from the mapping
+            zos.setMethod(ZipOutputStream.STORED);
+            String gameDirPrefix = gameDir.getAbsolutePath() + "/";
+            for (int i = 0; i < classFiles.size(); i++) {
+                File file = classFiles.get(i);
+                String name = file.getAbsolutePath().substring(gameDirPrefix.length());
+                writeStored(zos, name, readFile(file), file.lastModified());
+                written.add(name);
+                if (i % 256 == 0) listener.onProgressUpdate("Repacking game classes", i, classFiles.size());
+            }
+
+            if (jar.exists()) {
+                try (ZipFile oldJar = new ZipFile(jar)) {
+                    Enumeration<? extends ZipEntry> entries = oldJar.entries();
+                    while (entries.hasMoreElements()) {
+                        ZipEntry entry = entries.nextElement();
+                        if (entry.isDirectory() || written.contains(entry.getName())) continue;
+                        try (InputStream is = oldJar.getInputStream(entry)) {
+                            writeStored(zos, entry.getName(), readFully(is, (int) entry.getSize()), entry.getTime());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            tmpJar.delete();
+            throw e;
+        }
+
+        if (!tmpJar.renameTo(jar)) {
+            tmpJar.delete();
+            throw new IOException("Failed to move " + tmpJar + " to " + jar);
+        }
+        return classFiles;
+    }
+
+    /**
+     * Deletes the repacked class files and any package directories left empty by that.
+     */
+    public static void deleteLooseClasses(File gameDir, List<File> classFiles) {
+        Set<File> dirs = new HashSet<>();
+        for (File file : classFiles) {
+            if (!file.delete()) Log.w(LOG_TAG, "Failed to delete " + file);
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            // delete() only succeeds on empty directories, walk up while it does
+            while (dir != null && !dir.equals(gameDir) && dir.delete()) {
+                dir = dir.getParentFile();
+            }
+        }
+    }
+
+    private static void collectClassFiles(File gameDir, File dir, List<File> out) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (dir.equals(gameDir) && isSkipped(file.getName())) continue;
+                collectClassFiles(gameDir, file, out);
+            } else if (file.getName().endsWith(".class")) {
+                out.add(file);
+            }
+        }
+    }
+
+    private static boolean isSkipped(String name) {
+        for (String skipped : SKIPPED_DIRS) {
+            if (skipped.equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static void writeStored(ZipOutputStream zos, String name, byte[] data, long time) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+        entry.setTime(time);
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            return readFully(is, (int) file.length());
+        }
+    }
+
+    private byte[] readFully(InputStream is, int size) throws IOException {
+        if (size < 0) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int n;
+            while ((n = is.read(buffer)) != -1) out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
+        byte[] data = new byte[size];
+        int off = 0;
+        while (off < size) {
+            int n = is.read(data, off, size - off);
+            if (n < 0) throw new IOException("Unexpected end of stream");
+            off += n;
+        }
+        return data;
+    }
+}
@@ -5,18 +5,23 @@ import android.app.AlertDialog;
 import android.content.Intent;
 import android.net.Uri;
 import android.provider.DocumentsContract;
+import android.util.Log;
 import android.widget.Button;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 
 public class CrashHandler {
+    private static final String LOG_TAG = CrashHandler.class.getName();
     private static final String LAST_LOG_FILE_NAME = "lastlog.txt";
     private static final String LOG_FILE_NAME = "log.txt";
+    // written by native flight recorder on abort
+    public static final String FLIGHT_RECORDER_FILE_NAME = "flightrecorder.txt";
+
+    private static volatile LogSink logSink;
 
     public static void init() {
         File logFile = new File(AppStorage.requireSingleton().getHomePath() + "/" + LOG_FILE_NAME);
@@ -27,6 +32,26 @@ public class CrashHandler {
             if (!logFile.renameTo(lastLogFile))
                 logFile.delete();
         }
+        LogSink.deleteRotatedSegments(logFile);
+        try {
+            logSink = new LogSink(logFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to open log file", e);
+            return;
+        }
+
+        Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> {
+            Log.e(LOG_TAG, "Uncaught exception in thread " + thread.getName(), throwable);
+            // logcat reader lags behind, so put the trace into the sink directly before flushing
+            LogSink sink = logSink;
+            if (sink != null)
+                sink.append("FATAL EXCEPTION: " + thread.getName() + "\n" + Log.getStackTraceString(throwable));
+            flushLog();
+            if (defaultHandler != null)
+                defaultHandler.uncaughtException(thread, throwable);
+        });
+
         Thread readerThread = new Thread(() -> {
 
             Process logcatProcess;
@@ -36,22 +61,27 @@ public class CrashHandler {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(logcatProcess.getInputStream()));
-                 BufferedWriter writer = new BufferedWriter(new FileWriter(logFile, true))) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(logcatProcess.getInputStream()), 64 * 1024)) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    writer.write(line);
-                    writer.newLine();
-                    writer.flush();
+                    logSink.append(line);
                 }
             } catch (IOException ignore) {
             }
         });
+        readerThread.setName("zomdroid-logcat-reader");
         readerThread.start();
     }
 
+    public static void flushLog() {
+        LogSink sink = logSink;
+        if (sink != null)
+            sink.flushSync();
+    }
+
     // called from native code
     public static void handleAbort() throws IOException {
+        flushLog();
         Activity activity = ZomdroidApplication.getCurrentActivity();
         if (activity == null) System.exit(1);
 
@@ -69,14 +99,18 @@ public class CrashHandler {
             dialog.setOnShowListener(d -> {
                 Button shareButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
                 shareButton.setOnClickListener(v -> {
-                    File logFile = new File(AppStorage.requireSingleton().getHomePath() + "/" + LOG_FILE_NAME);
-                    Uri uri = DocumentsContract.buildDocumentUri(
-                            C.STORAGE_PROVIDER_AUTHORITY,
-                            logFile.getAbsolutePath()
-                    );
-                    Intent intent = new Intent(Intent.ACTION_SEND);
+                    ArrayList<Uri> uris = new ArrayList<>();
+                    for (String name : new String[]{LOG_FILE_NAME, FLIGHT_RECORDER_FILE_NAME}) {
+                        File file = new File(AppStorage.requireSingleton().getHomePath() + "/" + name);
+                        if (!file.exists()) continue;
+                        uris.add(DocumentsContract.buildDocumentUri(
+                                C.STORAGE_PROVIDER_AUTHORITY,
+                                file.getAbsolutePath()
+                        ));
+                    }
+                    Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
                     intent.setType("text/plain");
-                    intent.putExtra(Intent.EXTRA_STREAM, uri);
+                    intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
                     intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
                     activity.startActivity(Intent.createChooser(intent, null));
                 });
@@ -0,0 +1,252 @@
+package com.zomdroid;
+
+import static android.content.Context.MODE_PRIVATE;
+
+import android.content.Context;
+import android.os.Build;
+
+import com.google.gson.GsonBuilder;
+import com.zomdroid.game.GameInstance;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs logs and environment info for bug reports into a single zip. Everything is streamed
+ * straight into the output, large files are cut to their tail, so memory use stays constant
+ * no matter how big the logs are.
+ */
+public class DiagnosticsBundle {
+    private static final long MAX_LOG_BYTES = 16L * 1024 * 1024;
+    private static final long MAX_SMALL_FILE_BYTES = 1024 * 1024;
+    private static final int MAX_GAME_LOG_FILES = 10;
+    private static final String[] ENV_PREFIXES = {
+            "ZOMDROID_", "BOX64_", "LIBGL_", "MESA_", "GALLIUM_", "ZINK_", "TU_", "FD_", "VK_", "mesa_"
+    };
+
+    private final Context context;
+    private final GameInstance gameInstance;
+    private final TaskProgressListener listener;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    public DiagnosticsBundle(Context context, GameInstance gameInstance, TaskProgressListener listener) {
+        this.context = context;
+        this.gameInstance = gameInstance;
+        this.listener = listener;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        String home = AppStorage.requireSingleton().getHomePath();
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(out, 256 * 1024));
+        try {
+            int step = 0;
+            final int steps = 6;
+
+            listener.onProgressUpdate("Launcher logs", step++, steps);
+            File log = new File(home, "log.txt");
+            addFileTail(zos, log, "launcher/log.txt");
+            addFileTail(zos, new File(home, "lastlog.txt"), "launcher/lastlog.txt");
+            for (int i = 1; i <= LogSink.MAX_ROTATED_SEGMENTS; i++) {
+                File segment = LogSink.getRotatedSegment(log, i);
+                addFileTail(zos, segment, "launcher/" + segment.getName());
+            }
+            addFileTail(zos, new File(home, CrashHandler.FLIGHT_RECORDER_FILE_NAME),
+                    "launcher/" + CrashHandler.FLIGHT_RECORDER_FILE_NAME);
+
+            listener.onProgressUpdate("Game logs", step++, steps);
+            if (gameInstance != null) {
+                addFileTail(zos, new File(gameInstance.getHomePath(), "Zomboid/console.txt"), "game/console.txt");
+                addNewestFiles(zos, new File(gameInstance.getHomePath(), "Zomboid/Logs"), "game/Logs/", null);
+                addNewestFiles(zos, new File(gameInstance.getGamePath()), "game/", "hs_err_pid");
+                addNewestFiles(zos, new File(gameInstance.getHomePath()), "game/", "hs_err_pid");
+                addFileTail(zos, new File(gameInstance.getHomePath(), Box64Profiles.RC_FILE_NAME), "config/" + Box64Profiles.RC_FILE_NAME);
+            }
+
+            listener.onProgressUpdate("Launch configuration", step++, steps);
+            addText(zos, "config/launcher_preferences.json", new GsonBuilder().setPrettyPrinting().create()
+                    .toJson(LauncherPreferences.requireSingleton()));
+            addText(zos, "config/launch.txt", buildLaunchInfo());
+            addText(zos, "config/installed_bundles.json", context.getSharedPreferences(C.shprefs.NAME, MODE_PRIVATE)
+                    .getString(C.shprefs.keys.INSTALLED_BUNDLES, "{}"));
+
+            listener.onProgressUpdate("Memory", step++, steps);
+            addFileTail(zos, new File("/proc/meminfo"), "system/meminfo.txt");
+            addFileTail(zos, new File(home, MemoryTelemetry.CSV_FILE_NAME), "launcher/" + MemoryTelemetry.CSV_FILE_NAME);
+            addFileTail(zos, new File(home, GameLauncher.JNI_PROFILE_FILE_NAME), "launcher/" + GameLauncher.JNI_PROFILE_FILE_NAME);
+            addFileTail(zos, new File(home, GameLauncher.INPUT_LATENCY_FILE_NAME), "launcher/" + GameLauncher.INPUT_LATENCY_FILE_NAME);
+            addFileTail(zos, new File(home, GameLauncher.NATIVE_OVERRIDES_FILE_NAME), "config/" + GameLauncher.NATIVE_OVERRIDES_FILE_NAME);
+            addFileTail(zos, new File(home, StartupTrace.TRACE_FILE_NAME), "launcher/" + StartupTrace.TRACE_FILE_NAME);
+            addFileTail(zos, new File(home, StartupTrace.SUMMARY_FILE_NAME), "launcher/" + StartupTrace.SUMMARY_FILE_NAME);
+
+            listener.onProgressUpdate("Device", step++, steps);
+            addText(zos, "system/device.txt", buildDeviceInfo());
+            addText(zos, "system/cpu_topology.txt", buildCpuTopology());
+            addFileTail(zos, new File("/proc/cpuinfo"), "system/cpuinfo.txt");
+
+            listener.onProgressUpdate("Finishing", step, steps);
+            zos.finish();
+            zos.flush();
+        } finally {
+            try { zos.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    private String buildLaunchInfo() {
+        StringBuilder sb = new StringBuilder();
+        LauncherPreferences prefs = LauncherPreferences.requireSingleton();
+        if (gameInstance != null) {
+            sb.append("instance: ").append(gameInstance.getName()).append('\n');
+            sb.append("build: ").append(gameInstance.getBuildVersion()).append('\n');
+            sb.append("main class: ").append(gameInstance.getMainClassName()).append('\n');
+            sb.append("\njvm args:\n");
+            for (String arg : gameInstance.getJvmArgsAsList()) {
+                sb.append("  ").append(arg).append('\n');
+            }
+            sb.append("\ngame args: ").append(gameInstance.getArgsAsList()).append('\n');
+            if (gameInstance.isJvmAutoTuneEnabled()) {
+                JvmAutoTuner.DeviceInfo info = JvmAutoTuner.readDeviceInfo();
+                sb.append("\njvm auto-tune (").append(info).append("): ")
+                        .append(JvmAutoTuner.tune(gameInstance, gameInstance.getJvmArgsAsList(), info)).append('\n');
+            } else {
+                sb.append("\njvm auto-tune: disabled\n");
+            }
+        }
+        sb.append("\nuser jvm args: ").append(prefs.getJvmArgs()).append('\n');
+        sb.append("user env vars: ").append(prefs.getEnvVars()).append('\n');
+
+        // only present if the game was started from this process
+        sb.append("\nprocess environment:\n");
+        TreeMap<String, String> env = new TreeMap<>(System.getenv());
+        for (Map.Entry<String, String> entry : env.entrySet()) {
+            for (String prefix : ENV_PREFIXES) {
+                if (entry.getKey().startsWith(prefix)) {
+                    sb.append("  ").append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+                    break;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String buildDeviceInfo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("launcher: ").append(BuildConfig.VERSION_NAME).append(" (").append(BuildConfig.VERSION_CODE).append(")\n");
+        sb.append("manufacturer: ").append(Build.MANUFACTURER).append('\n');
+        sb.append("model: ").append(Build.MODEL).append('\n');
+        sb.append("device: ").append(Build.DEVICE).append('\n');
+        sb.append("hardware: ").append(Build.HARDWARE).append('\n');
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            sb.append("soc: ").append(Build.SOC_MANUFACTURER).append(' ').append(Build.SOC_MODEL).append('\n');
+        }
+        sb.append("android: ").append(Build.VERSION.RELEASE).append(" (sdk ").append(Build.VERSION.SDK_INT).append(")\n");
+        sb.append("abis: ").append(Arrays.toString(Build.SUPPORTED_ABIS)).append('\n');
+        sb.append("fingerprint: ").append(Build.FINGERPRINT).append('\n');
+        Runtime rt = Runtime.getRuntime();
+        sb.append("launcher heap: max ").append(rt.maxMemory() >> 20).append(" MB, total ")
+                .append(rt.totalMemory() >> 20).append(" MB, free ").append(rt.freeMemory() >> 20).append(" MB\n");
+        return sb.toString();
+    }
+
+    private static String buildCpuTopology() {
+        StringBuilder sb = new StringBuilder();
+        File cpuRoot = new File("/sys/devices/system/cpu");
+        sb.append("present: ").append(readSmall(new File(cpuRoot, "present"))).append('\n');
+        sb.append("online: ").append(readSmall(new File(cpuRoot, "online"))).append('\n');
+        sb.append("available processors: ").append(Runtime.getRuntime().availableProcessors()).append('\n');
+        sb.append("\ncpu  cluster  core  min_khz  max_khz  cur_khz  governor\n");
+        for (int cpu = 0; ; cpu++) {
+            File dir = new File(cpuRoot, "cpu" + cpu);
+            if (!dir.exists()) break;
+            sb.append("cpu").append(cpu)
+                    .append("  ").append(readSmall(new File(dir, "topology/cluster_id")))
+                    .append("  ").append(readSmall(new File(dir, "topology/core_id")))
+                    .append("  ").append(readSmall(new File(dir, "cpufreq/cpuinfo_min_freq")))
+                    .append("  ").append(readSmall(new File(dir, "cpufreq/cpuinfo_max_freq")))
+                    .append("  ").append(readSmall(new File(dir, "cpufreq/scaling_cur_freq")))
+                    .append("  ").append(readSmall(new File(dir, "cpufreq/scaling_governor")))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String readSmall(File file) {
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] data = new byte[256];
+            int n = is.read(data);
+            return n > 0 ? new String(data, 0, n, StandardCharsets.UTF_8).trim() : "?";
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+
+    private void addText(ZipOutputStream zos, String name, String text) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(text.getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+    }
+
+    /**
+     * Adds the newest files from a directory, optionally only those starting with prefix.
+     */
+    private void addNewestFiles(ZipOutputStream zos, File dir, String entryPrefix, String namePrefix) throws IOException {
+        File[] found = dir.listFiles(f -> f.isFile() && (namePrefix == null || f.getName().startsWith(namePrefix)));
+        if (found == null || found.length == 0) return;
+        List<File> sorted = new ArrayList<>(Arrays.asList(found));
+        sorted.sort(Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = 0; i < Math.min(MAX_GAME_LOG_FILES, sorted.size()); i++) {
+            File file = sorted.get(i);
+            addFileTail(zos, file, entryPrefix + file.getName(), MAX_SMALL_FILE_BYTES);
+        }
+    }
+
+    private void addFileTail(ZipOutputStream zos, File file, String name) throws IOException {
+        addFileTail(zos, file, name, MAX_LOG_BYTES);
+    }
+
+    /**
+     * Copies at most maxBytes from the end of the file, cut at a line boundary. Files in /proc
+     * report zero length, so those are read sequentially up to the cap instead.
+     */
+    private void addFileTail(ZipOutputStream zos, File file, String name, long maxBytes) throws IOException {
+        if (!file.isFile()) return;
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(file.lastModified());
+        zos.putNextEntry(entry);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            long start = 0;
+            if (length > maxBytes) {
+                start = length - maxBytes;
+                raf.seek(start);
+                // skip the partial line
+                int c;
+                while ((c = raf.read()) != -1 && c != '\n') start++;
+                String note = "[truncated, first " + (start + 1) + " of " + length + " bytes omitted]\n";
+                zos.write(note.getBytes(StandardCharsets.UTF_8));
+            }
+            long remaining = maxBytes;
+            int read;
+            while (remaining > 0 && (read = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                zos.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (IOException e) {
+            zos.write(("[failed to read " + file + ": " + e + "]\n").getBytes(StandardCharsets.UTF_8));
+        }
+        zos.closeEntry();
+    }
+}
@@ -0,0 +1,195 @@
+package com.zomdroid;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.zomdroid.game.GameInstance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Per-instance folder for box64's dynarec cache, so code translated from the x86_64 libraries is
+ * reused by the next launch instead of being recompiled. The folder is named after a key of the box64
+ * build, the instance's x86_64 libraries, its box64 profiles and the user's BOX64_ settings, whatever
+ * was cached under another key is deleted. Folders of all instances share a size limit, least
+ * recently launched go first. Whether a launch started cold or warm goes into the startup summary.
+ * <p>
+ * Not every box64 build knows BOX64_DYNACACHE. If a folder stays empty over
+ * {@link #MAX_EMPTY_LAUNCHES} launches, that box64 build is remembered as unsupported and the cache
+ * is reported as off until libbox64.so changes.
+ */
+public class DynarecCache {
+    private static final String LOG_TAG = DynarecCache.class.getName();
+    private static final String DIR_NAME = "box64_dynacache";
+    private static final String BOX64_LIB_NAME = "libbox64.so";
+    private static final long MAX_TOTAL_BYTES = 512L << 20;
+    // dot files in a cache folder are ours, box64 writes the rest
+    private static final String LAUNCHES_FILE_NAME = ".launches";
+    private static final String UNSUPPORTED_FILE_NAME = "unsupported";
+    // one launch may just have crashed before box64 wrote anything
+    private static final int MAX_EMPTY_LAUNCHES = 2;
+
+    public static File getRootDir() {
+        return new File(AppStorage.requireSingleton().getCachePath(), DIR_NAME);
+    }
+
+    /**
+     * Prepares the cache folder for a launch of the instance and points box64 to it.
+     */
+    public static void setup(@NonNull GameInstance gameInstance) throws ErrnoException {
+        String box64Stamp = getBox64Stamp();
+        File unsupportedFile = new File(getRootDir(), UNSUPPORTED_FILE_NAME);
+        if (box64Stamp.equals(readString(unsupportedFile))) {
+            Os.setenv("ZOMDROID_DYNAREC_CACHE", "off", false);
+            return;
+        }
+
+        File instanceDir = new File(getRootDir(), gameInstance.getName());
+        String key = buildKey(gameInstance);
+        File[] stale = instanceDir.listFiles(file -> !file.getName().equals(key));
+        if (stale != null) {
+            for (File file : stale) {
+                Log.i(LOG_TAG, "Dropping dynarec cache " + file.getName() + " of instance " + gameInstance.getName());
+                FileUtils.deleteDirectory(file);
+            }
+        }
+
+        File dir = new File(instanceDir, key);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(LOG_TAG, "Failed to create " + dir.getAbsolutePath());
+            Os.setenv("ZOMDROID_DYNAREC_CACHE", "off", false);
+            return;
+        }
+        String[] cached = dir.list((d, name) -> !name.startsWith("."));
+        boolean isWarm = cached != null && cached.length > 0;
+        if (!isWarm) {
+            File launchesFile = new File(dir, LAUNCHES_FILE_NAME);
+            int emptyLaunches = parseInt(readString(launchesFile));
+            if (emptyLaunches >= MAX_EMPTY_LAUNCHES) {
+                Log.w(LOG_TAG, "box64 wrote no dynarec cache in " + emptyLaunches + " launches, assuming it doesn't support BOX64_DYNACACHE");
+                writeString(unsupportedFile, box64Stamp);
+                FileUtils.deleteDirectory(dir);
+                Os.setenv("ZOMDROID_DYNAREC_CACHE", "off", false);
+                return;
+            }
+            writeString(launchesFile, String.valueOf(emptyLaunches + 1));
+        }
+        // eviction order
+        dir.setLastModified(System.currentTimeMillis());
+        evict(dir);
+
+        Os.setenv("BOX64_DYNACACHE", "1", false);
+        Os.setenv("BOX64_DYNACACHE_FOLDER", dir.getAbsolutePath(), false);
+        Os.setenv("ZOMDROID_DYNAREC_CACHE", isWarm ? "warm" : "cold", false);
+    }
+
+    private static String getBox64Stamp() {
+        StringBuilder sb = new StringBuilder();
+        appendFileStamp(sb, new File(AppStorage.requireSingleton().getLibraryPath(), BOX64_LIB_NAME));
+        return sb.toString();
+    }
+
+    private static String buildKey(GameInstance gameInstance) {
+        StringBuilder sb = new StringBuilder(getBox64Stamp());
+
+        List<String> dirs = new ArrayList<>(Arrays.asList(gameInstance.getJavaLibraryPath().split(":")));
+        dirs.addAll(Arrays.asList(gameInstance.getLdLibraryPathForEmulation().split(":")));
+        for (String dir : dirs) {
+            if (dir.equals(".")) continue;
+            File[] libs = new File(dir).listFiles((d, name) -> name.endsWith(".so") || name.contains(".so."));
+            if (libs == null) continue;
+            Arrays.sort(libs);
+            for (File lib : libs) appendFileStamp(sb, lib);
+        }
+
+        // translations depend on the dynarec settings
+        sb.append(Box64Profiles.buildRcFile(gameInstance));
+        // user env vars, split the way GameLauncher applies them
+        String rawEnvVars = LauncherPreferences.requireSingleton().getEnvVars();
+        if (rawEnvVars != null) {
+            List<String> box64Vars = new ArrayList<>();
+            for (String token : rawEnvVars.trim().split("\\s+")) {
+                if (token.startsWith("BOX64_")) box64Vars.add(token);
+            }
+            Collections.sort(box64Vars);
+            for (String var : box64Vars) sb.append(var).append('\n');
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static String readString(File file) {
+        if (!file.isFile()) return null;
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(File file, String value) {
+        try {
+            Files.write(file.toPath(), value.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) return 0;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void appendFileStamp(StringBuilder sb, File file) {
+        if (!file.isFile()) return;
+        sb.append(file.getAbsolutePath()).append(':').append(file.length()).append(':').append(file.lastModified()).append('\n');
+    }
+
+    private static void evict(File current) {
+        List<File> dirs = new ArrayList<>();
+        File[] instanceDirs = getRootDir().listFiles(File::isDirectory);
+        if (instanceDirs == null) return;
+        for (File instanceDir : instanceDirs) {
+            File[] keyDirs = instanceDir.listFiles(File::isDirectory);
+            if (keyDirs != null) dirs.addAll(Arrays.asList(keyDirs));
+        }
+
+        long totalBytes = 0;
+        for (File dir : dirs) totalBytes += getSize(dir);
+        dirs.sort(Comparator.comparingLong(File::lastModified));
+        for (File dir : dirs) {
+            if (totalBytes <= MAX_TOTAL_BYTES) break;
+            if (dir.equals(current)) continue;
+            long size = getSize(dir);
+            Log.i(LOG_TAG, "Evicting dynarec cache " + dir.getAbsolutePath() + ", " + (size >> 20) + " MB");
+            if (FileUtils.deleteDirectory(dir)) totalBytes -= size;
+        }
+    }
+
+    private static long getSize(File file) {
+        if (file.isFile()) return file.length();
+        File[] children = file.listFiles();
+        if (children == null) return 0;
+        long size = 0;
+        for (File child : children) size += getSize(child);
+        return size;
+    }
+}
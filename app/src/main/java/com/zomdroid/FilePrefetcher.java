@@ -0,0 +1,95 @@
+package com.zomdroid;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zomdroid.game.GameInstance;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Launcher side of the page cache warm up (file_prefetch.c). The list of files is recorded by the
+ * game process during the previous launch of an instance, reading ahead is left to the kernel.
+ * The amount prefetched goes into the startup summary, so launches with and without it can be
+ * compared there.
+ */
+public class FilePrefetcher {
+    private static final String LOG_TAG = FilePrefetcher.class.getName();
+    // written by native prefetch recorder
+    public static final String LIST_FILE_NAME = "prefetch.txt";
+    // never fill more than this share of the available memory with page cache
+    private static final int AVAILABLE_MEMORY_DIVISOR = 2;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static String lastPrefetchedInstance;
+
+    public static File getListFile(@NonNull GameInstance gameInstance) {
+        return new File(gameInstance.getHomePath(), LIST_FILE_NAME);
+    }
+
+    /**
+     * Prefetches the instance that was launched last, which is the one with the newest list.
+     */
+    public static void prefetchLastLaunched(@NonNull Context context, @NonNull List<GameInstance> gameInstances) {
+        GameInstance last = null;
+        long lastModified = 0;
+        for (GameInstance gameInstance : gameInstances) {
+            long modified = getListFile(gameInstance).lastModified();
+            if (modified > lastModified) {
+                lastModified = modified;
+                last = gameInstance;
+            }
+        }
+        if (last != null) prefetch(context, last);
+    }
+
+    public static void prefetch(@NonNull Context context, @NonNull GameInstance gameInstance) {
+        if (!LauncherPreferences.requireSingleton().isPrefetchGameFiles()) return;
+        if (gameInstance.getName().equals(lastPrefetchedInstance)) return;
+        File listFile = getListFile(gameInstance);
+        if (!listFile.exists()) return;
+
+        long budgetBytes = getBudgetBytes(context);
+        if (budgetBytes <= 0) {
+            Log.i(LOG_TAG, "Not prefetching game files, memory is low");
+            return;
+        }
+        lastPrefetchedInstance = gameInstance.getName();
+        executor.execute(() -> {
+            try {
+                System.loadLibrary("zomdroid");
+                long bytes = nativePrefetch(listFile.getAbsolutePath(), budgetBytes);
+                Log.i(LOG_TAG, "Prefetching " + (bytes >> 20) + " MB of instance " + gameInstance.getName());
+            } catch (UnsatisfiedLinkError e) {
+                Log.e(LOG_TAG, "Failed to load native library for prefetch", e);
+            }
+        });
+    }
+
+    @Nullable
+    private static ActivityManager.MemoryInfo getMemoryInfo(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) return null;
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo;
+    }
+
+    private static long getBudgetBytes(Context context) {
+        ActivityManager.MemoryInfo memoryInfo = getMemoryInfo(context);
+        if (memoryInfo == null || memoryInfo.lowMemory) return 0;
+        // keep clear of the point where the game's own low memory actions would kick in
+        long reserveBytes = Math.max(memoryInfo.threshold,
+                (long) LauncherPreferences.requireSingleton().getMemoryLowThresholdMb() << 20);
+        return (memoryInfo.availMem - reserveBytes) / AVAILABLE_MEMORY_DIVISOR;
+    }
+
+    private static native long nativePrefetch(String listPath, long budgetBytes);
+}
@@ -27,6 +27,7 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.zomdroid.input.GLFWBinding;
 import com.zomdroid.input.GamepadManager;
+import com.zomdroid.input.InputChannel;
 import com.zomdroid.input.InputNativeInterface;
 import com.zomdroid.databinding.ActivityGameBinding;
 import com.zomdroid.game.GameInstance;
@@ -36,6 +37,9 @@ import com.zomdroid.input.KeyboardManager;
 
 import org.fmod.FMOD;
 
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Main game activity. Handles UI, surface, and input.
  * Integrates GamepadManager for hotplug and routes all gamepad input to the native interface.
@@ -48,6 +52,11 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
     private ActivityGameBinding binding;
     private Surface gameSurface;
     private static boolean isGameStarted = false;
+    // set on the UI thread once the native libraries are loaded and FMOD is initialized
+    private volatile boolean isNativeReady = false;
+    private final CountDownLatch nativeReadyLatch = new CountDownLatch(1);
+    private int pendingSurfaceWidth;
+    private int pendingSurfaceHeight;
 
     // Handles all gamepad connection/disconnection and input events
     private GamepadManager gamepadManager;
@@ -64,6 +73,17 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
     // Helps to calculate mouse cursor position
     private float renderScale = 1f;
 
+    private static final long INPUT_LATENCY_REFRESH_MS = 1000;
+    private static final String[] INPUT_LATENCY_STAGES = {"dispatch", "queue", "present", "total"};
+    // shows input_latency.h histograms while the game runs with ZOMDROID_INPUT_LATENCY=1
+    private final Runnable inputLatencyUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updateInputLatencyOverlay();
+            binding.inputLatencyTv.postDelayed(this, INPUT_LATENCY_REFRESH_MS);
+        }
+    };
+
     //private void dbg(String s) {
     //  runOnUiThread(() -> Toast.makeText(this, s, Toast.LENGTH_SHORT).show());
     //}
@@ -71,6 +91,7 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
     @SuppressLint({"UnsafeDynamicallyLoadedCode", "ClickableViewAccessibility"})
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long onCreateStartNs = StartupTrace.now();
         super.onCreate(savedInstanceState);
 
         binding = ActivityGameBinding.inflate(getLayoutInflater());
@@ -136,13 +157,9 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
         if (gameInstance == null)
             throw new RuntimeException("Game instance with name " + gameInstanceName + " not found");
 
-        System.loadLibrary("zomdroid");
-
-        System.load(AppStorage.requireSingleton().getHomePath() + "/" + gameInstance.getFmodLibraryPath() + "/libfmod.so");
-        System.load(AppStorage.requireSingleton().getHomePath() + "/" + gameInstance.getFmodLibraryPath() + "/libfmodstudio.so");
-
-        FMOD.init(this);
+        startInitPipeline(gameInstance);
 
+        long surfaceStartNs = StartupTrace.now();
         binding.gameSv.getHolder().addCallback(new SurfaceHolder.Callback() {
             @Override
             public void surfaceCreated(@NonNull SurfaceHolder holder) {
@@ -165,14 +182,24 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
                     Log.w(LOG_TAG, "Using unsupported pixel format " + format); // LIAMELUI seems like default is RGB_565
                 }
 
-                GameLauncher.setSurface(gameSurface, width, height);
+                if (isNativeReady) {
+                    GameLauncher.setSurface(gameSurface, width, height);
+                } else {
+                    // handed over once the native library is loaded
+                    pendingSurfaceWidth = width;
+                    pendingSurfaceHeight = height;
+                }
 
                 if (!isGameStarted) {
+                    StartupTrace.complete("surface_created", surfaceStartNs);
                     Thread thread = new Thread(() -> {
                         try {
+                            nativeReadyLatch.await();
                             GameLauncher.launch(gameInstance);
                         } catch (ErrnoException e) {
                             throw new RuntimeException(e);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
                         }
                     });
                     thread.start();
@@ -183,7 +210,17 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
             @Override
             public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
                 Log.d(LOG_TAG, "Game surface destroyed.");
-                GameLauncher.destroySurface();
+                if (isNativeReady) {
+                    GameLauncher.destroySurface();
+                    // the process may not come back from background
+                    GameLauncher.dumpJniProfile();
+                    InputNativeInterface.dumpInputLatency();
+                    long[] stats = InputNativeInterface.getEventQueueStats();
+                    Log.i(LOG_TAG, "Input events: " + stats[0] + " queued, " + stats[1] + " coalesced, " + stats[2] + " dropped, "
+                            + InputChannel.getMergedCount() + " merged before frame");
+                } else {
+                    gameSurface = null;
+                }
             }
         });
 
@@ -262,6 +299,70 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
           return false;
         }
       });
+
+        StartupTrace.complete("GameActivity.onCreate", onCreateStartNs);
+    }
+
+    /**
+     * Loads the native libraries and initializes FMOD off the UI thread, in the order they depend on
+     * each other, while the views and the surface come up. Surface and input are held back until it
+     * is done, the game thread waits for it before launching.
+     */
+    private void startInitPipeline(GameInstance gameInstance) {
+        new Thread(() -> {
+            long startNs = StartupTrace.now();
+            System.loadLibrary("zomdroid");
+            StartupTrace.complete("System.loadLibrary", startNs);
+            StartupTrace.onNativeLoaded();
+
+            // box64 and the linker namespace don't need the surface, get them going while the rest comes up
+            try {
+                GameLauncher.prepare(gameInstance);
+            } catch (ErrnoException e) {
+                throw new RuntimeException(e);
+            }
+
+            startNs = StartupTrace.now();
+            System.load(AppStorage.requireSingleton().getHomePath() + "/" + gameInstance.getFmodLibraryPath() + "/libfmod.so");
+            System.load(AppStorage.requireSingleton().getHomePath() + "/" + gameInstance.getFmodLibraryPath() + "/libfmodstudio.so");
+            StartupTrace.complete("System.load(fmod)", startNs);
+
+            startNs = StartupTrace.now();
+            FMOD.init(this);
+            StartupTrace.complete("FMOD.init", startNs);
+
+            runOnUiThread(() -> {
+                if (gameSurface != null) {
+                    GameLauncher.setSurface(gameSurface, pendingSurfaceWidth, pendingSurfaceHeight);
+                }
+                isNativeReady = true;
+                nativeReadyLatch.countDown();
+            });
+        }, "zomdroid-init").start();
+    }
+
+    // input is dropped until the native side can take it, the game isn't running yet anyway.
+    // Whatever the views send for one motion event goes to native code in one batch
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        if (!isNativeReady) return true;
+        InputChannel.beginBatch(event);
+        try {
+            return super.dispatchTouchEvent(event);
+        } finally {
+            InputChannel.endBatch();
+        }
+    }
+
+    @Override
+    public boolean dispatchGenericMotionEvent(MotionEvent event) {
+        if (!isNativeReady) return true;
+        InputChannel.beginBatch(event);
+        try {
+            return super.dispatchGenericMotionEvent(event);
+        } finally {
+            InputChannel.endBatch();
+        }
     }
 
     @Override
@@ -303,7 +404,7 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
     // Forward every gamepad axis event to the native input interface
     @Override
     public void onGamepadAxis(int axis, float value) {
-        InputNativeInterface.sendJoystickAxis(axis, value);
+        InputNativeInterface.sendJoystickAxisNow(axis, value);
     }
 
     // Forward every gamepad dpad event to the native input interface
@@ -447,15 +548,33 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
         super.onResume();
         if (gamepadManager != null)  gamepadManager.register();
         if (keyboardManager != null) keyboardManager.register();
+        binding.inputLatencyTv.post(inputLatencyUpdater);
     }
 
     @Override
     protected void onPause() {
         if (gamepadManager != null)  gamepadManager.unregister();
         if (keyboardManager != null) keyboardManager.unregister();
+        binding.inputLatencyTv.removeCallbacks(inputLatencyUpdater);
         super.onPause();
     }
 
+    private void updateInputLatencyOverlay() {
+        long[] latency = isNativeReady ? InputNativeInterface.getInputLatency() : null;
+        if (latency == null) {
+            binding.inputLatencyTv.setVisibility(View.GONE);
+            return;
+        }
+        StringBuilder sb = new StringBuilder("input ms      p50   p95   p99      n");
+        for (int i = 0; i < INPUT_LATENCY_STAGES.length; i++) {
+            sb.append(String.format(Locale.ROOT, "\n%-9s %5.1f %5.1f %5.1f %6d", INPUT_LATENCY_STAGES[i],
+                    latency[i * 4 + 1] / 1000.0, latency[i * 4 + 2] / 1000.0, latency[i * 4 + 3] / 1000.0,
+                    latency[i * 4]));
+        }
+        binding.inputLatencyTv.setText(sb);
+        binding.inputLatencyTv.setVisibility(View.VISIBLE);
+    }
+
     private boolean isMouseEvent(MotionEvent e, int pointerIndex) {
         return e.isFromSource(InputDevice.SOURCE_MOUSE)
             || e.isFromSource(InputDevice.SOURCE_TOUCHPAD)
@@ -520,7 +639,16 @@ public class GameActivity extends AppCompatActivity implements GamepadManager.Ga
                 || kc == KeyEvent.KEYCODE_VOLUME_MUTE) {
             return super.dispatchKeyEvent(event);
         }
+        if (!isNativeReady) return true;
+        InputChannel.beginBatch(event);
+        try {
+            return dispatchGameKeyEvent(event);
+        } finally {
+            InputChannel.endBatch();
+        }
+    }
 
+    private boolean dispatchGameKeyEvent(KeyEvent event) {
         boolean physicalKeyboardEvent = isTruePhysicalKeyboardEvent(event);
         boolean textInputMode = binding != null
                 && binding.gameSv != null
@@ -7,14 +7,39 @@ import android.util.Log;
 
 import com.zomdroid.input.InputNativeInterface;
 import com.zomdroid.input.InputControlsView;
+import com.zomdroid.game.ClassDataCache;
 import com.zomdroid.game.GameInstance;
 import com.zomdroid.BuildConfig;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
 
 public class GameLauncher {
-    public static void launch(GameInstance gameInstance) throws ErrnoException {
+    private static final String LOG_TAG = GameLauncher.class.getName();
+    // written by native linker when ZOMDROID_JNI_PROFILE=1, calls and time per JNI symbol of the emulated libraries
+    public static final String JNI_PROFILE_FILE_NAME = "jni_profile.txt";
+    // written by native side when ZOMDROID_INPUT_LATENCY=1, latency histograms of input events per stage
+    public static final String INPUT_LATENCY_FILE_NAME = "input_latency.txt";
+    // read by native side, JNI symbols bound to arm64 implementations instead of the emulated ones
+    public static final String NATIVE_OVERRIDES_FILE_NAME = "native_overrides.txt";
+    // written by native linker, JNI symbol to method signature of the emulated libraries
+    private static final String JNI_SIG_DB_FILE_NAME = "jni_signatures.txt";
+
+    private static String preparedJavaHomePath;
+    private static String preparedLdLibraryPath;
+
+    /**
+     * Sets up the environment and starts the native initialization that doesn't depend on the surface
+     * (linker namespace, Vulkan loader and driver, box64 and its glibc) on a background thread, so it
+     * overlaps with the activity coming up. {@link #launch} joins it before starting the JVM.
+     */
+    public static void prepare(GameInstance gameInstance) throws ErrnoException {
+        if (preparedLdLibraryPath != null) return;
+        long startNs = StartupTrace.now();
 
 /*        // for debug
         Os.setenv("MESA_DEBUG", "1", false);
@@ -42,6 +67,14 @@ public class GameLauncher {
         Os.setenv("GALLIUM_DRIVER", "zink", false);
 
         Os.setenv("ZOMDROID_CACHE_DIR", AppStorage.requireSingleton().getCachePath(), false);
+        Os.setenv("ZOMDROID_HOME_DIR", AppStorage.requireSingleton().getHomePath(), false);
+        Os.setenv("ZOMDROID_PREFETCH_LIST", FilePrefetcher.getListFile(gameInstance).getAbsolutePath(), false);
+        Os.setenv("ZOMDROID_JNI_SIG_DB", new File(gameInstance.getHomePath(), JNI_SIG_DB_FILE_NAME).getAbsolutePath(), false);
+        Os.setenv("ZOMDROID_JNI_SIG_DB_KEY", buildJniSignatureDbKey(gameInstance), false);
+        Os.setenv("ZOMDROID_CLASS_REPACK", gameInstance.isClassesRepacked() ? "on" : "off", false);
+        File box64RcFile = Box64Profiles.writeRcFile(gameInstance);
+        if (box64RcFile != null) Os.setenv("BOX64_RCFILE", box64RcFile.getAbsolutePath(), false);
+        DynarecCache.setup(gameInstance);
         Os.setenv("ZOMDROID_RENDERER", LauncherPreferences.requireSingleton().getRenderer().name(), false);
         switch (LauncherPreferences.requireSingleton().getRenderer()) {
             case ZINK_ZFA:
@@ -83,6 +116,10 @@ public class GameLauncher {
 
         Os.setenv("ZOMDROID_AUDIO_API", LauncherPreferences.requireSingleton().getAudioAPI().name(), false);
 
+        Os.setenv("ZOMDROID_MEMORY_LOW_MB",
+                String.valueOf(LauncherPreferences.requireSingleton().getMemoryLowThresholdMb()), false);
+        Os.setenv("ZOMDROID_MEMORY_ACTIONS", MemoryTelemetry.buildActionsEnv(LauncherPreferences.requireSingleton()), false);
+
         if (BuildConfig.DEBUG) {
             //for debugging GL calls, only supported on GL ES 3.2+ with GL_KHR_debug extension present
                 Os.setenv("LIBGL_STACKTRACE","1", false);
@@ -93,30 +130,82 @@ public class GameLauncher {
                 Os.setenv("ZOMDROID_GLES_MAJOR", "3", true);
                 Os.setenv("ZOMDROID_GLES_MINOR", "2", true);*/
         }
+
+        // Environment variables from user settings
+        String rawEnvVars = LauncherPreferences.requireSingleton().getEnvVars();
+        if (rawEnvVars != null && !rawEnvVars.trim().isEmpty()) {
+            for (String token : rawEnvVars.trim().split("\\s+")) {
+                String[] parts = token.split("=", 2);
+                if (parts.length == 2 && Box64Profiles.isValidEnvOverride(parts[0].trim(), parts[1].trim())) {
+                    Os.setenv(parts[0].trim(), parts[1].trim(), true);
+                }
+            }
+        }
+
         initZomdroidWindow();
+
+        //String javaHomePath = AppStorage.requireSingleton().getHomePath() + "/" + C.deps.JRE;
+        String home = AppStorage.requireSingleton().getHomePath();
+
+        // Prefer JRE21 when using GL4ES-style renderers (Build 41 tends to rely on that path).
+        // This isolates "old GL4ES pipeline" from "new Java 25 runtime" regressions.
+        boolean preferJre21ForRenderer = isLegacyRendererNeedingJre21(LauncherPreferences.requireSingleton().getRenderer()); 
+
+        // Try to use dedicated folders if present (jre21 / jre25). If not present, fall back to C.deps.JRE.
+        String jreFolder = preferJre21ForRenderer ? C.deps.JRE_21 : C.deps.JRE_25;
+        String candidateJavaHomePath = home + "/" + jreFolder;
+        String javaHomePath;
+
+        if (new File(candidateJavaHomePath).exists()) {
+            javaHomePath = candidateJavaHomePath;
+        } else {
+            // fallback for setups that still package only one JRE folder (legacy behavior)
+            javaHomePath = home + "/" + C.deps.JRE_ROOT;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.i("Zomdroid", "jreFolder: " + jreFolder+", candidateJavaHomePath: "+candidateJavaHomePath+", javaHomePath: "+javaHomePath);
+        }
+        preparedJavaHomePath = javaHomePath;
+        preparedLdLibraryPath = AppStorage.requireSingleton().getLibraryPath() + ":/system/lib64:"
+                + javaHomePath + "/lib:" + javaHomePath + "/lib/server:" + gameInstance.getJavaLibraryPath();
+        StartupTrace.complete("GameLauncher.prepare", startNs);
+        // failures are reported by startGame, which joins the initialization
+        prewarm(preparedLdLibraryPath);
+    }
+
+    public static void launch(GameInstance gameInstance) throws ErrnoException {
+        long launchStartNs = StartupTrace.now();
+        prepare(gameInstance);
         InputNativeInterface.sendJoystickConnected();
 
+        String javaHomePath = preparedJavaHomePath;
+        ClassDataCache classDataCache = ClassDataCache.open(gameInstance, javaHomePath);
+
         // JVM args [variables] from user settings
-        ArrayList<String> jvmArgs = gameInstance.getJvmArgsAsList();
+        ArrayList<String> jvmArgs = gameInstance.getJvmArgsAsList(classDataCache);
+        ArrayList<String> userJvmArgs = new ArrayList<>();
         String rawArgs = LauncherPreferences.requireSingleton().getJvmArgs();
 
         if (rawArgs != null && !rawArgs.trim().isEmpty()) {
             String[] splitArgs = rawArgs.trim().split("\\s+");
             for (String arg : splitArgs) {
-                jvmArgs.add(arg);
+                userJvmArgs.add(arg);
             }
         }
 
-        // Environment variables from user settings
-        String rawEnvVars = LauncherPreferences.requireSingleton().getEnvVars();
-        if (rawEnvVars != null && !rawEnvVars.trim().isEmpty()) {
-            for (String token : rawEnvVars.trim().split("\\s+")) {
-                String[] parts = token.split("=", 2);
-                if (parts.length == 2) {
-                    Os.setenv(parts[0].trim(), parts[1].trim(), true);
-                }
-            }
+        if (gameInstance.isJvmAutoTuneEnabled()) {
+            ArrayList<String> explicitArgs = new ArrayList<>(jvmArgs);
+            explicitArgs.addAll(userJvmArgs);
+            JvmAutoTuner.DeviceInfo deviceInfo = JvmAutoTuner.readDeviceInfo();
+            List<String> tunedArgs = JvmAutoTuner.tune(gameInstance, explicitArgs, deviceInfo);
+            Log.i(LOG_TAG, "JVM auto-tune for " + deviceInfo + ": " + tunedArgs);
+            // user args go after, so they still win if an option slipped through
+            jvmArgs.addAll(tunedArgs);
+        } else {
+            Log.i(LOG_TAG, "JVM auto-tune disabled for instance " + gameInstance.getName());
         }
+        jvmArgs.addAll(userJvmArgs);
+
 
         jvmArgs.add("-Dorg.lwjgl.opengl.libname=" + LauncherPreferences.requireSingleton().getRenderer().libName);
         jvmArgs.add("-Dzomdroid.renderer=" + LauncherPreferences.requireSingleton().getRenderer().name());
@@ -140,34 +229,31 @@ public class GameLauncher {
             args.add("-debug");
         }
 
-        //String javaHomePath = AppStorage.requireSingleton().getHomePath() + "/" + C.deps.JRE;
-        String home = AppStorage.requireSingleton().getHomePath();
-
-        // Prefer JRE21 when using GL4ES-style renderers (Build 41 tends to rely on that path).
-        // This isolates "old GL4ES pipeline" from "new Java 25 runtime" regressions.
-        boolean preferJre21ForRenderer = isLegacyRendererNeedingJre21(LauncherPreferences.requireSingleton().getRenderer()); 
-
-        // Try to use dedicated folders if present (jre21 / jre25). If not present, fall back to C.deps.JRE.
-        String jreFolder = preferJre21ForRenderer ? C.deps.JRE_21 : C.deps.JRE_25;
-        String candidateJavaHomePath = home + "/" + jreFolder;
-        String javaHomePath;
-
-        if (new File(candidateJavaHomePath).exists()) {
-            javaHomePath = candidateJavaHomePath;
-        } else {
-            // fallback for setups that still package only one JRE folder (legacy behavior)
-            javaHomePath = home + "/" + C.deps.JRE_ROOT;
-        }
-        if (BuildConfig.DEBUG) {
-            Log.i("Zomdroid", "jreFolder: " + jreFolder+", candidateJavaHomePath: "+candidateJavaHomePath+", javaHomePath: "+javaHomePath);
-        }
-        String ldLibraryPath = AppStorage.requireSingleton().getLibraryPath() + ":/system/lib64:"
-                + javaHomePath + "/lib:" + javaHomePath + "/lib/server:" + gameInstance.getJavaLibraryPath();
+        String ldLibraryPath = preparedLdLibraryPath;
         //Log.d("zomdroid-main", ldLibraryPath);
+        classDataCache.onLaunch(gameInstance.getGamePath(), ldLibraryPath, jvmArgs);
+        StartupTrace.complete("GameLauncher.launch", launchStartNs);
         GameLauncher.startGame(gameInstance.getGamePath(), ldLibraryPath, jvmArgs.toArray(new String[0]),
                 gameInstance.getMainClassName(), args.toArray(new String[0]));
     }
 
+    /**
+     * Signatures resolved against one version of the game classes don't hold for another, the
+     * database is dropped whenever this changes.
+     */
+    private static String buildJniSignatureDbKey(GameInstance gameInstance) {
+        StringBuilder sb = new StringBuilder();
+        List<String> entries = new ArrayList<>(Arrays.asList(gameInstance.getClassPathArray()));
+        entries.add(gameInstance.getMainClassName() + ".class");
+        for (String entry : entries) {
+            File file = new File(gameInstance.getGamePath(), entry);
+            if (file.isFile()) sb.append(entry).append(':').append(file.length()).append(':').append(file.lastModified()).append('\n');
+        }
+        CRC32 crc = new CRC32();
+        crc.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
     private static boolean isLegacyRendererNeedingJre21(LauncherPreferences.Renderer r) {
         boolean result = (r == LauncherPreferences.Renderer.GL4ES);
 
@@ -178,8 +264,11 @@ public class GameLauncher {
     }
 
     public static native int initZomdroidWindow();
+    static native int prewarm(String libraryDirPath);
     public static native void destroyZomdroidWindow();
     public static native int setSurface(Surface surface, int width, int height);
     public static native void destroySurface();
+    // no-op unless ZOMDROID_JNI_PROFILE=1
+    public static native void dumpJniProfile();
     static native void startGame(String gameDirPath, String libraryDirPath, String[] jvmArgs, String mainClassName, String[] args);
 }
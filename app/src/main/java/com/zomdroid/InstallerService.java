@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -123,6 +124,14 @@ public class InstallerService extends Service implements TaskProgressListener {
                 doExportLog(intent);
                 break;
             }
+            case EXPORT_DIAGNOSTICS: {
+                doExportDiagnostics(intent);
+                break;
+            }
+            case REPACK_GAME_CLASSES: {
+                doRepackGameClasses(intent);
+                break;
+            }
         }
 
         return START_NOT_STICKY;
@@ -953,6 +962,69 @@ public class InstallerService extends Service implements TaskProgressListener {
         });
     }
 
+    private void doExportDiagnostics(Intent intent) {
+        String taskTitle = getString(R.string.dialog_title_exporting_diagnostics);
+
+        startForeground(NOTIFICATION_ID, buildNotification(taskTitle));
+        this.taskState.postValue(new TaskState(taskTitle, null, -1, 0, false, false));
+
+        String instanceName = intent.getStringExtra(EXTRA_GAME_INSTANCE_NAME);
+        Uri outUri = intent.getParcelableExtra(EXTRA_OUTPUT_URI);
+
+        if (outUri == null) { finishWithError(taskTitle, "Output URI is missing"); return; }
+
+        // instance is optional, launcher and device info is useful without it
+        GameInstance gi = instanceName == null ? null : GameInstanceManager.requireSingleton().getInstanceByName(instanceName);
+
+        executorService.submit(() -> {
+            try {
+                CrashHandler.flushLog();
+                try (OutputStream os = getContentResolver().openOutputStream(outUri)) {
+                    if (os == null) throw new IllegalStateException("openOutputStream returned null");
+                    new DiagnosticsBundle(getApplicationContext(), gi, this).writeTo(os);
+                }
+
+                finish(getString(R.string.dialog_title_diagnostics_exported), null);
+            } catch (Exception e) {
+                finishWithError(getString(R.string.dialog_title_failed_to_export_diagnostics), e.toString());
+            }
+        });
+    }
+
+    private void doRepackGameClasses(Intent intent) {
+        String taskTitle = getString(R.string.dialog_title_repacking_game_classes);
+
+        startForeground(NOTIFICATION_ID, buildNotification(taskTitle));
+        this.taskState.postValue(new TaskState(taskTitle, null, -1, 0, false, false));
+
+        String instanceName = intent.getStringExtra(EXTRA_GAME_INSTANCE_NAME);
+        if (instanceName == null) {
+            finishWithError(getString(R.string.dialog_title_failed_to_repack_game_classes),
+                    "Game instance name intent extra is missing");
+            return;
+        }
+        GameInstance gameInstance = GameInstanceManager.requireSingleton().getInstanceByName(instanceName);
+        if (gameInstance == null) {
+            finishWithError(getString(R.string.dialog_title_failed_to_repack_game_classes),
+                    "Game instance with name " + instanceName + " not found");
+            return;
+        }
+
+        executorService.submit(() -> {
+            try {
+                List<File> classFiles = new ClassRepacker(gameInstance, this).repack();
+                // switch the class path over before the loose copies go away
+                GameInstanceManager.requireSingleton().markClassesRepacked(gameInstance);
+                ClassRepacker.deleteLooseClasses(new File(gameInstance.getGamePath()), classFiles);
+
+                finish(getString(R.string.dialog_title_game_classes_repacked),
+                        getString(R.string.game_classes_repacked, classFiles.size()));
+            } catch (Exception e) {
+                finishWithError(getString(R.string.dialog_title_failed_to_repack_game_classes), e.toString());
+            }
+        });
+    }
+
     public enum Task {
         CREATE_GAME_INSTANCE,
         DELETE_GAME_INSTANCE,
@@ -964,7 +1036,9 @@ public class InstallerService extends Service implements TaskProgressListener {
         EXPORT_CONTROLS_FROM_INSTANCE,
         IMPORT_CUSTOM_DRIVER,
         EXPORT_CUSTOM_DRIVER,
-        EXPORT_LOG
+        EXPORT_LOG,
+        EXPORT_DIAGNOSTICS,
+        REPACK_GAME_CLASSES
     }
 
     public static class TaskState {
@@ -0,0 +1,189 @@
+package com.zomdroid;
+
+import android.util.Log;
+
+import com.zomdroid.game.GameInstance;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Picks JVM heap, GC and thread settings from the device's memory and CPU layout. Anything the user
+ * or the instance preset already sets explicitly is left alone.
+ */
+public class JvmAutoTuner {
+    private static final String LOG_TAG = JvmAutoTuner.class.getName();
+
+    private static final long MIN_HEAP_MB = 1024;
+    private static final long HEAP_STEP_MB = 256;
+
+    public static class DeviceInfo {
+        public long totalMb = -1;
+        public long availableMb = -1;
+        public int cpuCount;
+        public int bigCoreCount;
+
+        @Override
+        public String toString() {
+            return "total " + totalMb + " MB, available " + availableMb + " MB, cpus " + cpuCount
+                    + " (" + bigCoreCount + " big)";
+        }
+    }
+
+    public static DeviceInfo readDeviceInfo() {
+        DeviceInfo info = new DeviceInfo();
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/meminfo"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("MemTotal:")) info.totalMb = parseKb(line) / 1024;
+                else if (line.startsWith("MemAvailable:")) info.availableMb = parseKb(line) / 1024;
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read /proc/meminfo", e);
+        }
+
+        // cluster layout from max frequencies, the slowest cluster counts as little cores
+        TreeMap<Long, Integer> coresByFreq = new TreeMap<>();
+        int cpu = 0;
+        for (; new File("/sys/devices/system/cpu/cpu" + cpu).exists(); cpu++) {
+            long freq = readLong(new File("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/cpuinfo_max_freq"));
+            if (freq > 0) coresByFreq.merge(freq, 1, Integer::sum); // offline cores have no cpufreq
+        }
+        info.cpuCount = cpu > 0 ? cpu : Runtime.getRuntime().availableProcessors();
+        if (coresByFreq.size() > 1) {
+            for (int count : coresByFreq.tailMap(coresByFreq.firstKey(), false).values())
+                info.bigCoreCount += count;
+        } else {
+            info.bigCoreCount = info.cpuCount;
+        }
+        return info;
+    }
+
+    /**
+     * Returns the tuned args to add for this launch. existingArgs are the args already decided on
+     * (preset and user), any option present there is not touched.
+     */
+    public static List<String> tune(GameInstance gameInstance, List<String> existingArgs, DeviceInfo info) {
+        List<String> tuned = new ArrayList<>();
+        boolean isBuild42 = !"41".equals(gameInstance.getBuildVersion());
+
+        long heapMb = -1;
+        if (!hasOption(existingArgs, "-Xmx") && !hasOption(existingArgs, "-XX:MaxHeapSize")
+                && info.totalMb > 0) {
+            heapMb = pickHeapMb(info, isBuild42);
+            tuned.add("-Xmx" + heapMb + "m");
+        }
+        if (!hasOption(existingArgs, "-Xms") && !hasOption(existingArgs, "-XX:InitialHeapSize") && heapMb > 0) {
+            // a warm start heap avoids resize GCs while loading, but only if it won't invite the LMK
+            long initialMb = info.availableMb > heapMb * 2 ? Math.min(heapMb / 2, 1024) : 512;
+            tuned.add("-Xms" + initialMb + "m");
+        }
+
+        int cores = Math.max(1, info.bigCoreCount);
+        if (!hasGcOption(existingArgs)) {
+            long effectiveHeapMb = heapMb > 0 ? heapMb : parseSizeMb(findOption(existingArgs, "-Xmx"));
+            if (cores <= 1 || (effectiveHeapMb > 0 && effectiveHeapMb < 1536)) {
+                tuned.add("-XX:+UseSerialGC");
+            } else if (cores <= 3) {
+                tuned.add("-XX:+UseParallelGC");
+                if (!hasOption(existingArgs, "-XX:ParallelGCThreads"))
+                    tuned.add("-XX:ParallelGCThreads=" + cores);
+            } else {
+                tuned.add("-XX:+UseG1GC");
+                if (!hasOption(existingArgs, "-XX:MaxGCPauseMillis"))
+                    tuned.add("-XX:MaxGCPauseMillis=100");
+                if (!hasOption(existingArgs, "-XX:ParallelGCThreads"))
+                    tuned.add("-XX:ParallelGCThreads=" + cores);
+                if (!hasOption(existingArgs, "-XX:ConcGCThreads"))
+                    tuned.add("-XX:ConcGCThreads=" + Math.max(1, cores / 4));
+            }
+        }
+        if (!hasOption(existingArgs, "-XX:ActiveProcessorCount")) {
+            // little cores mostly slow down work that gets split evenly, e.g. parallel streams and GC
+            tuned.add("-XX:ActiveProcessorCount=" + Math.max(2, cores));
+        }
+        if (isBuild42) {
+            // Build 42 loads far more classes and a hard cap risks an OOM mid-session, so only raise the
+            // threshold for the first metaspace GC to skip the full GCs while loading
+            if (!hasOption(existingArgs, "-XX:MetaspaceSize"))
+                tuned.add("-XX:MetaspaceSize=256m");
+        } else if (!hasOption(existingArgs, "-XX:MaxMetaspaceSize")) {
+            tuned.add("-XX:MaxMetaspaceSize=256m");
+        }
+        if (!hasOption(existingArgs, "-XX:ReservedCodeCacheSize")) {
+            tuned.add("-XX:ReservedCodeCacheSize=" + (isBuild42 ? "192m" : "128m"));
+        }
+        return tuned;
+    }
+
+    private static long pickHeapMb(DeviceInfo info, boolean isBuild42) {
+        // the rest of the process (box64, graphics driver, native game libs) needs about as much
+        // again, and Android itself keeps a good share of RAM
+        long fromTotal = info.totalMb * 35 / 100;
+        long fromAvailable = info.availableMb > 0 ? info.availableMb * 55 / 100 : fromTotal;
+        long maxMb = info.totalMb < 6000 ? 2048 : (isBuild42 ? 4096 : 3072);
+        long heapMb = Math.min(Math.min(fromTotal, fromAvailable), maxMb);
+        heapMb = Math.max(MIN_HEAP_MB, heapMb / HEAP_STEP_MB * HEAP_STEP_MB);
+        return heapMb;
+    }
+
+    private static boolean hasGcOption(List<String> args) {
+        for (String arg : args) {
+            if (arg.startsWith("-XX:+Use") && arg.endsWith("GC")) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasOption(List<String> args, String option) {
+        return findOption(args, option) != null;
+    }
+
+    private static String findOption(List<String> args, String option) {
+        String found = null;
+        for (String arg : args) {
+            if (arg.startsWith(option)) found = arg; // last one wins, same as the JVM
+        }
+        return found;
+    }
+
+    private static long parseSizeMb(String arg) {
+        if (arg == null) return -1;
+        String value = arg.replaceFirst("^-Xm[xs]|^-XX:\\w+=", "").toLowerCase();
+        if (value.isEmpty()) return -1;
+        try {
+            char unit = value.charAt(value.length() - 1);
+            long n = Character.isDigit(unit) ? Long.parseLong(value) : Long.parseLong(value.substring(0, value.length() - 1));
+            switch (unit) {
+                case 'g': return n * 1024;
+                case 'm': return n;
+                case 'k': return n / 1024;
+                default: return n / (1024 * 1024);
+            }
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseKb(String line) {
+        String[] parts = line.trim().split("\\s+");
+        try {
+            return parts.length >= 2 ? Long.parseLong(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long readLong(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            return line != null ? Long.parseLong(line.trim()) : 0;
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -151,6 +151,9 @@ public class LauncherActivity extends AppCompatActivity {
             return NavigationUI.onNavDestinationSelected(item, navController)
                     || super.onOptionsItemSelected(item);
         });
+
+        // finish the JRE 25 class cache of the last training run while the user is in the launcher
+        AotCacheService.startPending(this);
     }
 
     @Override
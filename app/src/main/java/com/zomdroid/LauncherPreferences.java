@@ -178,6 +178,58 @@ public class LauncherPreferences {
         OPENSL
     }
 
+    private int memoryLowThresholdMb = 300;
+    private boolean memoryActionGc = false;
+    private boolean memoryActionTrim = false;
+    private boolean memoryActionWarn = false;
+
+    public int getMemoryLowThresholdMb() {
+        return memoryLowThresholdMb;
+    }
+
+    public void setMemoryLowThresholdMb(int memoryLowThresholdMb) {
+        this.memoryLowThresholdMb = Math.max(0, memoryLowThresholdMb);
+        saveToPreferences();
+    }
+
+    public boolean isMemoryActionGc() {
+        return memoryActionGc;
+    }
+
+    public void setMemoryActionGc(boolean memoryActionGc) {
+        this.memoryActionGc = memoryActionGc;
+        saveToPreferences();
+    }
+
+    public boolean isMemoryActionTrim() {
+        return memoryActionTrim;
+    }
+
+    public void setMemoryActionTrim(boolean memoryActionTrim) {
+        this.memoryActionTrim = memoryActionTrim;
+        saveToPreferences();
+    }
+
+    public boolean isMemoryActionWarn() {
+        return memoryActionWarn;
+    }
+
+    public void setMemoryActionWarn(boolean memoryActionWarn) {
+        this.memoryActionWarn = memoryActionWarn;
+        saveToPreferences();
+    }
+
+    private boolean prefetchGameFiles = true;
+
+    public boolean isPrefetchGameFiles() {
+        return prefetchGameFiles;
+    }
+
+    public void setPrefetchGameFiles(boolean prefetchGameFiles) {
+        this.prefetchGameFiles = prefetchGameFiles;
+        saveToPreferences();
+    }
+
     private boolean touchControlsEnabled = false;
 
     public boolean isTouchControlsEnabled() {
@@ -0,0 +1,349 @@
+package com.zomdroid;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sparse line index over a (possibly growing) text file. Only the byte offset of every
+ * {@link #STRIDE}-th line is kept, lines in between are found by scanning forward from the
+ * nearest indexed one. Scanning uses memory-mapped windows, so nothing but the index and a few
+ * cached blocks of decoded lines stay on the heap.
+ * <p>
+ * One thread indexes ({@link #indexMore}), another loads blocks of lines ({@link #loadLine}) without
+ * waiting for it: every indexing step publishes an immutable {@link Snapshot} and each side has its
+ * own file handle. Loaded lines are taken from the cache with {@link #getCachedLine} on any thread.
+ * A run of {@link #LONG_LINE_BYTES} without a newline counts as a line of its own, so a huge line
+ * or a NUL-filled tail after a crash can't stall indexing.
+ */
+public class LogFileIndex implements AutoCloseable {
+    /** Lines per block, a cache miss loads this many. */
+    public static final int STRIDE = 256;
+    private static final long MAP_WINDOW = 16L * 1024 * 1024;
+    private static final int MAX_CACHED_BLOCKS = 32;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final long LONG_LINE_BYTES = 1024 * 1024;
+    public static final int MAX_LINE_BYTES = 4000;
+
+    /** What the reading side may use, block i starts at blockOffsets[i] for i <= lineCount / STRIDE. */
+    private static final class Snapshot {
+        final int generation;
+        final int lineCount;
+        final long indexedBytes;
+        final long[] blockOffsets;
+
+        Snapshot(int generation, int lineCount, long indexedBytes, long[] blockOffsets) {
+            this.generation = generation;
+            this.lineCount = lineCount;
+            this.indexedBytes = indexedBytes;
+            this.blockOffsets = blockOffsets;
+        }
+    }
+
+    /** Decoded lines of one block and the generation of the file they were read from. */
+    private static final class Block {
+        final int generation;
+        final String[] lines;
+
+        Block(int generation, String[] lines) {
+            this.generation = generation;
+            this.lines = lines;
+        }
+    }
+
+    /** A file handle with its mapped window, used by one thread. */
+    private static final class Reader {
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        Reader(File file) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+        }
+
+        /**
+         * Copies up to one chunk of [pos, end) into {@link #chunk} through a mapped window.
+         */
+        int read(long pos, long end) throws IOException {
+            if (window == null || pos < windowStart || pos >= windowStart + window.capacity()) {
+                windowStart = pos;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, channel.size() - pos));
+            }
+            int offset = (int) (pos - windowStart);
+            int len = (int) Math.min(Math.min(chunk.length, end - pos), window.capacity() - offset);
+            window.position(offset);
+            window.get(chunk, 0, len);
+            return len;
+        }
+
+        long inode() {
+            try {
+                return Os.fstat(raf.getFD()).st_ino;
+            } catch (ErrnoException | IOException e) {
+                return -1;
+            }
+        }
+
+        void close() throws IOException {
+            window = null;
+            channel.close();
+            raf.close();
+        }
+    }
+
+    private final File file;
+
+    // indexing side
+    private Reader indexReader;
+    private int generation = 0;
+    private long[] blockOffsets = new long[1024];
+    private int lineCount = 0;
+    private long indexedBytes = 0;
+
+    private volatile Snapshot snapshot = new Snapshot(0, 0, 0, blockOffsets);
+
+    // reading side, the cache is also read by getCachedLine and guarded by itself
+    private Reader lineReader;
+    private int lineReaderGeneration = 0;
+    private final LinkedHashMap<Integer, Block> blockCache =
+            new LinkedHashMap<Integer, Block>(MAX_CACHED_BLOCKS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                    return size() > MAX_CACHED_BLOCKS;
+                }
+            };
+
+    public LogFileIndex(File file) throws IOException {
+        this.file = file;
+        this.indexReader = new Reader(file);
+        this.lineReader = new Reader(file);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getLineCount() {
+        return snapshot.lineCount;
+    }
+
+    public long getIndexedBytes() {
+        return snapshot.indexedBytes;
+    }
+
+    public long getFileSize() throws IOException {
+        return indexReader.channel.size();
+    }
+
+    /**
+     * Indexes up to maxBytes of not yet indexed data. Only complete (newline terminated) lines are
+     * counted, so a line that is still being written shows up once it is finished. Starts over when
+     * the file was truncated or replaced by log rotation. Indexing thread only.
+     *
+     * @return true if the whole file has been scanned
+     */
+    public boolean indexMore(long maxBytes) throws IOException {
+        if (isReplaced()) reset();
+        long size = indexReader.channel.size();
+        if (size < indexedBytes) reset();
+
+        long end = Math.min(size, indexedBytes + maxBytes);
+        long pos = indexedBytes;
+        long lastLineEnd = indexedBytes;
+        while (pos < end) {
+            int len = indexReader.read(pos, end);
+            byte[] chunk = indexReader.chunk;
+            for (int i = 0; i < len; i++) {
+                long lineEnd = pos + i + 1;
+                if (chunk[i] != '\n' && lineEnd - lastLineEnd < LONG_LINE_BYTES) continue;
+                lastLineEnd = lineEnd;
+                lineCount++;
+                if (lineCount % STRIDE == 0) {
+                    int block = lineCount / STRIDE;
+                    if (block >= blockOffsets.length)
+                        blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+                    blockOffsets[block] = lastLineEnd;
+                }
+            }
+            pos += len;
+        }
+        indexedBytes = lastLineEnd;
+        // entries past the published line count are never read, so appending to the same array is fine
+        snapshot = new Snapshot(generation, lineCount, indexedBytes, blockOffsets);
+        return end >= size;
+    }
+
+    private boolean isReplaced() {
+        long inode = indexReader.inode();
+        try {
+            return inode != -1 && Os.stat(file.getPath()).st_ino != inode;
+        } catch (ErrnoException e) {
+            // between rename and creation of the new file, keep the old one for now
+            return false;
+        }
+    }
+
+    /**
+     * Never touches the file, so it can be called on the UI thread. Lines past the end of the file
+     * are empty.
+     *
+     * @return the line, or null if its block has to be read with {@link #loadLine} first
+     */
+    public String getCachedLine(int line) {
+        Snapshot s = snapshot;
+        if (line < 0 || line >= s.lineCount) return "";
+        Block block;
+        synchronized (blockCache) {
+            block = blockCache.get(line / STRIDE);
+        }
+        // lines already in a cached last block don't change when it grows
+        int i = line % STRIDE;
+        if (block == null || block.generation != s.generation || i >= block.lines.length) return null;
+        return block.lines[i];
+    }
+
+    /** Reads the block of the line into the cache unless it is there already. Reading thread only. */
+    public void loadLine(int line) throws IOException {
+        Snapshot s = snapshot;
+        if (line < 0 || line >= s.lineCount) return;
+        if (s.generation != lineReaderGeneration) {
+            lineReader.close();
+            lineReader = new Reader(file);
+            lineReaderGeneration = s.generation;
+            synchronized (blockCache) {
+                blockCache.clear();
+            }
+        }
+        loadBlock(s, line / STRIDE);
+    }
+
+    private void loadBlock(Snapshot s, int block) throws IOException {
+        int count = Math.min(STRIDE, s.lineCount - block * STRIDE);
+        Block cached;
+        synchronized (blockCache) {
+            cached = blockCache.get(block);
+        }
+        // the last block grows while indexing goes on
+        if (cached != null && cached.generation == s.generation && cached.lines.length == count) return;
+
+        long end = (block + 1) * STRIDE <= s.lineCount ? s.blockOffsets[block + 1] : s.indexedBytes;
+        String[] lines = new String[count];
+        int n = 0;
+        byte[] line = new byte[MAX_LINE_BYTES];
+        int lineLen = 0;
+        long lineStart = s.blockOffsets[block];
+        long pos = lineStart;
+        while (pos < end && n < count) {
+            int len = lineReader.read(pos, end);
+            byte[] chunk = lineReader.chunk;
+            for (int i = 0; i < len && n < count; i++) {
+                byte b = chunk[i];
+                long lineEnd = pos + i + 1;
+                if (b != '\n' && lineLen < MAX_LINE_BYTES) {
+                    // overlong lines are cut for display
+                    line[lineLen++] = b;
+                }
+                if (b != '\n' && lineEnd - lineStart < LONG_LINE_BYTES) continue;
+                if (b == '\n' && lineLen > 0 && line[lineLen - 1] == '\r') lineLen--;
+                lines[n++] = new String(line, 0, lineLen, StandardCharsets.UTF_8);
+                lineLen = 0;
+                lineStart = lineEnd;
+            }
+            pos += len;
+        }
+        while (n < count) lines[n++] = "";
+        synchronized (blockCache) {
+            blockCache.put(block, new Block(s.generation, lines));
+        }
+    }
+
+    public interface SearchListener {
+        /** Called with line numbers of matches found since the last call. */
+        void onMatches(int[] lines, int count);
+    }
+
+    /**
+     * Scans the first lineLimit lines of the file for lines matching the pattern. Runs on the
+     * calling thread with its own file handle, so it can be used alongside an index that is still
+     * growing. Results are delivered in batches.
+     */
+    public static void search(File file, Pattern pattern, int lineLimit, SearchListener listener,
+                              AtomicBoolean cancelled) throws IOException {
+        final int batchSize = 64;
+        int[] batch = new int[batchSize];
+        int batchCount = 0;
+        Reader reader = new Reader(file);
+        try {
+            long size = reader.channel.size();
+            byte[] line = new byte[MAX_LINE_BYTES];
+            int lineLen = 0;
+            long lineStart = 0;
+            int lineNumber = 0;
+            long pos = 0;
+            Matcher matcher = pattern.matcher("");
+            while (pos < size && lineNumber < lineLimit && !cancelled.get()) {
+                int len = reader.read(pos, size);
+                for (int i = 0; i < len && lineNumber < lineLimit; i++) {
+                    byte b = reader.chunk[i];
+                    long lineEnd = pos + i + 1;
+                    if (b != '\n' && lineLen < MAX_LINE_BYTES) line[lineLen++] = b;
+                    if (b != '\n' && lineEnd - lineStart < LONG_LINE_BYTES) continue;
+                    matcher.reset(new String(line, 0, lineLen, StandardCharsets.UTF_8));
+                    if (matcher.find()) {
+                        batch[batchCount++] = lineNumber;
+                        if (batchCount == batchSize) {
+                            listener.onMatches(batch.clone(), batchCount);
+                            batchCount = 0;
+                        }
+                    }
+                    lineLen = 0;
+                    lineStart = lineEnd;
+                    lineNumber++;
+                }
+                pos += len;
+                if (batchCount > 0) {
+                    // flush partial batches per chunk so results show up while scanning
+                    listener.onMatches(Arrays.copyOf(batch, batchCount), batchCount);
+                    batchCount = 0;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void reset() throws IOException {
+        indexReader.close();
+        indexReader = new Reader(file);
+        generation++;
+        blockOffsets = new long[1024];
+        lineCount = 0;
+        indexedBytes = 0;
+        snapshot = new Snapshot(generation, 0, 0, blockOffsets);
+    }
+
+    /** Once neither side uses the index anymore. */
+    @Override
+    public void close() throws IOException {
+        synchronized (blockCache) {
+            blockCache.clear();
+        }
+        indexReader.close();
+        lineReader.close();
+    }
+}
@@ -0,0 +1,256 @@
+package com.zomdroid;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffered, size-capped log file writer. Lines are queued in memory and written by a background
+ * thread in batches, either every {@link #FLUSH_INTERVAL_MS} or once {@link #FLUSH_THRESHOLD_BYTES}
+ * are pending. When the active file exceeds the size cap it is rotated into gzip-compressed segments.
+ * Only the background thread rotates, and it compresses outside the write lock, so neither
+ * {@link #flushSync()} on a crash path nor {@link #append} ever waits for gzip.
+ */
+public class LogSink {
+    private static final String LOG_TAG = LogSink.class.getName();
+
+    private static final int QUEUE_CAPACITY = 16384;
+    private static final int FLUSH_THRESHOLD_BYTES = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final long MAX_FILE_SIZE = 8L * 1024 * 1024;
+    public static final int MAX_ROTATED_SEGMENTS = 3;
+    private static final String ROTATED_SUFFIX = ".gz";
+
+    private final File file;
+    private final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Object writeLock = new Object();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final byte[] buffer = new byte[FLUSH_THRESHOLD_BYTES * 2];
+    private int bufferSize = 0;
+    private FileOutputStream out;
+    private long fileSize;
+    private long writeCount = 0;
+    private long lastWriteTime = 0;
+    private volatile boolean closed = false;
+    // the active file was renamed to pendingFile and still has to be compressed, writer thread only
+    private boolean rotationPending;
+    private final File pendingFile;
+    private final Thread writerThread;
+
+    public LogSink(File file) throws IOException {
+        this.file = file;
+        this.pendingFile = getPendingSegment(file);
+        this.out = new FileOutputStream(file, true);
+        this.fileSize = file.length();
+        // left over if the process died while compressing
+        this.rotationPending = pendingFile.exists();
+        this.writerThread = new Thread(this::writerLoop, "zomdroid-log-sink");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a line for writing. Never blocks; if the queue is full the line is dropped and counted,
+     * so a flood of output can't stall the producer.
+     */
+    public void append(String line) {
+        if (closed) return;
+        if (!queue.offer(line)) {
+            droppedLines.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes everything queued so far to disk on the calling thread. Used from crash paths where the
+     * process may die right after. Doesn't rotate, the file may go over the cap until the background
+     * thread writes next.
+     */
+    public void flushSync() {
+        synchronized (writeLock) {
+            drainLocked(Integer.MAX_VALUE);
+            writeBufferLocked();
+            try {
+                out.getFD().sync();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        writerThread.interrupt();
+        synchronized (writeLock) {
+            drainLocked(Integer.MAX_VALUE);
+            writeBufferLocked();
+            try {
+                out.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    public long getWriteCount() {
+        synchronized (writeLock) {
+            return writeCount;
+        }
+    }
+
+    public static File getRotatedSegment(File file, int index) {
+        return new File(file.getParentFile(), file.getName() + "." + index + ROTATED_SUFFIX);
+    }
+
+    public static void deleteRotatedSegments(File file) {
+        for (int i = 1; i <= MAX_ROTATED_SEGMENTS; i++) {
+            File segment = getRotatedSegment(file, i);
+            if (segment.exists())
+                segment.delete();
+        }
+        // a segment that was never compressed belongs to the same session
+        File pending = getPendingSegment(file);
+        if (pending.exists())
+            pending.delete();
+    }
+
+    private static File getPendingSegment(File file) {
+        return new File(file.getParentFile(), file.getName() + ".rotating");
+    }
+
+    private void writerLoop() {
+        ArrayList<String> batch = new ArrayList<>();
+        while (!closed) {
+            if (rotationPending) {
+                compressPendingSegment();
+                rotationPending = false;
+            }
+            String first;
+            try {
+                first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            synchronized (writeLock) {
+                if (first != null) {
+                    appendToBufferLocked(first);
+                    // pick up whatever else arrived in the meantime without waiting again
+                    batch.clear();
+                    queue.drainTo(batch, QUEUE_CAPACITY);
+                    for (String line : batch) {
+                        appendToBufferLocked(line);
+                    }
+                }
+                long dropped = droppedLines.getAndSet(0);
+                if (dropped > 0) {
+                    appendToBufferLocked("[zomdroid] log sink queue overflow, dropped " + dropped + " lines");
+                }
+                // write out on timer, size threshold is handled in appendToBufferLocked
+                if (first == null || System.currentTimeMillis() - lastWriteTime >= FLUSH_INTERVAL_MS) {
+                    writeBufferLocked();
+                }
+            }
+        }
+    }
+
+    private void drainLocked(int max) {
+        String line;
+        int n = 0;
+        while (n++ < max && (line = queue.poll()) != null) {
+            appendToBufferLocked(line);
+        }
+    }
+
+    private void appendToBufferLocked(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        if (bufferSize + bytes.length > buffer.length) {
+            writeBufferLocked();
+        }
+        if (bytes.length > buffer.length) {
+            writeBytesLocked(bytes, bytes.length);
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, bufferSize, bytes.length);
+        bufferSize += bytes.length;
+        if (bufferSize >= FLUSH_THRESHOLD_BYTES) {
+            writeBufferLocked();
+        }
+    }
+
+    private void writeBufferLocked() {
+        if (bufferSize == 0) return;
+        writeBytesLocked(buffer, bufferSize);
+        bufferSize = 0;
+        lastWriteTime = System.currentTimeMillis();
+    }
+
+    private void writeBytesLocked(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+            writeCount++;
+            fileSize += length;
+            // one batch can cross the cap again before the last rotation got compressed, renaming
+            // once more would replace that segment, so the file grows until the next batch instead
+            if (fileSize >= MAX_FILE_SIZE && Thread.currentThread() == writerThread && !rotationPending) {
+                rotateLocked();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write log file " + file, e);
+        }
+    }
+
+    /**
+     * Only renames the active file out of the way, {@link #compressPendingSegment} does the rest once
+     * the lock is released.
+     */
+    private void rotateLocked() throws IOException {
+        out.close();
+        if (!file.renameTo(pendingFile)) {
+            // can't rotate, truncate instead so the size cap still holds
+            out = new FileOutputStream(file, false);
+            fileSize = 0;
+            return;
+        }
+        out = new FileOutputStream(file, false);
+        fileSize = 0;
+        rotationPending = true;
+    }
+
+    private void compressPendingSegment() {
+        File oldest = getRotatedSegment(file, MAX_ROTATED_SEGMENTS);
+        if (oldest.exists())
+            oldest.delete();
+        for (int i = MAX_ROTATED_SEGMENTS - 1; i >= 1; i--) {
+            File segment = getRotatedSegment(file, i);
+            if (segment.exists())
+                segment.renameTo(getRotatedSegment(file, i + 1));
+        }
+        File segment = getRotatedSegment(file, 1);
+        File tmp = new File(segment.getParentFile(), segment.getName() + ".tmp");
+        try (InputStream in = new FileInputStream(pendingFile);
+             OutputStream gz = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024)) {
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                gz.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to compress rotated log file " + pendingFile, e);
+        }
+        if (!tmp.renameTo(segment))
+            tmp.delete();
+        pendingFile.delete();
+    }
+}
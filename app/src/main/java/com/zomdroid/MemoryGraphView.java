@@ -0,0 +1,139 @@
+package com.zomdroid;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Line chart of recorded memory samples: game PSS, JVM heap used, available system memory and
+ * used swap, all in MB. Threshold actions are marked with vertical lines.
+ */
+public class MemoryGraphView extends View {
+    public static final int COLOR_PSS = Color.rgb(0xE5, 0x73, 0x73);
+    public static final int COLOR_HEAP = Color.rgb(0x64, 0xB5, 0xF6);
+    public static final int COLOR_AVAILABLE = Color.rgb(0x81, 0xC7, 0x84);
+    public static final int COLOR_SWAP = Color.rgb(0xFF, 0xB7, 0x4D);
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gridPaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint markerPaint = new Paint();
+    private final Path path = new Path();
+
+    private List<MemoryTelemetry.Sample> samples = Collections.emptyList();
+
+    public MemoryGraphView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(1.5f * density);
+        gridPaint.setColor(Color.argb(0x40, 0x80, 0x80, 0x80));
+        gridPaint.setStrokeWidth(density);
+        textPaint.setColor(Color.GRAY);
+        textPaint.setTextSize(10 * density);
+        markerPaint.setColor(Color.argb(0x80, 0xF4, 0x43, 0x36));
+        markerPaint.setStrokeWidth(density);
+    }
+
+    public void setSamples(List<MemoryTelemetry.Sample> samples) {
+        this.samples = samples;
+        invalidate();
+    }
+
+    private interface Series {
+        long valueKb(MemoryTelemetry.Sample s);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (samples.size() < 2) return;
+
+        float labelWidth = textPaint.measureText("00000");
+        float left = labelWidth + getPaddingLeft();
+        float top = getPaddingTop() + textPaint.getTextSize();
+        float right = getWidth() - getPaddingRight();
+        float bottom = getHeight() - getPaddingBottom() - textPaint.getTextSize() * 1.5f;
+        if (right <= left || bottom <= top) return;
+
+        long maxKb = 1;
+        for (MemoryTelemetry.Sample s : samples) {
+            maxKb = Math.max(maxKb, Math.max(Math.max(s.pssKb, s.heapUsedKb), Math.max(s.memAvailableKb, swapUsedKb(s))));
+        }
+        long maxMb = roundUpMb(maxKb / 1024);
+        long startMs = samples.get(0).timeMs;
+        long spanMs = Math.max(1, samples.get(samples.size() - 1).timeMs - startMs);
+
+        for (int i = 0; i <= 4; i++) {
+            float y = bottom - (bottom - top) * i / 4f;
+            canvas.drawLine(left, y, right, y, gridPaint);
+            canvas.drawText(String.valueOf(maxMb * i / 4), getPaddingLeft(), y + textPaint.getTextSize() / 3, textPaint);
+        }
+        canvas.drawText("MB", getPaddingLeft(), top - textPaint.getTextSize() * 0.3f, textPaint);
+        String span = formatDuration(spanMs);
+        canvas.drawText(span, right - textPaint.measureText(span), getHeight() - getPaddingBottom(), textPaint);
+        canvas.drawText("0:00", left, getHeight() - getPaddingBottom(), textPaint);
+
+        for (MemoryTelemetry.Sample s : samples) {
+            if (!s.hasActions) continue;
+            float x = left + (right - left) * (s.timeMs - startMs) / spanMs;
+            canvas.drawLine(x, top, x, bottom, markerPaint);
+        }
+
+        drawSeries(canvas, s -> s.memAvailableKb, COLOR_AVAILABLE, left, top, right, bottom, maxMb, startMs, spanMs);
+        drawSeries(canvas, MemoryGraphView::swapUsedKb, COLOR_SWAP, left, top, right, bottom, maxMb, startMs, spanMs);
+        drawSeries(canvas, s -> s.heapUsedKb, COLOR_HEAP, left, top, right, bottom, maxMb, startMs, spanMs);
+        drawSeries(canvas, s -> s.pssKb, COLOR_PSS, left, top, right, bottom, maxMb, startMs, spanMs);
+    }
+
+    private void drawSeries(Canvas canvas, Series series, int color, float left, float top, float right,
+                            float bottom, long maxMb, long startMs, long spanMs) {
+        path.reset();
+        boolean started = false;
+        for (MemoryTelemetry.Sample s : samples) {
+            long kb = series.valueKb(s);
+            if (kb < 0) {
+                // not available, e.g. heap before the JVM is up
+                started = false;
+                continue;
+            }
+            float x = left + (right - left) * (s.timeMs - startMs) / spanMs;
+            float y = bottom - (bottom - top) * (kb / 1024f) / maxMb;
+            if (started) {
+                path.lineTo(x, y);
+            } else {
+                path.moveTo(x, y);
+                started = true;
+            }
+        }
+        linePaint.setColor(color);
+        canvas.drawPath(path, linePaint);
+    }
+
+    private static long swapUsedKb(MemoryTelemetry.Sample s) {
+        if (s.swapTotalKb <= 0 || s.swapFreeKb < 0) return -1;
+        return s.swapTotalKb - s.swapFreeKb;
+    }
+
+    private static long roundUpMb(long mb) {
+        long step = mb > 4096 ? 1024 : 256;
+        return Math.max(step, (mb + step - 1) / step * step);
+    }
+
+    private static String formatDuration(long ms) {
+        long totalSec = ms / 1000;
+        if (totalSec >= 3600)
+            return String.format(Locale.US, "%d:%02d:%02d", totalSec / 3600, totalSec / 60 % 60, totalSec % 60);
+        return String.format(Locale.US, "%d:%02d", totalSec / 60, totalSec % 60);
+    }
+}
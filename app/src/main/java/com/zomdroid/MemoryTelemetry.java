@@ -0,0 +1,110 @@
+package com.zomdroid;
+
+import android.app.Activity;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Launcher side of the native memory sampler (memory_telemetry.c): builds its configuration,
+ * shows low memory warnings and reads back the recorded history.
+ */
+public class MemoryTelemetry {
+    private static final String LOG_TAG = MemoryTelemetry.class.getName();
+    // written by native memory sampler
+    public static final String CSV_FILE_NAME = "memory.csv";
+
+    public static class Sample {
+        public long timeMs;
+        public long pssKb;
+        public long rssKb;
+        public long rssAnonKb;
+        public long swapKb;
+        public long memAvailableKb;
+        public long swapTotalKb;
+        public long swapFreeKb;
+        public long heapUsedKb;
+        public long heapCommittedKb;
+        public long heapMaxKb;
+        public boolean hasActions;
+    }
+
+    public static String buildActionsEnv(LauncherPreferences prefs) {
+        StringBuilder sb = new StringBuilder();
+        if (prefs.isMemoryActionGc()) sb.append("gc,");
+        if (prefs.isMemoryActionTrim()) sb.append("trim,");
+        if (prefs.isMemoryActionWarn()) sb.append("warn,");
+        if (sb.length() > 0) sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    // called from native code
+    public static void onLowMemory(long availableMb, long pssMb) {
+        Log.w(LOG_TAG, "Low memory warning: " + availableMb + " MB available, game uses " + pssMb + " MB");
+        Activity activity = ZomdroidApplication.getCurrentActivity();
+        if (activity == null) return;
+        activity.runOnUiThread(() -> Toast.makeText(activity,
+                activity.getString(R.string.memory_low_warning, availableMb), Toast.LENGTH_LONG).show());
+    }
+
+    /**
+     * Reads the recorded samples, keeping at most maxSamples evenly spread over the whole file.
+     */
+    public static List<Sample> readCsv(File file, int maxSamples) throws IOException {
+        // count first so samples can be picked in a single pass without holding the whole file
+        int total = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 64 * 1024)) {
+            reader.readLine(); // header
+            while (reader.readLine() != null) total++;
+        }
+        int stride = Math.max(1, (total + maxSamples - 1) / maxSamples);
+
+        List<Sample> samples = new ArrayList<>(Math.min(total, maxSamples));
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 64 * 1024)) {
+            reader.readLine();
+            String line;
+            int n = 0;
+            boolean pendingActions = false;
+            while ((line = reader.readLine()) != null) {
+                Sample sample = parseLine(line);
+                if (sample == null) continue;
+                // don't lose action markers on rows skipped by downsampling
+                pendingActions |= sample.hasActions;
+                if (n++ % stride != 0) continue;
+                sample.hasActions = pendingActions;
+                pendingActions = false;
+                samples.add(sample);
+            }
+        }
+        return samples;
+    }
+
+    private static Sample parseLine(String line) {
+        String[] parts = line.split(",", -1);
+        if (parts.length < 13) return null;
+        try {
+            Sample s = new Sample();
+            s.timeMs = Long.parseLong(parts[0]);
+            s.pssKb = Long.parseLong(parts[1]);
+            s.rssKb = Long.parseLong(parts[2]);
+            s.rssAnonKb = Long.parseLong(parts[3]);
+            s.swapKb = Long.parseLong(parts[4]);
+            s.memAvailableKb = Long.parseLong(parts[6]);
+            s.swapTotalKb = Long.parseLong(parts[7]);
+            s.swapFreeKb = Long.parseLong(parts[8]);
+            s.heapUsedKb = Long.parseLong(parts[9]);
+            s.heapCommittedKb = Long.parseLong(parts[10]);
+            s.heapMaxKb = Long.parseLong(parts[11]);
+            s.hasActions = !parts[12].isEmpty();
+            return s;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
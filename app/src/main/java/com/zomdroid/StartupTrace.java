@@ -0,0 +1,71 @@
+package com.zomdroid;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java side of the startup trace (startup_trace.c). Phases before libzomdroid is loaded are kept
+ * here and handed over once it is, later ones go straight to native. Native writes the trace once
+ * the first frame is presented.
+ */
+public class StartupTrace {
+    // written by native startup trace
+    public static final String TRACE_FILE_NAME = "startup_trace.json";
+    public static final String SUMMARY_FILE_NAME = "startup_summary.csv";
+
+    private static class Event {
+        final String name;
+        final long startNs;
+        final long endNs;
+        final int tid;
+
+        Event(String name, long startNs, long endNs, int tid) {
+            this.name = name;
+            this.startNs = startNs;
+            this.endNs = endNs;
+            this.tid = tid;
+        }
+    }
+
+    private static final List<Event> pending = new ArrayList<>();
+    private static boolean isNativeLoaded = false;
+
+    public static long now() {
+        // same clock as CLOCK_BOOTTIME on native side
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Start of a launch, drops whatever was recorded for a launch that never got to the game.
+     */
+    public static synchronized void markTap() {
+        pending.clear();
+        long now = now();
+        pending.add(new Event("tap", now, now, Process.myTid()));
+    }
+
+    public static synchronized void complete(String name, long startNs) {
+        long endNs = now();
+        if (isNativeLoaded) {
+            nativeComplete(name, startNs, endNs, Process.myTid());
+        } else {
+            pending.add(new Event(name, startNs, endNs, Process.myTid()));
+        }
+    }
+
+    /**
+     * Call right after libzomdroid is loaded.
+     */
+    public static synchronized void onNativeLoaded() {
+        isNativeLoaded = true;
+        for (Event event : pending) {
+            nativeComplete(event.name, event.startNs, event.endNs, event.tid);
+        }
+        pending.clear();
+    }
+
+    private static native void nativeComplete(String name, long startNs, long endNs, int tid);
+}
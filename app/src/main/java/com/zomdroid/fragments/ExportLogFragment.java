@@ -39,6 +39,7 @@ public class ExportLogFragment extends Fragment {
 
     private static final String LOG_TAG = ExportLogFragment.class.getName();
     private static final String TXT_MIME = "text/plain";
+    private static final String ZIP_MIME = "application/zip";
 
     private FragmentExportLogBinding binding;
     private TaskProgressDialogBinding taskProgressDialogBinding;
@@ -107,6 +108,31 @@ public class ExportLogFragment extends Fragment {
                 bindInstallerService();
             });
 
+    private final ActivityResultLauncher<String> actionCreateDiagnosticsLauncher =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument(ZIP_MIME), outUri -> {
+                if (outUri == null) return;
+
+                Intent installerIntent = new Intent(requireContext(), InstallerService.class);
+                installerIntent.putExtra(
+                        InstallerService.EXTRA_COMMAND,
+                        InstallerService.Task.EXPORT_DIAGNOSTICS.ordinal()
+                );
+                GameInstance selectedInstance = getSelectedInstanceQuietly();
+                if (selectedInstance != null) {
+                    installerIntent.putExtra(
+                            InstallerService.EXTRA_GAME_INSTANCE_NAME,
+                            selectedInstance.getName()
+                    );
+                }
+                installerIntent.putExtra(
+                        InstallerService.EXTRA_OUTPUT_URI,
+                        outUri
+                );
+
+                requireContext().startForegroundService(installerIntent);
+                bindInstallerService();
+            });
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container,
@@ -128,6 +154,11 @@ public class ExportLogFragment extends Fragment {
                 taskProgressDialog.dismiss()
         );
 
+        binding.exportLogDiagnosticsBtn.setOnClickListener(v -> {
+            String ts = new SimpleDateFormat("yyyyMMdd_HHmm", Locale.US).format(new Date());
+            actionCreateDiagnosticsLauncher.launch("zomdroid_diagnostics_" + ts + ".zip");
+        });
+
         instances = GameInstanceManager.requireSingleton().getInstances();
         if (instances == null || instances.isEmpty()) {
             Toast.makeText(requireContext(), "No game instances found", Toast.LENGTH_SHORT).show();
@@ -192,6 +223,14 @@ public class ExportLogFragment extends Fragment {
         return instances.get(instanceIndex);
     }
 
+    private GameInstance getSelectedInstanceQuietly() {
+        if (instances == null || instances.isEmpty()) return null;
+        int position = binding.exportLogInstanceSpinner.getSelectedItemPosition();
+        int instanceIndex = instances.size() > 1 ? position - 1 : position;
+        if (instanceIndex < 0 || instanceIndex >= instances.size()) return null;
+        return instances.get(instanceIndex);
+    }
+
     private void bindInstallerService() {
         Intent intent = new Intent(requireContext(), InstallerService.class);
         requireContext().bindService(intent, installerServiceConnection, Context.BIND_AUTO_CREATE);
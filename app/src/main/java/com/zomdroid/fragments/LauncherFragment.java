@@ -45,10 +45,13 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+import com.zomdroid.Box64Profiles;
 import com.zomdroid.C;
+import com.zomdroid.FilePrefetcher;
 import com.zomdroid.GameActivity;
 import com.zomdroid.InstallerService;
 import com.zomdroid.R;
+import com.zomdroid.StartupTrace;
 
 import com.zomdroid.databinding.FragmentLauncherBinding;
 import com.zomdroid.databinding.TaskProgressDialogBinding;
@@ -176,6 +179,8 @@ public class LauncherFragment extends Fragment {
                                 Toast.LENGTH_SHORT).show();
                         return;
                     }
+                    StartupTrace.markTap();
+                    FilePrefetcher.prefetch(requireContext(), gameInstance);
                     Intent intent = new Intent(requireContext(), GameActivity.class);
                     intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
                     intent.putExtra(GameActivity.EXTRA_GAME_INSTANCE_NAME, gameInstance.getName());
@@ -186,6 +191,10 @@ public class LauncherFragment extends Fragment {
                 settingsIb.setOnClickListener(v -> {
                     PopupMenu popupMenu = new PopupMenu(requireContext(), v);
                     popupMenu.getMenuInflater().inflate(R.menu.menu_game_instance, popupMenu.getMenu());
+                    popupMenu.getMenu().findItem(R.id.action_game_instance_jvm_auto_tune)
+                            .setChecked(gameInstance.isJvmAutoTuneEnabled());
+                    popupMenu.getMenu().findItem(R.id.action_game_instance_class_data_cache)
+                            .setChecked(gameInstance.isClassDataCacheEnabled());
 
                     popupMenu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
                         @Override
@@ -200,6 +209,19 @@ public class LauncherFragment extends Fragment {
                                 intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                                 Intent chooserIntent = Intent.createChooser(intent, null);
                                 startActivity(chooserIntent);
+                            } else if (itemId == R.id.action_game_instance_jvm_auto_tune) {
+                                GameInstanceManager.requireSingleton()
+                                        .setJvmAutoTuneEnabled(gameInstance, !item.isChecked());
+                            } else if (itemId == R.id.action_game_instance_class_data_cache) {
+                                GameInstanceManager.requireSingleton()
+                                        .setClassDataCacheEnabled(gameInstance, !item.isChecked());
+                            } else if (itemId == R.id.action_game_instance_box64_profiles) {
+                                showBox64ProfilesDialog(gameInstance);
+                            } else if (itemId == R.id.action_game_instance_repack_classes) {
+                                Intent repackIntent = new Intent(requireContext(), InstallerService.class);
+                                repackIntent.putExtra(InstallerService.EXTRA_COMMAND, InstallerService.Task.REPACK_GAME_CLASSES.ordinal());
+                                repackIntent.putExtra(InstallerService.EXTRA_GAME_INSTANCE_NAME, gameInstance.getName());
+                                requireContext().startForegroundService(repackIntent);
                             } else if (itemId == R.id.action_game_instance_delete) {
                                 new MaterialAlertDialogBuilder(requireContext())
                                         .setTitle(R.string.dialog_title_delete_game_instance)
@@ -283,6 +305,7 @@ public class LauncherFragment extends Fragment {
                 if (action == null) return;
                 if (action.equals(InstallerService.ACTION_STARTED)) {
                     bindInstallerService();
+        FilePrefetcher.prefetchLastLaunched(requireContext(), GameInstanceManager.requireSingleton().getInstances());
                 }
             }
         };
@@ -313,6 +336,44 @@ public class LauncherFragment extends Fragment {
         legalNoticeDialog.show();
     }
 
+    private void showBox64ProfilesDialog(GameInstance gameInstance) {
+        String[] items = new String[Box64Profiles.LIBRARIES.length];
+        for (int i = 0; i < items.length; i++) {
+            String libName = Box64Profiles.LIBRARIES[i];
+            items[i] = libName + ": " + getString(Box64Profiles.getProfile(gameInstance, libName).nameResId);
+        }
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle(R.string.dialog_title_box64_profiles)
+                .setItems(items, (dialog, which) -> showBox64ProfileChoiceDialog(gameInstance, Box64Profiles.LIBRARIES[which]))
+                .setNegativeButton(R.string.dialog_button_cancel, null)
+                .create()
+                .show();
+    }
+
+    private void showBox64ProfileChoiceDialog(GameInstance gameInstance, String libName) {
+        Box64Profiles.Profile[] profiles = Box64Profiles.Profile.values();
+        Box64Profiles.Profile builtIn = Box64Profiles.getBuiltInProfile(libName);
+        String[] names = new String[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            names[i] = getString(profiles[i].nameResId);
+            if (profiles[i] == builtIn) names[i] = getString(R.string.box64_profile_recommended, names[i]);
+        }
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle(libName)
+                .setSingleChoiceItems(names, Box64Profiles.getProfile(gameInstance, libName).ordinal(), (dialog, which) -> {
+                    GameInstanceManager.requireSingleton().setBox64Profile(gameInstance, libName, profiles[which].name());
+                    dialog.dismiss();
+                    showBox64ProfilesDialog(gameInstance);
+                })
+                .setNeutralButton(R.string.box64_profile_reset, (dialog, which) -> {
+                    GameInstanceManager.requireSingleton().setBox64Profile(gameInstance, libName, null);
+                    showBox64ProfilesDialog(gameInstance);
+                })
+                .setNegativeButton(R.string.dialog_button_cancel, null)
+                .create()
+                .show();
+    }
+
     private void requestNotificationPermission() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
                 && ActivityCompat.checkSelfPermission(requireContext(), Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
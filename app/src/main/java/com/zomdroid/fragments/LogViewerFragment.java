@@ -0,0 +1,377 @@
+package com.zomdroid.fragments;
+
+import android.graphics.Color;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.zomdroid.AppStorage;
+import com.zomdroid.CrashHandler;
+import com.zomdroid.LogFileIndex;
+import com.zomdroid.R;
+import com.zomdroid.databinding.FragmentLogViewerBinding;
+import com.zomdroid.game.GameInstance;
+import com.zomdroid.game.GameInstanceManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class LogViewerFragment extends Fragment {
+    private static final String LOG_TAG = LogViewerFragment.class.getName();
+
+    // small first step so the top of the file shows up right away, then bigger steps in background
+    private static final long FIRST_INDEX_STEP = 4L * 1024 * 1024;
+    private static final long INDEX_STEP = 16L * 1024 * 1024;
+    private static final long FOLLOW_POLL_MS = 1000;
+
+    private FragmentLogViewerBinding binding;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();
+    // the index thread is busy for the whole first pass over a big file, lines are read next to it
+    private final ExecutorService lineExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private final Runnable followPoll = () -> {
+        LogFileIndex current = index;
+        if (current != null)
+            indexExecutor.submit(() -> indexLoop(current, INDEX_STEP));
+    };
+
+    private final List<File> files = new ArrayList<>();
+    private volatile LogFileIndex index;
+    private int shownLineCount = 0;
+    // blocks queued on the line thread, UI thread only
+    private final Set<Integer> requestedBlocks = new HashSet<>();
+    private boolean isFollowing = false;
+
+    private AtomicBoolean searchCancelled = new AtomicBoolean();
+    private final List<Integer> matches = new ArrayList<>();
+    private int currentMatch = -1;
+    private int highlightedLine = -1;
+
+    private final RecyclerView.Adapter<RecyclerView.ViewHolder> adapter = new RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+        @NonNull
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.log_line_item, parent, false);
+            return new RecyclerView.ViewHolder(view) {
+            };
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+            TextView lineTv = (TextView) holder.itemView;
+            String line = "";
+            LogFileIndex current = index;
+            if (current != null) {
+                // only the cache, a miss shows an empty line until the line thread has read the block
+                line = current.getCachedLine(position);
+                if (line == null) {
+                    requestBlock(current, position);
+                    line = "";
+                }
+            }
+            lineTv.setText(line);
+            lineTv.setBackgroundColor(position == highlightedLine ? 0x40FFC107 : Color.TRANSPARENT);
+        }
+
+        @Override
+        public int getItemCount() {
+            return shownLineCount;
+        }
+    };
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        binding = FragmentLogViewerBinding.inflate(inflater, container, false);
+        return binding.getRoot();
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+
+        binding.logViewerLinesRv.setLayoutManager(new LinearLayoutManager(requireContext()));
+        binding.logViewerLinesRv.setAdapter(adapter);
+        binding.logViewerLinesRv.setHasFixedSize(true);
+        binding.logViewerLinesRv.setItemAnimator(null);
+
+        files.clear();
+        List<String> names = new ArrayList<>();
+        String homePath = AppStorage.requireSingleton().getHomePath();
+        addFileIfExists(names, new File(homePath + "/log.txt"), getString(R.string.log_viewer_file_launcher_log));
+        addFileIfExists(names, new File(homePath + "/lastlog.txt"), getString(R.string.log_viewer_file_last_launcher_log));
+        addFileIfExists(names, new File(homePath + "/" + CrashHandler.FLIGHT_RECORDER_FILE_NAME),
+                getString(R.string.log_viewer_file_flight_recorder));
+        for (GameInstance instance : GameInstanceManager.requireSingleton().getInstances()) {
+            addFileIfExists(names, new File(instance.getHomePath() + "/Zomboid/console.txt"),
+                    getString(R.string.log_viewer_file_console, instance.getName()));
+        }
+        if (files.isEmpty()) {
+            binding.logViewerStatusTv.setText(R.string.log_viewer_no_files);
+            return;
+        }
+
+        binding.logViewerFileSpinner.setAdapter(new ArrayAdapter<>(requireContext(),
+                android.R.layout.simple_spinner_dropdown_item, names));
+        binding.logViewerFileSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                openFile(files.get(position));
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        binding.logViewerFollowCb.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            isFollowing = isChecked;
+            if (isChecked && shownLineCount > 0)
+                binding.logViewerLinesRv.scrollToPosition(shownLineCount - 1);
+        });
+        binding.logViewerLinesRv.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                // user dragged away from the bottom, stop following
+                if (newState == RecyclerView.SCROLL_STATE_DRAGGING && isFollowing)
+                    binding.logViewerFollowCb.setChecked(false);
+            }
+        });
+
+        binding.logViewerSearchEt.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId == EditorInfo.IME_ACTION_SEARCH
+                    || (event != null && event.getKeyCode() == KeyEvent.KEYCODE_ENTER)) {
+                startSearch(v.getText().toString());
+                return true;
+            }
+            return false;
+        });
+        binding.logViewerNextBtn.setOnClickListener(v -> jumpToMatch(currentMatch + 1));
+        binding.logViewerPrevBtn.setOnClickListener(v -> jumpToMatch(currentMatch - 1));
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mainHandler.removeCallbacks(followPoll);
+        searchCancelled.set(true);
+        closeIndex();
+        binding = null;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // queued tasks still run, among them the ones closing the last index
+        indexExecutor.shutdown();
+        lineExecutor.shutdown();
+        searchExecutor.shutdown();
+    }
+
+    private void addFileIfExists(List<String> names, File file, String name) {
+        if (!file.isFile()) return;
+        files.add(file);
+        names.add(name);
+    }
+
+    private void openFile(File file) {
+        mainHandler.removeCallbacks(followPoll);
+        searchCancelled.set(true);
+        closeIndex();
+        matches.clear();
+        currentMatch = -1;
+        highlightedLine = -1;
+        shownLineCount = 0;
+        requestedBlocks.clear();
+        adapter.notifyDataSetChanged();
+
+        LogFileIndex newIndex;
+        try {
+            newIndex = new LogFileIndex(file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to open " + file, e);
+            Toast.makeText(requireContext(), getString(R.string.log_viewer_failed_to_open, file.getName()),
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        index = newIndex;
+        indexExecutor.submit(() -> indexLoop(newIndex, FIRST_INDEX_STEP));
+    }
+
+    private void closeIndex() {
+        LogFileIndex old = index;
+        index = null;
+        if (old == null) return;
+        // the UI thread doesn't use it anymore, close it once the index loop and the block loads
+        // queued for this file are done, on whichever thread gets there last
+        AtomicInteger users = new AtomicInteger(2);
+        Runnable release = () -> {
+            if (users.decrementAndGet() != 0) return;
+            try {
+                old.close();
+            } catch (IOException ignore) {
+            }
+        };
+        indexExecutor.submit(release);
+        lineExecutor.submit(release);
+    }
+
+    private void requestBlock(LogFileIndex target, int position) {
+        int block = position / LogFileIndex.STRIDE;
+        if (!requestedBlocks.add(block)) return;
+        lineExecutor.submit(() -> {
+            // skip blocks of a file that was closed while they were queued
+            if (index != target) return;
+            try {
+                target.loadLine(position);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to read " + target.getFile(), e);
+            }
+            mainHandler.post(() -> onBlockLoaded(target, block));
+        });
+    }
+
+    private void onBlockLoaded(LogFileIndex target, int block) {
+        if (binding == null || index != target) return;
+        requestedBlocks.remove(block);
+        int start = block * LogFileIndex.STRIDE;
+        int end = Math.min(start + LogFileIndex.STRIDE, shownLineCount);
+        if (start < end)
+            adapter.notifyItemRangeChanged(start, end - start);
+    }
+
+    /**
+     * Runs on the index thread. Indexes the file step by step, publishing the line count after each
+     * step, then keeps polling for appended data while the fragment shows this file.
+     */
+    private void indexLoop(LogFileIndex target, long firstStep) {
+        long step = firstStep;
+        while (index == target) {
+            boolean done;
+            int lineCount;
+            try {
+                done = target.indexMore(step);
+                lineCount = target.getLineCount();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to index " + target.getFile(), e);
+                return;
+            }
+            mainHandler.post(() -> onLinesIndexed(target, lineCount));
+            if (done) break;
+            step = INDEX_STEP;
+        }
+        // keep picking up appended lines while this file is shown
+        if (index == target)
+            mainHandler.postDelayed(followPoll, FOLLOW_POLL_MS);
+    }
+
+    private void onLinesIndexed(LogFileIndex target, int lineCount) {
+        if (binding == null || index != target) return;
+        int oldCount = shownLineCount;
+        if (lineCount < oldCount) {
+            // file was truncated
+            shownLineCount = lineCount;
+            adapter.notifyDataSetChanged();
+        } else if (lineCount > oldCount) {
+            shownLineCount = lineCount;
+            adapter.notifyItemRangeInserted(oldCount, lineCount - oldCount);
+            if (isFollowing)
+                binding.logViewerLinesRv.scrollToPosition(lineCount - 1);
+        }
+        updateStatus();
+    }
+
+    private void startSearch(String query) {
+        searchCancelled.set(true);
+        matches.clear();
+        currentMatch = -1;
+        setHighlightedLine(-1);
+        LogFileIndex current = index;
+        if (current == null || query.isEmpty()) {
+            updateStatus();
+            return;
+        }
+
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(query, Pattern.CASE_INSENSITIVE);
+        } catch (PatternSyntaxException e) {
+            Toast.makeText(requireContext(), R.string.log_viewer_invalid_regex, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        searchCancelled = cancelled;
+        File file = current.getFile();
+        int lineLimit = shownLineCount;
+        searchExecutor.submit(() -> {
+            try {
+                LogFileIndex.search(file, pattern, lineLimit, (lines, count) -> mainHandler.post(() -> {
+                    if (cancelled.get() || binding == null) return;
+                    boolean wasEmpty = matches.isEmpty();
+                    for (int i = 0; i < count; i++) matches.add(lines[i]);
+                    if (wasEmpty && !matches.isEmpty()) jumpToMatch(0);
+                    else updateStatus();
+                }), cancelled);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Search failed in " + file, e);
+            }
+        });
+        updateStatus();
+    }
+
+    private void jumpToMatch(int matchIndex) {
+        if (matches.isEmpty()) return;
+        if (matchIndex < 0) matchIndex = matches.size() - 1;
+        if (matchIndex >= matches.size()) matchIndex = 0;
+        currentMatch = matchIndex;
+        int line = matches.get(matchIndex);
+        binding.logViewerFollowCb.setChecked(false);
+        ((LinearLayoutManager) binding.logViewerLinesRv.getLayoutManager()).scrollToPositionWithOffset(line, 0);
+        setHighlightedLine(line);
+        updateStatus();
+    }
+
+    private void setHighlightedLine(int line) {
+        int old = highlightedLine;
+        highlightedLine = line;
+        if (old >= 0 && old < shownLineCount) adapter.notifyItemChanged(old);
+        if (line >= 0 && line < shownLineCount) adapter.notifyItemChanged(line);
+    }
+
+    private void updateStatus() {
+        if (binding == null) return;
+        if (matches.isEmpty()) {
+            binding.logViewerStatusTv.setText(getString(R.string.log_viewer_status, shownLineCount));
+        } else {
+            binding.logViewerStatusTv.setText(getString(R.string.log_viewer_status_matches, shownLineCount,
+                    currentMatch + 1, matches.size()));
+        }
+    }
+}
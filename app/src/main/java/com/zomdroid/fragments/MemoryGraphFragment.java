@@ -0,0 +1,115 @@
+package com.zomdroid.fragments;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+
+import com.zomdroid.AppStorage;
+import com.zomdroid.MemoryGraphView;
+import com.zomdroid.MemoryTelemetry;
+import com.zomdroid.R;
+import com.zomdroid.databinding.FragmentMemoryGraphBinding;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MemoryGraphFragment extends Fragment {
+    private static final String LOG_TAG = MemoryGraphFragment.class.getName();
+    // about two points per pixel on a typical screen is plenty
+    private static final int MAX_POINTS = 2000;
+
+    private FragmentMemoryGraphBinding binding;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        binding = FragmentMemoryGraphBinding.inflate(inflater, container, false);
+        return binding.getRoot();
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+
+        SpannableStringBuilder legend = new SpannableStringBuilder();
+        appendLegend(legend, getString(R.string.memory_graph_pss), MemoryGraphView.COLOR_PSS);
+        appendLegend(legend, getString(R.string.memory_graph_heap), MemoryGraphView.COLOR_HEAP);
+        appendLegend(legend, getString(R.string.memory_graph_available), MemoryGraphView.COLOR_AVAILABLE);
+        appendLegend(legend, getString(R.string.memory_graph_swap), MemoryGraphView.COLOR_SWAP);
+        binding.memoryGraphLegendTv.setText(legend);
+
+        binding.memoryGraphRefreshBtn.setOnClickListener(v -> load());
+        load();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        binding = null;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        executor.shutdownNow();
+    }
+
+    private static void appendLegend(SpannableStringBuilder sb, String label, int color) {
+        int start = sb.length();
+        sb.append("■ ").append(label);
+        sb.setSpan(new ForegroundColorSpan(color), start, start + 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        sb.append("   ");
+    }
+
+    private void load() {
+        File file = new File(AppStorage.requireSingleton().getHomePath(), MemoryTelemetry.CSV_FILE_NAME);
+        executor.submit(() -> {
+            List<MemoryTelemetry.Sample> samples = null;
+            if (file.exists()) {
+                try {
+                    samples = MemoryTelemetry.readCsv(file, MAX_POINTS);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to read " + file, e);
+                }
+            }
+            List<MemoryTelemetry.Sample> result = samples;
+            mainHandler.post(() -> show(result));
+        });
+    }
+
+    private void show(List<MemoryTelemetry.Sample> samples) {
+        if (binding == null) return;
+        if (samples == null || samples.isEmpty()) {
+            binding.memoryGraphSummaryTv.setText(R.string.memory_graph_no_data);
+            binding.memoryGraphView.setSamples(Collections.emptyList());
+            return;
+        }
+        long peakPss = 0, peakHeap = 0, minAvailable = Long.MAX_VALUE;
+        int actions = 0;
+        for (MemoryTelemetry.Sample s : samples) {
+            peakPss = Math.max(peakPss, s.pssKb);
+            peakHeap = Math.max(peakHeap, s.heapUsedKb);
+            if (s.memAvailableKb >= 0) minAvailable = Math.min(minAvailable, s.memAvailableKb);
+            if (s.hasActions) actions++;
+        }
+        if (minAvailable == Long.MAX_VALUE) minAvailable = 0;
+        binding.memoryGraphSummaryTv.setText(getString(R.string.memory_graph_summary,
+                peakPss / 1024, peakHeap / 1024, minAvailable / 1024, actions));
+        binding.memoryGraphView.setSamples(samples);
+    }
+}
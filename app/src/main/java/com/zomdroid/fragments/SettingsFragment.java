@@ -223,6 +223,36 @@ public class SettingsFragment extends Fragment {
         binding.settingsDebugSwitch.setOnCheckedChangeListener((v, isChecked) ->
                 LauncherPreferences.requireSingleton().setDebug(isChecked));
 
+        // Low memory response
+        binding.settingsMemoryLowEt.setText(String.valueOf(LauncherPreferences.requireSingleton().getMemoryLowThresholdMb()));
+        binding.settingsMemoryLowEt.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                try {
+                    LauncherPreferences.requireSingleton().setMemoryLowThresholdMb(Integer.parseInt(s.toString().trim()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        });
+        binding.settingsMemoryGcSwitch.setChecked(LauncherPreferences.requireSingleton().isMemoryActionGc());
+        binding.settingsMemoryGcSwitch.setOnCheckedChangeListener((v, isChecked) ->
+                LauncherPreferences.requireSingleton().setMemoryActionGc(isChecked));
+        binding.settingsMemoryTrimSwitch.setChecked(LauncherPreferences.requireSingleton().isMemoryActionTrim());
+        binding.settingsMemoryTrimSwitch.setOnCheckedChangeListener((v, isChecked) ->
+                LauncherPreferences.requireSingleton().setMemoryActionTrim(isChecked));
+        binding.settingsMemoryWarnSwitch.setChecked(LauncherPreferences.requireSingleton().isMemoryActionWarn());
+        binding.settingsMemoryWarnSwitch.setOnCheckedChangeListener((v, isChecked) ->
+                LauncherPreferences.requireSingleton().setMemoryActionWarn(isChecked));
+        binding.settingsPrefetchSwitch.setChecked(LauncherPreferences.requireSingleton().isPrefetchGameFiles());
+        binding.settingsPrefetchSwitch.setOnCheckedChangeListener((v, isChecked) ->
+                LauncherPreferences.requireSingleton().setPrefetchGameFiles(isChecked));
+
         binding.settingsJargsInfo.setOnClickListener(v -> {
             new androidx.appcompat.app.AlertDialog.Builder(requireContext())
                     .setTitle(getString(R.string.jvm_args_dialog_title))
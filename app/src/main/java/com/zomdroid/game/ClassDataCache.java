@@ -0,0 +1,313 @@
+package com.zomdroid.game;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zomdroid.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Per-instance class data sharing archive. The first launch with a given set of game files and JRE
+ * is a training run that records the loaded classes, later launches map them from the archive
+ * instead of parsing and verifying them again.
+ * <p>
+ * JRE 21 uses a dynamic AppCDS archive, written by the JVM itself when the game exits.
+ * JRE 25 uses an AOT cache (JEP 483): the training run only records a configuration, the cache is
+ * then assembled by {@link com.zomdroid.AotCacheService} in a separate process, because the JVM
+ * exits as soon as it is done and can't be forked from here.
+ * <p>
+ * CDS can't archive classes loaded from a directory and refuses to dump at all if a non-empty one
+ * comes before an archived jar on the class path. The class path decides which of two copies of a
+ * class wins, so it is never reordered for the archive: this only kicks in when the game classes are
+ * in a jar and the class path as launched has its directories behind the jars. The class path is
+ * part of the archive key.
+ */
+public class ClassDataCache {
+    private static final String LOG_TAG = ClassDataCache.class.getName();
+    public static final String DIR_NAME = "cds";
+    private static final String KEY_FILE_NAME = "key.txt";
+    private static final String ATTEMPTS_FILE_NAME = "attempts.txt";
+    private static final String CDS_ARCHIVE_FILE_NAME = "app.jsa";
+    private static final String AOT_CONFIG_FILE_NAME = "app.aotconf";
+    private static final String AOT_CACHE_FILE_NAME = "app.aot";
+    public static final String AOT_CREATE_FILE_NAME = "aot_create.txt";
+    // training runs that end in a crash or a killed process don't write anything, give up after a few
+    private static final int MAX_ATTEMPTS = 3;
+
+    public enum Mode {
+        NONE,
+        CDS,
+        AOT
+    }
+
+    public enum State {
+        DISABLED,
+        TRAINING,
+        ASSEMBLY_PENDING,
+        READY
+    }
+
+    private final File dir;
+    private final Mode mode;
+    private final State state;
+    private final String reason;
+
+    private ClassDataCache(File dir, Mode mode, State state, String reason) {
+        this.dir = dir;
+        this.mode = mode;
+        this.state = state;
+        this.reason = reason;
+    }
+
+    /**
+     * Checks the archive of the instance against the current game files and JRE, stale files are
+     * deleted. Call once per launch, right before building the JVM args.
+     */
+    @NonNull
+    public static ClassDataCache open(@NonNull GameInstance gameInstance, @NonNull String javaHomePath) {
+        File dir = new File(gameInstance.getHomePath(), DIR_NAME);
+        if (!gameInstance.isClassDataCacheEnabled()) {
+            return new ClassDataCache(dir, Mode.NONE, State.DISABLED, "disabled for instance");
+        }
+
+        int javaVersion = readJavaFeatureVersion(javaHomePath);
+        Mode mode;
+        if (javaVersion >= 25) {
+            mode = Mode.AOT;
+        } else if (javaVersion >= 13) {
+            mode = Mode.CDS;
+            // a dynamic archive is layered on top of the JRE's default one
+            if (!new File(javaHomePath, "lib/server/classes.jsa").exists()) {
+                return new ClassDataCache(dir, Mode.NONE, State.DISABLED, "JRE has no base CDS archive");
+            }
+        } else {
+            return new ClassDataCache(dir, Mode.NONE, State.DISABLED, "unsupported java version " + javaVersion);
+        }
+
+        if (new File(gameInstance.getGamePath(), gameInstance.getMainClassName() + ".class").exists()) {
+            return new ClassDataCache(dir, Mode.NONE, State.DISABLED, "game classes are not in a jar");
+        }
+
+        String classPath = gameInstance.getClassPathString();
+        String blockingDir = findDirectoryBeforeJar(classPath, gameInstance.getGamePath());
+        if (blockingDir != null) {
+            return new ClassDataCache(dir, Mode.NONE, State.DISABLED,
+                    "directory " + blockingDir + " comes before jars on the class path");
+        }
+
+        String key = buildKey(gameInstance, classPath, javaHomePath, mode);
+        if (!key.equals(readString(new File(dir, KEY_FILE_NAME)))) {
+            if (dir.exists()) {
+                Log.i(LOG_TAG, "Game files or JRE changed, dropping class data archive of " + gameInstance.getName());
+                FileUtils.deleteDirectory(dir);
+            }
+            if (!dir.mkdirs() || !writeString(new File(dir, KEY_FILE_NAME), key)) {
+                return new ClassDataCache(dir, Mode.NONE, State.DISABLED, "failed to create " + dir);
+            }
+        }
+
+        File archive = new File(dir, mode == Mode.AOT ? AOT_CACHE_FILE_NAME : CDS_ARCHIVE_FILE_NAME);
+        if (archive.exists()) {
+            new File(dir, ATTEMPTS_FILE_NAME).delete();
+            return new ClassDataCache(dir, mode, State.READY, null);
+        }
+        if (readAttempts(dir) >= MAX_ATTEMPTS) {
+            return new ClassDataCache(dir, Mode.NONE, State.DISABLED, "no archive after " + MAX_ATTEMPTS + " attempts");
+        }
+        if (mode == Mode.AOT && new File(dir, AOT_CONFIG_FILE_NAME).exists()) {
+            return new ClassDataCache(dir, mode, State.ASSEMBLY_PENDING, null);
+        }
+        return new ClassDataCache(dir, mode, State.TRAINING, null);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Whether the JVM records or uses an archive on this launch.
+     */
+    public boolean isActive() {
+        return state == State.TRAINING || state == State.READY;
+    }
+
+    public List<String> getJvmArgs() {
+        List<String> args = new ArrayList<>();
+        if (state == State.READY) {
+            if (mode == Mode.CDS) {
+                args.add("-XX:SharedArchiveFile=" + new File(dir, CDS_ARCHIVE_FILE_NAME));
+            } else {
+                args.add("-XX:AOTCache=" + new File(dir, AOT_CACHE_FILE_NAME));
+            }
+        } else if (state == State.TRAINING) {
+            if (mode == Mode.CDS) {
+                args.add("-XX:ArchiveClassesAtExit=" + new File(dir, CDS_ARCHIVE_FILE_NAME));
+            } else {
+                args.add("-XX:AOTMode=record");
+                args.add("-XX:AOTConfiguration=" + new File(dir, AOT_CONFIG_FILE_NAME));
+            }
+        }
+        if (isActive() && mode == Mode.CDS) {
+            // never fail the launch over an archive that doesn't match, AOTCache already behaves so
+            args.add("-Xshare:auto");
+        }
+        return args;
+    }
+
+    /**
+     * Records that the game is about to start with the given args. For a JRE 25 training run this
+     * also saves what the assembly step needs to reproduce the class path.
+     */
+    public void onLaunch(@NonNull String gameDirPath, @NonNull String ldLibraryPath, @NonNull List<String> jvmArgs) {
+        if (state != State.TRAINING) {
+            Log.i(LOG_TAG, "Class data archive: " + mode + " " + state + (reason != null ? " (" + reason + ")" : ""));
+            return;
+        }
+        Log.i(LOG_TAG, "Class data archive: " + mode + " training run");
+        writeString(new File(dir, ATTEMPTS_FILE_NAME), String.valueOf(readAttempts(dir) + 1));
+        if (mode != Mode.AOT) return;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(gameDirPath).append('\n').append(ldLibraryPath).append('\n');
+        for (String arg : jvmArgs) {
+            // the assembly run must see the same class path and heap layout, but nothing that
+            // starts the game or attaches agents
+            if (arg.startsWith("-Djava.class.path=") || arg.startsWith("-Xmx") || arg.startsWith("-XX:+Use")
+                    || arg.startsWith("-XX:-Use")) {
+                sb.append(arg).append('\n');
+            }
+        }
+        sb.append("-XX:AOTMode=create\n");
+        sb.append("-XX:AOTConfiguration=").append(new File(dir, AOT_CONFIG_FILE_NAME)).append('\n');
+        sb.append("-XX:AOTCache=").append(new File(dir, AOT_CACHE_FILE_NAME)).append('\n');
+        writeString(new File(dir, AOT_CREATE_FILE_NAME), sb.toString());
+    }
+
+    /**
+     * Returns the directory of a JRE 25 training run that still needs its cache assembled, or null.
+     */
+    @Nullable
+    public static File findPendingAssembly(@NonNull GameInstance gameInstance) {
+        File dir = new File(gameInstance.getHomePath(), DIR_NAME);
+        if (!gameInstance.isClassDataCacheEnabled()
+                || !new File(dir, AOT_CONFIG_FILE_NAME).exists()
+                || !new File(dir, AOT_CREATE_FILE_NAME).exists()
+                || new File(dir, AOT_CACHE_FILE_NAME).exists()
+                || readAttempts(dir) >= MAX_ATTEMPTS) {
+            return null;
+        }
+        return dir;
+    }
+
+    /**
+     * Counts an assembly attempt, the assembly process only comes back on failure.
+     */
+    public static void markAssemblyAttempt(@NonNull File dir) {
+        writeString(new File(dir, ATTEMPTS_FILE_NAME), String.valueOf(readAttempts(dir) + 1));
+    }
+
+    /**
+     * Returns the first non-empty directory on the class path that has a jar after it, or null.
+     */
+    @Nullable
+    private static String findDirectoryBeforeJar(String classPath, String gameDirPath) {
+        String dir = null;
+        for (String entry : classPath.split(":")) {
+            // an empty entry is the working directory, the game directory
+            File file = entry.isEmpty() ? new File(gameDirPath)
+                    : entry.startsWith("/") ? new File(entry) : new File(gameDirPath, entry);
+            if (file.isDirectory()) {
+                String[] children = file.list();
+                if (dir == null && children != null && children.length > 0) dir = entry.isEmpty() ? "." : entry;
+            } else if (dir != null && file.exists()) {
+                return dir;
+            }
+        }
+        return null;
+    }
+
+    private static String buildKey(GameInstance gameInstance, String classPath, String javaHomePath, Mode mode) {
+        CRC32 crc = new CRC32();
+        StringBuilder sb = new StringBuilder();
+        sb.append(mode).append('\n');
+        // an archive only matches the class path order it was recorded with
+        sb.append(classPath).append('\n');
+        // the extracted JRE changes whenever its bundle is reinstalled
+        for (String path : new String[]{"release", "lib/modules", "lib/server/libjvm.so", "lib/server/classes.jsa"}) {
+            appendFileStamp(sb, new File(javaHomePath, path));
+        }
+        // directories are left out, nothing is archived from them and the game writes into its own
+        for (String entry : gameInstance.getClassPathArray()) {
+            File file = new File(gameInstance.getGamePath(), entry);
+            if (!file.isDirectory()) appendFileStamp(sb, file);
+        }
+        crc.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue()) + "-" + sb.length();
+    }
+
+    private static void appendFileStamp(StringBuilder sb, File file) {
+        sb.append(file.getName()).append(':').append(file.length()).append(':').append(file.lastModified()).append('\n');
+    }
+
+    private static int readJavaFeatureVersion(String javaHomePath) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(javaHomePath, "release")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("JAVA_VERSION=")) continue;
+                String version = line.substring("JAVA_VERSION=".length()).replace("\"", "");
+                int end = 0;
+                while (end < version.length() && Character.isDigit(version.charAt(end))) end++;
+                return end > 0 ? Integer.parseInt(version.substring(0, end)) : -1;
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(LOG_TAG, "Failed to read java version from " + javaHomePath, e);
+        }
+        return -1;
+    }
+
+    private static int readAttempts(File dir) {
+        try {
+            String value = readString(new File(dir, ATTEMPTS_FILE_NAME));
+            return value != null ? Integer.parseInt(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Nullable
+    private static String readString(File file) {
+        if (!file.exists()) return null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            return line != null ? line.trim() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean writeString(File file, String value) {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(value);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write " + file, e);
+            return false;
+        }
+    }
+}
@@ -8,11 +8,13 @@ import java.io.File;
 import java.nio.file.FileSystemException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.StringJoiner;
 
 public class GameInstance {
     private static final String INSTANCES_ROOT_DIR_NAME = "instances";
     public static final String GAME_FILES_DIR_NAME = "game";
+    public static final String REPACKED_CLASSES_JAR_NAME = "zomdroid-classes.jar";
 
     private String name;
     private String buildVersion;
@@ -28,6 +30,10 @@ public class GameInstance {
     private String mainClassName;
     private String javaAgentPath;
     private String javaAgentArgs;
+    private boolean disableJvmAutoTune = false;
+    private boolean disableClassDataCache = false;
+    private boolean classesRepacked = false;
+    private HashMap<String, String> box64Profiles; // library name -> profile name, built-in profile if missing
 
     public GameInstance(String name, InstallationPreset preset) throws FileSystemException {
         this.name = name;
@@ -92,7 +98,11 @@ public class GameInstance {
         return libsJoiner.toString();
     }
 
-    public ArrayList<String> getJvmArgsAsList() { 
+    public ArrayList<String> getJvmArgsAsList() {
+        return getJvmArgsAsList(null);
+    }
+
+    public ArrayList<String> getJvmArgsAsList(ClassDataCache classDataCache) {
         ArrayList<String> jvmArgsList = new ArrayList<>();
         jvmArgsList.add("-Duser.home=" + this.homePath);
         jvmArgsList.add("-Djava.io.tmpdir=" + AppStorage.requireSingleton().getCachePath());
@@ -102,11 +112,10 @@ public class GameInstance {
             jvmArgsList.add("-Dorg.lwjgl.util.Debug=true"); // debug
             jvmArgsList.add("-Dorg.lwjgl.util.DebugLoader=true"); // debug
         }
-        StringJoiner jarsJoiner = new StringJoiner(":");
-        for (String path : this.extraClassPath) {
-            jarsJoiner.add(AppStorage.requireSingleton().getHomePath() + "/" + path);
+        jvmArgsList.add("-Djava.class.path=" + getClassPathString());
+        if (classDataCache != null && classDataCache.isActive()) {
+            jvmArgsList.addAll(classDataCache.getJvmArgs());
         }
-        jvmArgsList.add("-Djava.class.path=" + String.join(":", this.classPath) + ":" + jarsJoiner);
 
         jvmArgsList.addAll(Arrays.asList(this.extraJvmArgs));
 
@@ -122,8 +131,28 @@ public class GameInstance {
         return jvmArgsList;
     }
 
+    /**
+     * The class path the game is launched with, game entries relative to the game directory followed
+     * by the extra jars.
+     */
+    public String getClassPathString() {
+        StringJoiner jarsJoiner = new StringJoiner(":");
+        for (String path : this.extraClassPath) {
+            jarsJoiner.add(AppStorage.requireSingleton().getHomePath() + "/" + path);
+        }
+        return String.join(":", getClassPathArray()) + ":" + jarsJoiner;
+    }
+
     public String[] getClassPathArray() {
-        return this.classPath;
+        if (!this.classesRepacked) return this.classPath;
+        // the repacked game classes take the place of the loose ones, right after "." so that loose
+        // classes written after the repack still shadow their stale copies in the jar
+        int dotIndex = Arrays.asList(this.classPath).indexOf(".");
+        String[] classPath = new String[this.classPath.length + 1];
+        System.arraycopy(this.classPath, 0, classPath, 0, dotIndex + 1);
+        classPath[dotIndex + 1] = REPACKED_CLASSES_JAR_NAME;
+        System.arraycopy(this.classPath, dotIndex + 1, classPath, dotIndex + 2, this.classPath.length - dotIndex - 1);
+        return classPath;
     }
 
     public ArrayList<String> getArgsAsList() {
@@ -155,6 +184,40 @@ public class GameInstance {
         this.installationFinished = true;
     }
 
+    public boolean isJvmAutoTuneEnabled() {
+        return !this.disableJvmAutoTune;
+    }
+
+    protected void setJvmAutoTuneEnabled(boolean enabled) {
+        this.disableJvmAutoTune = !enabled;
+    }
+
+    public boolean isClassesRepacked() {
+        return this.classesRepacked;
+    }
+
+    protected void markClassesRepacked() {
+        this.classesRepacked = true;
+    }
+
+    public boolean isClassDataCacheEnabled() {
+        return !this.disableClassDataCache;
+    }
+
+    protected void setClassDataCacheEnabled(boolean enabled) {
+        this.disableClassDataCache = !enabled;
+    }
+
+    public String getBox64Profile(String libName) {
+        return this.box64Profiles != null ? this.box64Profiles.get(libName) : null;
+    }
+
+    protected void setBox64Profile(String libName, String profileName) {
+        if (this.box64Profiles == null) this.box64Profiles = new HashMap<>();
+        if (profileName == null) this.box64Profiles.remove(libName);
+        else this.box64Profiles.put(libName, profileName);
+    }
+
     public boolean hasGameFiles() {
         // New fat-jar structure (42.12+)
         for (String cp : getClassPathArray()) {
@@ -164,6 +227,10 @@ public class GameInstance {
             }
         }
 
+        if (this.classesRepacked) {
+            return new File(getGamePath(), REPACKED_CLASSES_JAR_NAME).exists();
+        }
+
         // Old structure (41 / 42.6 - 42.11)
         File mainClassFile = new File(getGamePath() + "/" + getMainClassName() + ".class");
         return mainClassFile.exists();
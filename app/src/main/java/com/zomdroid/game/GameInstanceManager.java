@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
@@ -72,6 +73,26 @@ public class GameInstanceManager {
         saveToPreferences();
     }
 
+    public void markClassesRepacked(@NonNull GameInstance gameInstance) {
+        gameInstance.markClassesRepacked();
+        saveToPreferences();
+    }
+
+    public void setJvmAutoTuneEnabled(@NonNull GameInstance gameInstance, boolean enabled) {
+        gameInstance.setJvmAutoTuneEnabled(enabled);
+        saveToPreferences();
+    }
+
+    public void setClassDataCacheEnabled(@NonNull GameInstance gameInstance, boolean enabled) {
+        gameInstance.setClassDataCacheEnabled(enabled);
+        saveToPreferences();
+    }
+
+    public void setBox64Profile(@NonNull GameInstance gameInstance, @NonNull String libName, @Nullable String profileName) {
+        gameInstance.setBox64Profile(libName, profileName);
+        saveToPreferences();
+    }
+
     private void loadFromPreferences() {
         String json = this.sharedPreferences.getString(C.shprefs.keys.GAME_INSTANCES, null);
         if (json != null) {
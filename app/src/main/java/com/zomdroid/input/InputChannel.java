@@ -0,0 +1,224 @@
+package com.zomdroid.input;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.InputEvent;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Packs input events into a direct buffer that native code reads in place, so one Android input event,
+ * with all its pointers and the control elements they move, reaches the game's queue in a single JNI
+ * call. Batches are opened by {@link com.zomdroid.GameActivity} around input dispatch, events sent
+ * outside of one are flushed right away. The buffer belongs to the UI thread, events from other threads
+ * are posted there instead of taking a lock for every one.
+ * <p>
+ * Cursor position and joystick axes are state rather than events: only the latest values are kept and
+ * written once at the end of a batch, updates sent outside of one once per display frame from a
+ * {@link Choreographer} callback. Android delivers touch and mouse moves once per frame, so this only
+ * drops the updates the game would overwrite anyway. Holding them until the frame callback would make
+ * a game read between the input and the animation phase of a frame miss them. Key, button, dpad,
+ * scroll and char events go out immediately, with the pending state written before them so they apply
+ * where the cursor and sticks are at that moment. So do axes of physical gamepads, which Android
+ * doesn't batch per frame and would otherwise wait for the next one.
+ */
+public final class InputChannel {
+    /* Record layout, read by zomdroid_jni.c:
+     *   int type, int arg (key, button, axis, dpad or codepoint),
+     *   then at 8 either an int (pressed, dpad state), a float (axis state) or two doubles (x, y),
+     *   long event time at 24, CLOCK_MONOTONIC nanoseconds like System.nanoTime(). */
+    static final int RECORD_SIZE = 32;
+    private static final int CAPACITY = 256;
+
+    // same values as EventType in zomdroid_globals.h
+    static final int TYPE_KEYBOARD = 0;
+    static final int TYPE_CURSOR_POS = 1;
+    static final int TYPE_MOUSE_BUTTON = 2;
+    static final int TYPE_MOUSE_SCROLL = 3;
+    static final int TYPE_JOYSTICK_CONNECTED = 4;
+    static final int TYPE_JOYSTICK_AXIS = 6;
+    static final int TYPE_JOYSTICK_DPAD = 7;
+    static final int TYPE_JOYSTICK_BUTTON = 8;
+    static final int TYPE_CHAR_INPUT = 9;
+
+    private static final Thread UI_THREAD = Looper.getMainLooper().getThread();
+    private static final Handler UI_HANDLER = new Handler(Looper.getMainLooper());
+
+    // GLFW_GAMEPAD_AXIS_LEFT_X .. GLFW_GAMEPAD_AXIS_RIGHT_TRIGGER
+    private static final int AXIS_COUNT = 6;
+
+    private static final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * CAPACITY)
+            .order(ByteOrder.nativeOrder());
+    private static int count = 0;
+    private static int batchDepth = 0;
+    // time of the Android event being dispatched, 0 outside of a batch
+    private static long eventTimeNanos = 0;
+
+    private static boolean hasCursorPos = false;
+    private static double cursorX, cursorY;
+    private static long cursorTimeNanos;
+    private static int pendingAxes = 0;
+    private static final float[] axisStates = new float[AXIS_COUNT];
+    private static final long[] axisTimesNanos = new long[AXIS_COUNT];
+    private static boolean isFrameScheduled = false;
+    // updates that replaced a pending one
+    private static long mergedCount = 0;
+
+    private static final Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+        isFrameScheduled = false;
+        writePending();
+        if (batchDepth == 0) flush();
+    };
+
+    private InputChannel() {}
+
+    // both only on the UI thread, the events sent in between are tagged with the time of this one
+    public static void beginBatch(InputEvent event) {
+        if (batchDepth++ == 0) eventTimeNanos = getEventTimeNanos(event);
+    }
+
+    public static void endBatch() {
+        if (--batchDepth == 0) {
+            eventTimeNanos = 0;
+            writePending();
+            flush();
+        }
+    }
+
+    private static long getEventTimeNanos(InputEvent event) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            if (event instanceof MotionEvent) return ((MotionEvent) event).getEventTimeNanos();
+            if (event instanceof KeyEvent) return ((KeyEvent) event).getEventTimeNanos();
+        }
+        // same clock, millisecond precision
+        return event.getEventTime() * 1_000_000L;
+    }
+
+    private static long currentTimeNanos() {
+        return eventTimeNanos != 0 ? eventTimeNanos : System.nanoTime();
+    }
+
+    static void putInt(int type, int arg, int value) {
+        if (Thread.currentThread() != UI_THREAD) {
+            UI_HANDLER.post(() -> putInt(type, arg, value));
+            return;
+        }
+        writePending();
+        int offset = reserve();
+        buffer.putInt(offset, type);
+        buffer.putInt(offset + 4, arg);
+        buffer.putInt(offset + 8, value);
+        buffer.putLong(offset + 24, currentTimeNanos());
+        commit();
+    }
+
+    static void putFloat(int type, int arg, float value) {
+        if (Thread.currentThread() != UI_THREAD) {
+            UI_HANDLER.post(() -> putFloat(type, arg, value));
+            return;
+        }
+        writePending();
+        int offset = reserve();
+        buffer.putInt(offset, type);
+        buffer.putInt(offset + 4, arg);
+        buffer.putFloat(offset + 8, value);
+        buffer.putLong(offset + 24, currentTimeNanos());
+        commit();
+    }
+
+    static void putDoubles(int type, double x, double y) {
+        if (Thread.currentThread() != UI_THREAD) {
+            UI_HANDLER.post(() -> putDoubles(type, x, y));
+            return;
+        }
+        writePending();
+        writeDoubles(type, x, y, currentTimeNanos());
+        commit();
+    }
+
+    static void setCursorPos(double x, double y) {
+        if (Thread.currentThread() != UI_THREAD) {
+            UI_HANDLER.post(() -> setCursorPos(x, y));
+            return;
+        }
+        if (hasCursorPos) mergedCount++;
+        hasCursorPos = true;
+        cursorX = x;
+        cursorY = y;
+        cursorTimeNanos = currentTimeNanos();
+        scheduleFrame();
+    }
+
+    static void setAxis(int axis, float state) {
+        if (axis < 0 || axis >= AXIS_COUNT) {
+            putFloat(TYPE_JOYSTICK_AXIS, axis, state);
+            return;
+        }
+        if (Thread.currentThread() != UI_THREAD) {
+            UI_HANDLER.post(() -> setAxis(axis, state));
+            return;
+        }
+        if ((pendingAxes & (1 << axis)) != 0) mergedCount++;
+        pendingAxes |= 1 << axis;
+        axisStates[axis] = state;
+        axisTimesNanos[axis] = currentTimeNanos();
+        scheduleFrame();
+    }
+
+    public static long getMergedCount() {
+        return mergedCount;
+    }
+
+    private static void scheduleFrame() {
+        if (isFrameScheduled) return;
+        isFrameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    private static void writePending() {
+        if (hasCursorPos) {
+            hasCursorPos = false;
+            writeDoubles(TYPE_CURSOR_POS, cursorX, cursorY, cursorTimeNanos);
+            count++;
+        }
+        for (int axis = 0; pendingAxes != 0; axis++) {
+            if ((pendingAxes & (1 << axis)) == 0) continue;
+            pendingAxes &= ~(1 << axis);
+            int offset = reserve();
+            buffer.putInt(offset, TYPE_JOYSTICK_AXIS);
+            buffer.putInt(offset + 4, axis);
+            buffer.putFloat(offset + 8, axisStates[axis]);
+            buffer.putLong(offset + 24, axisTimesNanos[axis]);
+            count++;
+        }
+    }
+
+    private static void writeDoubles(int type, double x, double y, long timeNanos) {
+        int offset = reserve();
+        buffer.putInt(offset, type);
+        buffer.putDouble(offset + 8, x);
+        buffer.putDouble(offset + 16, y);
+        buffer.putLong(offset + 24, timeNanos);
+    }
+
+    private static int reserve() {
+        if (count == CAPACITY) flush();
+        return count * RECORD_SIZE;
+    }
+
+    private static void commit() {
+        count++;
+        if (batchDepth == 0) flush();
+    }
+
+    private static void flush() {
+        if (count == 0) return;
+        InputNativeInterface.flushEvents(buffer, count);
+        count = 0;
+    }
+}
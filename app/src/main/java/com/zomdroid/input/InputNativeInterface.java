@@ -1,13 +1,55 @@
 package com.zomdroid.input;
 
+import java.nio.ByteBuffer;
+
 public class InputNativeInterface {
-    public static native void sendKeyboard(int key, boolean isPressed);
-    public static native void sendCursorPos(double x, double y);
-    public static native void sendMouseButton(int button, boolean isPressed);
-    public static native void sendMouseScroll(double xoffset, double yoffset);
-    public static native void sendJoystickAxis(int axis, float state);
-    public static native void sendJoystickDpad(int dpad, char state);
-    public static native void sendJoystickButton(int button, boolean isPressed);
-    public static native void sendJoystickConnected();
-    public static native void sendChar(int codepoint);
-}
\ No newline at end of file
+    public static void sendKeyboard(int key, boolean isPressed) {
+        InputChannel.putInt(InputChannel.TYPE_KEYBOARD, key, isPressed ? 1 : 0);
+    }
+
+    public static void sendCursorPos(double x, double y) {
+        InputChannel.setCursorPos(x, y);
+    }
+
+    public static void sendMouseButton(int button, boolean isPressed) {
+        InputChannel.putInt(InputChannel.TYPE_MOUSE_BUTTON, button, isPressed ? 1 : 0);
+    }
+
+    public static void sendMouseScroll(double xoffset, double yoffset) {
+        InputChannel.putDoubles(InputChannel.TYPE_MOUSE_SCROLL, xoffset, yoffset);
+    }
+
+    public static void sendJoystickAxis(int axis, float state) {
+        InputChannel.setAxis(axis, state);
+    }
+
+    // not held for the next frame, for gamepads and triggers bound to buttons
+    public static void sendJoystickAxisNow(int axis, float state) {
+        InputChannel.putFloat(InputChannel.TYPE_JOYSTICK_AXIS, axis, state);
+    }
+
+    public static void sendJoystickDpad(int dpad, char state) {
+        InputChannel.putInt(InputChannel.TYPE_JOYSTICK_DPAD, dpad, state);
+    }
+
+    public static void sendJoystickButton(int button, boolean isPressed) {
+        InputChannel.putInt(InputChannel.TYPE_JOYSTICK_BUTTON, button, isPressed ? 1 : 0);
+    }
+
+    public static void sendJoystickConnected() {
+        InputChannel.putInt(InputChannel.TYPE_JOYSTICK_CONNECTED, 0, 0);
+    }
+
+    public static void sendChar(int codepoint) {
+        InputChannel.putInt(InputChannel.TYPE_CHAR_INPUT, codepoint, 0);
+    }
+
+    // count records of InputChannel's layout at the start of the direct buffer
+    static native void flushEvents(ByteBuffer buffer, int count);
+    // events that reached the game's queue, merged into a pending one, dropped
+    public static native long[] getEventQueueStats();
+    // count, p50, p95 and p99 in microseconds for each stage of input_latency.h, null unless ZOMDROID_INPUT_LATENCY=1
+    public static native long[] getInputLatency();
+    // writes INPUT_LATENCY_FILE_NAME to the home directory, no-op unless ZOMDROID_INPUT_LATENCY=1
+    public static native void dumpInputLatency();
+}
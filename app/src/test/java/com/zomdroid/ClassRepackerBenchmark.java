@@ -0,0 +1,152 @@
+package com.zomdroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads every class of a synthetic game directory once from loose .class files and once from the
+ * jar {@link ClassRepacker} writes, with the class path order of a repacked instance: the game
+ * directory first, then the jar. The jar in front of the directory is measured too, for what the
+ * failed lookup in the directory costs. Each round uses a fresh class loader, the files stay in the page
+ * cache, so this compares the per class file system work and not the storage. Prints the best and
+ * the median round, run with
+ * <pre>
+ *   ./gradlew testDebugUnitTest --tests com.zomdroid.ClassRepackerBenchmark -i
+ * </pre>
+ * The size of the tree can be set with -Dzomdroid.bench.classes, default is about the number of
+ * loose classes of a 42.13 install.
+ */
+public class ClassRepackerBenchmark {
+    private static final int CLASS_COUNT = Integer.getInteger("zomdroid.bench.classes", 12000);
+    private static final int CLASSES_PER_PACKAGE = 150;
+    private static final int ROUNDS = 7;
+
+    private File gameDir;
+    private final List<String> classNames = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        gameDir = Files.createTempDirectory("zomdroid-repack-bench").toFile();
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            String name = "zombie/bench/p" + (i / CLASSES_PER_PACKAGE) + "/C" + i;
+            File file = new File(gameDir, name + ".class");
+            file.getParentFile().mkdirs();
+            try (OutputStream os = new FileOutputStream(file)) {
+                os.write(buildClassFile(name));
+            }
+            classNames.add(name.replace('/', '.'));
+        }
+        // resources next to the classes, like the game's media directory
+        File media = new File(gameDir, "media/lua");
+        media.mkdirs();
+        Files.write(new File(media, "main.lua").toPath(), "-- lua\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDirectory(gameDir);
+    }
+
+    @Test
+    public void looseVersusRepacked() throws Exception {
+        URL[] looseClassPath = {gameDir.toURI().toURL()};
+        // let the JIT compile the class loader first, or whatever is measured first looks slow
+        measure(looseClassPath);
+        long[] loose = measure(looseClassPath);
+
+        List<File> repacked = new ClassRepacker(gameDir, (message, progress, max) -> {
+        }).repack();
+        assertEquals(CLASS_COUNT, repacked.size());
+        ClassRepacker.deleteLooseClasses(gameDir, repacked);
+        File jar = new File(gameDir, com.zomdroid.game.GameInstance.REPACKED_CLASSES_JAR_NAME);
+        URL[] repackedClassPath = {gameDir.toURI().toURL(), jar.toURI().toURL()};
+        long[] fromJar = measure(repackedClassPath);
+        long[] jarFirst = measure(new URL[]{jar.toURI().toURL(), gameDir.toURI().toURL()});
+
+        System.out.println(CLASS_COUNT + " classes, " + ROUNDS + " rounds, best / median");
+        System.out.println(String.format("  loose files:    %7.1f / %7.1f ms, %5.1f us/class",
+                loose[0] / 1e6, loose[ROUNDS / 2] / 1e6, loose[ROUNDS / 2] / 1e3 / CLASS_COUNT));
+        System.out.println(String.format("  repacked jar:   %7.1f / %7.1f ms, %5.1f us/class",
+                fromJar[0] / 1e6, fromJar[ROUNDS / 2] / 1e6, fromJar[ROUNDS / 2] / 1e3 / CLASS_COUNT));
+        System.out.println(String.format("  jar before dir: %7.1f / %7.1f ms, %5.1f us/class",
+                jarFirst[0] / 1e6, jarFirst[ROUNDS / 2] / 1e6, jarFirst[ROUNDS / 2] / 1e3 / CLASS_COUNT));
+    }
+
+    @Test
+    public void looseClassWrittenAfterRepackWins() throws Exception {
+        List<File> repacked = new ClassRepacker(gameDir, (message, progress, max) -> {
+        }).repack();
+        ClassRepacker.deleteLooseClasses(gameDir, repacked);
+        String name = classNames.get(0).replace('.', '/') + ".class";
+        File loose = new File(gameDir, name);
+        loose.getParentFile().mkdirs();
+        Files.write(loose.toPath(), buildClassFile(classNames.get(0).replace('.', '/')));
+
+        File jar = new File(gameDir, com.zomdroid.game.GameInstance.REPACKED_CLASSES_JAR_NAME);
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{gameDir.toURI().toURL(), jar.toURI().toURL()}, null)) {
+            URL url = loader.getResource(name);
+            assertTrue("loaded from " + url, url != null && url.getProtocol().equals("file"));
+        }
+    }
+
+    /** Time of each round in ns, sorted. */
+    private long[] measure(URL[] classPath) throws Exception {
+        long[] times = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            try (URLClassLoader loader = new URLClassLoader(classPath, null)) {
+                long start = System.nanoTime();
+                for (String name : classNames) {
+                    Class<?> clazz = Class.forName(name, false, loader);
+                    if (clazz.getClassLoader() != loader) throw new AssertionError(name + " not from the game directory");
+                }
+                times[round] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    /** The smallest valid class file: public class name extends Object, nothing in it. */
+    private static byte[] buildClassFile(String internalName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor
+        out.writeShort(52); // Java 8
+        out.writeShort(5); // constant pool count, entries 1-4
+        out.writeByte(7); // #1 Class #2
+        out.writeShort(2);
+        out.writeByte(1); // #2 Utf8
+        out.writeUTF(internalName);
+        out.writeByte(7); // #3 Class #4
+        out.writeShort(4);
+        out.writeByte(1); // #4 Utf8
+        out.writeUTF("java/lang/Object");
+        out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(1); // this
+        out.writeShort(3); // super
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(0); // methods
+        out.writeShort(0); // attributes
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,121 @@
+package com.zomdroid;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Game output at a steady rate, once through a BufferedWriter flushed after every line, like
+ * CrashHandler wrote the log before {@link LogSink}, and once through {@link LogSink}. Counts the
+ * write() calls that reach the file and the time the producing thread spends per line. Run with
+ * <pre>
+ *   ./gradlew testDebugUnitTest --tests com.zomdroid.LogSinkBenchmark -i
+ * </pre>
+ * Rate and duration can be set with -Dzomdroid.bench.linesPerSecond and -Dzomdroid.bench.seconds.
+ * Frame times depend on the device's storage and scheduler, they have to be measured on one.
+ */
+public class LogSinkBenchmark {
+    private static final int LINES_PER_SECOND = Integer.getInteger("zomdroid.bench.linesPerSecond", 2000);
+    private static final int SECONDS = Integer.getInteger("zomdroid.bench.seconds", 3);
+
+    private File dir;
+    private String[] lines;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("zomdroid-log-bench").toFile();
+        // typical game output, a timestamp and about a hundred characters
+        lines = new String[LINES_PER_SECOND * SECONDS];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "LOG  : General     f:" + i + ", t:" + (1700000000000L + i)
+                    + "> IsoChunk.load> loaded chunk " + (i % 300) + "," + (i % 200) + " in 3 ms";
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void flushPerLineVersusLogSink() throws Exception {
+        CountingOutputStream counting = new CountingOutputStream(new File(dir, "flushed.txt"));
+        long[] flushedNs;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(counting, StandardCharsets.UTF_8))) {
+            flushedNs = produce(line -> {
+                writer.write(line);
+                writer.write('\n');
+                writer.flush();
+            });
+        }
+
+        LogSink sink = new LogSink(new File(dir, "sink.txt"));
+        long[] sinkNs = produce(sink::append);
+        sink.close();
+        long sinkWrites = sink.getWriteCount();
+
+        System.out.println(lines.length + " lines at " + LINES_PER_SECOND + " lines/s, median / 99th percentile");
+        System.out.println(String.format("  flush per line: %6d write()s, %7.1f/s, %6d / %6d ns per line on the producer",
+                counting.writes, counting.writes / (double) SECONDS, flushedNs[lines.length / 2],
+                flushedNs[lines.length * 99 / 100]));
+        System.out.println(String.format("  log sink:       %6d write()s, %7.1f/s, %6d / %6d ns per line on the producer",
+                sinkWrites, sinkWrites / (double) SECONDS, sinkNs[lines.length / 2], sinkNs[lines.length * 99 / 100]));
+        assertTrue("log sink made " + sinkWrites + " writes", sinkWrites < counting.writes);
+    }
+
+    private interface LineConsumer {
+        void accept(String line) throws IOException;
+    }
+
+    /** Hands out the lines at the set rate, returns the time spent inside the consumer per line in ns, sorted. */
+    private long[] produce(LineConsumer consumer) throws IOException {
+        long intervalNs = 1000000000L / LINES_PER_SECOND;
+        long start = System.nanoTime();
+        long[] busy = new long[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            long due = start + i * intervalNs;
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            consumer.accept(lines[i]);
+            busy[i] = System.nanoTime() - now;
+        }
+        Arrays.sort(busy);
+        return busy;
+    }
+
+    /** Every write() here is one write(2) on the file, FileOutputStream doesn't buffer. */
+    private static class CountingOutputStream extends FileOutputStream {
+        long writes;
+
+        CountingOutputStream(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writes++;
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            super.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.zomdroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+public class LogSinkTest {
+    private static final String DROPPED_PREFIX = "[zomdroid] log sink queue overflow, dropped ";
+    private static final long TIMEOUT_MS = 30000;
+
+    private File dir;
+    private File logFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("zomdroid-log-sink").toFile();
+        logFile = new File(dir, "log.txt");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * About 20 MB of lines queued at once, so the background writer crosses the 8 MiB cap more than
+     * once while segments are still being compressed. Every line has to end up in the active file or
+     * a segment, or be counted as dropped.
+     */
+    @Test
+    public void rotationKeepsEveryLine() throws Exception {
+        int count = 18000;
+        String padding = new String(new char[1100]).replace('\0', 'x');
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) lines[i] = "line " + i + " " + padding;
+
+        LogSink sink = new LogSink(logFile);
+        for (String line : lines) sink.append(line);
+        waitForWriter(sink);
+        sink.flushSync();
+        sink.close();
+
+        boolean[] seen = new boolean[count];
+        long dropped = 0;
+        dropped += readLines(new FileInputStream(logFile), seen);
+        for (int i = 1; i <= LogSink.MAX_ROTATED_SEGMENTS; i++) {
+            File segment = LogSink.getRotatedSegment(logFile, i);
+            if (segment.exists()) dropped += readLines(new GZIPInputStream(new FileInputStream(segment)), seen);
+        }
+        int found = 0;
+        for (boolean s : seen) if (s) found++;
+        assertEquals("lines found plus lines dropped", count, found + dropped);
+    }
+
+    @Test
+    public void deleteRotatedSegmentsRemovesPendingSegment() throws IOException {
+        File pending = new File(dir, "log.txt.rotating");
+        Files.write(pending.toPath(), "old session\n".getBytes(StandardCharsets.UTF_8));
+        LogSink.deleteRotatedSegments(logFile);
+        assertFalse(pending.exists());
+    }
+
+    /** Waits until the queue is written out and no segment is waiting for compression. */
+    private void waitForWriter(LogSink sink) throws InterruptedException {
+        File pending = new File(dir, "log.txt.rotating");
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        long lastWrites = -1;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(1500);
+            long writes = sink.getWriteCount();
+            if (writes == lastWrites && !pending.exists()) return;
+            lastWrites = writes;
+        }
+    }
+
+    /** Marks the lines found, returns the number of lines the sink reported as dropped. */
+    private static long readLines(InputStream in, boolean[] seen) throws IOException {
+        long dropped = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(DROPPED_PREFIX)) {
+                    dropped += Long.parseLong(line.substring(DROPPED_PREFIX.length(), line.indexOf(' ', DROPPED_PREFIX.length())));
+                } else if (line.startsWith("line ")) {
+                    seen[Integer.parseInt(line.substring(5, line.indexOf(' ', 5)))] = true;
+                }
+            }
+        }
+        return dropped;
+    }
+}